@@ -49,6 +49,7 @@ import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.MetricsLogger;
+import com.android.bluetooth.btservice.ProfileConnectionRegistry;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -221,6 +222,10 @@ public class A2dpService extends ProfileService {
             }
             mStateMachines.clear();
         }
+        ProfileConnectionRegistry registry = ProfileConnectionRegistry.getInstance();
+        if (registry != null) {
+            registry.clearProfile(BluetoothProfile.A2DP);
+        }
 
         if (mStateMachinesThread != null) {
             try {
@@ -427,30 +432,11 @@ public class A2dpService extends ProfileService {
         if (states == null) {
             return devices;
         }
-        final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
-        if (bondedDevices == null) {
-            return devices;
-        }
-        synchronized (mStateMachines) {
-            for (BluetoothDevice device : bondedDevices) {
-                if (!Utils.arrayContains(mAdapterService.getRemoteUuids(device),
-                                                 BluetoothUuid.A2DP_SINK)) {
-                    continue;
-                }
-                int connectionState = BluetoothProfile.STATE_DISCONNECTED;
-                A2dpStateMachine sm = mStateMachines.get(device);
-                if (sm != null) {
-                    connectionState = sm.getConnectionState();
-                }
-                for (int state : states) {
-                    if (connectionState == state) {
-                        devices.add(device);
-                        break;
-                    }
-                }
-            }
-            return devices;
-        }
+        return ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(
+                BluetoothProfile.A2DP, mAdapterService.getBondedDevices(), states,
+                device -> Utils.arrayContains(mAdapterService.getRemoteUuids(device),
+                        BluetoothUuid.A2DP_SINK),
+                this::getConnectionState);
     }
 
     /**
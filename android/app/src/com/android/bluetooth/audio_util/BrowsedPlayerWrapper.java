@@ -100,6 +100,10 @@ class BrowsedPlayerWrapper {
                 }
             };
 
+    // Bumped every time the UIDs of the browsed items change, so that folders loaded for the old
+    // UIDs aren't cached
+    private int mUidCounter = 0;
+
     // TODO (apanicke): Investigate if there is a way to create this just by passing in the
     // MediaBrowser. Right now there is no obvious way to create the browser then update the
     // connection callback without being forced to re-create the object every time.
@@ -254,6 +258,7 @@ class BrowsedPlayerWrapper {
             Log.i(TAG, "getFolderItems: Connected to browsable player: " + mPackageName);
             if (status != STATUS_SUCCESS) {
                 cb.run(status, "", new ArrayList<ListItem>());
+                return;
             }
             getFolderItemsInternal(mediaId, cb);
         });
@@ -265,6 +270,17 @@ class BrowsedPlayerWrapper {
         return true;
     }
 
+    /**
+     * Drop all cached folder contents because the UIDs of the browsed items have changed
+     */
+    void onUidsChanged() {
+        synchronized (mCachedFolders) {
+            mUidCounter++;
+            mCachedFolders.clear();
+        }
+        Log.i(TAG, "onUidsChanged: Folder cache cleared for " + mPackageName);
+    }
+
     class MediaConnectionCallback extends MediaBrowser.ConnectionCallback {
         @Override
         public void onConnected() {
@@ -408,9 +424,13 @@ class BrowsedPlayerWrapper {
         BrowseCallback mBrowseCallback = null;
         private Looper mLooper = null;
         private TimeoutHandler mTimeoutHandler = null;
+        private final int mSubscribedUidCounter;
 
         BrowserSubscriptionCallback(BrowseCallback cb, Looper looper, String mediaId) {
             mBrowseCallback = cb;
+            synchronized (mCachedFolders) {
+                mSubscribedUidCounter = mUidCounter;
+            }
             mLooper = looper;
             mTimeoutHandler = new TimeoutHandler(mLooper, cb, mediaId);
             mTimeoutHandler.sendEmptyMessageDelayed(TimeoutHandler.MSG_TIMEOUT,
@@ -431,6 +451,7 @@ class BrowsedPlayerWrapper {
             if (mBrowseCallback == null) {
                 Log.w(TAG, "onChildrenLoaded: " + mPackageName
                         + " children loaded while callback is null");
+                return;
             }
 
             // TODO (apanicke): Instead of always unsubscribing, only unsubscribe from folders
@@ -464,7 +485,11 @@ class BrowsedPlayerWrapper {
                 }
             }
 
-            mCachedFolders.put(parentId, return_list);
+            synchronized (mCachedFolders) {
+                if (mSubscribedUidCounter == mUidCounter) {
+                    mCachedFolders.put(parentId, return_list);
+                }
+            }
             mTimeoutHandler.removeMessages(TimeoutHandler.MSG_TIMEOUT);
 
             // Clone the list so that the callee can mutate it without affecting the cached data
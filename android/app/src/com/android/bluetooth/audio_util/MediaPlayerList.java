@@ -657,6 +657,13 @@ public class MediaPlayerList {
     private void sendFolderUpdate(boolean availablePlayers, boolean addressedPlayers,
             boolean uids) {
         d("sendFolderUpdate");
+        if (uids) {
+            // Anything cached from the browsed players refers to UIDs that are no longer valid
+            for (BrowsedPlayerWrapper wrapper : mBrowsablePlayers.values()) {
+                wrapper.onUidsChanged();
+            }
+        }
+
         if (mCallback == null) {
             return;
         }
@@ -24,6 +24,7 @@ import android.media.session.PlaybackState;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
@@ -54,6 +55,14 @@ public class MediaPlayerWrapper {
     private final BTAudioEventLogger mPlaybackStateChangeEventLogger;
 
     private MediaData mCurrentData;
+    private final QueueConverter mQueueConverter;
+
+    // Position and queue only changes are sent at most once per this interval. Changes that arrive
+    // sooner are merged into a single update sent at the end of the interval.
+    private static final long COALESCE_INTERVAL_MS = 500;
+    private long mLastUpdateTime = 0;
+    private int mUpdatesSent = 0;
+    private int mUpdatesCoalesced = 0;
 
     @GuardedBy("mCallbackLock")
     private MediaControllerListener mControllerCallbacks = null;
@@ -90,9 +99,10 @@ public class MediaPlayerWrapper {
         mLooper = looper;
         mPlaybackStateChangeEventLogger = new BTAudioEventLogger(
                 PLAYBACK_STATE_CHANGE_EVENT_LOGGER_SIZE, PLAYBACK_STATE_CHANGE_LOGGER_EVENT_TITLE);
+        mQueueConverter = new QueueConverter(context);
 
         mCurrentData = new MediaData(null, null, null);
-        mCurrentData.queue = Util.toMetadataList(mContext, getQueue());
+        mCurrentData.queue = mQueueConverter.convert(getQueue());
         mCurrentData.metadata = Util.toMetadata(mContext, getMetadata());
         mCurrentData.state = getPlaybackState();
     }
@@ -286,7 +296,7 @@ public class MediaPlayerWrapper {
         mCurrentData = new MediaData(
                 Util.toMetadata(mContext, getMetadata()),
                 getPlaybackState(),
-                Util.toMetadataList(mContext, getQueue()));
+                mQueueConverter.convert(getQueue()));
 
         mControllerCallbacks = new MediaControllerListener(mMediaController, mLooper);
     }
@@ -323,7 +333,7 @@ public class MediaPlayerWrapper {
         mCurrentData = new MediaData(
                 Util.toMetadata(mContext, getMetadata()),
                 getPlaybackState(),
-                Util.toMetadataList(mContext, getQueue()));
+                mQueueConverter.convert(getQueue()));
 
         mControllerCallbacks = new MediaControllerListener(mMediaController, mLooper);
         d("Controller for " + mPackageName + " was updated.");
@@ -333,15 +343,22 @@ public class MediaPlayerWrapper {
         MediaData newData = new MediaData(
                 Util.toMetadata(mContext, getMetadata()),
                 getPlaybackState(),
-                Util.toMetadataList(mContext, getQueue()));
+                mQueueConverter.convert(getQueue()));
 
-        if (newData.equals(mCurrentData)) {
+        MediaDataDiff diff = MediaDataDiff.between(mCurrentData, newData);
+        if (!diff.hasChanges()) {
             // This may happen if the controller is fully synced by the time the
             // first update is completed
             Log.v(TAG, "Trying to update with last sent metadata");
             return;
         }
 
+        if (diff.isCoalescable() && deferMediaUpdate()) {
+            d("sendMediaUpdate(): Coalescing update " + diff);
+            return;
+        }
+        if (mControllerCallbacks != null) mControllerCallbacks.cancelCoalescedUpdate();
+
         synchronized (mCallbackLock) {
             if (mRegisteredCallback == null) {
                 Log.e(TAG, mPackageName
@@ -349,15 +366,34 @@ public class MediaPlayerWrapper {
                 return;
             }
 
-            Log.v(TAG, "trySendMediaUpdate(): Metadata has been updated for " + mPackageName);
+            Log.v(TAG, "trySendMediaUpdate(): Metadata has been updated for " + mPackageName
+                    + ", " + diff);
             mRegisteredCallback.mediaUpdatedCallback(newData);
         }
 
         mCurrentData = newData;
+        mLastUpdateTime = SystemClock.uptimeMillis();
+        mUpdatesSent++;
+    }
+
+    /**
+     * Hold back an update if the last one was sent less than COALESCE_INTERVAL_MS ago. A single
+     * update carrying the latest data is scheduled for the end of the interval.
+     *
+     * @return True if the update was deferred, False if it should be sent now
+     */
+    private boolean deferMediaUpdate() {
+        if (mControllerCallbacks == null) return false;
+        long updateTime = mLastUpdateTime + COALESCE_INTERVAL_MS;
+        if (mLastUpdateTime == 0 || SystemClock.uptimeMillis() >= updateTime) return false;
+        if (!mControllerCallbacks.scheduleCoalescedUpdate(updateTime)) return false;
+        mUpdatesCoalesced++;
+        return true;
     }
 
     class TimeoutHandler extends Handler {
         private static final int MSG_TIMEOUT = 0;
+        private static final int MSG_COALESCED_UPDATE = 1;
         private static final long CALLBACK_TIMEOUT_MS = 2000;
 
         TimeoutHandler(Looper looper) {
@@ -366,6 +402,12 @@ public class MediaPlayerWrapper {
 
         @Override
         public void handleMessage(Message msg) {
+            if (msg.what == MSG_COALESCED_UPDATE) {
+                MediaControllerListener callbacks = mControllerCallbacks;
+                if (callbacks != null) callbacks.trySendMediaUpdate();
+                return;
+            }
+
             if (msg.what != MSG_TIMEOUT) {
                 Log.wtf(TAG, "Unknown message on timeout handler: " + msg.what);
                 return;
@@ -374,7 +416,7 @@ public class MediaPlayerWrapper {
             Log.e(TAG, "Timeout while waiting for metadata to sync for " + mPackageName);
             Log.e(TAG, "  └ Current Metadata: " +  Util.toMetadata(mContext, getMetadata()));
             Log.e(TAG, "  └ Current Playstate: " + getPlaybackState());
-            List<Metadata> current_queue = Util.toMetadataList(mContext, getQueue());
+            List<Metadata> current_queue = mQueueConverter.convert(getQueue());
             for (int i = 0; i < current_queue.size(); i++) {
                 Log.e(TAG, "  └ QueueItem(" + i + "): " + current_queue.get(i));
             }
@@ -408,10 +450,29 @@ public class MediaPlayerWrapper {
                 mController.unregisterCallback(this);
                 mController = null;
                 mTimeoutHandler.removeMessages(TimeoutHandler.MSG_TIMEOUT);
+                mTimeoutHandler.removeMessages(TimeoutHandler.MSG_COALESCED_UPDATE);
                 mTimeoutHandler = null;
             }
         }
 
+        boolean scheduleCoalescedUpdate(long uptimeMillis) {
+            synchronized (mTimeoutHandlerLock) {
+                if (mTimeoutHandler == null) return false;
+                if (!mTimeoutHandler.hasMessages(TimeoutHandler.MSG_COALESCED_UPDATE)) {
+                    mTimeoutHandler.sendEmptyMessageAtTime(
+                            TimeoutHandler.MSG_COALESCED_UPDATE, uptimeMillis);
+                }
+                return true;
+            }
+        }
+
+        void cancelCoalescedUpdate() {
+            synchronized (mTimeoutHandlerLock) {
+                if (mTimeoutHandler == null) return;
+                mTimeoutHandler.removeMessages(TimeoutHandler.MSG_COALESCED_UPDATE);
+            }
+        }
+
         void trySendMediaUpdate() {
             synchronized (mTimeoutHandlerLock) {
                 if (mTimeoutHandler == null) return;
@@ -512,7 +573,7 @@ public class MediaPlayerWrapper {
                 e("The callback queue isn't the current queue");
             }
 
-            List<Metadata> current_queue = Util.toMetadataList(mContext, queue);
+            List<Metadata> current_queue = mQueueConverter.convert(queue);
             if (current_queue.equals(mCurrentData.queue)) {
                 Log.w(TAG, "onQueueChanged(): " + mPackageName
                         + " tried to update with no new data");
@@ -587,10 +648,11 @@ public class MediaPlayerWrapper {
         sb.append("Current Data:\n");
         sb.append("  Song: " + mCurrentData.metadata + "\n");
         sb.append("  PlayState: " + mCurrentData.state + "\n");
-        sb.append("  Queue: size=" + mCurrentData.queue.size() + "\n");
+        sb.append("  Queue: size=" + mCurrentData.queue.size() + ", " + mQueueConverter + "\n");
         for (Metadata data : mCurrentData.queue) {
             sb.append("    " + data + "\n");
         }
+        sb.append("Updates sent: " + mUpdatesSent + ", coalesced: " + mUpdatesCoalesced + "\n");
         mPlaybackStateChangeEventLogger.dump(sb);
         return sb.toString();
     }
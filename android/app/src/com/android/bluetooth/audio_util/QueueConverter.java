@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.audio_util;
+
+import android.content.Context;
+import android.media.MediaDescription;
+import android.media.session.MediaSession;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Converts a now playing queue to a list of Metadata the same way Util.toMetadataList() does,
+ * but only converts the queue items that changed since the previous conversion.
+ *
+ * Players tend to resend their whole queue when a single item is added, removed or moved. Items
+ * are matched to the previous conversion by their queue ID, and an item is reused if its
+ * MediaDescription still carries the same data.
+ */
+class QueueConverter {
+    private static final String TAG = "AudioQueueConverter";
+    private static final boolean DEBUG = false;
+
+    private static class ConvertedItem {
+        final MediaDescription mDescription;
+        final Metadata mMetadata;
+
+        ConvertedItem(MediaDescription description, Metadata metadata) {
+            mDescription = description;
+            mMetadata = metadata;
+        }
+    }
+
+    private final Context mContext;
+    private Map<Long, ConvertedItem> mItems = new HashMap<>();
+
+    private long mItemsConverted = 0;
+    private long mItemsReused = 0;
+
+    QueueConverter(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Translate a list of MediaSession.QueueItem to a list of Metadata. The result is identical to
+     * the result of Util.toMetadataList() for the same queue.
+     */
+    synchronized List<Metadata> convert(List<MediaSession.QueueItem> queue) {
+        ArrayList<Metadata> list = new ArrayList<Metadata>();
+        if (queue == null) {
+            mItems.clear();
+            return list;
+        }
+
+        Map<Long, ConvertedItem> items = new HashMap<>();
+        for (int i = 0; i < queue.size(); i++) {
+            MediaSession.QueueItem item = queue.get(i);
+            ConvertedItem converted = item != null ? mItems.get(item.getQueueId()) : null;
+            if (converted != null
+                    && descriptionEquals(converted.mDescription, item.getDescription())) {
+                mItemsReused++;
+            } else {
+                Metadata data = Util.toMetadata(mContext, item);
+                if (Util.isEmptyData(data)) {
+                    Log.e(TAG, "Received an empty Metadata item in list. Returning an empty queue");
+                    mItems = items;
+                    return new ArrayList<Metadata>();
+                }
+                converted = new ConvertedItem(
+                        item != null ? item.getDescription() : null, data);
+                mItemsConverted++;
+            }
+            if (item != null) items.put(item.getQueueId(), converted);
+
+            // The cached item is shared between conversions so it has to be copied before being
+            // numbered for its position in this queue
+            Metadata data = converted.mMetadata.clone();
+            data.trackNum = "" + (i + 1);
+            data.numTracks = "" + queue.size();
+            list.add(data);
+        }
+        mItems = items;
+
+        if (DEBUG) Log.d(TAG, "convert: size=" + queue.size() + ", " + this);
+        return list;
+    }
+
+    /**
+     * Forget all previously converted items
+     */
+    synchronized void clear() {
+        mItems.clear();
+    }
+
+    private static boolean descriptionEquals(MediaDescription a, MediaDescription b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+
+        if (!TextUtils.equals(a.getTitle(), b.getTitle())
+                || !TextUtils.equals(a.getSubtitle(), b.getSubtitle())
+                || !TextUtils.equals(a.getDescription(), b.getDescription())
+                || !Objects.equals(a.getMediaId(), b.getMediaId())
+                || !Objects.equals(a.getIconUri(), b.getIconUri())) {
+            return false;
+        }
+
+        if (a.getIconBitmap() != b.getIconBitmap()) {
+            if (a.getIconBitmap() == null || b.getIconBitmap() == null
+                    || !a.getIconBitmap().sameAs(b.getIconBitmap())) {
+                return false;
+            }
+        }
+
+        return extrasEquals(a.getExtras(), b.getExtras());
+    }
+
+    private static boolean extrasEquals(Bundle a, Bundle b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (String key : a.keySet()) {
+            if (!Objects.equals(a.get(key), b.get(key))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "cached=" + mItems.size() + ", converted=" + mItemsConverted
+                + ", reused=" + mItemsReused;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.audio_util;
+
+import android.media.session.PlaybackState;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Helper class describing which parts of a MediaData changed between two updates
+ */
+public class MediaDataDiff {
+    public final boolean metadata;
+    public final boolean state;
+    public final boolean queue;
+
+    // True if the only change to the playback state is its position
+    public final boolean positionOnly;
+
+    // The number of queue positions whose item changed, including added and removed items
+    public final int queueItemsChanged;
+
+    private MediaDataDiff(boolean metadata, boolean state, boolean positionOnly,
+            int queueItemsChanged) {
+        this.metadata = metadata;
+        this.state = state;
+        this.positionOnly = positionOnly;
+        this.queue = queueItemsChanged > 0;
+        this.queueItemsChanged = queueItemsChanged;
+    }
+
+    /**
+     * Compute what changed going from the old MediaData to the new one. A null old MediaData is
+     * treated as having no data at all.
+     */
+    public static MediaDataDiff between(MediaData oldData, MediaData newData) {
+        Metadata oldMetadata = oldData != null ? oldData.metadata : null;
+        PlaybackState oldState = oldData != null ? oldData.state : null;
+        List<Metadata> oldQueue = oldData != null ? oldData.queue : null;
+        Metadata newMetadata = newData != null ? newData.metadata : null;
+        PlaybackState newState = newData != null ? newData.state : null;
+        List<Metadata> newQueue = newData != null ? newData.queue : null;
+
+        boolean state = !MediaPlayerWrapper.playstateEquals(oldState, newState);
+        boolean positionOnly = state && oldState != null && newState != null
+                && oldState.getState() == newState.getState()
+                && oldState.getActiveQueueItemId() == newState.getActiveQueueItemId();
+
+        return new MediaDataDiff(!Objects.equals(oldMetadata, newMetadata), state, positionOnly,
+                countChangedItems(oldQueue, newQueue));
+    }
+
+    private static int countChangedItems(List<Metadata> oldQueue, List<Metadata> newQueue) {
+        if (oldQueue == null) oldQueue = Collections.emptyList();
+        if (newQueue == null) newQueue = Collections.emptyList();
+
+        int common = Math.min(oldQueue.size(), newQueue.size());
+        int changed = Math.abs(oldQueue.size() - newQueue.size());
+        for (int i = 0; i < common; i++) {
+            if (!Objects.equals(oldQueue.get(i), newQueue.get(i))) changed++;
+        }
+        return changed;
+    }
+
+    public boolean hasChanges() {
+        return metadata || state || queue;
+    }
+
+    /**
+     * Whether this change can be held back and merged with the changes that follow it. Track and
+     * play status changes must reach the remote device right away, while position and queue only
+     * changes are frequent and can be sent at a lower rate.
+     */
+    public boolean isCoalescable() {
+        return hasChanges() && !metadata && (!state || positionOnly);
+    }
+
+    @Override
+    public String toString() {
+        return "MediaDataDiff{metadata=" + metadata + ", state=" + state
+                + ", positionOnly=" + positionOnly + ", queueItemsChanged=" + queueItemsChanged
+                + "}";
+    }
+}
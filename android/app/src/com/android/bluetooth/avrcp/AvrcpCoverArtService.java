@@ -153,6 +153,9 @@ public class AvrcpCoverArtService {
     public String storeImage(Image image) {
         debug("storeImage(image='" + image + "')");
         if (image == null || image.getImage() == null) return null;
+        // Players hand us the same artwork on every metadata update, skip scaling and hashing it
+        String imageHandle = mStorage.getImageHandle(image.getImage());
+        if (imageHandle != null) return imageHandle;
         return mStorage.storeImage(new CoverArt(image));
     }
 
@@ -16,11 +16,19 @@
 
 package com.android.bluetooth.avrcp;
 
+import android.graphics.Bitmap;
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class abstracting the storage method of cover art images
@@ -29,6 +37,9 @@ final class AvrcpCoverArtStorage {
     private static final String TAG = "AvrcpCoverArtStorage";
     private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
 
+    // How long the image encoding thread lingers without work before it is torn down
+    private static final long ENCODER_KEEP_ALIVE_SECONDS = 10;
+
     private final Object mHandlesLock = new Object();
     private int mNextImageHandle = 0;
 
@@ -37,6 +48,23 @@ final class AvrcpCoverArtStorage {
     private final Map<String, String> mImageHandles;
     private final Map<String, CoverArt> mImages;
 
+    // Handles of the images stored from each source image, so storing the same source image again
+    // doesn't need to hash it. Weak keys, the sources belong to the media players.
+    private final Map<Bitmap, SourceImage> mSourceImages = new WeakHashMap<>();
+
+    private static final class SourceImage {
+        final int mGenerationId;
+        final String mImageHandle;
+
+        SourceImage(int generationId, String imageHandle) {
+            mGenerationId = generationId;
+            mImageHandle = imageHandle;
+        }
+    }
+
+    // Generates the encoded variants of newly stored images so BIP requests don't have to
+    private final Executor mEncoder;
+
     /**
      * Make an image storage object with no bounds on the amount of images it can store
      */
@@ -48,10 +76,20 @@ final class AvrcpCoverArtStorage {
      * Make an image storage object with a bound on the amount of images it can store
      */
     AvrcpCoverArtStorage(int maxSize) {
+        this(maxSize, createEncoder());
+    }
+
+    /**
+     * Make an image storage object with a bound on the amount of images it can store, using the
+     * given executor to pre-encode stored images
+     */
+    @VisibleForTesting
+    AvrcpCoverArtStorage(int maxSize, Executor encoder) {
         if (maxSize < 0) {
             throw new IllegalArgumentException("maxSize < 0");
         }
         mMaxImages = maxSize;
+        mEncoder = encoder;
 
         mImageHandles = new HashMap<String, String>();
 
@@ -61,12 +99,31 @@ final class AvrcpCoverArtStorage {
         mImages = new LinkedHashMap<String, CoverArt>(0, 0.75f /* default load factor */, true);
     }
 
+    /**
+     * Get the handle of an image already stored from the given source image, if any.
+     *
+     * This only compares the identity of the source image, so it's cheap enough to be tried before
+     * making a CoverArt out of the source image and storing it.
+     */
+    public String getImageHandle(Bitmap source) {
+        if (source == null) return null;
+        synchronized (mImagesLock) {
+            SourceImage sourceImage = mSourceImages.get(source);
+            if (sourceImage == null || sourceImage.mGenerationId != source.getGenerationId()
+                    || !mImages.containsKey(sourceImage.mImageHandle)) {
+                return null;
+            }
+            debug("Already have image from source, handle '" + sourceImage.mImageHandle + "'");
+            return sourceImage.mImageHandle;
+        }
+    }
+
     /**
      * Store an image and get the image handle it's been associated with.
      */
     public String storeImage(CoverArt coverArt) {
         debug("storeImage(CoverArt='" + coverArt + "')");
-        if (coverArt == null || coverArt.getImage() == null) {
+        if (coverArt == null || coverArt.size() == 0) {
             debug("Received a null image");
             return null;
         }
@@ -83,6 +140,7 @@ final class AvrcpCoverArtStorage {
                 debug("Already have image of hash '" + hash + "'");
                 imageHandle = mImageHandles.get(hash);
                 debug("Sending back existing handle '" + imageHandle + "'");
+                rememberSourceImage(coverArt, imageHandle);
                 return imageHandle;
             } else {
                 debug("Got a new image, hash='" + hash + "'");
@@ -96,11 +154,16 @@ final class AvrcpCoverArtStorage {
                 debug("Image " + coverArt + " stored at handle '" + imageHandle + "'");
                 coverArt.setImageHandle(imageHandle);
                 mImages.put(imageHandle, coverArt);
+                rememberSourceImage(coverArt, imageHandle);
                 trimToSize();
             } else {
                 error("Failed to store image. Could not get a handle.");
             }
         }
+
+        if (imageHandle != null && mEncoder != null) {
+            mEncoder.execute(() -> coverArt.encodeVariants());
+        }
         return imageHandle;
     }
 
@@ -124,6 +187,7 @@ final class AvrcpCoverArtStorage {
         synchronized (mImagesLock) {
             mImages.clear();
             mImageHandles.clear();
+            mSourceImages.clear();
         }
 
         synchronized (mHandlesLock) {
@@ -131,6 +195,13 @@ final class AvrcpCoverArtStorage {
         }
     }
 
+    private void rememberSourceImage(CoverArt coverArt, String imageHandle) {
+        Bitmap source = coverArt.getSourceImage();
+        if (source == null) return;
+        mSourceImages.put(source,
+                new SourceImage(coverArt.getSourceGenerationId(), imageHandle));
+    }
+
     private void trimToSize() {
         if (mMaxImages <= 0) return;
         synchronized (mImagesLock) {
@@ -145,6 +216,18 @@ final class AvrcpCoverArtStorage {
         }
     }
 
+    /**
+     * Create the executor used to pre-encode images. Its single thread is only kept around while
+     * there are images to encode.
+     */
+    private static Executor createEncoder() {
+        ThreadPoolExecutor encoder = new ThreadPoolExecutor(1, 1, ENCODER_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                r -> new Thread(r, "AvrcpCoverArtEncoder"));
+        encoder.allowCoreThreadTimeOut(true);
+        return encoder;
+    }
+
     /**
      * Get the next available image handle value if one is available.
      *
@@ -171,6 +254,7 @@ final class AvrcpCoverArtStorage {
 
     public void dump(StringBuilder sb) {
         int bytes = 0;
+        int encodedBytes = 0;
         sb.append("\n\timages (" + mImageHandles.size());
         if (mMaxImages > 0) sb.append(" / " + mMaxImages);
         sb.append("):");
@@ -189,9 +273,11 @@ final class AvrcpCoverArtStorage {
                 }
                 sb.append(String.format("\n\t\t%-8s : %-32s : %s", imageHandle, hash, coverArt));
                 bytes += coverArt.size();
+                encodedBytes += coverArt.encodedSize();
             }
         }
         sb.append("\n\tImage bytes: " + bytes);
+        sb.append("\n\tEncoded image bytes: " + encodedBytes);
     }
 
     /**
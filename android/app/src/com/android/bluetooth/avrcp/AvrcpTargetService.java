@@ -37,6 +37,7 @@ import com.android.bluetooth.Utils;
 import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.audio_util.BTAudioEventLogger;
 import com.android.bluetooth.audio_util.MediaData;
+import com.android.bluetooth.audio_util.MediaDataDiff;
 import com.android.bluetooth.audio_util.MediaPlayerList;
 import com.android.bluetooth.audio_util.MediaPlayerWrapper;
 import com.android.bluetooth.audio_util.Metadata;
@@ -49,7 +50,6 @@ import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.List;
-import java.util.Objects;
 
 /**
  * Provides Bluetooth AVRCP Target profile as a service in the Bluetooth application.
@@ -91,9 +91,10 @@ public class AvrcpTargetService extends ProfileService {
         public void run(MediaData data) {
             if (mNativeInterface == null) return;
 
-            boolean metadata = !Objects.equals(mCurrentData.metadata, data.metadata);
-            boolean state = !MediaPlayerWrapper.playstateEquals(mCurrentData.state, data.state);
-            boolean queue = !Objects.equals(mCurrentData.queue, data.queue);
+            MediaDataDiff diff = MediaDataDiff.between(mCurrentData, data);
+            boolean metadata = diff.metadata;
+            boolean state = diff.state;
+            boolean queue = diff.queue;
 
             if (DEBUG) {
                 Log.d(TAG, "onMediaUpdated: track_changed=" + metadata
@@ -273,6 +274,7 @@ public class AvrcpTargetService extends ProfileService {
         // We check the interfaces first since they only get set on User Unlocked
         if (mMediaPlayerList != null) mMediaPlayerList.cleanup();
         if (mNativeInterface != null) mNativeInterface.cleanup();
+        if (mVolumeManager != null) mVolumeManager.cleanup();
 
         mMediaPlayerList = null;
         mNativeInterface = null;
@@ -26,14 +26,18 @@ import android.media.AudioDeviceAttributes;
 import android.media.AudioDeviceCallback;
 import android.media.AudioDeviceInfo;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.android.bluetooth.audio_util.BTAudioEventLogger;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 class AvrcpVolumeManager extends AudioDeviceCallback {
     public static final String TAG = "AvrcpVolumeManager";
@@ -48,6 +52,8 @@ class AvrcpVolumeManager extends AudioDeviceCallback {
     static final int AVRCP_MAX_VOL = 127;
     private static final int STREAM_MUSIC = AudioManager.STREAM_MUSIC;
     private static final int VOLUME_CHANGE_LOGGER_SIZE = 30;
+    // Volume changes are written to the volume map in batches, at most once per this delay
+    private static final long VOLUME_STORE_DELAY_MS = 1000;
     private static int sDeviceMaxVolume = 0;
     private static int sNewDeviceVolume = 0;
     private final BTAudioEventLogger mVolumeEventLogger = new BTAudioEventLogger(
@@ -58,10 +64,19 @@ class AvrcpVolumeManager extends AudioDeviceCallback {
     AvrcpNativeInterface mNativeInterface;
 
     HashMap<BluetoothDevice, Boolean> mDeviceMap = new HashMap();
-    HashMap<BluetoothDevice, Integer> mVolumeMap = new HashMap();
+    // The volume map is read from audio callbacks, so it is kept in memory and never read from
+    // storage after construction
+    ConcurrentHashMap<BluetoothDevice, Integer> mVolumeMap = new ConcurrentHashMap<>();
     BluetoothDevice mCurrentDevice = null;
     boolean mAbsoluteVolumeSupported = false;
 
+    // Volumes waiting to be written to the volume map, by device address. A null volume means the
+    // device has to be removed from the map.
+    @GuardedBy("mPendingVolumes")
+    private final HashMap<String, Integer> mPendingVolumes = new HashMap<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mStorePendingVolumes = this::storePendingVolumes;
+
     static int avrcpToSystemVolume(int avrcpVolume) {
         return (int) Math.floor((double) avrcpVolume * sDeviceMaxVolume / AVRCP_MAX_VOL);
     }
@@ -130,47 +145,94 @@ class AvrcpVolumeManager extends AudioDeviceCallback {
         volumeMapEditor.apply();
     }
 
-    synchronized void storeVolumeForDevice(@NonNull BluetoothDevice device, int storeVolume) {
+    void storeVolumeForDevice(@NonNull BluetoothDevice device, int storeVolume) {
         if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
             return;
         }
-        SharedPreferences.Editor pref = getVolumeMap().edit();
-        mVolumeEventLogger.logd(TAG, "storeVolume: Storing stream volume level for device "
-                        + device + " : " + storeVolume);
-        mVolumeMap.put(device, storeVolume);
-        pref.putInt(device.getAddress(), storeVolume);
-        // Always use apply() since it is asynchronous, otherwise the call can hang waiting for
-        // storage to be written.
-        pref.apply();
+        // Update the in-memory map and queue the write as one step, so concurrent changes for a
+        // device are queued in the same order as they're applied to the map
+        synchronized (mPendingVolumes) {
+            Integer previousVolume = mVolumeMap.put(device, storeVolume);
+            if (previousVolume != null && previousVolume == storeVolume) {
+                return;
+            }
+            mVolumeEventLogger.logd(TAG, "storeVolume: Storing stream volume level for device "
+                            + device + " : " + storeVolume);
+            schedulePendingVolume(device.getAddress(), storeVolume);
+        }
     }
 
-    synchronized void storeVolumeForDevice(@NonNull BluetoothDevice device) {
+    void storeVolumeForDevice(@NonNull BluetoothDevice device) {
         int storeVolume =  mAudioManager.getLastAudibleStreamVolume(STREAM_MUSIC);
         storeVolumeForDevice(device, storeVolume);
     }
 
-    synchronized void removeStoredVolumeForDevice(@NonNull BluetoothDevice device) {
+    void removeStoredVolumeForDevice(@NonNull BluetoothDevice device) {
         if (device.getBondState() != BluetoothDevice.BOND_NONE) {
             return;
         }
-        SharedPreferences.Editor pref = getVolumeMap().edit();
         mVolumeEventLogger.logd(TAG,
                     "RemoveStoredVolume: Remove stored stream volume level for device " + device);
-        mVolumeMap.remove(device);
-        pref.remove(device.getAddress());
-        // Always use apply() since it is asynchronous, otherwise the call can hang waiting for
-        // storage to be written.
-        pref.apply();
+        synchronized (mPendingVolumes) {
+            mVolumeMap.remove(device);
+            schedulePendingVolume(device.getAddress(), null);
+        }
     }
 
-    synchronized int getVolume(@NonNull BluetoothDevice device, int defaultValue) {
-        if (!mVolumeMap.containsKey(device)) {
+    int getVolume(@NonNull BluetoothDevice device, int defaultValue) {
+        Integer volume = mVolumeMap.get(device);
+        if (volume == null) {
             Log.w(TAG, "getVolume: Couldn't find volume preference for device: " + device);
             return defaultValue;
         }
 
-        d("getVolume: Returning volume " + mVolumeMap.get(device));
-        return mVolumeMap.get(device);
+        d("getVolume: Returning volume " + volume);
+        return volume;
+    }
+
+    /**
+     * Queue a volume to be written to the volume map. Volume changes tend to come in bursts while
+     * the user moves the volume slider, so they are batched into a single write.
+     */
+    @GuardedBy("mPendingVolumes")
+    private void schedulePendingVolume(String address, Integer volume) {
+        mPendingVolumes.put(address, volume);
+        if (!mHandler.hasCallbacks(mStorePendingVolumes)) {
+            mHandler.postDelayed(mStorePendingVolumes, VOLUME_STORE_DELAY_MS);
+        }
+    }
+
+    /**
+     * Write all the queued volumes to the volume map
+     */
+    @VisibleForTesting
+    void storePendingVolumes() {
+        synchronized (mPendingVolumes) {
+            mHandler.removeCallbacks(mStorePendingVolumes);
+            if (mPendingVolumes.isEmpty()) return;
+
+            d("storePendingVolumes: Storing " + mPendingVolumes.size() + " volume(s)");
+            SharedPreferences.Editor pref = getVolumeMap().edit();
+            for (Map.Entry<String, Integer> entry : mPendingVolumes.entrySet()) {
+                if (entry.getValue() == null) {
+                    pref.remove(entry.getKey());
+                } else {
+                    pref.putInt(entry.getKey(), entry.getValue());
+                }
+            }
+            // Always use apply() since it is asynchronous, otherwise the call can hang waiting for
+            // storage to be written.
+            pref.apply();
+            mPendingVolumes.clear();
+        }
+    }
+
+    /**
+     * Write any queued volumes and stop listening for audio device changes
+     */
+    void cleanup() {
+        mAudioManager.unregisterAudioDeviceCallback(this);
+        storePendingVolumes();
     }
 
     public int getNewDeviceVolume() {
@@ -285,14 +347,15 @@ class AvrcpVolumeManager extends AudioDeviceCallback {
         sb.append("AvrcpVolumeManager:\n");
         sb.append("  mCurrentDevice: " + mCurrentDevice + "\n");
         sb.append("  Current System Volume: " + mAudioManager.getStreamVolume(STREAM_MUSIC) + "\n");
+        synchronized (mPendingVolumes) {
+            sb.append("  Pending Volume Writes: " + mPendingVolumes.size() + "\n");
+        }
         sb.append("  Device Volume Memory Map:\n");
         sb.append(String.format("    %-17s : %-14s : %3s : %s\n",
                 "Device Address", "Device Name", "Vol", "AbsVol"));
-        Map<String, ?> allKeys = getVolumeMap().getAll();
-        for (Map.Entry<String, ?> entry : allKeys.entrySet()) {
-            Object value = entry.getValue();
-            BluetoothDevice d = BluetoothAdapter.getDefaultAdapter()
-                    .getRemoteDevice(entry.getKey());
+        for (Map.Entry<BluetoothDevice, Integer> entry : mVolumeMap.entrySet()) {
+            Integer value = entry.getValue();
+            BluetoothDevice d = entry.getKey();
 
             String deviceName = d.getName();
             if (deviceName == null) {
@@ -306,10 +369,8 @@ class AvrcpVolumeManager extends AudioDeviceCallback {
                 absoluteVolume = mDeviceMap.get(d).toString();
             }
 
-            if (value instanceof Integer) {
-                sb.append(String.format("    %-17s : %-14s : %3d : %s\n",
-                        d.getAddress(), deviceName, (Integer) value, absoluteVolume));
-            }
+            sb.append(String.format("    %-17s : %-14s : %3d : %s\n",
+                    d.getAddress(), deviceName, value, absoluteVolume));
         }
 
         StringBuilder tempBuilder = new StringBuilder();
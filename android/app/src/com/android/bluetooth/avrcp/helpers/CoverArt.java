@@ -27,6 +27,8 @@ import com.android.bluetooth.avrcpcontroller.BipImageProperties;
 import com.android.bluetooth.avrcpcontroller.BipPixel;
 
 import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -36,7 +38,9 @@ import java.security.NoSuchAlgorithmException;
  * This object abstracts away the actual storage method and provides a means for others to
  * understand available formats and get the underlying image in a particular format.
  *
- * All return values are ready to use by a BIP server.
+ * All return values are ready to use by a BIP server. Encoded variants of the image are generated
+ * once, either ahead of time with encodeVariants() or on first use, and are shared by every
+ * request for them afterwards. Callers must not modify the returned byte arrays.
  */
 public class CoverArt {
     private static final String TAG = "CoverArt";
@@ -46,6 +50,15 @@ public class CoverArt {
     private String mImageHandle = null;
     private Bitmap mImage = null;
 
+    // The image this one was scaled from, used to recognize it again without hashing
+    private final WeakReference<Bitmap> mSourceImage;
+    private final int mSourceGenerationId;
+
+    // Cached encodings of mImage, guarded by this
+    private String mImageHash = null;
+    private byte[] mJpegBytes = null;
+    private BipImageProperties mImageProperties = null;
+
     /**
      * Create a CoverArt object from an audio_util Image abstraction
      */
@@ -53,7 +66,24 @@ public class CoverArt {
         // Create a scaled version of the image for now, as consumers don't need
         // anything larger than this at the moment. Also makes each image gathered
         // the same dimensions for hashing purposes.
-        mImage = Bitmap.createScaledBitmap(image.getImage(), 200, 200, false);
+        Bitmap source = image.getImage();
+        mImage = Bitmap.createScaledBitmap(source, 200, 200, false);
+        mSourceImage = new WeakReference<>(source);
+        mSourceGenerationId = source.getGenerationId();
+    }
+
+    /**
+     * Get the image this one was scaled from, if it's still around
+     */
+    public Bitmap getSourceImage() {
+        return mSourceImage.get();
+    }
+
+    /**
+     * Get the generation ID the source image had when this image was scaled from it
+     */
+    public int getSourceGenerationId() {
+        return mSourceGenerationId;
     }
 
     /**
@@ -70,25 +100,61 @@ public class CoverArt {
      *
      * This is required to generate image properties
      */
-    public void setImageHandle(String handle) {
+    public synchronized void setImageHandle(String handle) {
         mImageHandle = handle;
+        mImageProperties = null;
+    }
+
+    /**
+     * Generate and cache every encoded variant of this image.
+     *
+     * This is potentially expensive, so it should be called off of the main thread, ahead of any
+     * BIP requests for the image, so those requests can be served straight from the cached bytes.
+     */
+    public void encodeVariants() {
+        debug("encodeVariants()");
+        getImageHash();
+        getJpegBytes();
     }
 
     /**
-     * Covert a Bitmap to a byte array with an image format without lossy compression
+     * Determine if every encoded variant of this image has already been generated
+     */
+    public synchronized boolean areVariantsEncoded() {
+        return mImage == null || (mImageHash != null && mJpegBytes != null);
+    }
+
+    /**
+     * Get the cached 200 x 200 JPEG encoding of the image, generating it if needed.
+     *
+     * Our native format, thumbnail format and the only format accepted by descriptors are all the
+     * same encoding, so one set of bytes serves all of them.
+     */
+    private synchronized byte[] getJpegBytes() {
+        if (mImage == null) return null;
+        if (mJpegBytes == null) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
+            mJpegBytes = outputStream.toByteArray();
+        }
+        return mJpegBytes;
+    }
+
+    /**
+     * Get the raw pixels of a Bitmap, which is much cheaper than compressing it
      */
     private byte[] toByteArray(Bitmap bitmap) {
         if (bitmap == null) return null;
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
-                    bitmap.getWidth() * bitmap.getHeight());
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, buffer);
-        return buffer.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.getByteCount());
+        bitmap.copyPixelsToBuffer(buffer);
+        return buffer.array();
     }
 
     /**
-     * Get a hash code of this CoverArt image
+     * Get a hash code of this CoverArt image, computed from its pixels
      */
-    public String getImageHash() {
+    public synchronized String getImageHash() {
+        if (mImageHash != null) return mImageHash;
         byte[] image = toByteArray(mImage);
         if (image == null) return null;
         String hash = null;
@@ -106,6 +172,7 @@ public class CoverArt {
         } catch (NoSuchAlgorithmException e) {
             Log.e(TAG, "Failed to hash bitmap", e);
         }
+        mImageHash = hash;
         return hash;
     }
 
@@ -114,12 +181,7 @@ public class CoverArt {
      */
     public byte[] getImage() {
         debug("GetImage(native)");
-        if (mImage == null) return null;
-        byte[] bytes = null;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        bytes = outputStream.toByteArray();
-        return bytes;
+        return getJpegBytes();
     }
 
     /**
@@ -133,12 +195,7 @@ public class CoverArt {
             error("Given format isn't available for this image");
             return null;
         }
-
-        byte[] bytes = null;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        bytes = outputStream.toByteArray();
-        return bytes;
+        return getJpegBytes();
     }
 
     /**
@@ -162,18 +219,13 @@ public class CoverArt {
      */
     public byte[] getThumbnail() {
         debug("GetImageThumbnail()");
-        if (mImage == null) return null;
-        byte[] bytes = null;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        bytes = outputStream.toByteArray();
-        return bytes;
+        return getJpegBytes();
     }
 
     /**
      * Get the set of image properties that the cover artwork can be turned into
      */
-    public BipImageProperties getImageProperties() {
+    public synchronized BipImageProperties getImageProperties() {
         debug("GetImageProperties()");
         if (mImage == null) {
             error("Can't associate properties with a null image");
@@ -183,6 +235,7 @@ public class CoverArt {
             error("No handle has been associated with this image. Cannot build properties.");
             return null;
         }
+        if (mImageProperties != null) return mImageProperties;
         BipImageProperties.Builder builder = new BipImageProperties.Builder();
         BipEncoding encoding = new BipEncoding(BipEncoding.JPEG);
         BipPixel pixel = BipPixel.createFixed(200, 200);
@@ -191,8 +244,8 @@ public class CoverArt {
         builder.setImageHandle(mImageHandle);
         builder.addNativeFormat(format);
 
-        BipImageProperties properties = builder.build();
-        return properties;
+        mImageProperties = builder.build();
+        return mImageProperties;
     }
 
     /**
@@ -202,9 +255,17 @@ public class CoverArt {
         return mImage != null ? mImage.getAllocationByteCount() : 0;
     }
 
+    /**
+     * Get the number of bytes held by the cached encodings of this image
+     */
+    public synchronized int encodedSize() {
+        return mJpegBytes != null ? mJpegBytes.length : 0;
+    }
+
     @Override
     public String toString() {
-        return "{handle=" + mImageHandle + ", size=" + size() + " }";
+        return "{handle=" + mImageHandle + ", size=" + size() + ", encoded=" + encodedSize()
+                + " }";
     }
 
     /**
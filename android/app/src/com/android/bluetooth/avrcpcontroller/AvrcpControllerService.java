@@ -23,7 +23,11 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.IBluetoothAvrcpController;
 import android.content.AttributionSource;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemProperties;
 import android.support.v4.media.MediaBrowserCompat.MediaItem;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.sysprop.BluetoothProperties;
@@ -119,6 +123,8 @@ public class AvrcpControllerService extends ProfileService {
 
     private boolean mCoverArtEnabled = false;
     protected AvrcpCoverArtManager mCoverArtManager;
+    private BrowseTreeCache mBrowseTreeCache;
+    private BroadcastReceiver mBondStateChangedReceiver;
 
     private class ImageDownloadCallback implements AvrcpCoverArtManager.Callback {
         @Override
@@ -156,6 +162,15 @@ public class AvrcpControllerService extends ProfileService {
         if (mCoverArtEnabled) {
             setComponentAvailable(COVER_ART_PROVIDER, true);
             mCoverArtManager = new AvrcpCoverArtManager(this, new ImageDownloadCallback());
+        } else {
+            // Images left on disk while cover art was enabled are of no use anymore
+            AvrcpCoverArtStorage.clearDiskCache(this);
+        }
+        if (SystemProperties.getBoolean(BrowseTreeCache.AVRCP_CONTROLLER_BROWSE_CACHE, true)) {
+            mBrowseTreeCache = new BrowseTreeCache(this);
+            mBondStateChangedReceiver = new BondStateChangedReceiver();
+            registerReceiver(mBondStateChangedReceiver,
+                    new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED));
         }
         sBrowseTree = new BrowseTree(null);
         sService = this;
@@ -184,10 +199,43 @@ public class AvrcpControllerService extends ProfileService {
             mCoverArtManager = null;
             setComponentAvailable(COVER_ART_PROVIDER, false);
         }
+        if (mBondStateChangedReceiver != null) {
+            unregisterReceiver(mBondStateChangedReceiver);
+            mBondStateChangedReceiver = null;
+        }
+        if (mBrowseTreeCache != null) {
+            mBrowseTreeCache.cleanup();
+            mBrowseTreeCache = null;
+        }
         setComponentAvailable(ON_ERROR_SETTINGS_ACTIVITY, false);
         return true;
     }
 
+    // Forget the browsed folders of a device once it is unbonded
+    private class BondStateChangedReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(intent.getAction())) {
+                return;
+            }
+            int state = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE,
+                    BluetoothDevice.ERROR);
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            if (device != null) {
+                bondStateChanged(device, state);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void bondStateChanged(BluetoothDevice device, int bondState) {
+        if (bondState != BluetoothDevice.BOND_NONE || mBrowseTreeCache == null) {
+            return;
+        }
+        if (DBG) Log.d(TAG, "Removing the browse cache of unbonded device " + device);
+        mBrowseTreeCache.removeDevice(device);
+    }
+
     public static AvrcpControllerService getAvrcpControllerService() {
         return sService;
     }
@@ -923,6 +971,10 @@ public class AvrcpControllerService extends ProfileService {
         return mCoverArtManager;
     }
 
+    protected BrowseTreeCache getBrowseTreeCache() {
+        return mBrowseTreeCache;
+    }
+
     List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
         if (DBG) Log.d(TAG, "getDevicesMatchingConnectionStates" + Arrays.toString(states));
         List<BluetoothDevice> deviceList = new ArrayList<>();
@@ -965,6 +1017,9 @@ public class AvrcpControllerService extends ProfileService {
         if (mCoverArtManager != null) {
             sb.append("\n  " + mCoverArtManager.toString());
         }
+        if (mBrowseTreeCache != null) {
+            sb.append("\n  " + mBrowseTreeCache.toString());
+        }
 
         sb.append("\n  " + BluetoothMediaBrowserService.dump() + "\n");
     }
@@ -42,6 +42,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.State;
 import com.android.internal.util.StateMachine;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -93,6 +94,8 @@ class AvrcpControllerStateMachine extends StateMachine {
     static final int MSG_AVRCP_PASSTHRU = 302;
     static final int MSG_AVRCP_SET_SHUFFLE = 303;
     static final int MSG_AVRCP_SET_REPEAT = 304;
+    static final int MESSAGE_RESTORE_FOLDER_ITEMS = 305;
+    static final int MESSAGE_PREFETCH_FOLDER_ITEMS = 306;
 
     //400->499 Events for Cover Artwork
     static final int MESSAGE_PROCESS_IMAGE_DOWNLOADED = 400;
@@ -117,6 +120,7 @@ class AvrcpControllerStateMachine extends StateMachine {
     protected final AvrcpControllerService mService;
     protected int mCoverArtPsm;
     protected final AvrcpCoverArtManager mCoverArtManager;
+    private final BrowseTreeCache mBrowseTreeCache;
     protected final Disconnected mDisconnected;
     protected final Connecting mConnecting;
     protected final Connected mConnected;
@@ -137,10 +141,20 @@ class AvrcpControllerStateMachine extends StateMachine {
 
     GetFolderList mGetFolderList = null;
 
+    // Subfolders of the last browsed folder still to be fetched ahead of the user
+    private final ArrayDeque<BrowseTree.BrowseNode> mPrefetchQueue = new ArrayDeque<>();
+    private int mPrefetchedFolders = 0;
+    private int mCancelledPrefetches = 0;
+
     //Number of items to get in a single fetch
     static final int ITEM_PAGE_SIZE = 20;
     static final int CMD_TIMEOUT_MILLIS = 10000;
     static final int ABS_VOL_TIMEOUT_MILLIS = 1000; //1s
+    // Delay before fetching a folder ahead of the user, leaving the link to the browsed folder
+    // and its cover art first
+    static final int PREFETCH_DELAY_MILLIS = 1000;
+    // Number of items of a prefetched folder that get their cover art downloaded
+    static final int PREFETCH_IMAGES_PER_FOLDER = ITEM_PAGE_SIZE;
 
     AvrcpControllerStateMachine(BluetoothDevice device, AvrcpControllerService service) {
         super(TAG);
@@ -149,6 +163,7 @@ class AvrcpControllerStateMachine extends StateMachine {
         mService = service;
         mCoverArtPsm = 0;
         mCoverArtManager = service.getCoverArtManager();
+        mBrowseTreeCache = service.getBrowseTreeCache();
         logD(device.toString());
 
         mAvailablePlayerList = new SparseArray<AvrcpPlayer>();
@@ -270,6 +285,8 @@ class AvrcpControllerStateMachine extends StateMachine {
             queue = mBrowseTree.mNowPlayingNode.getContents();
         }
         ProfileService.println(sb, "Queue (" + (queue == null ? 0 : queue.size()) + "): " + queue);
+        ProfileService.println(sb, "Prefetched folders: " + mPrefetchedFolders + ", cancelled: "
+                + mCancelledPrefetches);
     }
 
     @VisibleForTesting
@@ -394,10 +411,87 @@ class AvrcpControllerStateMachine extends StateMachine {
     }
 
     void requestContents(BrowseTree.BrowseNode node) {
+        // The user moved on, the pending prefetch is for a folder they may not browse
+        removeMessages(MESSAGE_PREFETCH_FOLDER_ITEMS);
+        if (mBrowseTreeCache != null) {
+            // Show the listing of a previous connection while the folder is fetched
+            sendMessageAtFrontOfQueue(MESSAGE_RESTORE_FOLDER_ITEMS, node);
+        }
         sendMessage(MESSAGE_GET_FOLDER_ITEMS, node);
         logD("Fetching " + node);
     }
 
+    /**
+     * Fill a folder that isn't cached yet with its listing from a previous connection, if the
+     * folder is not being fetched already.
+     */
+    private void restoreFolderItems(BrowseTree.BrowseNode node) {
+        if (mBrowseTreeCache == null || node.isCached() || node.getChildrenCount() > 0
+                || (getCurrentState() == mGetFolderList
+                        && node.equals(mGetFolderList.mBrowseNode))) {
+            return;
+        }
+        List<AvrcpItem> items =
+                mBrowseTreeCache.getListing(mDevice, mBrowseTree.getFolderPath(node));
+        if (items == null) {
+            return;
+        }
+        logD("Restored " + items.size() + " cached items of " + node);
+        node.restoreChildren(items);
+        notifyChanged(node);
+    }
+
+    /**
+     * Save the complete listing of a folder for the next connections
+     */
+    private void saveFolderItems(BrowseTree.BrowseNode node) {
+        if (mBrowseTreeCache == null) {
+            return;
+        }
+        String path = mBrowseTree.getFolderPath(node);
+        if (path != null) {
+            mBrowseTreeCache.putListing(mDevice, path, node.getChildItems());
+        }
+    }
+
+    /**
+     * Queue the subfolders of a browsed folder to be fetched ahead of the user, in the order they
+     * are listed and up to the configured number of folders.
+     */
+    private void queuePrefetch(BrowseTree.BrowseNode folder) {
+        mPrefetchQueue.clear();
+        int budget = mService.getResources()
+                .getInteger(R.integer.avrcp_controller_prefetch_folders);
+        if (budget <= 0 || folder.getScope() != AvrcpControllerService.BROWSE_SCOPE_VFS) {
+            return;
+        }
+        for (BrowseTree.BrowseNode child : folder.getChildren()) {
+            if (mPrefetchQueue.size() >= budget) {
+                break;
+            }
+            if (child.isBrowsable() && !child.isPlayer() && !child.isCached()
+                    && child.getChildrenCount() == 0) {
+                mPrefetchQueue.add(child);
+            }
+        }
+        scheduleNextPrefetch();
+    }
+
+    private void scheduleNextPrefetch() {
+        BrowseTree.BrowseNode next = mPrefetchQueue.poll();
+        if (next != null) {
+            sendMessageDelayed(MESSAGE_PREFETCH_FOLDER_ITEMS, next, PREFETCH_DELAY_MILLIS);
+        }
+    }
+
+    private void cancelPrefetch() {
+        if (!mPrefetchQueue.isEmpty() || hasMessages(MESSAGE_PREFETCH_FOLDER_ITEMS)) {
+            mCancelledPrefetches++;
+        }
+        mPrefetchQueue.clear();
+        removeMessages(MESSAGE_PREFETCH_FOLDER_ITEMS);
+    }
+
     public void playItem(BrowseTree.BrowseNode node) {
         sendMessage(MESSAGE_PLAY_ITEM, node);
     }
@@ -502,9 +596,28 @@ class AvrcpControllerStateMachine extends StateMachine {
                     return true;
 
                 case MESSAGE_GET_FOLDER_ITEMS:
+                    if (((BrowseTree.BrowseNode) msg.obj).getScope()
+                            != AvrcpControllerService.BROWSE_SCOPE_NOW_PLAYING) {
+                        cancelPrefetch();
+                    }
                     transitionTo(mGetFolderList);
                     return true;
 
+                case MESSAGE_PREFETCH_FOLDER_ITEMS:
+                    BrowseTree.BrowseNode prefetchNode = (BrowseTree.BrowseNode) msg.obj;
+                    if (prefetchNode.isCached() || prefetchNode.getChildrenCount() > 0
+                            || mBrowseTree.findBrowseNodeByID(prefetchNode.getID()) == null) {
+                        // Browsed in the meantime, or no longer in the tree
+                        scheduleNextPrefetch();
+                    } else {
+                        transitionTo(mGetFolderList);
+                    }
+                    return true;
+
+                case MESSAGE_RESTORE_FOLDER_ITEMS:
+                    restoreFolderItems((BrowseTree.BrowseNode) msg.obj);
+                    return true;
+
                 case MESSAGE_PLAY_ITEM:
                     //Set Addressed Player
                     processPlayItem((BrowseTree.BrowseNode) msg.obj);
@@ -766,6 +879,18 @@ class AvrcpControllerStateMachine extends StateMachine {
         BrowseTree.BrowseNode mBrowseNode;
         BrowseTree.BrowseNode mNextStep;
 
+        // Whether the folder shows a listing restored from the browse cache, in which case the
+        // fetched items are only compared with it once all of them are received
+        boolean mRevalidating;
+        final ArrayList<AvrcpItem> mFetchedItems = new ArrayList<AvrcpItem>();
+
+        // Whether the folder is fetched ahead of the user, and can be given up at any time
+        boolean mPrefetching;
+        // Folder the remote device browsed before a prefetch. Items are played relative to the
+        // browsed folder, so the remote device is brought back to it once the prefetch is over.
+        BrowseTree.BrowseNode mReturnFolder;
+        boolean mReturning;
+
         @Override
         public void enter() {
             logD(STATE_TAG + " Entering GetFolderList");
@@ -774,16 +899,22 @@ class AvrcpControllerStateMachine extends StateMachine {
             super.enter();
             mAbort = false;
             Message msg = getCurrentMessage();
-            if (msg.what == MESSAGE_GET_FOLDER_ITEMS) {
+            if (msg.what == MESSAGE_GET_FOLDER_ITEMS
+                    || msg.what == MESSAGE_PREFETCH_FOLDER_ITEMS) {
                 {
                     logD(STATE_TAG + " new Get Request");
                     mBrowseNode = (BrowseTree.BrowseNode) msg.obj;
+                    mPrefetching = (msg.what == MESSAGE_PREFETCH_FOLDER_ITEMS);
                 }
             }
+            mReturnFolder = mPrefetching ? mBrowseTree.getCurrentBrowsedFolder() : null;
+            mReturning = false;
 
             if (mBrowseNode == null) {
                 transitionTo(mConnected);
             } else {
+                mRevalidating = mBrowseNode.isStale();
+                mFetchedItems.clear();
                 navigateToFolderOrRetrieve(mBrowseNode);
             }
         }
@@ -799,28 +930,37 @@ class AvrcpControllerStateMachine extends StateMachine {
                             + " received " + folderList.size());
 
                     // Queue up image download if the item has an image and we don't have it yet
-                    // Only do this if the feature is enabled.
+                    // Only do this if the feature is enabled, and only for the first items of a
+                    // prefetched folder.
+                    int itemIndex = getFetchedCount(mBrowseNode);
                     for (AvrcpItem track : folderList) {
-                        if (shouldDownloadBrowsedImages()) {
+                        if (shouldDownloadBrowsedImages() && (!mPrefetching
+                                || itemIndex++ < PREFETCH_IMAGES_PER_FOLDER)) {
                             downloadImageIfNeeded(track);
                         } else {
                             track.setCoverArtUuid(null);
                         }
                     }
 
-                    // Always update the node so that the user does not wait forever
-                    // for the list to populate.
-                    int newSize = mBrowseNode.addChildren(folderList);
-                    logD("Added " + newSize + " items to the browse tree");
-                    notifyChanged(mBrowseNode);
+                    if (mRevalidating) {
+                        // The restored listing is shown until the whole folder is fetched
+                        mFetchedItems.addAll(folderList);
+                        logD("Fetched " + mFetchedItems.size() + " items to revalidate");
+                    } else {
+                        // Always update the node so that the user does not wait forever
+                        // for the list to populate.
+                        int newSize = mBrowseNode.addChildren(folderList);
+                        logD("Added " + newSize + " items to the browse tree");
+                        notifyChanged(mBrowseNode);
+                    }
 
-                    if (mBrowseNode.getChildrenCount() >= endIndicator || folderList.size() == 0
+                    if (getFetchedCount(mBrowseNode) >= endIndicator || folderList.size() == 0
                             || mAbort) {
                         // If we have fetched all the elements or if the remotes sends us 0 elements
                         // (which can lead us into a loop since mCurrInd does not proceed) we simply
                         // abort.
-                        mBrowseNode.setCached(true);
-                        transitionTo(mConnected);
+                        onFolderItemsFetched(!mAbort);
+                        finishFetch();
                     } else {
                         // Fetch the next set of items.
                         fetchContents(mBrowseNode);
@@ -833,7 +973,7 @@ class AvrcpControllerStateMachine extends StateMachine {
                     mBrowseTree.setCurrentBrowsedPlayer(mNextStep.getID(), msg.arg1, msg.arg2);
                     removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
                     sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
-                    navigateToFolderOrRetrieve(mBrowseNode);
+                    continueNavigation();
                     break;
 
                 case MESSAGE_PROCESS_FOLDER_PATH:
@@ -845,11 +985,11 @@ class AvrcpControllerStateMachine extends StateMachine {
                     refreshCoverArt();
 
                     if (mAbort) {
-                        transitionTo(mConnected);
+                        finishFetch();
                     } else {
                         removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
                         sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
-                        navigateToFolderOrRetrieve(mBrowseNode);
+                        continueNavigation();
                     }
                     break;
 
@@ -919,20 +1059,25 @@ class AvrcpControllerStateMachine extends StateMachine {
                     // We have timed out to execute the request, we should simply send
                     // whatever listing we have gotten until now.
                     Log.w(TAG, "TIMEOUT");
-                    transitionTo(mConnected);
+                    finishFetch();
                     break;
 
                 case MESSAGE_PROCESS_GET_FOLDER_ITEMS_OUT_OF_RANGE:
                     // If we have gotten an error for OUT OF RANGE we have
                     // already sent all the items to the client hence simply
                     // transition to Connected state here.
-                    mBrowseNode.setCached(true);
-                    transitionTo(mConnected);
+                    onFolderItemsFetched(true);
+                    finishFetch();
                     break;
 
                 case MESSAGE_GET_FOLDER_ITEMS:
-                    if (!mBrowseNode.equals(msg.obj)) {
-                        if (shouldAbort(mBrowseNode.getScope(),
+                    if (mReturning) {
+                        // The requested folder is navigated to from wherever the remote device is
+                        mAbort = true;
+                        deferMessage(msg);
+                    } else if (!mBrowseNode.equals(msg.obj)) {
+                        // A prefetch always gives way to the folder the user asked for
+                        if (mPrefetching || shouldAbort(mBrowseNode.getScope(),
                                 ((BrowseTree.BrowseNode) msg.obj).getScope())) {
                             mAbort = true;
                         }
@@ -940,9 +1085,24 @@ class AvrcpControllerStateMachine extends StateMachine {
                         logD("GetFolderItems: Go Get Another Directory");
                     } else {
                         logD("GetFolderItems: Get The Same Directory, ignore");
+                        // The user now waits for the folder being prefetched
+                        mPrefetching = false;
                     }
                     break;
 
+                case MESSAGE_PREFETCH_FOLDER_ITEMS:
+                    deferMessage(msg);
+                    break;
+
+                case MESSAGE_PLAY_ITEM:
+                    if (!mPrefetching && !mReturning) {
+                        return false;
+                    }
+                    // The item is played once the remote device is back in the folder it's in
+                    mAbort = mPrefetching;
+                    deferMessage(msg);
+                    break;
+
                 default:
                     // All of these messages should be handled by parent state immediately.
                     return false;
@@ -950,6 +1110,68 @@ class AvrcpControllerStateMachine extends StateMachine {
             return true;
         }
 
+        private void continueNavigation() {
+            if (mReturning) {
+                returnToFolder();
+            } else {
+                navigateToFolderOrRetrieve(mBrowseNode);
+            }
+        }
+
+        /**
+         * Go back to the Connected state once the folder was fetched or given up. After a
+         * prefetch, the remote device is first brought back to the folder it browsed before.
+         */
+        private void finishFetch() {
+            if (mPrefetching && !mReturning && mReturnFolder != null
+                    && !mReturnFolder.equals(mBrowseTree.getCurrentBrowsedFolder())
+                    && mBrowseTree.findBrowseNodeByID(mReturnFolder.getID()) != null) {
+                logD("Prefetch over, returning to " + mReturnFolder);
+                mReturning = true;
+                mAbort = false;
+                removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
+                sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
+                returnToFolder();
+                return;
+            }
+            transitionTo(mConnected);
+        }
+
+        /**
+         * Take the next step back to the folder browsed before a prefetch. The prefetched folders
+         * are below it, so the remote device normally just navigates up.
+         */
+        private void returnToFolder() {
+            BrowseTree.BrowseNode current = mBrowseTree.getCurrentBrowsedFolder();
+            if (mReturnFolder.equals(current)) {
+                logD("Returned to " + current);
+                transitionTo(mConnected);
+                return;
+            }
+            for (BrowseTree.BrowseNode node = current.getParent(); node != null;
+                    node = node.getParent()) {
+                if (node.equals(mReturnFolder)) {
+                    navigateUp();
+                    return;
+                }
+            }
+            navigateToFolderOrRetrieve(mReturnFolder);
+        }
+
+        private void navigateUp() {
+            BrowseTree.BrowseNode current = mBrowseTree.getCurrentBrowsedFolder();
+            logD("NAVIGATING UP " + current.toString());
+            mNextStep = current.getParent();
+            if (!current.keepAsStale()) {
+                current.setCached(false);
+                removeUnusedArtworkFromBrowseTree();
+            }
+            mService.changeFolderPathNative(
+                    mDeviceAddress,
+                    AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_UP,
+                    0);
+        }
+
         /**
          * shouldAbort calculates the cases where fetching the current directory is no longer
          * necessary.
@@ -967,10 +1189,52 @@ class AvrcpControllerStateMachine extends StateMachine {
             return false;
         }
 
+        /**
+         * Mark the folder as cached once its items were fetched, replacing a restored listing,
+         * and save the complete listings for the next connections.
+         *
+         * @param complete false if the fetch was aborted before all the items were received
+         */
+        private void onFolderItemsFetched(boolean complete) {
+            if (mRevalidating) {
+                if (!complete) {
+                    // The restored listing stays until the folder is fetched again
+                    return;
+                }
+                boolean changed = mBrowseNode.revalidateChildren(mFetchedItems);
+                mBrowseTreeCache.onRevalidated(changed);
+                if (changed) {
+                    notifyChanged(mBrowseNode);
+                    removeUnusedArtworkFromBrowseTree();
+                }
+            } else if (mPrefetching && !complete) {
+                // The folder is fetched again from the start if the user browses it
+                mBrowseNode.setCached(false);
+                removeUnusedArtworkFromBrowseTree();
+            } else {
+                mBrowseNode.setCached(true);
+            }
+            if (complete) {
+                saveFolderItems(mBrowseNode);
+                if (mPrefetching) {
+                    mBrowseNode.setPrefetched();
+                    mPrefetchedFolders++;
+                } else {
+                    queuePrefetch(mBrowseNode);
+                }
+            }
+        }
+
+        private int getFetchedCount(BrowseTree.BrowseNode target) {
+            if (mRevalidating && target.equals(mBrowseNode)) {
+                return mFetchedItems.size();
+            }
+            return target.getChildrenCount();
+        }
+
         private void fetchContents(BrowseTree.BrowseNode target) {
-            int start = target.getChildrenCount();
-            int end = Math.min(target.getExpectedChildren(), target.getChildrenCount()
-                    + ITEM_PAGE_SIZE) - 1;
+            int start = getFetchedCount(target);
+            int end = Math.min(target.getExpectedChildren(), start + ITEM_PAGE_SIZE) - 1;
             logD("fetchContents(title=" + target.getID() + ", scope=" + target.getScope()
                     + ", start=" + start + ", end=" + end + ", expected="
                     + target.getExpectedChildren() + ")");
@@ -1026,15 +1290,7 @@ class AvrcpControllerStateMachine extends StateMachine {
                     transitionTo(mConnected);
                 }
             } else if (mNextStep.equals(mBrowseTree.mNavigateUpNode)) {
-                logD("NAVIGATING UP " + mNextStep.toString());
-                mNextStep = mBrowseTree.getCurrentBrowsedFolder().getParent();
-                mBrowseTree.getCurrentBrowsedFolder().setCached(false);
-                removeUnusedArtworkFromBrowseTree();
-                mService.changeFolderPathNative(
-                        mDeviceAddress,
-                        AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_UP,
-                        0);
-
+                navigateUp();
             } else {
                 logD("NAVIGATING DOWN " + mNextStep.toString());
                 mService.changeFolderPathNative(
@@ -1047,7 +1303,15 @@ class AvrcpControllerStateMachine extends StateMachine {
         @Override
         public void exit() {
             removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
+            if (mPrefetching) {
+                scheduleNextPrefetch();
+            }
+            mPrefetching = false;
+            mReturnFolder = null;
+            mReturning = false;
             mBrowseNode = null;
+            mRevalidating = false;
+            mFetchedItems.clear();
             super.exit();
         }
     }
@@ -1055,6 +1319,7 @@ class AvrcpControllerStateMachine extends StateMachine {
     protected class Disconnecting extends State {
         @Override
         public void enter() {
+            cancelPrefetch();
             disconnectCoverArt();
             onBrowsingDisconnected();
             if (mService.sBrowseTree != null) {
@@ -19,48 +19,157 @@ package com.android.bluetooth.avrcpcontroller;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.SystemProperties;
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * An abstraction of the cover art image storage mechanism.
+ *
+ * Images are kept in memory in a least recently used cache bounded by the total number of bytes
+ * used by the stored Bitmaps. When the memory budget is exceeded, the least recently used images
+ * are compressed to an on-disk tier, if enabled, so they can be reloaded without downloading them
+ * again from the remote device. Images are only fully forgotten when removed explicitly, when
+ * their device's images are removed, or when they're evicted with the disk tier disabled.
+ *
+ * Images are compressed to and decoded from the disk tier outside of the storage lock, so the
+ * threads looking up images never wait on disk I/O. The disk tier only holds the images of the
+ * current session, what's left from a previous one is deleted when the storage is created.
  */
 public class AvrcpCoverArtStorage {
     private static final String TAG = "AvrcpCoverArtStorage";
     private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
 
+    // Memory and disk tier configuration for cover art
+    public static final String AVRCP_CONTROLLER_COVER_ART_CACHE_BYTES =
+            "persist.bluetooth.avrcpcontroller.COVER_ART_CACHE_BYTES";
+    public static final String AVRCP_CONTROLLER_COVER_ART_DISK_CACHE =
+            "persist.bluetooth.avrcpcontroller.COVER_ART_DISK_CACHE";
+    @VisibleForTesting
+    static final long DEFAULT_MAX_CACHE_BYTES = 8 * 1024 * 1024;
+    @VisibleForTesting
+    static final String DISK_CACHE_DIRECTORY = "avrcp_cover_art";
+    private static final String DISK_CACHE_FILE_EXTENSION = ".png";
+
     private final Context mContext;
+    private final long mMaxCacheBytes;
+    private final File mDiskCacheDir;
 
     /* Each device gets its own place to land images. This makes it easier to clean things up on a
      * per device basis. This also allows us to be confident that acting on one device will not
      * impact the images of another.
      *
-     * The "landing place" is simply a map that will direct a given UUID to the proper bitmap image
+     * The "landing place" is simply a set of the UUIDs known for the device, whether the image is
+     * currently held in memory or has been moved to the disk tier. The images themselves live in
+     * mMemoryCache, ordered from least to most recently used.
      */
-    private final Map<BluetoothDevice, Map<String, Bitmap>> mDeviceImages =
-            new ConcurrentHashMap<>(1);
+    private final Map<BluetoothDevice, Set<String>> mDeviceImages = new HashMap<>(1);
+    private final LinkedHashMap<ImageKey, Bitmap> mMemoryCache =
+            new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+    private long mMemoryCacheBytes = 0;
+
+    // Images evicted from memory while they're being written to the disk tier. They can still be
+    // served from here until the write completes.
+    private final Map<ImageKey, Bitmap> mPendingDiskWrites = new HashMap<>();
+
+    // Statistics, reported in dumps
+    private long mMemoryHits = 0;
+    private long mDiskHits = 0;
+    private long mMisses = 0;
+    private long mEvictionsToDisk = 0;
+    private long mEvictionsDropped = 0;
+
+    /**
+     * A key uniquely identifying an image across all devices
+     */
+    private static final class ImageKey {
+        final BluetoothDevice mDevice;
+        final String mImageUuid;
+
+        ImageKey(BluetoothDevice device, String imageUuid) {
+            mDevice = device;
+            mImageUuid = imageUuid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ImageKey)) return false;
+            ImageKey other = (ImageKey) o;
+            return mDevice.equals(other.mDevice) && mImageUuid.equals(other.mImageUuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mDevice, mImageUuid);
+        }
+    }
 
     /**
      * Create and initialize this Cover Art storage interface
      */
     public AvrcpCoverArtStorage(Context context) {
+        this(context,
+                SystemProperties.getLong(AVRCP_CONTROLLER_COVER_ART_CACHE_BYTES,
+                        DEFAULT_MAX_CACHE_BYTES),
+                SystemProperties.getBoolean(AVRCP_CONTROLLER_COVER_ART_DISK_CACHE, true));
+    }
+
+    /**
+     * Create and initialize this Cover Art storage interface with a specific configuration
+     *
+     * @param context The context used to notify image changes and locate the disk tier
+     * @param maxCacheBytes The maximum number of bytes of Bitmap memory kept in memory
+     * @param diskCacheEnabled True to move evicted images to disk rather than dropping them
+     */
+    @VisibleForTesting
+    AvrcpCoverArtStorage(Context context, long maxCacheBytes, boolean diskCacheEnabled) {
         mContext = context;
+        mMaxCacheBytes = maxCacheBytes;
+        mDiskCacheDir = diskCacheEnabled
+                ? new File(context.getCacheDir(), DISK_CACHE_DIRECTORY) : null;
+        // Image UUIDs are only valid for a connection, nothing on disk can be used again
+        clearDiskCache(context);
+    }
+
+    /**
+     * Delete the disk tier of all devices, including the images left from previous sessions
+     *
+     * @param context The context used to locate the disk tier
+     */
+    public static void clearDiskCache(Context context) {
+        deleteDirectory(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY));
     }
 
     /**
      * Determine if an image already exists in storage
      *
+     * An image that was moved to the disk tier still exists, as it can be reloaded.
+     *
      * @param device - The device the images was downloaded from
      * @param imageUuid - The UUID that identifies the image
      */
-    public boolean doesImageExist(BluetoothDevice device, String imageUuid) {
+    public synchronized boolean doesImageExist(BluetoothDevice device, String imageUuid) {
         if (device == null || imageUuid == null || "".equals(imageUuid)) return false;
-        Map<String, Bitmap> images = mDeviceImages.get(device);
+        Set<String> images = mDeviceImages.get(device);
         if (images == null) return false;
-        return images.containsKey(imageUuid);
+        return images.contains(imageUuid);
     }
 
     /**
@@ -72,9 +181,56 @@ public class AvrcpCoverArtStorage {
      */
     public Bitmap getImage(BluetoothDevice device, String imageUuid) {
         if (device == null || imageUuid == null || "".equals(imageUuid)) return null;
-        Map<String, Bitmap> images = mDeviceImages.get(device);
-        if (images == null) return null;
-        return images.get(imageUuid);
+        ImageKey key = new ImageKey(device, imageUuid);
+        List<ImageKey> evicted = new ArrayList<>();
+        Bitmap image;
+        synchronized (this) {
+            if (!isImageKnown(key)) {
+                mMisses++;
+                return null;
+            }
+
+            image = mMemoryCache.get(key);
+            if (image != null) {
+                mMemoryHits++;
+                return image;
+            }
+
+            image = mPendingDiskWrites.get(key);
+            if (image != null) {
+                mMemoryHits++;
+                putInMemory(key, image, evicted);
+            }
+        }
+
+        if (image == null) {
+            // Decode outside of the lock, the image is put back in memory once loaded
+            image = readFromDisk(key);
+            synchronized (this) {
+                Bitmap current = mMemoryCache.get(key);
+                if (current != null) {
+                    image = current;
+                } else if (!isImageKnown(key)) {
+                    image = null;
+                } else if (image == null && mPendingDiskWrites.containsKey(key)) {
+                    // Evicted again while we were reading, the write isn't done yet
+                    image = mPendingDiskWrites.get(key);
+                    mMemoryHits++;
+                    putInMemory(key, image, evicted);
+                } else if (image == null) {
+                    // The disk copy is gone, we'll have to download the image again
+                    mMisses++;
+                    forgetImage(key);
+                } else {
+                    mDiskHits++;
+                    debug("Image '" + imageUuid + "' reloaded from disk for device " + device);
+                    putInMemory(key, image, evicted);
+                }
+            }
+        }
+
+        writeToDisk(evicted);
+        return image;
     }
 
     /**
@@ -91,16 +247,22 @@ public class AvrcpCoverArtStorage {
             return null;
         }
 
-        // A Thread safe way of creating a new UUID->Image set for a device. The putIfAbsent()
-        // function will return the value of the key if it wasn't absent. If it returns null, then
-        // there was no value there and we are to assume the reference we passed in was added.
-        Map<String, Bitmap> newImageSet = new ConcurrentHashMap<String, Bitmap>(1);
-        Map<String, Bitmap> images = mDeviceImages.putIfAbsent(device, newImageSet);
-        if (images == null) {
-            newImageSet.put(imageUuid, image);
-        } else {
-            images.put(imageUuid, image);
+        List<ImageKey> evicted = new ArrayList<>();
+        synchronized (this) {
+            ImageKey key = new ImageKey(device, imageUuid);
+            Set<String> images = mDeviceImages.get(device);
+            if (images == null) {
+                images = new LinkedHashSet<String>(1);
+                mDeviceImages.put(device, images);
+            }
+            images.add(imageUuid);
+
+            // Any older copy on disk is stale now that we have a new image for this UUID
+            mPendingDiskWrites.remove(key);
+            deleteFromDisk(key);
+            putInMemory(key, image, evicted);
         }
+        writeToDisk(evicted);
 
         Uri uri = AvrcpCoverArtProvider.getImageUri(device, imageUuid);
         mContext.getContentResolver().notifyChange(uri, null);
@@ -114,18 +276,23 @@ public class AvrcpCoverArtStorage {
      * @param device The device the image belongs to
      * @param imageUuid - The UUID that identifies the image
      */
-    public void removeImage(BluetoothDevice device, String imageUuid) {
+    public synchronized void removeImage(BluetoothDevice device, String imageUuid) {
         debug("Removing image '" + imageUuid + "' from device " + device);
         if (device == null || imageUuid == null || "".equals(imageUuid)) return;
 
-        Map<String, Bitmap> images = mDeviceImages.get(device);
+        Set<String> images = mDeviceImages.get(device);
         if (images == null) {
             return;
         }
 
+        ImageKey key = new ImageKey(device, imageUuid);
+        removeFromMemory(key);
+        mPendingDiskWrites.remove(key);
+        deleteFromDisk(key);
         images.remove(imageUuid);
         if (images.size() == 0) {
             mDeviceImages.remove(device);
+            deleteDirectory(getDeviceDiskCacheDir(device));
         }
 
         debug("Image '" + imageUuid + "' removed for device '" + device.getAddress() + "'");
@@ -136,31 +303,243 @@ public class AvrcpCoverArtStorage {
      *
      * @param device The device you wish to have images removed for
      */
-    public void removeImagesForDevice(BluetoothDevice device) {
+    public synchronized void removeImagesForDevice(BluetoothDevice device) {
         if (device == null) return;
         debug("Remove cover art for device " + device.getAddress());
-        mDeviceImages.remove(device);
+        Set<String> images = mDeviceImages.remove(device);
+        if (images != null) {
+            for (String imageUuid : images) {
+                ImageKey key = new ImageKey(device, imageUuid);
+                removeFromMemory(key);
+                mPendingDiskWrites.remove(key);
+            }
+        }
+        deleteDirectory(getDeviceDiskCacheDir(device));
     }
 
     /**
      * Clear the entirety of storage
      */
-    public void clear() {
+    public synchronized void clear() {
         debug("Clearing all images");
         mDeviceImages.clear();
+        mMemoryCache.clear();
+        mMemoryCacheBytes = 0;
+        mPendingDiskWrites.clear();
+        deleteDirectory(mDiskCacheDir);
+    }
+
+    /**
+     * Get the number of bytes of Bitmap memory currently held by the memory tier
+     */
+    @VisibleForTesting
+    synchronized long getMemoryCacheBytes() {
+        return mMemoryCacheBytes;
+    }
+
+    /**
+     * Determine if an image is currently held by the memory tier
+     */
+    @VisibleForTesting
+    synchronized boolean isImageInMemory(BluetoothDevice device, String imageUuid) {
+        if (device == null || imageUuid == null) return false;
+        return mMemoryCache.containsKey(new ImageKey(device, imageUuid));
+    }
+
+    /**
+     * Check whether evicted images are still being written to the disk tier
+     */
+    @VisibleForTesting
+    synchronized boolean hasPendingDiskWrites() {
+        return !mPendingDiskWrites.isEmpty();
+    }
+
+    private boolean isImageKnown(ImageKey key) {
+        Set<String> images = mDeviceImages.get(key.mDevice);
+        return images != null && images.contains(key.mImageUuid);
+    }
+
+    private void forgetImage(ImageKey key) {
+        Set<String> images = mDeviceImages.get(key.mDevice);
+        if (images == null) return;
+        images.remove(key.mImageUuid);
+        if (images.isEmpty()) {
+            mDeviceImages.remove(key.mDevice);
+        }
+    }
+
+    /**
+     * Place an image in the memory tier as the most recently used entry, evicting the least
+     * recently used images until the memory budget is respected again.
+     *
+     * The image being added is never evicted, even if it alone exceeds the budget.
+     *
+     * @param evicted Receives the keys of the evicted images waiting to be written to disk
+     */
+    private void putInMemory(ImageKey key, Bitmap image, List<ImageKey> evicted) {
+        removeFromMemory(key);
+        mMemoryCache.put(key, image);
+        mMemoryCacheBytes += image.getAllocationByteCount();
+
+        Iterator<Map.Entry<ImageKey, Bitmap>> it = mMemoryCache.entrySet().iterator();
+        while (mMemoryCacheBytes > mMaxCacheBytes && it.hasNext()) {
+            Map.Entry<ImageKey, Bitmap> eldest = it.next();
+            if (eldest.getKey().equals(key)) break;
+            it.remove();
+            mMemoryCacheBytes -= eldest.getValue().getAllocationByteCount();
+            evict(eldest.getKey(), eldest.getValue(), evicted);
+        }
+    }
+
+    private void removeFromMemory(ImageKey key) {
+        Bitmap image = mMemoryCache.remove(key);
+        if (image != null) {
+            mMemoryCacheBytes -= image.getAllocationByteCount();
+        }
+    }
+
+    /**
+     * Handle an image leaving the memory tier, queuing it to be moved to disk if possible
+     */
+    private void evict(ImageKey key, Bitmap image, List<ImageKey> evicted) {
+        if (mDiskCacheDir != null) {
+            mPendingDiskWrites.put(key, image);
+            evicted.add(key);
+            return;
+        }
+
+        mEvictionsDropped++;
+        debug("Image '" + key.mImageUuid + "' evicted and dropped");
+        forgetImage(key);
+    }
+
+    /**
+     * Write evicted images to the disk tier. Must be called without holding the storage lock.
+     */
+    private void writeToDisk(List<ImageKey> evicted) {
+        for (ImageKey key : evicted) {
+            Bitmap image;
+            synchronized (this) {
+                image = mPendingDiskWrites.get(key);
+            }
+            if (image == null) continue;
+
+            boolean written = writeToDisk(key, image);
+            synchronized (this) {
+                boolean current = mPendingDiskWrites.get(key) == image;
+                if (current) {
+                    mPendingDiskWrites.remove(key);
+                }
+                if (written && current && isImageKnown(key)) {
+                    mEvictionsToDisk++;
+                    debug("Image '" + key.mImageUuid + "' evicted to disk");
+                } else if (current && !mMemoryCache.containsKey(key)) {
+                    // The image was removed meanwhile, or couldn't be written
+                    if (isImageKnown(key)) {
+                        mEvictionsDropped++;
+                        debug("Image '" + key.mImageUuid + "' evicted and dropped");
+                        forgetImage(key);
+                    }
+                    deleteFromDisk(key);
+                } else if (!current && !isImageKnown(key)) {
+                    deleteFromDisk(key);
+                }
+            }
+        }
+    }
+
+    private File getDeviceDiskCacheDir(BluetoothDevice device) {
+        if (mDiskCacheDir == null) return null;
+        return new File(mDiskCacheDir, device.getAddress().replace(":", ""));
+    }
+
+    private File getDiskCacheFile(ImageKey key) {
+        File deviceDir = getDeviceDiskCacheDir(key.mDevice);
+        if (deviceDir == null) return null;
+        return new File(deviceDir, key.mImageUuid + DISK_CACHE_FILE_EXTENSION);
+    }
+
+    private boolean writeToDisk(ImageKey key, Bitmap image) {
+        File file = getDiskCacheFile(key);
+        if (file == null) return false;
+        // Images are immutable per UUID, so a copy left from a previous eviction is still good
+        if (file.exists()) return true;
+        File deviceDir = file.getParentFile();
+        if (!deviceDir.isDirectory() && !deviceDir.mkdirs()) {
+            warn("Could not create disk cache directory " + deviceDir);
+            return false;
+        }
+        // Write to a temporary file first, so a partial image is never read back
+        File tempFile = new File(deviceDir, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            if (!image.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                warn("Could not compress image '" + key.mImageUuid + "'");
+                tempFile.delete();
+                return false;
+            }
+        } catch (IOException e) {
+            warn("Could not write image '" + key.mImageUuid + "' to disk: " + e);
+            tempFile.delete();
+            return false;
+        }
+        if (!tempFile.renameTo(file)) {
+            warn("Could not move image '" + key.mImageUuid + "' to " + file);
+            tempFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private Bitmap readFromDisk(ImageKey key) {
+        File file = getDiskCacheFile(key);
+        if (file == null || !file.exists()) return null;
+        Bitmap image = BitmapFactory.decodeFile(file.getPath());
+        if (image == null) {
+            warn("Could not decode image '" + key.mImageUuid + "' from disk");
+            file.delete();
+        }
+        return image;
+    }
+
+    private void deleteFromDisk(ImageKey key) {
+        File file = getDiskCacheFile(key);
+        if (file != null && file.exists()) {
+            file.delete();
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        if (dir == null || !dir.exists()) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         String s = "CoverArtStorage:\n";
         for (BluetoothDevice device : mDeviceImages.keySet()) {
-            Map<String, Bitmap> images = mDeviceImages.get(device);
+            Set<String> images = mDeviceImages.get(device);
             s += "  " + device.getAddress() + " (" + images.size() + "):";
-            for (String uuid : images.keySet()) {
+            for (String uuid : images) {
                 s += "\n    " + uuid;
             }
             s += "\n";
         }
+        s += "  Memory: " + mMemoryCacheBytes + "/" + mMaxCacheBytes + " bytes, "
+                + mMemoryCache.size() + " images, Disk tier: "
+                + (mDiskCacheDir != null ? "enabled" : "disabled") + "\n";
+        s += "  Hits: " + mMemoryHits + " memory, " + mDiskHits + " disk, Misses: " + mMisses
+                + ", Evictions: " + mEvictionsToDisk + " to disk, " + mEvictionsDropped
+                + " dropped\n";
         return s;
     }
 
@@ -170,6 +549,10 @@ public class AvrcpCoverArtStorage {
         }
     }
 
+    private void warn(String msg) {
+        Log.w(TAG, msg);
+    }
+
     private void error(String msg) {
         Log.e(TAG, msg);
     }
@@ -130,6 +130,13 @@ public class BrowseTree {
         // without doing another fetch.
         boolean mCached = false;
 
+        // If the children of this folder were restored from the browse cache and have not been
+        // confirmed by the remote device yet.
+        boolean mStale = false;
+
+        // If this folder was fetched ahead of the user and was not browsed since.
+        boolean mPrefetched = false;
+
         byte mBrowseScope = AvrcpControllerService.BROWSE_SCOPE_VFS;
 
         // List of children.
@@ -217,6 +224,79 @@ public class BrowseTree {
             return false;
         }
 
+        /**
+         * Fill this folder with a listing from a previous connection, to be shown until the
+         * folder is fetched again from the remote device.
+         */
+        synchronized void restoreChildren(List<AvrcpItem> items) {
+            addChildren(items);
+            mStale = true;
+        }
+
+        /**
+         * Replace the children restored from the browse cache by the listing fetched from the
+         * remote device. Children that did not change are kept, so their media ids stay valid,
+         * and only take the cover art of the fetched items.
+         *
+         * @return true if the contents of this folder changed
+         */
+        synchronized boolean revalidateChildren(List<AvrcpItem> items) {
+            boolean changed = items.size() != mChildren.size();
+            for (int i = 0; !changed && i < items.size(); i++) {
+                changed = !BrowseTreeCache.isSameItem(mChildren.get(i).mItem, items.get(i));
+            }
+            if (changed) {
+                setCached(false);
+                addChildren(items);
+            } else {
+                for (int i = 0; i < items.size(); i++) {
+                    BrowseNode child = mChildren.get(i);
+                    String imageUuid = items.get(i).getCoverArtUuid();
+                    if (imageUuid == null) continue;
+                    child.mItem.setCoverArtUuid(imageUuid);
+                    indicateCoverArtUsed(child.getID(), imageUuid);
+                    if (items.get(i).getCoverArtLocation() != null) {
+                        child.setCoverArtUri(items.get(i).getCoverArtLocation());
+                        changed = true;
+                    }
+                }
+            }
+            setCached(true);
+            return changed;
+        }
+
+        synchronized boolean isStale() {
+            return mStale;
+        }
+
+        synchronized void setPrefetched() {
+            mPrefetched = true;
+        }
+
+        /**
+         * Keep the children of a prefetched folder once the remote device browses away from it,
+         * to be shown until the folder is fetched again like a listing restored from the cache.
+         *
+         * @return false if the folder was not prefetched, and its children must be cleared
+         */
+        synchronized boolean keepAsStale() {
+            if (!mPrefetched) {
+                return false;
+            }
+            mPrefetched = false;
+            mCached = false;
+            mStale = true;
+            return true;
+        }
+
+        synchronized List<AvrcpItem> getChildItems() {
+            List<AvrcpItem> items = new ArrayList<AvrcpItem>(mChildren.size());
+            for (BrowseNode child : mChildren) {
+                items.add(child.mItem);
+            }
+            return items;
+        }
+
         synchronized void removeChild(BrowseNode node) {
             mChildren.remove(node);
             mBrowseMap.remove(node.getID());
@@ -280,6 +360,8 @@ public class BrowseTree {
         synchronized void setCached(boolean cached) {
             if (DBG) Log.d(TAG, "Set Cache" + cached + "Node" + toString());
             mCached = cached;
+            mStale = false;
+            mPrefetched = false;
             if (!cached) {
                 for (BrowseNode child : mChildren) {
                     mBrowseMap.remove(child.getID());
@@ -356,6 +438,31 @@ public class BrowseTree {
         }
     }
 
+    /**
+     * Get the path identifying a folder of a player across connections, made of the player and
+     * the folders leading to the given node. Only the player and the folders of its virtual
+     * file system have a path.
+     *
+     * @return the path, or null if the node isn't a player or one of its folders
+     */
+    synchronized String getFolderPath(BrowseNode node) {
+        ArrayList<String> folders = new ArrayList<String>();
+        BrowseNode current = node;
+        while (current != null && !current.isPlayer()) {
+            if (current.getScope() != AvrcpControllerService.BROWSE_SCOPE_VFS) {
+                return null;
+            }
+            folders.add(0, current.getBluetoothID() + ":" + current.mItem.getDisplayableName());
+            current = current.getParent();
+        }
+        if (current == null) {
+            return null;
+        }
+        folders.add(0, PLAYER_PREFIX + current.getBluetoothID() + ":"
+                + current.mItem.getDisplayableName());
+        return String.join("/", folders);
+    }
+
     synchronized BrowseNode findBrowseNodeByID(String parentID) {
         BrowseNode bn = mBrowseMap.get(parentID);
         if (bn == null) {
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.avrcpcontroller;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An on-disk cache of the folder listings browsed on remote devices.
+ *
+ * Listings are stored per device and keyed by the path of the folder from its player, as given
+ * by {@link BrowseTree#getFolderPath}, so they can be found again once the browse tree is rebuilt
+ * on a new connection. A restored listing is only shown while the folder is fetched again from the
+ * device, and is replaced if the device's listing changed. Cover art handles are not stored, as
+ * they're only valid for the connection they were received on.
+ *
+ * Each device keeps its most recently used listings, bounded by {@link #MAX_FOLDERS_PER_DEVICE}.
+ * Listings are written to disk on a background thread, at most once per {@link #WRITE_DELAY_MS}
+ * for all the listings saved meanwhile.
+ */
+public class BrowseTreeCache {
+    private static final String TAG = "BrowseTreeCache";
+    private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
+
+    public static final String AVRCP_CONTROLLER_BROWSE_CACHE =
+            "persist.bluetooth.avrcpcontroller.BROWSE_CACHE";
+    @VisibleForTesting
+    static final String CACHE_DIRECTORY = "avrcp_browse";
+    @VisibleForTesting
+    static final int MAX_FOLDERS_PER_DEVICE = 64;
+    @VisibleForTesting
+    static final int MAX_ITEMS_PER_FOLDER = 512;
+    @VisibleForTesting
+    static final long WRITE_DELAY_MS = 1000;
+    private static final String CACHE_FILE_EXTENSION = ".json";
+
+    // Keys of the stored listings and items
+    private static final String KEY_PATH = "path";
+    private static final String KEY_ITEMS = "items";
+    private static final String KEY_ITEM_TYPE = "itemType";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_UID = "uid";
+    private static final String KEY_DISPLAYABLE_NAME = "displayableName";
+    private static final String KEY_TITLE = "title";
+    private static final String KEY_ARTIST = "artist";
+    private static final String KEY_ALBUM = "album";
+    private static final String KEY_TRACK_NUMBER = "trackNumber";
+    private static final String KEY_TOTAL_TRACKS = "totalTracks";
+    private static final String KEY_GENRE = "genre";
+    private static final String KEY_PLAYING_TIME = "playingTime";
+    private static final String KEY_PLAYABLE = "playable";
+    private static final String KEY_BROWSABLE = "browsable";
+
+    private final File mCacheDir;
+    private final HandlerThread mWriteThread;
+    private final Handler mWriteHandler;
+    // Held while files are written or deleted, taken before the lock of this cache
+    private final Object mWriteLock = new Object();
+
+    // Listings of each device, by folder path, from the least to the most recently used. Devices
+    // are loaded from disk the first time one of their listings is needed.
+    private final Map<BluetoothDevice, LinkedHashMap<String, JSONArray>> mListings =
+            new HashMap<>(1);
+    // Devices with listings not written to disk yet
+    private final Set<BluetoothDevice> mPendingWrites = new HashSet<>(1);
+
+    // Statistics, reported in dumps
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mUnchanged = 0;
+    private long mChanged = 0;
+
+    /**
+     * Create a browse cache storing its listings in the cache directory of the given context
+     */
+    public BrowseTreeCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        mWriteThread = new HandlerThread(TAG);
+        mWriteThread.start();
+        mWriteHandler = new Handler(mWriteThread.getLooper());
+    }
+
+    /**
+     * Write the pending listings to disk and stop the background thread
+     */
+    public void cleanup() {
+        mWriteHandler.removeCallbacksAndMessages(null);
+        flush();
+        mWriteThread.quitSafely();
+    }
+
+    /**
+     * Get the listing of a folder from a previous connection
+     *
+     * @param device The device the folder belongs to
+     * @param path The path of the folder
+     * @return New items for the folder's children, or null if the folder isn't cached
+     */
+    public synchronized List<AvrcpItem> getListing(BluetoothDevice device, String path) {
+        if (device == null || path == null) return null;
+        JSONArray listing = getDeviceListings(device).get(path);
+        if (listing == null) {
+            mMisses++;
+            return null;
+        }
+
+        List<AvrcpItem> items = new ArrayList<>(listing.length());
+        try {
+            for (int i = 0; i < listing.length(); i++) {
+                items.add(fromJson(device, listing.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            warn("Dropping unreadable listing of '" + path + "': " + e);
+            getDeviceListings(device).remove(path);
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        debug("Restored " + items.size() + " items of '" + path + "' for device " + device);
+        return items;
+    }
+
+    /**
+     * Save the complete listing of a folder, replacing any previous one
+     *
+     * @param device The device the folder belongs to
+     * @param path The path of the folder
+     * @param items The children of the folder
+     */
+    public synchronized void putListing(BluetoothDevice device, String path,
+            List<AvrcpItem> items) {
+        if (device == null || path == null || items == null) return;
+        if (items.size() > MAX_ITEMS_PER_FOLDER) {
+            debug("Not caching '" + path + "', " + items.size() + " items");
+            return;
+        }
+
+        JSONArray listing = new JSONArray();
+        try {
+            for (AvrcpItem item : items) {
+                listing.put(toJson(item));
+            }
+        } catch (JSONException e) {
+            warn("Could not cache listing of '" + path + "': " + e);
+            return;
+        }
+
+        LinkedHashMap<String, JSONArray> listings = getDeviceListings(device);
+        listings.put(path, listing);
+        Iterator<String> it = listings.keySet().iterator();
+        while (listings.size() > MAX_FOLDERS_PER_DEVICE && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        if (mPendingWrites.isEmpty()) {
+            mWriteHandler.postDelayed(this::flush, WRITE_DELAY_MS);
+        }
+        mPendingWrites.add(device);
+    }
+
+    /**
+     * Write the listings saved since the last write to disk
+     */
+    @VisibleForTesting
+    void flush() {
+        synchronized (mWriteLock) {
+            Map<BluetoothDevice, LinkedHashMap<String, JSONArray>> pending = new HashMap<>();
+            synchronized (this) {
+                // The listings themselves are never modified once stored, only replaced
+                for (BluetoothDevice device : mPendingWrites) {
+                    pending.put(device, new LinkedHashMap<>(mListings.get(device)));
+                }
+                mPendingWrites.clear();
+            }
+            for (Map.Entry<BluetoothDevice, LinkedHashMap<String, JSONArray>> entry
+                    : pending.entrySet()) {
+                writeToDisk(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Record the outcome of fetching again a folder restored from this cache
+     *
+     * @param changed True if the device's listing differed from the restored one
+     */
+    public synchronized void onRevalidated(boolean changed) {
+        if (changed) {
+            mChanged++;
+        } else {
+            mUnchanged++;
+        }
+    }
+
+    /**
+     * Remove all the listings of a device
+     */
+    public void removeDevice(BluetoothDevice device) {
+        if (device == null) return;
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                mListings.remove(device);
+                mPendingWrites.remove(device);
+            }
+            getCacheFile(device).delete();
+        }
+    }
+
+    /**
+     * Determine whether two items describe the same entry of a folder listing
+     *
+     * Cover art is not compared, as it isn't part of the cached listings.
+     */
+    static boolean isSameItem(AvrcpItem a, AvrcpItem b) {
+        return a.getItemType() == b.getItemType()
+                && a.getType() == b.getType()
+                && a.getUid() == b.getUid()
+                && a.isPlayable() == b.isPlayable()
+                && a.isBrowsable() == b.isBrowsable()
+                && Objects.equals(a.getDisplayableName(), b.getDisplayableName())
+                && Objects.equals(a.getTitle(), b.getTitle());
+    }
+
+    private LinkedHashMap<String, JSONArray> getDeviceListings(BluetoothDevice device) {
+        LinkedHashMap<String, JSONArray> listings = mListings.get(device);
+        if (listings == null) {
+            listings = readFromDisk(device);
+            mListings.put(device, listings);
+        }
+        return listings;
+    }
+
+    private File getCacheFile(BluetoothDevice device) {
+        return new File(mCacheDir, device.getAddress().replace(":", "") + CACHE_FILE_EXTENSION);
+    }
+
+    private LinkedHashMap<String, JSONArray> readFromDisk(BluetoothDevice device) {
+        LinkedHashMap<String, JSONArray> listings =
+                new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+        File file = getCacheFile(device);
+        if (!file.exists()) return listings;
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < data.length
+                    && (read = in.read(data, offset, data.length - offset)) > 0) {
+                offset += read;
+            }
+            JSONArray entries = new JSONArray(new String(data, 0, offset, StandardCharsets.UTF_8));
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                listings.put(entry.getString(KEY_PATH), entry.getJSONArray(KEY_ITEMS));
+            }
+            debug("Loaded " + listings.size() + " listings for device " + device);
+        } catch (IOException | JSONException e) {
+            warn("Could not read the browse cache of device " + device + ": " + e);
+            listings.clear();
+            file.delete();
+        }
+        return listings;
+    }
+
+    private void writeToDisk(BluetoothDevice device, LinkedHashMap<String, JSONArray> listings) {
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            warn("Could not create browse cache directory " + mCacheDir);
+            return;
+        }
+        File file = getCacheFile(device);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            JSONArray entries = new JSONArray();
+            for (Map.Entry<String, JSONArray> listing : listings.entrySet()) {
+                JSONObject entry = new JSONObject();
+                entry.put(KEY_PATH, listing.getKey());
+                entry.put(KEY_ITEMS, listing.getValue());
+                entries.put(entry);
+            }
+            out.write(entries.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            warn("Could not write the browse cache of device " + device + ": " + e);
+            file.delete();
+        }
+    }
+
+    private static JSONObject toJson(AvrcpItem item) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_ITEM_TYPE, item.getItemType());
+        json.put(KEY_TYPE, item.getType());
+        json.put(KEY_UID, item.getUid());
+        json.put(KEY_DISPLAYABLE_NAME, item.getDisplayableName());
+        json.put(KEY_TITLE, item.getTitle());
+        json.put(KEY_ARTIST, item.getArtistName());
+        json.put(KEY_ALBUM, item.getAlbumName());
+        json.put(KEY_TRACK_NUMBER, item.getTrackNumber());
+        json.put(KEY_TOTAL_TRACKS, item.getTotalNumberOfTracks());
+        json.put(KEY_GENRE, item.getGenre());
+        json.put(KEY_PLAYING_TIME, item.getPlayingTime());
+        json.put(KEY_PLAYABLE, item.isPlayable());
+        json.put(KEY_BROWSABLE, item.isBrowsable());
+        return json;
+    }
+
+    private static AvrcpItem fromJson(BluetoothDevice device, JSONObject json)
+            throws JSONException {
+        return new AvrcpItem.Builder()
+                .setDevice(device)
+                .setUuid(UUID.randomUUID().toString())
+                .setItemType(json.getInt(KEY_ITEM_TYPE))
+                .setType(json.getInt(KEY_TYPE))
+                .setUid(json.getLong(KEY_UID))
+                .setDisplayableName(json.optString(KEY_DISPLAYABLE_NAME, null))
+                .setTitle(json.optString(KEY_TITLE, null))
+                .setArtistName(json.optString(KEY_ARTIST, null))
+                .setAlbumName(json.optString(KEY_ALBUM, null))
+                .setTrackNumber(json.optLong(KEY_TRACK_NUMBER))
+                .setTotalNumberOfTracks(json.optLong(KEY_TOTAL_TRACKS))
+                .setGenre(json.optString(KEY_GENRE, null))
+                .setPlayingTime(json.optLong(KEY_PLAYING_TIME))
+                .setPlayable(json.optBoolean(KEY_PLAYABLE))
+                .setBrowsable(json.optBoolean(KEY_BROWSABLE))
+                .build();
+    }
+
+    @Override
+    public synchronized String toString() {
+        String s = "BrowseTreeCache:\n";
+        for (BluetoothDevice device : mListings.keySet()) {
+            s += "  " + device.getAddress() + ": " + mListings.get(device).size() + " folders"
+                    + (mPendingWrites.contains(device) ? ", not written yet" : "") + "\n";
+        }
+        s += "  Hits: " + mHits + ", Misses: " + mMisses + ", Revalidated: " + mUnchanged
+                + " unchanged, " + mChanged + " changed\n";
+        return s;
+    }
+
+    private void debug(String msg) {
+        if (DBG) {
+            Log.d(TAG, msg);
+        }
+    }
+
+    private void warn(String msg) {
+        Log.w(TAG, msg);
+    }
+}
@@ -56,6 +56,7 @@ import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.csip.GroupMembershipIndex;
 import com.android.bluetooth.le_audio.LeAudioService;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -502,8 +503,9 @@ public class BassClientService extends ProfileService {
             CsipSetCoordinatorService csipClient = mServiceFactory.getCsipSetCoordinatorService();
             if (csipClient != null) {
                 // Check for coordinated set of devices in the context of CAP
-                List<BluetoothDevice> csipDevices = csipClient.getGroupDevicesOrdered(device,
-                        BluetoothUuid.CAP);
+                GroupMembershipIndex index = csipClient.getGroupMembershipIndex();
+                List<BluetoothDevice> csipDevices = index.getMembers(
+                        index.getGroupId(device, BluetoothUuid.CAP));
                 if (!csipDevices.isEmpty()) {
                     return csipDevices;
                 } else {
@@ -69,6 +69,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 @VisibleForTesting
@@ -148,6 +150,11 @@ public class BassClientStateMachine extends StateMachine {
     @VisibleForTesting
     boolean mSetBroadcastCodePending = false;
     private final Map<Integer, Boolean> mPendingRemove = new HashMap();
+    // Last BASE parsed for each sync handle, to skip the reports with an unchanged BASE
+    // The reports are received on the callback thread, the sync is cancelled on both threads
+    private final Map<Integer, CachedBase> mCachedBases = new ConcurrentHashMap<>();
+    private final AtomicInteger mBaseParseCount = new AtomicInteger();
+    private final AtomicInteger mBaseSkipCount = new AtomicInteger();
     // Psync and PAST interfaces
     private PeriodicAdvertisingManager mPeriodicAdvManager;
     private boolean mAutoAssist = false;
@@ -290,11 +297,27 @@ public class BassClientStateMachine extends StateMachine {
     }
 
     void parseBaseData(BluetoothDevice device, int syncHandle, byte[] serviceData) {
-        log("parseBaseData" + Arrays.toString(serviceData));
-        BaseData base = BaseData.parseBaseData(serviceData);
+        int hash = Arrays.hashCode(serviceData);
+        BaseData base;
+        CachedBase cachedBase = mCachedBases.get(syncHandle);
+        if (cachedBase != null && cachedBase.mHash == hash
+                && Arrays.equals(cachedBase.mServiceData, serviceData)) {
+            log("parseBaseData: BASE unchanged for sync handle " + syncHandle);
+            base = cachedBase.mBase;
+            mBaseSkipCount.incrementAndGet();
+        } else {
+            log("parseBaseData" + Arrays.toString(serviceData));
+            base = BaseData.parseBaseData(serviceData);
+            mBaseParseCount.incrementAndGet();
+            if (base != null) {
+                mCachedBases.put(syncHandle, new CachedBase(serviceData, hash, base));
+                mService.updateBase(syncHandle, base);
+                base.print();
+            } else {
+                mCachedBases.remove(syncHandle);
+            }
+        }
         if (base != null) {
-            mService.updateBase(syncHandle, base);
-            base.print();
             if (mAutoTriggered) {
                 // successful auto periodic synchrnization with source
                 log("auto triggered assist");
@@ -324,7 +347,7 @@ public class BassClientStateMachine extends StateMachine {
         log("parseScanRecord" + record);
         BluetoothDevice srcDevice = mService.getDeviceForSyncHandle(syncHandle);
         Map<ParcelUuid, byte[]> bmsAdvDataMap = record.getServiceData();
-        if (bmsAdvDataMap != null) {
+        if (BassConstants.BASS_DBG && bmsAdvDataMap != null) {
             for (Map.Entry<ParcelUuid, byte[]> entry : bmsAdvDataMap.entrySet()) {
                 log("ParcelUUid = " + entry.getKey() + ", Value = "
                         + Arrays.toString(entry.getValue()));
@@ -404,6 +427,7 @@ public class BassClientStateMachine extends StateMachine {
             }
             mService.clearPeriodicAdvertisementResult(activeSyncedSrc);
             mService.setActiveSyncedSource(mDevice, null);
+            mCachedBases.clear();
             if (!mNoStopScanOffload) {
                 // trigger scan stop here
                 Message message = obtainMessage(STOP_SCAN_OFFLOAD);
@@ -522,6 +546,7 @@ public class BassClientStateMachine extends StateMachine {
                 @Override
                 public void onSyncLost(int syncHandle) {
                     log("OnSyncLost" + syncHandle);
+                    mCachedBases.remove(syncHandle);
                     BluetoothDevice srcDevice = mService.getDeviceForSyncHandle(syncHandle);
                     cancelActiveSync(srcDevice);
                 }
@@ -1884,12 +1909,24 @@ public class BassClientStateMachine extends StateMachine {
         return Integer.toString(what);
     }
 
+    @VisibleForTesting
+    int getBaseParseCount() {
+        return mBaseParseCount.get();
+    }
+
+    @VisibleForTesting
+    int getBaseSkipCount() {
+        return mBaseSkipCount.get();
+    }
+
     /**
      * Dump info
      */
     public void dump(StringBuilder sb) {
         ProfileService.println(sb, "mDevice: " + mDevice);
         ProfileService.println(sb, "  StateMachine: " + this);
+        ProfileService.println(sb, "  BASE parsed: " + mBaseParseCount + ", unchanged skipped: "
+                + mBaseSkipCount);
         // Dump the state machine logs
         StringWriter stringWriter = new StringWriter();
         PrintWriter printWriter = new PrintWriter(stringWriter);
@@ -1923,6 +1960,19 @@ public class BassClientStateMachine extends StateMachine {
         Log.d(TAG, builder.toString());
     }
 
+    /** A parsed BASE, with the service data it was parsed from */
+    private static class CachedBase {
+        final byte[] mServiceData;
+        final int mHash;
+        final BaseData mBase;
+
+        CachedBase(byte[] serviceData, int hash, BaseData base) {
+            mServiceData = serviceData;
+            mHash = hash;
+            mBase = base;
+        }
+    }
+
     /** Mockable wrapper of {@link BluetoothGatt}. */
     @VisibleForTesting
     public static class BluetoothGattTestableWrapper {
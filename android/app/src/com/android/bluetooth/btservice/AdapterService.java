@@ -272,6 +272,7 @@ public class AdapterService extends Service {
 
     /* TODO: Consider to remove the search API from this class, if changed to use call-back */
     private SdpManager mSdpManager = null;
+    private ProfileConnectionRegistry mProfileConnectionRegistry = null;
 
     private boolean mNativeAvailable;
     private boolean mCleaningUp;
@@ -516,6 +517,7 @@ public class AdapterService extends Service {
         mBluetoothKeystoreService.initJni();
 
         mSdpManager = SdpManager.init(this);
+        mProfileConnectionRegistry = ProfileConnectionRegistry.init();
         registerReceiver(mAlarmBroadcastReceiver, new IntentFilter(ACTION_ALARM_WAKEUP));
 
         mDatabaseManager = new DatabaseManager(this);
@@ -934,6 +936,11 @@ public class AdapterService extends Service {
             mSdpManager = null;
         }
 
+        if (mProfileConnectionRegistry != null) {
+            mProfileConnectionRegistry.cleanup();
+            mProfileConnectionRegistry = null;
+        }
+
         if (mActivityAttributionService != null) {
             mActivityAttributionService.cleanup();
         }
@@ -5204,6 +5211,9 @@ public class AdapterService extends Service {
         }
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
+        if (mProfileConnectionRegistry != null) {
+            mProfileConnectionRegistry.dump(writer);
+        }
 
         writer.write(sb.toString());
         writer.flush();
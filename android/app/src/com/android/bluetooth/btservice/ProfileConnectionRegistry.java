@@ -0,0 +1,234 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.util.Log;
+
+import com.android.bluetooth.Utils;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Registry of the remote devices that are not disconnected, for each profile.
+ *
+ * Profile state machines report their connection state transitions here, so that frequent
+ * queries such as getDevicesMatchingConnectionStates() only look at the devices that may be
+ * connected, without iterating over the bonded devices and their UUIDs.
+ *
+ * The registry is an index derived from the state machines, which remain the source of truth:
+ * the state of each device is always read from its profile service. The devices of a profile are
+ * kept in an immutable snapshot that is replaced on each transition, so readers never take a
+ * lock.
+ *
+ * The registry lives from the creation to the cleanup of the {@link AdapterService}.
+ */
+public class ProfileConnectionRegistry {
+    private static final boolean DBG = false;
+    private static final String TAG = "BluetoothProfileConnectionRegistry";
+
+    private static ProfileConnectionRegistry sInstance;
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private final Map<Integer, Map<BluetoothDevice, Integer>> mProfiles =
+            new ConcurrentHashMap<>();
+    // Serializes the writers, so no transition is lost when replacing a snapshot
+    private final Object mLock = new Object();
+
+    @VisibleForTesting
+    ProfileConnectionRegistry() {}
+
+    /**
+     * Create the registry, when the adapter service is created.
+     *
+     * @return the new instance of the registry
+     */
+    static ProfileConnectionRegistry init() {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = new ProfileConnectionRegistry();
+            return sInstance;
+        }
+    }
+
+    /**
+     * Get the instance of the registry.
+     *
+     * @return the instance, or null if the adapter service is not running
+     */
+    public static ProfileConnectionRegistry getInstance() {
+        synchronized (INSTANCE_LOCK) {
+            return sInstance;
+        }
+    }
+
+    /**
+     * Forget all the devices and drop the instance, when the adapter service is cleaned up.
+     */
+    void cleanup() {
+        synchronized (INSTANCE_LOCK) {
+            synchronized (mLock) {
+                mProfiles.clear();
+            }
+            if (sInstance == this) {
+                sInstance = null;
+            }
+        }
+    }
+
+    /**
+     * Record a connection state transition of a device for a profile. Must be called by the
+     * profile state machine before the transition is broadcast.
+     *
+     * @param profile the profile, one of the {@link BluetoothProfile} ids
+     * @param device the remote device
+     * @param fromState the previous connection state
+     * @param toState the new connection state
+     */
+    public void onConnectionStateChanged(int profile, BluetoothDevice device, int fromState,
+            int toState) {
+        if (device == null) {
+            return;
+        }
+        if (DBG) {
+            Log.d(TAG, "onConnectionStateChanged: " + BluetoothProfile.getProfileName(profile)
+                    + " " + device + ": " + fromState + "->" + toState);
+        }
+        synchronized (mLock) {
+            Map<BluetoothDevice, Integer> current =
+                    mProfiles.getOrDefault(profile, Collections.emptyMap());
+            Integer state = current.get(device);
+            if (state != null && state == toState) {
+                return;
+            }
+            if (state == null && toState == BluetoothProfile.STATE_DISCONNECTED) {
+                return;
+            }
+            Map<BluetoothDevice, Integer> states = new HashMap<>(current);
+            if (toState == BluetoothProfile.STATE_DISCONNECTED) {
+                states.remove(device);
+            } else {
+                states.put(device, toState);
+            }
+            mProfiles.put(profile, Collections.unmodifiableMap(states));
+        }
+    }
+
+    /**
+     * Get the devices of a profile that are not disconnected.
+     *
+     * @return the devices whose last reported state is not
+     * {@link BluetoothProfile#STATE_DISCONNECTED}
+     */
+    public List<BluetoothDevice> getDevices(int profile) {
+        return new ArrayList<>(mProfiles.getOrDefault(profile, Collections.emptyMap()).keySet());
+    }
+
+    /**
+     * Helper for the profile services: devices among the bonded devices in any of the given
+     * connection states. Unless the disconnected state is requested, only the devices known to
+     * the registry are checked. Otherwise, or when the adapter service is not running, every
+     * bonded device is checked.
+     *
+     * @param profile the profile, one of the {@link BluetoothProfile} ids
+     * @param bondedDevices the bonded devices
+     * @param states an array of states from {@link BluetoothProfile}
+     * @param supportsProfile whether a bonded device supports the profile
+     * @param connectionState the connection state of a device, from the profile service
+     * @return the list of devices matching the array of connection states
+     */
+    public static List<BluetoothDevice> getBondedDevicesMatchingConnectionStates(int profile,
+            BluetoothDevice[] bondedDevices, int[] states,
+            Predicate<BluetoothDevice> supportsProfile,
+            ToIntFunction<BluetoothDevice> connectionState) {
+        return getBondedDevicesMatchingConnectionStates(getInstance(), profile, bondedDevices,
+                states, supportsProfile, connectionState);
+    }
+
+    @VisibleForTesting
+    static List<BluetoothDevice> getBondedDevicesMatchingConnectionStates(
+            ProfileConnectionRegistry registry, int profile, BluetoothDevice[] bondedDevices,
+            int[] states, Predicate<BluetoothDevice> supportsProfile,
+            ToIntFunction<BluetoothDevice> connectionState) {
+        List<BluetoothDevice> devices = new ArrayList<>();
+        if (bondedDevices == null || states == null) {
+            return devices;
+        }
+        if (registry != null && !containsState(states, BluetoothProfile.STATE_DISCONNECTED)) {
+            for (BluetoothDevice device : registry.getDevices(profile)) {
+                if (Utils.arrayContains(bondedDevices, device)
+                        && containsState(states, connectionState.applyAsInt(device))
+                        && supportsProfile.test(device)) {
+                    devices.add(device);
+                }
+            }
+            return devices;
+        }
+        for (BluetoothDevice device : bondedDevices) {
+            if (supportsProfile.test(device)
+                    && containsState(states, connectionState.applyAsInt(device))) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    private static boolean containsState(int[] states, int state) {
+        for (int s : states) {
+            if (s == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget all the devices of a profile, when the profile service stops.
+     */
+    public void clearProfile(int profile) {
+        synchronized (mLock) {
+            mProfiles.remove(profile);
+        }
+    }
+
+    /**
+     * Dump the devices of each profile, with their last reported connection state.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("\nProfileConnectionRegistry:");
+        for (Map.Entry<Integer, Map<BluetoothDevice, Integer>> entry : mProfiles.entrySet()) {
+            Map<BluetoothDevice, Integer> states = entry.getValue();
+            if (states.isEmpty()) {
+                continue;
+            }
+            writer.println("  " + BluetoothProfile.getProfileName(entry.getKey()) + ":");
+            for (Map.Entry<BluetoothDevice, Integer> state : states.entrySet()) {
+                writer.println("    " + state.getKey() + ": "
+                        + BluetoothProfile.getConnectionStateName(state.getValue()));
+            }
+        }
+    }
+}
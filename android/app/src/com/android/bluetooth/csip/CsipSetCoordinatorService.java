@@ -60,7 +60,6 @@ import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.stream.Collectors;
 
 /**
  * Provides Bluetooth CSIP Set Coordinator profile, as a service.
@@ -87,9 +86,8 @@ public class CsipSetCoordinatorService extends ProfileService {
     private final Map<BluetoothDevice, CsipSetCoordinatorStateMachine> mStateMachines =
             new HashMap<>();
 
-    private final Map<Integer, ParcelUuid> mGroupIdToUuidMap = new HashMap<>();
-    private final Map<BluetoothDevice, Map<Integer, Integer>> mDeviceGroupIdRankMap =
-            new ConcurrentHashMap<>();
+    // Context UUID and members of each group, shared with the profiles acting on whole groups
+    private final GroupMembershipIndex mGroupMembershipIndex = new GroupMembershipIndex();
     private final Map<Integer, Integer> mGroupIdToGroupSize = new HashMap<>();
     private final Map<ParcelUuid, Map<Executor, IBluetoothCsipSetCoordinatorCallback>> mCallbacks =
             new HashMap<>();
@@ -205,10 +203,9 @@ public class CsipSetCoordinatorService extends ProfileService {
             }
         }
 
-        mDeviceGroupIdRankMap.clear();
         mCallbacks.clear();
         mGroupIdToGroupSize.clear();
-        mGroupIdToUuidMap.clear();
+        mGroupMembershipIndex.clear();
 
         mLocks.clear();
 
@@ -506,17 +503,15 @@ public class CsipSetCoordinatorService extends ProfileService {
             return null;
         }
 
-        synchronized (mGroupIdToUuidMap) {
-            if (!mGroupIdToUuidMap.containsKey(groupId)) {
-                try {
-                    callback.onGroupLockSet(groupId,
-                            BluetoothStatusCodes.ERROR_CSIP_INVALID_GROUP_ID,
-                            false);
-                } catch (RemoteException e) {
-                    throw e.rethrowFromSystemServer();
-                }
-                return null;
+        if (!mGroupMembershipIndex.hasGroup(groupId)) {
+            try {
+                callback.onGroupLockSet(groupId,
+                        BluetoothStatusCodes.ERROR_CSIP_INVALID_GROUP_ID,
+                        false);
+            } catch (RemoteException e) {
+                throw e.rethrowFromSystemServer();
             }
+            return null;
         }
 
         UUID uuid = UUID.randomUUID();
@@ -591,11 +586,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return list of group IDs
      */
     public List<Integer> getAllGroupIds(ParcelUuid uuid) {
-        return mGroupIdToUuidMap.entrySet()
-                .stream()
-                .filter(e -> uuid.equals(e.getValue()))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+        return mGroupMembershipIndex.getGroupIds(uuid);
     }
 
     /**
@@ -605,15 +596,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return group ID
      */
     public Integer getGroupId(BluetoothDevice device, ParcelUuid uuid) {
-        Map<Integer, Integer> device_groups =
-                mDeviceGroupIdRankMap.getOrDefault(device, new HashMap<>());
-        return mGroupIdToUuidMap.entrySet()
-                .stream()
-                .filter(e -> (device_groups.containsKey(e.getKey())
-                        && e.getValue().equals(uuid)))
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID);
+        return mGroupMembershipIndex.getGroupId(device, uuid);
     }
 
     /**
@@ -622,12 +605,14 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return map of group id and related uuids.
      */
     public Map<Integer, ParcelUuid> getGroupUuidMapByDevice(BluetoothDevice device) {
-        Map<Integer, Integer> device_groups =
-                mDeviceGroupIdRankMap.getOrDefault(device, new HashMap<>());
-        return mGroupIdToUuidMap.entrySet()
-                .stream()
-                .filter(e -> device_groups.containsKey(e.getKey()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        Map<Integer, ParcelUuid> groups = new HashMap<>();
+        for (int groupId : mGroupMembershipIndex.getGroups(device).keySet()) {
+            ParcelUuid uuid = mGroupMembershipIndex.getGroupUuid(groupId);
+            if (uuid != null) {
+                groups.put(groupId, uuid);
+            }
+        }
+        return groups;
     }
 
     /**
@@ -636,21 +621,7 @@ public class CsipSetCoordinatorService extends ProfileService {
      * @return related list of devices sorted from the lowest to the highest rank value.
      */
     public @NonNull List<BluetoothDevice> getGroupDevicesOrdered(int groupId) {
-        final Map<BluetoothDevice, Integer> deviceRankMap = new HashMap();
-        for (Map.Entry<BluetoothDevice, ?> entry : mDeviceGroupIdRankMap.entrySet()) {
-            Map<Integer, Integer> rankMap = (Map<Integer, Integer>) entry.getValue();
-            BluetoothDevice device = entry.getKey();
-            if (rankMap.containsKey(groupId)) {
-                deviceRankMap.put(device, rankMap.get(groupId));
-            }
-        }
-
-        // Return device list sorted by descending rank order
-        return deviceRankMap.entrySet()
-                .stream()
-                .sorted(Map.Entry.comparingByValue())
-                .map(e -> e.getKey())
-                .collect(Collectors.toList());
+        return new ArrayList<>(mGroupMembershipIndex.getMembers(groupId));
     }
 
     /**
@@ -661,14 +632,19 @@ public class CsipSetCoordinatorService extends ProfileService {
      */
     public @NonNull List<BluetoothDevice> getGroupDevicesOrdered(BluetoothDevice device,
             ParcelUuid uuid) {
-        List<Integer> groupIds = getAllGroupIds(uuid);
-        for (Integer id : groupIds) {
-            List<BluetoothDevice> devices = getGroupDevicesOrdered(id);
-            if (devices.contains(device)) {
-                return devices;
-            }
+        int groupId = mGroupMembershipIndex.getGroupId(device, uuid);
+        if (groupId == IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID) {
+            return Collections.emptyList();
         }
-        return Collections.emptyList();
+        return getGroupDevicesOrdered(groupId);
+    }
+
+    /**
+     * Get the index of the group members, to look up or follow the groups of CSIS devices
+     * @return the group membership index
+     */
+    public @NonNull GroupMembershipIndex getGroupMembershipIndex() {
+        return mGroupMembershipIndex;
     }
 
     /**
@@ -682,17 +658,8 @@ public class CsipSetCoordinatorService extends ProfileService {
     }
 
     private void handleDeviceAvailable(BluetoothDevice device, int groupId, int rank, UUID uuid) {
-        ParcelUuid parcel_uuid = new ParcelUuid(uuid);
-        if (!getAllGroupIds(parcel_uuid).contains(groupId)) {
-            mGroupIdToUuidMap.put(groupId, parcel_uuid);
-        }
-
-        if (!mDeviceGroupIdRankMap.containsKey(device)) {
-            mDeviceGroupIdRankMap.put(device, new HashMap<Integer, Integer>());
-        }
-
-        Map<Integer, Integer> all_device_groups = mDeviceGroupIdRankMap.get(device);
-        all_device_groups.put(groupId, rank);
+        mGroupMembershipIndex.setGroupUuid(groupId, new ParcelUuid(uuid));
+        mGroupMembershipIndex.addMember(device, groupId, rank);
     }
 
     private void executeCallback(Executor exec, IBluetoothCsipSetCoordinatorCallback callback,
@@ -707,7 +674,8 @@ public class CsipSetCoordinatorService extends ProfileService {
     }
 
     private void handleSetMemberAvailable(BluetoothDevice device, int groupId) {
-        if (!mGroupIdToUuidMap.containsKey(groupId)) {
+        ParcelUuid uuid = mGroupMembershipIndex.getGroupUuid(groupId);
+        if (uuid == null) {
             Log.e(TAG, " UUID not found for group id " + groupId);
             return;
         }
@@ -716,7 +684,6 @@ public class CsipSetCoordinatorService extends ProfileService {
             return;
         }
 
-        ParcelUuid uuid = mGroupIdToUuidMap.get(groupId);
         if (mCallbacks.get(uuid) == null) {
             Log.e(TAG, " There is no clients for uuid: " + uuid);
             return;
@@ -899,7 +866,7 @@ public class CsipSetCoordinatorService extends ProfileService {
             return;
         }
 
-        mDeviceGroupIdRankMap.remove(device);
+        mGroupMembershipIndex.removeDevice(device);
 
         synchronized (mStateMachines) {
             CsipSetCoordinatorStateMachine sm = mStateMachines.get(device);
@@ -1266,5 +1233,7 @@ public class CsipSetCoordinatorService extends ProfileService {
         for (CsipSetCoordinatorStateMachine sm : mStateMachines.values()) {
             sm.dump(sb);
         }
+        ProfileService.println(sb, "  Groups:");
+        sb.append(mGroupMembershipIndex);
     }
 }
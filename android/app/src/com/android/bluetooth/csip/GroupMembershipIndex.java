@@ -0,0 +1,251 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.csip;
+
+import android.annotation.CallbackExecutor;
+import android.annotation.NonNull;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.IBluetoothCsipSetCoordinator;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * An index of the members of device groups.
+ *
+ * Both directions of the membership are indexed, so the members of a group and the groups of a
+ * device are found without going through the other devices or groups. Members are ordered by
+ * rank, the lowest rank value first, then by the order they joined the group.
+ *
+ * Queries can be made from any thread and return immutable snapshots, rebuilt on each change of
+ * the membership. Changes are serialized, and the registered listeners are told about each group
+ * whose members changed.
+ */
+public class GroupMembershipIndex {
+    /**
+     * Listener of the changes of group members
+     */
+    public interface Listener {
+        /**
+         * Called when devices joined or left a group
+         *
+         * @param groupId the group ID
+         * @param members the members of the group, ordered by rank
+         */
+        void onGroupMembersChanged(int groupId, @NonNull List<BluetoothDevice> members);
+    }
+
+    private final Map<Integer, ParcelUuid> mGroupUuids = new ConcurrentHashMap<>();
+    private final Map<Integer, List<BluetoothDevice>> mGroupMembers = new ConcurrentHashMap<>();
+    private final Map<BluetoothDevice, Map<Integer, Integer>> mDeviceGroups =
+            new ConcurrentHashMap<>();
+    private final Map<Listener, Executor> mListeners = new ConcurrentHashMap<>();
+
+    // Rank of each member of a group, in the order they joined. Guarded by this index.
+    private final Map<Integer, LinkedHashMap<BluetoothDevice, Integer>> mGroupRanks =
+            new HashMap<>();
+
+    /**
+     * Set the context UUID of a group, which makes the group known even without members
+     */
+    public void setGroupUuid(int groupId, @NonNull ParcelUuid uuid) {
+        mGroupUuids.put(groupId, uuid);
+    }
+
+    /**
+     * Get the context UUID of a group, or null if the group is unknown
+     */
+    public ParcelUuid getGroupUuid(int groupId) {
+        return mGroupUuids.get(groupId);
+    }
+
+    /**
+     * Check whether a group is known, from its context UUID
+     */
+    public boolean hasGroup(int groupId) {
+        return mGroupUuids.containsKey(groupId);
+    }
+
+    /**
+     * Get the known groups of a context UUID
+     */
+    public @NonNull List<Integer> getGroupIds(@NonNull ParcelUuid uuid) {
+        List<Integer> groupIds = new ArrayList<>();
+        for (Map.Entry<Integer, ParcelUuid> entry : mGroupUuids.entrySet()) {
+            if (uuid.equals(entry.getValue())) {
+                groupIds.add(entry.getKey());
+            }
+        }
+        return groupIds;
+    }
+
+    /**
+     * Add a device to a group, or update its rank if it's already a member
+     */
+    public void addMember(@NonNull BluetoothDevice device, int groupId, int rank) {
+        List<BluetoothDevice> members;
+        synchronized (this) {
+            LinkedHashMap<BluetoothDevice, Integer> ranks = mGroupRanks.get(groupId);
+            if (ranks == null) {
+                ranks = new LinkedHashMap<>();
+                mGroupRanks.put(groupId, ranks);
+            }
+            Integer previousRank = ranks.put(device, rank);
+            if (previousRank != null && previousRank == rank) {
+                return;
+            }
+            members = updateGroup(groupId);
+            Map<Integer, Integer> groups = new HashMap<>(getGroups(device));
+            groups.put(groupId, rank);
+            mDeviceGroups.put(device, Collections.unmodifiableMap(groups));
+        }
+        notifyGroupMembersChanged(groupId, members);
+    }
+
+    /**
+     * Remove a device from a group
+     */
+    public void removeMember(@NonNull BluetoothDevice device, int groupId) {
+        List<BluetoothDevice> members;
+        synchronized (this) {
+            LinkedHashMap<BluetoothDevice, Integer> ranks = mGroupRanks.get(groupId);
+            if (ranks == null || ranks.remove(device) == null) {
+                return;
+            }
+            members = updateGroup(groupId);
+            Map<Integer, Integer> groups = new HashMap<>(getGroups(device));
+            groups.remove(groupId);
+            if (groups.isEmpty()) {
+                mDeviceGroups.remove(device);
+            } else {
+                mDeviceGroups.put(device, Collections.unmodifiableMap(groups));
+            }
+        }
+        notifyGroupMembersChanged(groupId, members);
+    }
+
+    /**
+     * Remove a device from all its groups
+     */
+    public void removeDevice(@NonNull BluetoothDevice device) {
+        for (int groupId : getGroups(device).keySet()) {
+            removeMember(device, groupId);
+        }
+    }
+
+    /**
+     * Remove all the groups and their members, without notifying the listeners
+     */
+    public synchronized void clear() {
+        mGroupRanks.clear();
+        mGroupMembers.clear();
+        mDeviceGroups.clear();
+        mGroupUuids.clear();
+    }
+
+    /**
+     * Get the members of a group
+     *
+     * @return the members, from the lowest to the highest rank value, or an empty list
+     */
+    public @NonNull List<BluetoothDevice> getMembers(int groupId) {
+        return mGroupMembers.getOrDefault(groupId, Collections.emptyList());
+    }
+
+    /**
+     * Get the groups of a device
+     *
+     * @return the rank of the device in each of its groups, by group ID
+     */
+    public @NonNull Map<Integer, Integer> getGroups(BluetoothDevice device) {
+        if (device == null) return Collections.emptyMap();
+        return mDeviceGroups.getOrDefault(device, Collections.emptyMap());
+    }
+
+    /**
+     * Get the group of a device with the given context UUID
+     *
+     * @return the group ID, or {@link IBluetoothCsipSetCoordinator#CSIS_GROUP_ID_INVALID}
+     */
+    public int getGroupId(BluetoothDevice device, ParcelUuid uuid) {
+        for (int groupId : getGroups(device).keySet()) {
+            ParcelUuid groupUuid = mGroupUuids.get(groupId);
+            if (groupUuid != null && groupUuid.equals(uuid)) {
+                return groupId;
+            }
+        }
+        return IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID;
+    }
+
+    /**
+     * Register a listener of the changes of group members
+     */
+    public void registerListener(@CallbackExecutor Executor executor, Listener listener) {
+        mListeners.put(listener, executor);
+    }
+
+    /**
+     * Unregister a listener registered with {@link #registerListener}
+     */
+    public void unregisterListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private List<BluetoothDevice> updateGroup(int groupId) {
+        LinkedHashMap<BluetoothDevice, Integer> ranks = mGroupRanks.get(groupId);
+        if (ranks.isEmpty()) {
+            mGroupRanks.remove(groupId);
+            mGroupMembers.remove(groupId);
+            return Collections.emptyList();
+        }
+        // The sort is stable, members with the same rank stay in the order they joined
+        List<Map.Entry<BluetoothDevice, Integer>> entries = new ArrayList<>(ranks.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+        List<BluetoothDevice> members = new ArrayList<>(entries.size());
+        for (Map.Entry<BluetoothDevice, Integer> entry : entries) {
+            members.add(entry.getKey());
+        }
+        members = Collections.unmodifiableList(members);
+        mGroupMembers.put(groupId, members);
+        return members;
+    }
+
+    private void notifyGroupMembersChanged(int groupId, List<BluetoothDevice> members) {
+        for (Map.Entry<Listener, Executor> entry : mListeners.entrySet()) {
+            Listener listener = entry.getKey();
+            entry.getValue().execute(() -> listener.onGroupMembersChanged(groupId, members));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, List<BluetoothDevice>> entry : mGroupMembers.entrySet()) {
+            sb.append("    Group ").append(entry.getKey()).append(" (")
+                    .append(mGroupUuids.get(entry.getKey())).append("): ")
+                    .append(entry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+}
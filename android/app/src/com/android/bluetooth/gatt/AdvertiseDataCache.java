@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Payload of one kind of data of an advertising set: advertising data, scan response or periodic
+ * advertising data.
+ *
+ * Keeps the payload last programmed in the controller, so that an update with the same bytes is
+ * not sent again. A single update is sent to the stack at a time: updates made while one is in
+ * flight wait for it to complete, and only the latest of them is sent.
+ *
+ * @hide
+ */
+/* package */ class AdvertiseDataCache {
+    /** The payload must be sent to the stack */
+    static final int UPDATE_SEND = 0;
+    /** The payload is already programmed, the update succeeds right away */
+    static final int UPDATE_UNCHANGED = 1;
+    /** The payload is the one in flight, the update completes with it */
+    static final int UPDATE_MERGED = 2;
+    /** The payload is sent once the update in flight completes */
+    static final int UPDATE_QUEUED = 3;
+    /** As UPDATE_QUEUED, and the payload replaced another queued payload, never sent */
+    static final int UPDATE_COALESCED = 4;
+
+    // An update in flight for longer is assumed to have been dropped by the stack
+    @VisibleForTesting
+    static final long IN_FLIGHT_TIMEOUT_MS = 2000;
+
+    /**
+     * Outcome of the completion of the update in flight
+     */
+    static class Completion {
+        /** The number of updates to report the status to */
+        final int mUpdates;
+        /** The queued payload to send to the stack next, or null if there is none */
+        final byte[] mNext;
+
+        Completion(int updates, byte[] next) {
+            mUpdates = updates;
+            mNext = next;
+        }
+    }
+
+    private final long mInFlightTimeoutMs;
+    // Payload programmed in the controller or in flight, null if unknown
+    private byte[] mCurrent;
+    private boolean mInFlight = false;
+    private long mInFlightSinceMs;
+    // Number of updates completed by the update in flight
+    private int mInFlightUpdates = 0;
+    private byte[] mQueued;
+    private int mQueuedUpdates = 0;
+
+    AdvertiseDataCache(byte[] initial) {
+        this(initial, IN_FLIGHT_TIMEOUT_MS);
+    }
+
+    @VisibleForTesting
+    AdvertiseDataCache(byte[] initial, long inFlightTimeoutMs) {
+        mCurrent = initial;
+        mInFlightTimeoutMs = inFlightTimeoutMs;
+    }
+
+    /**
+     * Record an update of the payload
+     *
+     * @return one of the UPDATE_ values, telling what to do with the update
+     */
+    synchronized int update(byte[] payload) {
+        if (mInFlight && SystemClock.elapsedRealtime() - mInFlightSinceMs > mInFlightTimeoutMs) {
+            // The payload supersedes the queued one, and completes the updates waiting for the
+            // lost update along with its own
+            startUpdate(payload, mInFlightUpdates + mQueuedUpdates + 1);
+            mQueued = null;
+            mQueuedUpdates = 0;
+            return UPDATE_SEND;
+        }
+        if (!mInFlight) {
+            if (Arrays.equals(mCurrent, payload)) {
+                return UPDATE_UNCHANGED;
+            }
+            startUpdate(payload, 1);
+            return UPDATE_SEND;
+        }
+        if (mQueued == null && Arrays.equals(mCurrent, payload)) {
+            mInFlightUpdates++;
+            return UPDATE_MERGED;
+        }
+        boolean coalesced = mQueued != null;
+        mQueued = payload;
+        mQueuedUpdates++;
+        return coalesced ? UPDATE_COALESCED : UPDATE_QUEUED;
+    }
+
+    /**
+     * Record the completion of the update in flight, and start sending the queued payload if any
+     */
+    synchronized Completion onUpdateComplete(int status) {
+        if (!mInFlight) {
+            return new Completion(0, null);
+        }
+        if (status != AdvertiseCallback.ADVERTISE_SUCCESS) {
+            mCurrent = null;
+        }
+        int updates = mInFlightUpdates;
+        mInFlight = false;
+        mInFlightUpdates = 0;
+
+        byte[] next = mQueued;
+        if (next != null) {
+            startUpdate(next, mQueuedUpdates);
+            mQueued = null;
+            mQueuedUpdates = 0;
+        }
+        return new Completion(updates, next);
+    }
+
+    private void startUpdate(byte[] payload, int updates) {
+        mCurrent = payload;
+        mInFlight = true;
+        mInFlightSinceMs = SystemClock.elapsedRealtime();
+        mInFlightUpdates = updates;
+    }
+}
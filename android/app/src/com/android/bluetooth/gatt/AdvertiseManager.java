@@ -47,6 +47,10 @@ public class AdvertiseManager {
     private static final boolean DBG = GattServiceConfig.DBG;
     private static final String TAG = GattServiceConfig.TAG_PREFIX + "AdvertiseManager";
 
+    private static final int DATA_ADVERTISING = 0;
+    private static final int DATA_SCAN_RESPONSE = 1;
+    private static final int DATA_PERIODIC = 2;
+
     private final GattService mService;
     private final AdapterService mAdapterService;
     private final AdvertiserMap mAdvertiserMap;
@@ -102,12 +106,15 @@ public class AdvertiseManager {
         public Integer id;
         public AdvertisingSetDeathRecipient deathRecipient;
         public IAdvertisingSetCallback callback;
+        /* Payloads of the advertising set, indexed by DATA_ type */
+        public final AdvertiseDataCache[] data;
 
         AdvertiserInfo(Integer id, AdvertisingSetDeathRecipient deathRecipient,
-                IAdvertisingSetCallback callback) {
+                IAdvertisingSetCallback callback, AdvertiseDataCache[] data) {
             this.id = id;
             this.deathRecipient = deathRecipient;
             this.callback = callback;
+            this.data = data;
         }
     }
 
@@ -161,8 +168,8 @@ public class AdvertiseManager {
 
         IAdvertisingSetCallback callback = entry.getValue().callback;
         if (status == 0) {
-            entry.setValue(
-                    new AdvertiserInfo(advertiserId, entry.getValue().deathRecipient, callback));
+            entry.setValue(new AdvertiserInfo(advertiserId, entry.getValue().deathRecipient,
+                    callback, entry.getValue().data));
 
             mAdvertiserMap.setAdvertiserIdByRegId(regId, advertiserId);
         } else {
@@ -225,7 +232,11 @@ public class AdvertiseManager {
                     AdvertiseHelper.advertiseDataToBytes(periodicData, deviceName);
 
             int cbId = --sTempRegistrationId;
-            mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback));
+            AdvertiseDataCache[] data = new AdvertiseDataCache[] {
+                    new AdvertiseDataCache(advDataBytes),
+                    new AdvertiseDataCache(scanResponseBytes),
+                    new AdvertiseDataCache(periodicDataBytes)};
+            mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback, data));
 
             if (DBG) {
                 Log.d(TAG, "startAdvertisingSet() - reg_id=" + cbId + ", callback: " + binder);
@@ -326,13 +337,13 @@ public class AdvertiseManager {
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setAdvertisingDataNative(advertiserId,
+            updateData(entry.getValue(), advertiserId, DATA_ADVERTISING,
                     AdvertiseHelper.advertiseDataToBytes(data, deviceName));
 
             mAdvertiserMap.setAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
             try {
-                onAdvertisingDataSet(advertiserId,
+                reportDataSet(entry.getValue(), advertiserId, DATA_ADVERTISING,
                         AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
             } catch (Exception exception) {
                 Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
@@ -348,13 +359,13 @@ public class AdvertiseManager {
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setScanResponseDataNative(advertiserId,
+            updateData(entry.getValue(), advertiserId, DATA_SCAN_RESPONSE,
                     AdvertiseHelper.advertiseDataToBytes(data, deviceName));
 
             mAdvertiserMap.setScanResponseData(advertiserId, data);
         } catch (IllegalArgumentException e) {
             try {
-                onScanResponseDataSet(advertiserId,
+                reportDataSet(entry.getValue(), advertiserId, DATA_SCAN_RESPONSE,
                         AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
             } catch (Exception exception) {
                 Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
@@ -393,13 +404,13 @@ public class AdvertiseManager {
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            setPeriodicAdvertisingDataNative(advertiserId,
+            updateData(entry.getValue(), advertiserId, DATA_PERIODIC,
                     AdvertiseHelper.advertiseDataToBytes(data, deviceName));
 
             mAdvertiserMap.setPeriodicAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
             try {
-                onPeriodicAdvertisingDataSet(advertiserId,
+                reportDataSet(entry.getValue(), advertiserId, DATA_PERIODIC,
                         AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
             } catch (Exception exception) {
                 Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
@@ -407,6 +418,72 @@ public class AdvertiseManager {
         }
     }
 
+    /**
+     * Send an updated payload to the stack, unless it is unchanged or an update of the same data
+     * is already in flight, in which case it is sent once that update completes.
+     */
+    private void updateData(AdvertiserInfo info, int advertiserId, int dataType, byte[] payload) {
+        int result = info.data[dataType].update(payload);
+        if (DBG) {
+            Log.d(TAG, "updateData() advertiserId=" + advertiserId + ", dataType=" + dataType
+                    + ", result=" + result);
+        }
+        mAdvertiserMap.recordAdvertiseDataUpdate(advertiserId, result);
+
+        if (result == AdvertiseDataCache.UPDATE_SEND) {
+            setDataNative(advertiserId, dataType, payload);
+        } else if (result == AdvertiseDataCache.UPDATE_UNCHANGED) {
+            try {
+                reportDataSet(info, advertiserId, dataType, AdvertiseCallback.ADVERTISE_SUCCESS);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(e));
+            }
+        }
+    }
+
+    private void onDataSet(AdvertiserInfo info, int advertiserId, int dataType, int status)
+            throws RemoteException {
+        AdvertiseDataCache.Completion completion = info.data[dataType].onUpdateComplete(status);
+        // Report the status to each update completed by this one, at least once
+        int updates = Math.max(1, completion.mUpdates);
+        for (int i = 0; i < updates; i++) {
+            reportDataSet(info, advertiserId, dataType, status);
+        }
+
+        if (completion.mNext != null) {
+            setDataNative(advertiserId, dataType, completion.mNext);
+        }
+    }
+
+    private void setDataNative(int advertiserId, int dataType, byte[] payload) {
+        switch (dataType) {
+            case DATA_ADVERTISING:
+                setAdvertisingDataNative(advertiserId, payload);
+                break;
+            case DATA_SCAN_RESPONSE:
+                setScanResponseDataNative(advertiserId, payload);
+                break;
+            case DATA_PERIODIC:
+                setPeriodicAdvertisingDataNative(advertiserId, payload);
+                break;
+        }
+    }
+
+    private void reportDataSet(AdvertiserInfo info, int advertiserId, int dataType, int status)
+            throws RemoteException {
+        switch (dataType) {
+            case DATA_ADVERTISING:
+                info.callback.onAdvertisingDataSet(advertiserId, status);
+                break;
+            case DATA_SCAN_RESPONSE:
+                info.callback.onScanResponseDataSet(advertiserId, status);
+                break;
+            case DATA_PERIODIC:
+                info.callback.onPeriodicAdvertisingDataSet(advertiserId, status);
+                break;
+        }
+    }
+
     void setPeriodicAdvertisingEnable(int advertiserId, boolean enable) {
         Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
         if (entry == null) {
@@ -428,8 +505,7 @@ public class AdvertiseManager {
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
-        callback.onAdvertisingDataSet(advertiserId, status);
+        onDataSet(entry.getValue(), advertiserId, DATA_ADVERTISING, status);
     }
 
     void onScanResponseDataSet(int advertiserId, int status) throws Exception {
@@ -444,8 +520,7 @@ public class AdvertiseManager {
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
-        callback.onScanResponseDataSet(advertiserId, status);
+        onDataSet(entry.getValue(), advertiserId, DATA_SCAN_RESPONSE, status);
     }
 
     void onAdvertisingParametersUpdated(int advertiserId, int txPower, int status)
@@ -495,8 +570,7 @@ public class AdvertiseManager {
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
-        callback.onPeriodicAdvertisingDataSet(advertiserId, status);
+        onDataSet(entry.getValue(), advertiserId, DATA_PERIODIC, status);
     }
 
     void onPeriodicAdvertisingEnabled(int advertiserId, boolean enable, int status)
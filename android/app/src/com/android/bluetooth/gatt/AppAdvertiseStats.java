@@ -98,6 +98,10 @@ public class AppAdvertiseStats {
     private AppAdvertiserData mPeriodicAdvertisingData = null;
     private boolean mPeriodicIncludeTxPower = false;
     private int mPeriodicInterval = 0;
+    // Data updates sent to the controller, skipped as unchanged, and replaced before being sent
+    private int mDataUpdatesSent = 0;
+    private int mDataUpdatesSuppressed = 0;
+    private int mDataUpdatesCoalesced = 0;
     public ArrayList<AppAdvertiserRecord> mAdvertiserRecords =
             new ArrayList<AppAdvertiserRecord>();
 
@@ -261,6 +265,35 @@ public class AppAdvertiseStats {
         }
     }
 
+    void recordDataUpdate(int result) {
+        switch (result) {
+            case AdvertiseDataCache.UPDATE_SEND:
+                mDataUpdatesSent++;
+                break;
+            case AdvertiseDataCache.UPDATE_UNCHANGED:
+            case AdvertiseDataCache.UPDATE_MERGED:
+                mDataUpdatesSuppressed++;
+                break;
+            case AdvertiseDataCache.UPDATE_COALESCED:
+                mDataUpdatesCoalesced++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    int getDataUpdatesSent() {
+        return mDataUpdatesSent;
+    }
+
+    int getDataUpdatesSuppressed() {
+        return mDataUpdatesSuppressed;
+    }
+
+    int getDataUpdatesCoalesced() {
+        return mDataUpdatesCoalesced;
+    }
+
     void onPeriodicAdvertiseEnabled(boolean enable) {
         mPeriodicAdvertisingEnabled = enable;
     }
@@ -355,6 +388,10 @@ public class AppAdvertiseStats {
             dumpAppAdvertiserData(sb, stats.mPeriodicAdvertisingData);
         }
 
+        sb.append("\n        └Data Updates(sent, unchanged, coalesced)       : "
+                + stats.mDataUpdatesSent + ", " + stats.mDataUpdatesSuppressed + ", "
+                + stats.mDataUpdatesCoalesced);
+
         sb.append("\n");
     }
 
@@ -32,14 +32,22 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ScanStats class helps keep track of information about scans
  * on a per application basis.
+ *
+ * Scan results are counted without taking the lock of the stats, as {@link #addResult} is called
+ * for every delivered result: each ongoing scan has its own result counter, and the total of the
+ * application is a striped counter. Dumps copy the state under the lock and format it without,
+ * so they never delay the accounting of other scans.
  * @hide
  */
 /*package*/ class AppScanStats {
@@ -79,7 +87,7 @@ import java.util.Objects;
         public boolean isFilterScan;
         public boolean isCallbackScan;
         public boolean isBatchScan;
-        public int results;
+        public final AtomicInteger results = new AtomicInteger();
         public int scannerId;
         public int scanMode;
         public int scanCallbackType;
@@ -97,13 +105,29 @@ import java.util.Objects;
             this.isBatchScan = false;
             this.scanMode = scanMode;
             this.scanCallbackType = scanCallbackType;
-            this.results = 0;
             this.scannerId = scannerId;
             this.suspendDuration = 0;
             this.suspendStartTime = 0;
             this.isSuspended = false;
             this.filterString = "";
         }
+
+        // Copy of the scan, for dumping it without holding the lock of the stats
+        LastScan copy() {
+            LastScan scan = new LastScan(timestamp, isFilterScan, isCallbackScan, scannerId,
+                    scanMode, scanCallbackType);
+            scan.duration = duration;
+            scan.suspendDuration = suspendDuration;
+            scan.suspendStartTime = suspendStartTime;
+            scan.isSuspended = isSuspended;
+            scan.isOpportunisticScan = isOpportunisticScan;
+            scan.isTimeout = isTimeout;
+            scan.isBackgroundScan = isBackgroundScan;
+            scan.isBatchScan = isBatchScan;
+            scan.results.set(results.get());
+            scan.filterString = filterString;
+            return scan;
+        }
     }
     public String appName;
     public WorkSource mWorkSource; // Used for BatteryStatsManager
@@ -126,10 +150,11 @@ import java.util.Objects;
     private int mLowLantencyScan = 0;
     private int mAmbientDiscoveryScan = 0;
     private List<LastScan> mLastScans = new ArrayList<LastScan>();
-    private HashMap<Integer, LastScan> mOngoingScans = new HashMap<Integer, LastScan>();
+    // Read without the lock by addResult(), written under the lock
+    private final Map<Integer, LastScan> mOngoingScans = new ConcurrentHashMap<>();
     public long startTime = 0;
     public long stopTime = 0;
-    public int results = 0;
+    private final LongAdder mResults = new LongAdder();
 
     AppScanStats(String name, WorkSource source, ContextMap map, GattService service) {
         appName = name;
@@ -146,28 +171,30 @@ import java.util.Objects;
         mAdapterService = Objects.requireNonNull(AdapterService.getAdapterService());
     }
 
-    synchronized void addResult(int scannerId) {
+    void addResult(int scannerId) {
         LastScan scan = getScanFromScannerId(scannerId);
         if (scan != null) {
-            scan.results++;
-
             // Only update battery stats after receiving 100 new results in order
             // to lower the cost of the binder transaction
-            if (scan.results % 100 == 0) {
+            if (scan.results.incrementAndGet() % 100 == 0) {
                 mBatteryStatsManager.reportBleScanResults(mWorkSource, 100);
                 BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
                         mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), 100);
             }
         }
 
-        results++;
+        mResults.increment();
+    }
+
+    long getResultCount() {
+        return mResults.sum();
     }
 
-    synchronized boolean isScanning() {
+    boolean isScanning() {
         return !mOngoingScans.isEmpty();
     }
 
-    synchronized LastScan getScanFromScannerId(int scannerId) {
+    LastScan getScanFromScannerId(int scannerId) {
         return mOngoingScans.get(scannerId);
     }
 
@@ -179,11 +206,39 @@ import java.util.Objects;
         return onGoingScan.isTimeout;
     }
 
-    synchronized void recordScanStart(ScanSettings settings, List<ScanFilter> filters,
+    void recordScanStart(ScanSettings settings, List<ScanFilter> filters,
+            boolean isFilterScan, boolean isCallbackScan, int scannerId) {
+        LastScan scan;
+        synchronized (this) {
+            scan = startScan(settings, filters, isFilterScan, isCallbackScan, scannerId);
+        }
+        if (scan == null) {
+            return;
+        }
+
+        BluetoothMetricsProto.ScanEvent scanEvent = BluetoothMetricsProto.ScanEvent.newBuilder()
+                .setScanEventType(BluetoothMetricsProto.ScanEvent.ScanEventType.SCAN_EVENT_START)
+                .setScanTechnologyType(
+                        BluetoothMetricsProto.ScanEvent.ScanTechnologyType.SCAN_TECH_TYPE_LE)
+                .setEventTimeMillis(System.currentTimeMillis())
+                .setInitiator(truncateAppName(appName)).build();
+        mGattService.addScanEvent(scanEvent);
+
+        boolean isUnoptimized =
+                !(scan.isFilterScan || scan.isBackgroundScan || scan.isOpportunisticScan);
+        mBatteryStatsManager.reportBleScanStarted(mWorkSource, isUnoptimized);
+        BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_STATE_CHANGED,
+                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(),
+                BluetoothStatsLog.BLE_SCAN_STATE_CHANGED__STATE__ON,
+                scan.isFilterScan, scan.isBackgroundScan, scan.isOpportunisticScan);
+    }
+
+    // Record the start of a scan, returns null if the scanner is already scanning
+    private LastScan startScan(ScanSettings settings, List<ScanFilter> filters,
             boolean isFilterScan, boolean isCallbackScan, int scannerId) {
         LastScan existingScan = getScanFromScannerId(scannerId);
         if (existingScan != null) {
-            return;
+            return null;
         }
         this.mScansStarted++;
         startTime = SystemClock.elapsedRealtime();
@@ -223,32 +278,51 @@ import java.util.Objects;
             }
         }
 
+        if (!isScanning()) {
+            mScanStartTime = startTime;
+        }
+        mOngoingScans.put(scannerId, scan);
+        return scan;
+    }
+
+    void recordScanStop(int scannerId) {
+        LastScan scan;
+        synchronized (this) {
+            scan = stopScan(scannerId);
+        }
+        if (scan == null) {
+            return;
+        }
+        int results = scan.results.get();
+
         BluetoothMetricsProto.ScanEvent scanEvent = BluetoothMetricsProto.ScanEvent.newBuilder()
-                .setScanEventType(BluetoothMetricsProto.ScanEvent.ScanEventType.SCAN_EVENT_START)
+                .setScanEventType(BluetoothMetricsProto.ScanEvent.ScanEventType.SCAN_EVENT_STOP)
                 .setScanTechnologyType(
                         BluetoothMetricsProto.ScanEvent.ScanTechnologyType.SCAN_TECH_TYPE_LE)
                 .setEventTimeMillis(System.currentTimeMillis())
-                .setInitiator(truncateAppName(appName)).build();
+                .setInitiator(truncateAppName(appName))
+                .setNumberResults(results)
+                .build();
         mGattService.addScanEvent(scanEvent);
 
-        if (!isScanning()) {
-            mScanStartTime = startTime;
-        }
+        // Inform battery stats of any results it might be missing on scan stop
         boolean isUnoptimized =
                 !(scan.isFilterScan || scan.isBackgroundScan || scan.isOpportunisticScan);
-        mBatteryStatsManager.reportBleScanStarted(mWorkSource, isUnoptimized);
+        mBatteryStatsManager.reportBleScanResults(mWorkSource, results % 100);
+        mBatteryStatsManager.reportBleScanStopped(mWorkSource, isUnoptimized);
+        BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
+                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), results % 100);
         BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_STATE_CHANGED,
                 mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(),
-                BluetoothStatsLog.BLE_SCAN_STATE_CHANGED__STATE__ON,
+                BluetoothStatsLog.BLE_SCAN_STATE_CHANGED__STATE__OFF,
                 scan.isFilterScan, scan.isBackgroundScan, scan.isOpportunisticScan);
-
-        mOngoingScans.put(scannerId, scan);
     }
 
-    synchronized void recordScanStop(int scannerId) {
+    // Record the stop of a scan, returns null if the scanner is not scanning
+    private LastScan stopScan(int scannerId) {
         LastScan scan = getScanFromScannerId(scannerId);
         if (scan == null) {
-            return;
+            return null;
         }
         this.mScansStopped++;
         stopTime = SystemClock.elapsedRealtime();
@@ -265,16 +339,6 @@ import java.util.Objects;
         }
         mLastScans.add(scan);
 
-        BluetoothMetricsProto.ScanEvent scanEvent = BluetoothMetricsProto.ScanEvent.newBuilder()
-                .setScanEventType(BluetoothMetricsProto.ScanEvent.ScanEventType.SCAN_EVENT_STOP)
-                .setScanTechnologyType(
-                        BluetoothMetricsProto.ScanEvent.ScanTechnologyType.SCAN_TECH_TYPE_LE)
-                .setEventTimeMillis(System.currentTimeMillis())
-                .setInitiator(truncateAppName(appName))
-                .setNumberResults(scan.results)
-                .build();
-        mGattService.addScanEvent(scanEvent);
-
         mTotalScanTime += scanDuration;
         long activeDuration = scanDuration - scan.suspendDuration;
         mTotalActiveTime += activeDuration;
@@ -295,18 +359,7 @@ import java.util.Objects;
                 mAmbientDiscoveryScanTime += activeDuration;
                 break;
         }
-
-        // Inform battery stats of any results it might be missing on scan stop
-        boolean isUnoptimized =
-                !(scan.isFilterScan || scan.isBackgroundScan || scan.isOpportunisticScan);
-        mBatteryStatsManager.reportBleScanResults(mWorkSource, scan.results % 100);
-        mBatteryStatsManager.reportBleScanStopped(mWorkSource, isUnoptimized);
-        BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
-                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), scan.results % 100);
-        BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_STATE_CHANGED,
-                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(),
-                BluetoothStatsLog.BLE_SCAN_STATE_CHANGED__STATE__OFF,
-                scan.isFilterScan, scan.isBackgroundScan, scan.isOpportunisticScan);
+        return scan;
     }
 
     synchronized void recordScanSuspend(int scannerId) {
@@ -463,30 +516,57 @@ import java.util.Objects;
         }
     }
 
-    synchronized void dumpToString(StringBuilder sb) {
+    void dumpToString(StringBuilder sb) {
         long currentTime = System.currentTimeMillis();
         long currTime = SystemClock.elapsedRealtime();
         long Score = 0;
         long scanDuration = 0;
         long suspendDuration = 0;
         long activeDuration = 0;
-        long totalActiveTime = mTotalActiveTime;
-        long totalSuspendTime = mTotalSuspendTime;
-        long totalScanTime = mTotalScanTime;
-        long oppScanTime = mOppScanTime;
-        long lowPowerScanTime = mLowPowerScanTime;
-        long balancedScanTime = mBalancedScanTime;
-        long lowLatencyScanTime = mLowLantencyScanTime;
-        long ambientDiscoveryScanTime = mAmbientDiscoveryScanTime;
-        int oppScan = mOppScan;
-        int lowPowerScan = mLowPowerScan;
-        int balancedScan = mBalancedScan;
-        int lowLatencyScan = mLowLantencyScan;
-        int ambientDiscoveryScan = mAmbientDiscoveryScan;
-
-        if (!mOngoingScans.isEmpty()) {
-            for (Integer key : mOngoingScans.keySet()) {
-                LastScan scan = mOngoingScans.get(key);
+        long totalActiveTime;
+        long totalSuspendTime;
+        long totalScanTime;
+        long oppScanTime;
+        long lowPowerScanTime;
+        long balancedScanTime;
+        long lowLatencyScanTime;
+        long ambientDiscoveryScanTime;
+        int oppScan;
+        int lowPowerScan;
+        int balancedScan;
+        int lowLatencyScan;
+        int ambientDiscoveryScan;
+        int scansStarted;
+        int scansStopped;
+        List<LastScan> lastScans;
+        List<LastScan> ongoingScans = new ArrayList<>();
+
+        // Snapshot the stats, the formatting is done without holding the lock
+        synchronized (this) {
+            totalActiveTime = mTotalActiveTime;
+            totalSuspendTime = mTotalSuspendTime;
+            totalScanTime = mTotalScanTime;
+            oppScanTime = mOppScanTime;
+            lowPowerScanTime = mLowPowerScanTime;
+            balancedScanTime = mBalancedScanTime;
+            lowLatencyScanTime = mLowLantencyScanTime;
+            ambientDiscoveryScanTime = mAmbientDiscoveryScanTime;
+            oppScan = mOppScan;
+            lowPowerScan = mLowPowerScan;
+            balancedScan = mBalancedScan;
+            lowLatencyScan = mLowLantencyScan;
+            ambientDiscoveryScan = mAmbientDiscoveryScan;
+            scansStarted = mScansStarted;
+            scansStopped = mScansStopped;
+            // Stopped scans are no longer modified, except for their atomic result counter
+            lastScans = new ArrayList<>(mLastScans);
+            for (LastScan scan : mOngoingScans.values()) {
+                ongoingScans.add(scan.copy());
+            }
+        }
+
+        if (!ongoingScans.isEmpty()) {
+            for (LastScan scan : ongoingScans) {
                 scanDuration = currTime - scan.timestamp;
 
                 if (scan.isSuspended) {
@@ -527,7 +607,7 @@ import java.util.Objects;
         }
 
         sb.append("\n  LE scans (started/stopped)                                  : "
-                + mScansStarted + " / " + mScansStopped);
+                + scansStarted + " / " + scansStopped);
         sb.append("\n  Scan time in ms (active/suspend/total)                      : "
                 + totalActiveTime + " / " + totalSuspendTime + " / " + totalScanTime);
         sb.append("\n  Scan time with mode in ms "
@@ -538,14 +618,15 @@ import java.util.Objects;
                 + oppScan + " / " + lowPowerScan + " / " + balancedScan + " / " + lowLatencyScan
                 + " / " + ambientDiscoveryScan);
         sb.append("\n  Score                                                       : " + Score);
-        sb.append("\n  Total number of results                                     : " + results);
+        sb.append("\n  Total number of results                                     : "
+                + getResultCount());
 
-        if (!mLastScans.isEmpty()) {
-            sb.append("\n  Last " + mLastScans.size()
+        if (!lastScans.isEmpty()) {
+            sb.append("\n  Last " + lastScans.size()
                     + " scans                                                :");
 
-            for (int i = 0; i < mLastScans.size(); i++) {
-                LastScan scan = mLastScans.get(i);
+            for (int i = 0; i < lastScans.size(); i++) {
+                LastScan scan = lastScans.get(i);
                 Date timestamp = new Date(currentTime - currTime + scan.timestamp);
                 sb.append("\n    " + DATE_FORMAT.format(timestamp) + " - ");
                 sb.append(scan.duration + "ms ");
@@ -561,7 +642,7 @@ import java.util.Objects;
                 if (scan.isFilterScan) {
                     sb.append("Filter ");
                 }
-                sb.append(scan.results + " results");
+                sb.append(scan.results.get() + " results");
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
@@ -587,10 +668,9 @@ import java.util.Objects;
             }
         }
 
-        if (!mOngoingScans.isEmpty()) {
+        if (!ongoingScans.isEmpty()) {
             sb.append("\n  Ongoing scans                                               :");
-            for (Integer key : mOngoingScans.keySet()) {
-                LastScan scan = mOngoingScans.get(key);
+            for (LastScan scan : ongoingScans) {
                 Date timestamp = new Date(currentTime - currTime + scan.timestamp);
                 sb.append("\n    " + DATE_FORMAT.format(timestamp) + " - ");
                 sb.append((currTime - scan.timestamp) + "ms ");
@@ -609,7 +689,7 @@ import java.util.Objects;
                 if (scan.isSuspended) {
                     sb.append("Suspended ");
                 }
-                sb.append(scan.results + " results");
+                sb.append(scan.results.get() + " results");
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
@@ -550,6 +550,20 @@ public class ContextMap<C, T> {
         }
     }
 
+    /**
+     * Record the outcome of an advertising data update, one of the AdvertiseDataCache UPDATE_
+     * values
+     */
+    void recordAdvertiseDataUpdate(int id, int result) {
+        synchronized (this) {
+            AppAdvertiseStats stats = mAppAdvertiseStats.get(id);
+            if (stats == null) {
+                return;
+            }
+            stats.recordDataUpdate(result);
+        }
+    }
+
     void setPeriodicAdvertisingData(int id, AdvertiseData data) {
         synchronized (this) {
             AppAdvertiseStats stats = mAppAdvertiseStats.get(id);
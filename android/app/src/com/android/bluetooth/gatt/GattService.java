@@ -2475,7 +2475,7 @@ public class GattService extends ProfileService {
             Log.d(TAG, "onScanFilterEnableDisabled() - clientIf=" + clientIf + ", status=" + status
                     + ", action=" + action);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.filterCallbackDone(clientIf, status);
     }
 
     void onScanFilterParamsConfigured(int action, int status, int clientIf, int availableSpace) {
@@ -2484,7 +2484,7 @@ public class GattService extends ProfileService {
                     "onScanFilterParamsConfigured() - clientIf=" + clientIf + ", status=" + status
                             + ", action=" + action + ", availableSpace=" + availableSpace);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.filterCallbackDone(clientIf, status);
     }
 
     void onScanFilterConfig(int action, int status, int clientIf, int filterType,
@@ -2495,7 +2495,7 @@ public class GattService extends ProfileService {
                     + availableSpace);
         }
 
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.filterCallbackDone(clientIf, status);
     }
 
     void onBatchScanStorageConfigured(int status, int clientIf) {
@@ -4689,6 +4689,11 @@ public class GattService extends ProfileService {
 
         sb.append("GATT Handle Map\n");
         mHandleMap.dump(sb);
+
+        if (mScanManager != null) {
+            sb.append("GATT Scan Manager\n");
+            mScanManager.dump(sb);
+        }
     }
 
     void addScanEvent(BluetoothMetricsProto.ScanEvent event) {
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Tracks the scan filter operations sent to the controller.
+ *
+ * Scan filter operations are issued back to back instead of waiting for each one to complete,
+ * so programming the filters of a scan client doesn't block the scan manager thread for a round
+ * trip per filter. The stack executes the operations in order, so the completions reported for a
+ * scanner match its outstanding operations in the order they were issued.
+ *
+ * The time from a scan start request until the controller acknowledged all of its filter
+ * operations is recorded as the scan start latency.
+ *
+ * @hide
+ */
+/* package */ class ScanFilterPipeline {
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ScanFilterPipeline";
+
+    static final int OP_ENABLE = 0;
+    static final int OP_ADD_FILTER = 1;
+    static final int OP_ADD_FILTER_PARAMS = 2;
+    static final int OP_DELETE_FILTER_PARAMS = 3;
+
+    static final int NO_FILTER_INDEX = -1;
+
+    private static final int LATENCY_SAMPLES = 100;
+
+    private static class Operation {
+        final int mType;
+        final int mFilterIndex;
+        final long mIssueTime;
+
+        Operation(int type, int filterIndex, long issueTime) {
+            mType = type;
+            mFilterIndex = filterIndex;
+            mIssueTime = issueTime;
+        }
+
+        @Override
+        public String toString() {
+            return opToString(mType) + "(filterIndex=" + mFilterIndex + ")";
+        }
+    }
+
+    private final long mTimeoutMillis;
+
+    // Outstanding operations of each scanner, in the order they were issued
+    private final SparseArray<Deque<Operation>> mPendingOperations = new SparseArray<>();
+    // Start time of the scans whose filters are still being issued
+    private final SparseLongArray mStartingScans = new SparseLongArray();
+    // Start time of the scans waiting for their filter operations to complete
+    private final SparseLongArray mAwaitingScans = new SparseLongArray();
+
+    private final long[] mLatencies = new long[LATENCY_SAMPLES];
+    private int mLatencyCount = 0;
+    private int mNextLatency = 0;
+
+    private long mIssuedOperations = 0;
+    private long mFailedOperations = 0;
+    private long mExpiredOperations = 0;
+
+    ScanFilterPipeline(long timeoutMillis) {
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Record that a scan is being started. Must be followed by {@link #onScanStarted} once all
+     * of the scan's filter operations have been issued.
+     */
+    synchronized void onScanStarting(int scannerId) {
+        mStartingScans.put(scannerId, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Record that all the filter operations of a starting scan have been issued
+     */
+    synchronized void onScanStarted(int scannerId) {
+        int index = mStartingScans.indexOfKey(scannerId);
+        if (index < 0) return;
+        long startTime = mStartingScans.valueAt(index);
+        mStartingScans.removeAt(index);
+
+        if (getPendingCount(scannerId) == 0) {
+            addLatency(SystemClock.elapsedRealtime() - startTime);
+        } else {
+            mAwaitingScans.put(scannerId, startTime);
+        }
+    }
+
+    /**
+     * Forget about a scan start in progress, as the scan has been stopped
+     */
+    synchronized void onScanStopped(int scannerId) {
+        mStartingScans.delete(scannerId);
+        mAwaitingScans.delete(scannerId);
+    }
+
+    /**
+     * Record an operation about to be sent to the controller. This must be called before the
+     * native call so the completion can't arrive before the operation is known.
+     */
+    synchronized void issue(int scannerId, int type, int filterIndex) {
+        long now = SystemClock.elapsedRealtime();
+        expireOperations(now);
+
+        Deque<Operation> operations = mPendingOperations.get(scannerId);
+        if (operations == null) {
+            operations = new ArrayDeque<>();
+            mPendingOperations.put(scannerId, operations);
+        }
+        operations.add(new Operation(type, filterIndex, now));
+        mIssuedOperations++;
+    }
+
+    /**
+     * Match a completion reported by the stack to the oldest outstanding operation of the scanner
+     *
+     * @return True if an outstanding operation completed, False otherwise
+     */
+    synchronized boolean complete(int scannerId, int status) {
+        Deque<Operation> operations = mPendingOperations.get(scannerId);
+        if (operations == null || operations.isEmpty()) {
+            // Filters may also be configured outside of the scan manager
+            if (DBG) Log.d(TAG, "complete: No operation pending for scannerId=" + scannerId);
+            return false;
+        }
+
+        Operation operation = operations.poll();
+        if (status != 0) {
+            mFailedOperations++;
+            Log.e(TAG, "complete: " + operation + " failed for scannerId=" + scannerId
+                    + ", status=" + status);
+        } else if (DBG) {
+            Log.d(TAG, "complete: " + operation + " done for scannerId=" + scannerId);
+        }
+
+        if (operations.isEmpty()) {
+            mPendingOperations.remove(scannerId);
+            int index = mAwaitingScans.indexOfKey(scannerId);
+            if (index >= 0) {
+                addLatency(SystemClock.elapsedRealtime() - mAwaitingScans.valueAt(index));
+                mAwaitingScans.removeAt(index);
+            }
+        }
+        return true;
+    }
+
+    // Drop operations the controller never reported as completed, so they don't stay matched to
+    // the completions of later operations.
+    private void expireOperations(long now) {
+        for (int i = mPendingOperations.size() - 1; i >= 0; i--) {
+            Deque<Operation> operations = mPendingOperations.valueAt(i);
+            while (!operations.isEmpty() && now - operations.peek().mIssueTime > mTimeoutMillis) {
+                Log.w(TAG, "expireOperations: " + operations.poll() + " timed out for scannerId="
+                        + mPendingOperations.keyAt(i));
+                mExpiredOperations++;
+            }
+            if (operations.isEmpty()) {
+                mAwaitingScans.delete(mPendingOperations.keyAt(i));
+                mPendingOperations.removeAt(i);
+            }
+        }
+    }
+
+    synchronized int getPendingCount(int scannerId) {
+        Deque<Operation> operations = mPendingOperations.get(scannerId);
+        return operations == null ? 0 : operations.size();
+    }
+
+    private void addLatency(long latencyMillis) {
+        mLatencies[mNextLatency] = latencyMillis;
+        mNextLatency = (mNextLatency + 1) % LATENCY_SAMPLES;
+        mLatencyCount = Math.min(mLatencyCount + 1, LATENCY_SAMPLES);
+    }
+
+    /**
+     * Get a percentile of the recent scan start latencies
+     *
+     * @return the latency in milliseconds, or -1 if no scan start was recorded
+     */
+    @VisibleForTesting
+    synchronized long getLatencyPercentile(int percentile) {
+        if (mLatencyCount == 0) return -1;
+        long[] latencies = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(latencies);
+        int index = (int) Math.ceil(percentile / 100.0 * mLatencyCount) - 1;
+        return latencies[Math.max(0, Math.min(index, mLatencyCount - 1))];
+    }
+
+    static String opToString(int type) {
+        switch (type) {
+            case OP_ENABLE:
+                return "OP_ENABLE";
+            case OP_ADD_FILTER:
+                return "OP_ADD_FILTER";
+            case OP_ADD_FILTER_PARAMS:
+                return "OP_ADD_FILTER_PARAMS";
+            case OP_DELETE_FILTER_PARAMS:
+                return "OP_DELETE_FILTER_PARAMS";
+            default:
+                return "UNKNOWN(" + type + ")";
+        }
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        int pending = 0;
+        for (int i = 0; i < mPendingOperations.size(); i++) {
+            pending += mPendingOperations.valueAt(i).size();
+        }
+        sb.append("  Scan filter operations: issued=" + mIssuedOperations + ", pending=" + pending
+                + ", failed=" + mFailedOperations + ", expired=" + mExpiredOperations + "\n");
+        sb.append("  Scan start latency (ms, last " + mLatencyCount + " scans): p50="
+                + getLatencyPercentile(50) + ", p90=" + getLatencyPercentile(90) + ", p99="
+                + getLatencyPercentile(99) + "\n");
+    }
+}
@@ -20,9 +20,12 @@ import android.bluetooth.BluetoothUuid;
 import android.bluetooth.le.ScanFilter;
 import android.os.ParcelUuid;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -181,6 +184,23 @@ import java.util.UUID;
         return mEntries.toArray(new ScanFilterQueue.Entry[mEntries.size()]);
     }
 
+    /**
+     * Get a key identifying the filter programmed by this queue. Queues holding the same entries
+     * get the same key, regardless of the order the entries were added in.
+     */
+    String getCanonicalKey() {
+        List<String> entries = new ArrayList<String>(mEntries.size());
+        for (Entry entry : mEntries) {
+            entries.add(entry.type + "," + entry.address + "," + entry.addr_type + ","
+                    + Arrays.toString(entry.irk) + "," + entry.uuid + "," + entry.uuid_mask + ","
+                    + entry.name + "," + entry.company + "," + entry.company_mask + ","
+                    + entry.ad_type + "," + Arrays.toString(entry.data) + ","
+                    + Arrays.toString(entry.data_mask));
+        }
+        Collections.sort(entries);
+        return String.join(";", entries);
+    }
+
     /**
      * Add ScanFilter to scan filter queue.
      */
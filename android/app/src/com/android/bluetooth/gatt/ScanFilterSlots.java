@@ -0,0 +1,137 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hardware scan filter slots shared between scan clients.
+ *
+ * Many apps register identical filters, such as the same service UUID or manufacturer ID. A
+ * filter is programmed in a single controller slot, identified by a key built from the filter and
+ * its parameters, and the slot is reference counted by the clients using it. The slot is freed
+ * when the last client using it stops scanning. Scan results are still matched against the
+ * filters of each client on the host, so a shared slot only decides which advertisements reach
+ * the host.
+ *
+ * @hide
+ */
+/* package */ class ScanFilterSlots {
+    static final int NO_FILTER_INDEX = -1;
+
+    private static class Slot {
+        final int mFilterIndex;
+        int mRefCount = 1;
+
+        Slot(int filterIndex) {
+            mFilterIndex = filterIndex;
+        }
+    }
+
+    private final Map<String, Slot> mSlots = new HashMap<>();
+    // Keys of the slots referenced by each scanner, once per reference
+    private final SparseArray<List<String>> mScannerKeys = new SparseArray<>();
+
+    private long mSharedAcquisitions = 0;
+    private int mPeakSlots = 0;
+
+    /**
+     * Take a reference to the slot programmed with the given key, if there is one
+     *
+     * @return the filter index of the slot, or NO_FILTER_INDEX if no slot has the key
+     */
+    synchronized int acquire(String key, int scannerId) {
+        Slot slot = mSlots.get(key);
+        if (slot == null) return NO_FILTER_INDEX;
+        slot.mRefCount++;
+        addScannerKey(scannerId, key);
+        mSharedAcquisitions++;
+        return slot.mFilterIndex;
+    }
+
+    /**
+     * Record a slot newly programmed with the given key, referenced by the given scanner
+     */
+    synchronized void add(String key, int filterIndex, int scannerId) {
+        mSlots.put(key, new Slot(filterIndex));
+        addScannerKey(scannerId, key);
+        mPeakSlots = Math.max(mPeakSlots, mSlots.size());
+    }
+
+    synchronized boolean contains(String key) {
+        return mSlots.containsKey(key);
+    }
+
+    synchronized boolean isEmpty() {
+        return mSlots.isEmpty();
+    }
+
+    /**
+     * Drop all the references held by a scanner
+     *
+     * @return the filter indices of the slots that are no longer referenced, and must be cleared
+     */
+    synchronized List<Integer> release(int scannerId) {
+        List<Integer> freed = new ArrayList<>();
+        List<String> keys = mScannerKeys.get(scannerId);
+        if (keys == null) return freed;
+        mScannerKeys.remove(scannerId);
+
+        for (String key : keys) {
+            Slot slot = mSlots.get(key);
+            if (slot == null) continue;
+            slot.mRefCount--;
+            if (slot.mRefCount <= 0) {
+                mSlots.remove(key);
+                freed.add(slot.mFilterIndex);
+            }
+        }
+        return freed;
+    }
+
+    private void addScannerKey(int scannerId, String key) {
+        List<String> keys = mScannerKeys.get(scannerId);
+        if (keys == null) {
+            keys = new ArrayList<>();
+            mScannerKeys.put(scannerId, keys);
+        }
+        keys.add(key);
+    }
+
+    synchronized int getSlotCount() {
+        return mSlots.size();
+    }
+
+    synchronized int getReferenceCount() {
+        int references = 0;
+        for (Slot slot : mSlots.values()) {
+            references += slot.mRefCount;
+        }
+        return references;
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Shared filter slots: " + mSlots.size() + " (peak " + mPeakSlots + "), "
+                + "references: " + getReferenceCount() + ", shared acquisitions: "
+                + mSharedAcquisitions + "\n");
+    }
+}
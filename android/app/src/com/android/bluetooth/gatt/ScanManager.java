@@ -104,6 +104,9 @@ public class ScanManager {
 
     // Timeout for each controller operation.
     private static final int OPERATION_TIME_OUT_MILLIS = 500;
+    // Scan filter operations are pipelined, so they are given longer to complete as they may be
+    // queued behind the operations issued before them.
+    private static final int FILTER_OPERATION_TIME_OUT_MILLIS = 2000;
     private static final int MAX_IS_UID_FOREGROUND_MAP_SIZE = 500;
 
     private int mLastConfiguredScanSetting = Integer.MIN_VALUE;
@@ -125,6 +128,8 @@ public class ScanManager {
     private SparseIntArray mPriorityMap = new SparseIntArray();
 
     private CountDownLatch mLatch;
+    private final ScanFilterPipeline mFilterPipeline =
+            new ScanFilterPipeline(FILTER_OPERATION_TIME_OUT_MILLIS);
 
     private DisplayManager mDm;
 
@@ -302,6 +307,25 @@ public class ScanManager {
         // TODO: add a callback for scan failure.
     }
 
+    /**
+     * Called when the stack completed a scan filter operation issued by ScanNative
+     */
+    void filterCallbackDone(int scannerId, int status) {
+        if (DBG) {
+            Log.d(TAG, "filter callback done for scannerId - " + scannerId + " status - "
+                    + status);
+        }
+        mFilterPipeline.complete(scannerId, status);
+    }
+
+    void dump(StringBuilder sb) {
+        sb.append("  Regular scan clients: " + mRegularScanClients.size() + ", batch scan clients: "
+                + mBatchClients.size() + ", suspended scan clients: "
+                + mSuspendedScanClients.size() + "\n");
+        mScanNative.dumpFilterSlots(sb);
+        mFilterPipeline.dump(sb);
+    }
+
     private void sendMessage(int what, ScanClient client) {
         final ClientHandler handler = mHandler;
         if (handler == null) {
@@ -405,6 +429,7 @@ public class ScanManager {
             }
 
             // Begin scan operations.
+            mFilterPipeline.onScanStarting(client.scannerId);
             if (isBatchClient(client)) {
                 mBatchClients.add(client);
                 mScanNative.startBatchScan(client);
@@ -429,6 +454,7 @@ public class ScanManager {
                 }
             }
             client.started = true;
+            mFilterPipeline.onScanStarted(client.scannerId);
         }
 
         private boolean requiresScreenOn(ScanClient client) {
@@ -455,6 +481,7 @@ public class ScanManager {
             }
             removeMessages(MSG_REVERT_SCAN_MODE_UPGRADE, client);
             removeMessages(MSG_SCAN_TIMEOUT, client);
+            mFilterPipeline.onScanStopped(client.scannerId);
             if (mRegularScanClients.contains(client)) {
                 mScanNative.stopRegularScan(client);
 
@@ -751,9 +778,12 @@ public class ScanManager {
         private static final int LIST_LOGIC_TYPE = 0x1111111;
         private static final int FILTER_LOGIC_TYPE = 1;
         // Filter indices that are available to user. It's sad we need to maintain filter index.
+        // Changed on the handler thread while holding its own lock, so dumps can read it.
         private final Deque<Integer> mFilterIndexStack;
         // Map of scannerId and Filter indices used by client.
         private final Map<Integer, Deque<Integer>> mClientFilterIndexMap;
+        // Filter indices shared between the clients using identical filters.
+        private final ScanFilterSlots mFilterSlots = new ScanFilterSlots();
         // Keep track of the clients that uses ALL_PASS filters.
         private final Set<Integer> mAllPassRegularClients = new HashSet<>();
         private final Set<Integer> mAllPassBatchClients = new HashSet<>();
@@ -860,7 +890,7 @@ public class ScanManager {
 
         void startRegularScan(ScanClient client) {
             if (isFilteringSupported() && mFilterIndexStack.isEmpty()
-                    && mClientFilterIndexMap.isEmpty()) {
+                    && mClientFilterIndexMap.isEmpty() && mFilterSlots.isEmpty()) {
                 initFilterIndexStack();
             }
             if (isFilteringSupported()) {
@@ -1203,32 +1233,45 @@ public class ScanManager {
                 return;
             }
 
-            resetCountDownLatch();
+            // The filter operations below are issued without waiting for each of them to complete,
+            // the stack executes them in order.
+            mFilterPipeline.issue(scannerId, ScanFilterPipeline.OP_ENABLE,
+                    ScanFilterPipeline.NO_FILTER_INDEX);
             gattClientScanFilterEnableNative(scannerId, true);
-            waitForCallback();
 
             if (shouldUseAllPassFilter(client)) {
                 int filterIndex =
                         (deliveryMode == DELIVERY_MODE_BATCH) ? ALL_PASS_FILTER_INDEX_BATCH_SCAN
                                 : ALL_PASS_FILTER_INDEX_REGULAR_SCAN;
-                resetCountDownLatch();
                 // Don't allow Onfound/onlost with all pass
                 configureFilterParamter(scannerId, client, ALL_PASS_FILTER_SELECTION, filterIndex,
                         0);
-                waitForCallback();
             } else {
                 Deque<Integer> clientFilterIndices = new ArrayDeque<Integer>();
                 for (ScanFilter filter : client.filters) {
                     ScanFilterQueue queue = new ScanFilterQueue();
                     queue.addScanFilter(filter);
+                    String slotKey = getFilterSlotKey(client, deliveryMode, queue);
+                    if (slotKey != null) {
+                        int sharedIndex = mFilterSlots.acquire(slotKey, scannerId);
+                        if (sharedIndex != ScanFilterSlots.NO_FILTER_INDEX) {
+                            if (DBG) {
+                                Log.d(TAG, "configureScanFilters: scannerId " + scannerId
+                                        + " shares filter index " + sharedIndex);
+                            }
+                            continue;
+                        }
+                    }
                     int featureSelection = queue.getFeatureSelection();
-                    int filterIndex = mFilterIndexStack.pop();
+                    int filterIndex;
+                    synchronized (mFilterIndexStack) {
+                        filterIndex = mFilterIndexStack.pop();
+                    }
 
-                    resetCountDownLatch();
+                    mFilterPipeline.issue(scannerId, ScanFilterPipeline.OP_ADD_FILTER,
+                            filterIndex);
                     gattClientScanFilterAddNative(scannerId, queue.toArray(), filterIndex);
-                    waitForCallback();
 
-                    resetCountDownLatch();
                     if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
                         trackEntries = getNumOfTrackingAdvertisements(client.settings);
                         if (!manageAllocationOfTrackingAdvertisement(trackEntries, true)) {
@@ -1244,8 +1287,11 @@ public class ScanManager {
                     }
                     configureFilterParamter(scannerId, client, featureSelection, filterIndex,
                             trackEntries);
-                    waitForCallback();
-                    clientFilterIndices.add(filterIndex);
+                    if (slotKey != null) {
+                        mFilterSlots.add(slotKey, filterIndex, scannerId);
+                    } else {
+                        clientFilterIndices.add(filterIndex);
+                    }
                 }
                 mClientFilterIndexMap.put(scannerId, clientFilterIndices);
             }
@@ -1271,12 +1317,19 @@ public class ScanManager {
         private void removeScanFilters(int scannerId) {
             Deque<Integer> filterIndices = mClientFilterIndexMap.remove(scannerId);
             if (filterIndices != null) {
-                mFilterIndexStack.addAll(filterIndices);
+                synchronized (mFilterIndexStack) {
+                    mFilterIndexStack.addAll(filterIndices);
+                }
                 for (Integer filterIndex : filterIndices) {
-                    resetCountDownLatch();
-                    gattClientScanFilterParamDeleteNative(scannerId, filterIndex);
-                    waitForCallback();
+                    deleteFilterParams(scannerId, filterIndex);
+                }
+            }
+            // Free the shared filters no other client is using.
+            for (Integer filterIndex : mFilterSlots.release(scannerId)) {
+                synchronized (mFilterIndexStack) {
+                    mFilterIndexStack.add(filterIndex);
                 }
+                deleteFilterParams(scannerId, filterIndex);
             }
             // Remove if ALL_PASS filters are used.
             removeFilterIfExisits(mAllPassRegularClients, scannerId,
@@ -1292,12 +1345,16 @@ public class ScanManager {
             clients.remove(scannerId);
             // Remove ALL_PASS filter iff no app is using it.
             if (clients.isEmpty()) {
-                resetCountDownLatch();
-                gattClientScanFilterParamDeleteNative(scannerId, filterIndex);
-                waitForCallback();
+                deleteFilterParams(scannerId, filterIndex);
             }
         }
 
+        private void deleteFilterParams(int scannerId, int filterIndex) {
+            mFilterPipeline.issue(scannerId, ScanFilterPipeline.OP_DELETE_FILTER_PARAMS,
+                    filterIndex);
+            gattClientScanFilterParamDeleteNative(scannerId, filterIndex);
+        }
+
         private ScanClient getBatchScanClient(int scannerId) {
             for (ScanClient client : mBatchClients) {
                 if (client.scannerId == scannerId) {
@@ -1331,7 +1388,47 @@ public class ScanManager {
             if (client.filters == null || client.filters.isEmpty()) {
                 return true;
             }
-            return client.filters.size() > mFilterIndexStack.size();
+            return getNumOfFilterIndicesNeeded(client) > mFilterIndexStack.size();
+        }
+
+        // Get the number of filter indices the client needs, not counting the filters it can share
+        // with other clients.
+        private int getNumOfFilterIndicesNeeded(ScanClient client) {
+            int deliveryMode = getDeliveryMode(client);
+            Set<String> newSlotKeys = new HashSet<>();
+            int needed = 0;
+            for (ScanFilter filter : client.filters) {
+                ScanFilterQueue queue = new ScanFilterQueue();
+                queue.addScanFilter(filter);
+                String slotKey = getFilterSlotKey(client, deliveryMode, queue);
+                if (slotKey == null
+                        || (!mFilterSlots.contains(slotKey) && newSlotKeys.add(slotKey))) {
+                    needed++;
+                }
+            }
+            return needed;
+        }
+
+        // Get the key identifying a filter and its parameters, or null if the filter can't be
+        // shared with other clients. Only filters delivering results immediately are shared, as
+        // on found/lost and batch filters keep per client state in the controller.
+        private String getFilterSlotKey(ScanClient client, int deliveryMode,
+                ScanFilterQueue queue) {
+            if (deliveryMode != DELIVERY_MODE_IMMEDIATE || client.settings == null) {
+                return null;
+            }
+            return queue.getCanonicalKey() + "|" + client.settings.getMatchMode();
+        }
+
+        void dumpFilterSlots(StringBuilder sb) {
+            int maxFiltersSupported = mAdapterService.getNumOfOffloadedScanFilterSupported();
+            int freeFilterIndices;
+            synchronized (mFilterIndexStack) {
+                freeFilterIndices = mFilterIndexStack.size();
+            }
+            sb.append("  Filter indices: free=" + freeFilterIndices + ", max="
+                    + maxFiltersSupported + "\n");
+            mFilterSlots.dump(sb);
         }
 
         private void initFilterIndexStack() {
@@ -1342,8 +1439,10 @@ public class ScanManager {
             // index 1 is reserved for ALL_PASS filter for regular scan apps.
             // index 2 is reserved for ALL_PASS filter for batch scan apps.
             // index 3 is reserved for BAP/CAP Announcements
-            for (int i = 4; i < maxFiltersSupported; ++i) {
-                mFilterIndexStack.add(i);
+            synchronized (mFilterIndexStack) {
+                for (int i = 4; i < maxFiltersSupported; ++i) {
+                    mFilterIndexStack.add(i);
+                }
             }
         }
 
@@ -1365,6 +1464,7 @@ public class ScanManager {
                     new FilterParams(scannerId, filterIndex, featureSelection, LIST_LOGIC_TYPE,
                             FILTER_LOGIC_TYPE, rssiThreshold, rssiThreshold, deliveryMode,
                             onFoundTimeout, onLostTimeout, onFoundCount, numOfTrackingEntries);
+            mFilterPipeline.issue(scannerId, ScanFilterPipeline.OP_ADD_FILTER_PARAMS, filterIndex);
             gattClientScanFilterParamAddNative(filtValue);
         }
 
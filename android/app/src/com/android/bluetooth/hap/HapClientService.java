@@ -39,7 +39,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.HandlerThread;
-import android.os.ParcelUuid;
+import android.os.Looper;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
 import android.sysprop.BluetoothProperties;
@@ -51,6 +51,8 @@ import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.csip.GroupMembershipIndex;
+import com.android.bluetooth.util.GroupOperationCoalescer;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
@@ -74,6 +76,10 @@ public class HapClientService extends ProfileService {
     // Upper limit of all HearingAccess devices: Bonded or Connected
     private static final int MAX_HEARING_ACCESS_STATE_MACHINES = 10;
     private static final int SM_THREAD_JOIN_TIMEOUT_MS = 1000;
+    // Longest wait for the active preset of a group after selecting it, before selecting the
+    // next one
+    private static final int GROUP_OPERATION_TIMEOUT_MS = 500;
+    private static final int GROUP_OPERATION_SELECT_PRESET = 0;
     private static HapClientService sHapClient;
     private final Map<BluetoothDevice, HapClientStateMachine> mStateMachines =
             new HashMap<>();
@@ -89,6 +95,7 @@ public class HapClientService extends ProfileService {
     private final Map<BluetoothDevice, Integer> mDeviceFeaturesMap = new HashMap<>();
     private final Map<BluetoothDevice, List<BluetoothHapPresetInfo>> mPresetsMap =
             new HashMap<>();
+    private GroupOperationCoalescer mGroupOperations;
 
     @VisibleForTesting
     RemoteCallbackList<IBluetoothHapClientCallback> mCallbacks;
@@ -180,6 +187,8 @@ public class HapClientService extends ProfileService {
         registerReceiver(mConnectionStateChangedReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
 
         mCallbacks = new RemoteCallbackList<IBluetoothHapClientCallback>();
+        mGroupOperations = new GroupOperationCoalescer(TAG, Looper.getMainLooper(),
+                GROUP_OPERATION_TIMEOUT_MS, this::dispatchGroupOperation);
 
         // Initialize native interface
         mHapClientNativeInterface.init();
@@ -228,6 +237,8 @@ public class HapClientService extends ProfileService {
             }
         }
 
+        mGroupOperations.clear();
+
         // Cleanup GATT interface
         mHapClientNativeInterface.cleanup();
         mHapClientNativeInterface = null;
@@ -546,17 +557,11 @@ public class HapClientService extends ProfileService {
      * @return group ID if device is part of the coordinated group, 0 otherwise
      */
     public int getHapGroup(BluetoothDevice device) {
-        CsipSetCoordinatorService csipClient = mFactory.getCsipSetCoordinatorService();
-
-        if (csipClient != null) {
-            Map<Integer, ParcelUuid> groups = csipClient.getGroupUuidMapByDevice(device);
-            for (Map.Entry<Integer, ParcelUuid> entry : groups.entrySet()) {
-                if (entry.getValue().equals(BluetoothUuid.CAP)) {
-                    return entry.getKey();
-                }
-            }
+        GroupMembershipIndex index = getGroupMembershipIndex();
+        if (index == null) {
+            return BluetoothCsipSetCoordinator.GROUP_ID_INVALID;
         }
-        return BluetoothCsipSetCoordinator.GROUP_ID_INVALID;
+        return index.getGroupId(device, BluetoothUuid.CAP);
     }
 
     /**
@@ -649,7 +654,27 @@ public class HapClientService extends ProfileService {
             return;
         }
 
-        mHapClientNativeInterface.groupSelectActivePreset(groupId, presetIndex);
+        mGroupOperations.submit(groupId, GROUP_OPERATION_SELECT_PRESET, presetIndex);
+    }
+
+    /**
+     * Set the longest wait for the result of a group preset selection before sending the next
+     * one. 0 sends every selection right away.
+     */
+    @VisibleForTesting
+    void setGroupOperationTimeout(long timeoutMs) {
+        mGroupOperations.clear();
+        mGroupOperations = new GroupOperationCoalescer(TAG, Looper.getMainLooper(), timeoutMs,
+                this::dispatchGroupOperation);
+    }
+
+    private void dispatchGroupOperation(int groupId, int operation, int presetIndex) {
+        HapClientNativeInterface nativeInterface = mHapClientNativeInterface;
+        if (nativeInterface == null) {
+            Log.w(TAG, "Dropping preset " + presetIndex + " selection for group " + groupId);
+            return;
+        }
+        nativeInterface.groupSelectActivePreset(groupId, presetIndex);
     }
 
     /**
@@ -921,12 +946,8 @@ public class HapClientService extends ProfileService {
     private boolean isGroupIdValid(int groupId) {
         if (groupId == BluetoothCsipSetCoordinator.GROUP_ID_INVALID) return false;
 
-        CsipSetCoordinatorService csipClient = mFactory.getCsipSetCoordinatorService();
-        if (csipClient != null) {
-            List<Integer> groups = csipClient.getAllGroupIds(BluetoothUuid.CAP);
-            return groups.contains(groupId);
-        }
-        return false;
+        GroupMembershipIndex index = getGroupMembershipIndex();
+        return index != null && BluetoothUuid.CAP.equals(index.getGroupUuid(groupId));
     }
 
     /**
@@ -998,6 +1019,7 @@ public class HapClientService extends ProfileService {
         for (HapClientStateMachine sm : mStateMachines.values()) {
             sm.dump(sb);
         }
+        ProfileService.println(sb, "  Group operations: " + mGroupOperations);
     }
 
     private boolean isPresetCoordinationSupported(BluetoothDevice device) {
@@ -1055,15 +1077,16 @@ public class HapClientService extends ProfileService {
     }
 
     private List<BluetoothDevice> getGroupDevices(int groupId) {
-        List<BluetoothDevice> devices = new ArrayList<>();
+        GroupMembershipIndex index = getGroupMembershipIndex();
+        if (index == null || groupId == BluetoothLeAudio.GROUP_ID_INVALID) {
+            return Collections.emptyList();
+        }
+        return index.getMembers(groupId);
+    }
 
+    private GroupMembershipIndex getGroupMembershipIndex() {
         CsipSetCoordinatorService csipClient = mFactory.getCsipSetCoordinatorService();
-        if (csipClient != null) {
-            if (groupId != BluetoothLeAudio.GROUP_ID_INVALID) {
-                devices = csipClient.getGroupDevicesOrdered(groupId);
-            }
-        }
-        return devices;
+        return csipClient != null ? csipClient.getGroupMembershipIndex() : null;
     }
 
     /**
@@ -1114,6 +1137,7 @@ public class HapClientService extends ProfileService {
                     notifyActivePresetChanged(device, currentPresetIndex, reasonCode);
 
                 } else if (groupId != BluetoothCsipSetCoordinator.GROUP_ID_INVALID) {
+                    mGroupOperations.onOperationComplete(groupId);
                     List<BluetoothDevice> all_group_devices = getGroupDevices(groupId);
                     for (BluetoothDevice dev : all_group_devices) {
                         mDeviceCurrentPresetMap.put(dev, currentPresetIndex);
@@ -1131,6 +1155,7 @@ public class HapClientService extends ProfileService {
                 if (device != null) {
                     notifySelectActivePresetFailed(device, statusCode);
                 } else if (groupId != BluetoothCsipSetCoordinator.GROUP_ID_INVALID) {
+                    mGroupOperations.onOperationComplete(groupId);
                     notifySelectActivePresetForGroupFailed(groupId, statusCode);
                 }
             } break;
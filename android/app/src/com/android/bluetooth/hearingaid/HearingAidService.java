@@ -45,6 +45,7 @@ import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.MetricsLogger;
+import com.android.bluetooth.btservice.ProfileConnectionRegistry;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -201,6 +202,10 @@ public class HearingAidService extends ProfileService {
             }
             mStateMachines.clear();
         }
+        ProfileConnectionRegistry registry = ProfileConnectionRegistry.getInstance();
+        if (registry != null) {
+            registry.clearProfile(BluetoothProfile.HEARING_AID);
+        }
 
         // Clear HiSyncId map, capabilities map and HiSyncId Connected map
         mDeviceHiSyncIdMap.clear();
@@ -429,34 +434,10 @@ public class HearingAidService extends ProfileService {
     }
 
     List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
-        ArrayList<BluetoothDevice> devices = new ArrayList<>();
-        if (states == null) {
-            return devices;
-        }
-        final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
-        if (bondedDevices == null) {
-            return devices;
-        }
-        synchronized (mStateMachines) {
-            for (BluetoothDevice device : bondedDevices) {
-                final ParcelUuid[] featureUuids = device.getUuids();
-                if (!Utils.arrayContains(featureUuids, BluetoothUuid.HEARING_AID)) {
-                    continue;
-                }
-                int connectionState = BluetoothProfile.STATE_DISCONNECTED;
-                HearingAidStateMachine sm = mStateMachines.get(device);
-                if (sm != null) {
-                    connectionState = sm.getConnectionState();
-                }
-                for (int state : states) {
-                    if (connectionState == state) {
-                        devices.add(device);
-                        break;
-                    }
-                }
-            }
-            return devices;
-        }
+        return ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(
+                BluetoothProfile.HEARING_AID, mAdapterService.getBondedDevices(), states,
+                device -> Utils.arrayContains(device.getUuids(), BluetoothUuid.HEARING_AID),
+                this::getConnectionState);
     }
 
     /**
@@ -55,6 +55,7 @@ import com.android.bluetooth.Utils;
 import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.MetricsLogger;
+import com.android.bluetooth.btservice.ProfileConnectionRegistry;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -260,6 +261,10 @@ public class HeadsetService extends ProfileService {
             }
             mStateMachines.clear();
         }
+        ProfileConnectionRegistry registry = ProfileConnectionRegistry.getInstance();
+        if (registry != null) {
+            registry.clearProfile(BluetoothProfile.HEADSET);
+        }
         // Step 4: Destroy native interface
         mNativeInterface.cleanup();
         setHeadsetService(null);
@@ -1065,30 +1070,14 @@ public class HeadsetService extends ProfileService {
      */
     @VisibleForTesting
     public List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
-        ArrayList<BluetoothDevice> devices = new ArrayList<>();
-        synchronized (mStateMachines) {
-            if (states == null || mAdapterService == null) {
-                return devices;
-            }
-            final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
-            if (bondedDevices == null) {
-                return devices;
-            }
-            for (BluetoothDevice device : bondedDevices) {
-                final ParcelUuid[] featureUuids = mAdapterService.getRemoteUuids(device);
-                if (!BluetoothUuid.containsAnyUuid(featureUuids, HEADSET_UUIDS)) {
-                    continue;
-                }
-                int connectionState = getConnectionState(device);
-                for (int state : states) {
-                    if (connectionState == state) {
-                        devices.add(device);
-                        break;
-                    }
-                }
-            }
-        }
-        return devices;
+        if (states == null || mAdapterService == null) {
+            return new ArrayList<>();
+        }
+        return ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(
+                BluetoothProfile.HEADSET, mAdapterService.getBondedDevices(), states,
+                device -> BluetoothUuid.containsAnyUuid(mAdapterService.getRemoteUuids(device),
+                        HEADSET_UUIDS),
+                this::getConnectionState);
     }
 
     public int getConnectionState(BluetoothDevice device) {
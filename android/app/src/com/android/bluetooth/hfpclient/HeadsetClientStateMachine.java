@@ -46,6 +46,7 @@ import android.bluetooth.BluetoothStatusCodes;
 import android.bluetooth.BluetoothUuid;
 import android.bluetooth.hfp.BluetoothHfpProtoEnums;
 import android.content.Intent;
+import android.content.res.Resources;
 import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
@@ -78,6 +79,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -138,6 +140,8 @@ public class HeadsetClientStateMachine extends StateMachine {
     static final int HF_ORIGINATED_CALL_ID = -1;
     private static final long OUTGOING_TIMEOUT_MILLI = 10 * 1000; // 10 seconds
     private static final long QUERY_CURRENT_CALLS_WAIT_MILLIS = 2 * 1000; // 2 seconds
+    // Longest wait for the result of a calls query before the queries stop being coalesced with it
+    private static final long QUERY_CURRENT_CALLS_RESULT_TIMEOUT_MILLIS = 5 * 1000; // 5 seconds
 
     // Keep track of audio routing across all devices.
     private static boolean sAudioIsRouted = false;
@@ -159,6 +163,15 @@ public class HeadsetClientStateMachine extends StateMachine {
     // Set of calls received from AG via the AT+CLCC command. We use this map to update the mCalls
     // which is eventually used to inform the telephony stack of any changes to call on HF.
     private final Hashtable<Integer, HfpClientCall> mCallsUpdate = new Hashtable<>();
+    // Interval of the CLCC polling during calls. It is doubled each time a poll finds no change,
+    // up to hfp_clcc_poll_max_interval_during_call, and reset when the calls change or a call
+    // indicator is received.
+    private long mQueryCallsIntervalMs = 0;
+    // Whether the calls need to be queried again once the running query is done
+    private boolean mQueryCallsRequested = false;
+    private long mQueryCallsStartMs = 0;
+    @VisibleForTesting
+    long mQueryCallsResultTimeoutMs = QUERY_CURRENT_CALLS_RESULT_TIMEOUT_MILLIS;
 
     private int mIndicatorNetworkState;
     private int mIndicatorNetworkType;
@@ -248,6 +261,8 @@ public class HeadsetClientStateMachine extends StateMachine {
             }
         }
 
+        ProfileService.println(sb, "  mQueryCallsIntervalMs: " + mQueryCallsIntervalMs);
+
         ProfileService.println(sb, "  mCallsUpdate:");
         if (mCallsUpdate != null) {
             for (HfpClientCall call : mCallsUpdate.values()) {
@@ -413,6 +428,8 @@ public class HeadsetClientStateMachine extends StateMachine {
     private boolean queryCallsStart() {
         logD("queryCallsStart");
         clearPendingAction();
+        mQueryCallsRequested = false;
+        mQueryCallsStartMs = SystemClock.elapsedRealtime();
         mNativeInterface.queryCurrentCalls(mCurrentDevice);
         addQueuedAction(QUERY_CURRENT_CALLS, 0);
         return true;
@@ -508,6 +525,10 @@ public class HeadsetClientStateMachine extends StateMachine {
                 + " callAddedIds " + callAddedIds + " callRemovedIds " + callRemovedIds
                 + " callRetainedIds " + callRetainedIds);
 
+        // Only the changed calls are propagated, and the polling backs off while nothing changes.
+        boolean callsChanged = !callRemovedIds.isEmpty() || !callAddedIds.isEmpty()
+                || hfOriginatedAssoc != -1;
+
         // Terminate & remove the calls that are done.
         for (Integer idx : callRemovedIds) {
             HfpClientCall c = mCalls.remove(idx);
@@ -539,32 +560,79 @@ public class HeadsetClientStateMachine extends StateMachine {
 
                 // Send update with original object (UUID, idx).
                 sendCallChangedIntent(cOrig);
+                callsChanged = true;
             }
         }
 
-        if (mCalls.size() > 0) {
+        if (mQueryCallsRequested) {
+            // A call indicator was received while the calls were queried, the AG may have
+            // listed the calls from before it.
+            logD("Query calls again");
+            removeMessages(QUERY_CURRENT_CALLS);
+            sendMessage(QUERY_CURRENT_CALLS);
+        } else if (mCalls.size() > 0) {
             // Continue polling even if not enabled until the new outgoing call is associated with
             // a valid call on the phone. The polling would at most continue until
             // OUTGOING_TIMEOUT_MILLI. This handles the potential scenario where the phone creates
             // and terminates a call before the first QUERY_CURRENT_CALLS completes.
+            boolean hfOriginatedPending = mCalls.containsKey(HF_ORIGINATED_CALL_ID);
+            long interval = getNextQueryCallsInterval(callsChanged || hfOriginatedPending);
+            removeMessages(QUERY_CURRENT_CALLS);
             if (mService.getResources().getBoolean(R.bool.hfp_clcc_poll_during_call)
-                    || (mCalls.containsKey(HF_ORIGINATED_CALL_ID))) {
-                sendMessageDelayed(QUERY_CURRENT_CALLS,
-                        mService.getResources().getInteger(
-                        R.integer.hfp_clcc_poll_interval_during_call));
-            } else {
-                if (getCall(HfpClientCall.CALL_STATE_INCOMING) != null) {
-                    logD("Still have incoming call; polling");
-                    sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_CURRENT_CALLS_WAIT_MILLIS);
-                } else {
-                    removeMessages(QUERY_CURRENT_CALLS);
-                }
+                    || hfOriginatedPending) {
+                logD("Poll calls in " + interval + " ms");
+                sendMessageDelayed(QUERY_CURRENT_CALLS, interval);
+            } else if (getCall(HfpClientCall.CALL_STATE_INCOMING) != null) {
+                logD("Still have incoming call; polling");
+                sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_CURRENT_CALLS_WAIT_MILLIS);
             }
         }
 
         mCallsUpdate.clear();
     }
 
+    /**
+     * Get the interval until the next CLCC poll during calls: the configured interval when the
+     * calls just changed, otherwise the previous interval doubled, up to the configured maximum.
+     */
+    private long getNextQueryCallsInterval(boolean callsChanged) {
+        Resources resources = mService.getResources();
+        long interval = resources.getInteger(R.integer.hfp_clcc_poll_interval_during_call);
+        long maxInterval = Math.max(interval,
+                resources.getInteger(R.integer.hfp_clcc_poll_max_interval_during_call));
+        if (!callsChanged && mQueryCallsIntervalMs > 0) {
+            interval = Math.min(mQueryCallsIntervalMs * 2, maxInterval);
+        }
+        mQueryCallsIntervalMs = interval;
+        return interval;
+    }
+
+    @VisibleForTesting
+    long getQueryCallsIntervalMs() {
+        return mQueryCallsIntervalMs;
+    }
+
+    /**
+     * Check whether a calls query is waiting for its result. A query without result for too long
+     * is dropped, so the queries coalesced with it don't stop the polling.
+     */
+    private boolean isQueryCallsPending() {
+        Iterator<Pair<Integer, Object>> it = mQueuedActions.iterator();
+        while (it.hasNext()) {
+            if (it.next().first != QUERY_CURRENT_CALLS) {
+                continue;
+            }
+            long elapsed = SystemClock.elapsedRealtime() - mQueryCallsStartMs;
+            if (elapsed < mQueryCallsResultTimeoutMs) {
+                return true;
+            }
+            Log.w(TAG, "No result for the calls query after " + elapsed + " ms");
+            it.remove();
+            return false;
+        }
+        return false;
+    }
+
     private void queryCallsUpdate(int id, int state, String number, boolean multiParty,
             boolean outgoing) {
         logD("queryCallsUpdate: " + id);
@@ -1011,6 +1079,8 @@ public class HeadsetClientStateMachine extends StateMachine {
 
             mCalls.clear();
             mCallsUpdate.clear();
+            mQueryCallsIntervalMs = 0;
+            mQueryCallsRequested = false;
 
             mPeerFeatures = 0;
             mChldFeatures = 0;
@@ -1488,6 +1558,12 @@ public class HeadsetClientStateMachine extends StateMachine {
                     break;
                 case QUERY_CURRENT_CALLS:
                     removeMessages(QUERY_CURRENT_CALLS);
+                    if (isQueryCallsPending()) {
+                        // Coalesce with the running query, the calls are queried again once it
+                        // is done.
+                        mQueryCallsRequested = true;
+                        break;
+                    }
                     // If there are ongoing calls periodically check their status.
                     if (mCalls.size() > 1
                             && mService.getResources().getBoolean(
@@ -1601,6 +1677,10 @@ public class HeadsetClientStateMachine extends StateMachine {
                         case StackEvent.EVENT_TYPE_RESP_AND_HOLD:
                         case StackEvent.EVENT_TYPE_CLIP:
                         case StackEvent.EVENT_TYPE_CALL_WAITING:
+                            // The calls are changing, poll them at the configured interval again.
+                            // A burst of indicators results in a single query.
+                            mQueryCallsIntervalMs = 0;
+                            removeMessages(QUERY_CURRENT_CALLS);
                             sendMessage(QUERY_CURRENT_CALLS);
                             break;
                         case StackEvent.EVENT_TYPE_CURRENT_CALLS:
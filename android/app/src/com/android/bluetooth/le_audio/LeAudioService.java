@@ -59,9 +59,11 @@ import android.util.Pair;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.btservice.ProfileConnectionRegistry;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
+import com.android.bluetooth.csip.GroupMembershipIndex;
 import com.android.bluetooth.hfp.HeadsetService;
 import com.android.bluetooth.mcp.McpService;
 import com.android.bluetooth.tbs.TbsGatt;
@@ -176,6 +178,8 @@ public class LeAudioService extends ProfileService {
     private final Map<Integer, LeAudioGroupDescriptor> mGroupDescriptors = new LinkedHashMap<>();
     private final Map<BluetoothDevice, LeAudioDeviceDescriptor> mDeviceDescriptors =
             new LinkedHashMap<>();
+    // Members of each group, kept along the group ID of the device descriptors
+    private final GroupMembershipIndex mGroupMembers = new GroupMembershipIndex();
 
     private BroadcastReceiver mBondStateChangedReceiver;
     private BroadcastReceiver mConnectionStateChangedReceiver;
@@ -239,6 +243,7 @@ public class LeAudioService extends ProfileService {
         synchronized (mGroupLock) {
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            mGroupMembers.clear();
         }
 
         // Setup broadcast receivers
@@ -347,6 +352,11 @@ public class LeAudioService extends ProfileService {
 
             mDeviceDescriptors.clear();
             mGroupDescriptors.clear();
+            mGroupMembers.clear();
+        }
+        ProfileConnectionRegistry registry = ProfileConnectionRegistry.getInstance();
+        if (registry != null) {
+            registry.clearProfile(BluetoothProfile.LE_AUDIO);
         }
 
         // Cleanup native interfaces
@@ -572,41 +582,10 @@ public class LeAudioService extends ProfileService {
     }
 
     List<BluetoothDevice> getDevicesMatchingConnectionStates(int[] states) {
-        ArrayList<BluetoothDevice> devices = new ArrayList<>();
-        if (states == null) {
-            return devices;
-        }
-        final BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
-        if (bondedDevices == null) {
-            return devices;
-        }
-        synchronized (mGroupLock) {
-            for (BluetoothDevice device : bondedDevices) {
-                final ParcelUuid[] featureUuids = device.getUuids();
-                if (!Utils.arrayContains(featureUuids, BluetoothUuid.LE_AUDIO)) {
-                    continue;
-                }
-                int connectionState = BluetoothProfile.STATE_DISCONNECTED;
-                LeAudioDeviceDescriptor descriptor = getDeviceDescriptor(device);
-                if (descriptor == null) {
-                    Log.e(TAG, "getDevicesMatchingConnectionStates: "
-                            + "No valid descriptor for device: " + device);
-                    return null;
-                }
-
-                LeAudioStateMachine sm = descriptor.mStateMachine;
-                if (sm != null) {
-                    connectionState = sm.getConnectionState();
-                }
-                for (int state : states) {
-                    if (connectionState == state) {
-                        devices.add(device);
-                        break;
-                    }
-                }
-            }
-            return devices;
-        }
+        return ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(
+                BluetoothProfile.LE_AUDIO, mAdapterService.getBondedDevices(), states,
+                device -> Utils.arrayContains(device.getUuids(), BluetoothUuid.LE_AUDIO),
+                this::getConnectionState);
     }
 
     /**
@@ -696,21 +675,10 @@ public class LeAudioService extends ProfileService {
      * @return all devices within a given group or empty list
      */
     public List<BluetoothDevice> getGroupDevices(int groupId) {
-        List<BluetoothDevice> result = new ArrayList<>();
-
         if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
-            return result;
-        }
-
-        synchronized (mGroupLock) {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry
-                    : mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
-            }
+            return new ArrayList<>();
         }
-        return result;
+        return new ArrayList<>(mGroupMembers.getMembers(groupId));
     }
 
     private Integer getActiveGroupId() {
@@ -849,8 +817,9 @@ public class LeAudioService extends ProfileService {
             return null;
         }
         synchronized (mGroupLock) {
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (!descriptor.mGroupId.equals(groupId)) {
+            for (BluetoothDevice device : mGroupMembers.getMembers(groupId)) {
+                LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(device);
+                if (descriptor == null) {
                     continue;
                 }
 
@@ -1756,6 +1725,7 @@ public class LeAudioService extends ProfileService {
                 mLeAudioNativeInterface.groupRemoveNode(descriptor.mGroupId, device);
             }
 
+            mGroupMembers.removeDevice(device);
             descriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
             descriptor.mSinkAudioLocation = BluetoothLeAudio.AUDIO_LOCATION_INVALID;
             descriptor.mDirection = AUDIO_DIRECTION_NONE;
@@ -1798,9 +1768,13 @@ public class LeAudioService extends ProfileService {
     @VisibleForTesting
     List<BluetoothDevice> getConnectedPeerDevices(int groupId) {
         List<BluetoothDevice> result = new ArrayList<>();
-        for (BluetoothDevice peerDevice : getConnectedDevices()) {
-            if (getGroupId(peerDevice) == groupId) {
-                result.add(peerDevice);
+        synchronized (mGroupLock) {
+            for (BluetoothDevice peerDevice : mGroupMembers.getMembers(groupId)) {
+                LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(peerDevice);
+                if (descriptor != null && descriptor.mStateMachine != null
+                        && descriptor.mStateMachine.isConnected()) {
+                    result.add(peerDevice);
+                }
             }
         }
         return result;
@@ -2208,7 +2182,12 @@ public class LeAudioService extends ProfileService {
                     return;
                 }
             }
+            if (deviceDescriptor.mGroupId != LE_AUDIO_GROUP_ID_INVALID
+                    && deviceDescriptor.mGroupId != groupId) {
+                mGroupMembers.removeMember(device, deviceDescriptor.mGroupId);
+            }
             deviceDescriptor.mGroupId = groupId;
+            mGroupMembers.addMember(device, groupId, 0);
 
             LeAudioGroupDescriptor descriptor = mGroupDescriptors.get(groupId);
             if (descriptor == null) {
@@ -2266,17 +2245,9 @@ public class LeAudioService extends ProfileService {
                 return;
             }
             deviceDescriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
+            mGroupMembers.removeMember(device, groupId);
 
-            boolean isGroupEmpty = true;
-
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (descriptor.mGroupId == groupId) {
-                    isGroupEmpty = false;
-                    break;
-                }
-            }
-
-            if (isGroupEmpty) {
+            if (mGroupMembers.getMembers(groupId).isEmpty()) {
                 /* Device is currently an active device. Group needs to be inactivated before
                  * removing
                  */
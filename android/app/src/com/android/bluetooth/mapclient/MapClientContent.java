@@ -18,12 +18,16 @@ package com.android.bluetooth.mapclient;
 
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothMapClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.MmsSms;
@@ -39,6 +43,7 @@ import android.util.Log;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.map.BluetoothMapbMessageMime;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardConstants;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
@@ -47,7 +52,10 @@ import com.google.android.mms.pdu.PduHeaders;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -58,6 +66,8 @@ class MapClientContent {
     private static final int DEFAULT_CHARSET = 106;
     private static final int ORIGINATOR_ADDRESS_TYPE = 137;
     private static final int RECIPIENT_ADDRESS_TYPE = 151;
+    @VisibleForTesting
+    static final int MAX_OPS = 250;
 
     final BluetoothDevice mDevice;
     private final Context mContext;
@@ -71,6 +81,14 @@ class MapClientContent {
     private HashMap<String, Uri> mHandleToUriMap = new HashMap<>();
     private HashMap<Uri, MessageStatus> mUriToHandleMap = new HashMap<>();
 
+    // Thread ids by recipient set, so that the thread of each message isn't queried
+    private final HashMap<String, Long> mThreadIds = new HashMap<>();
+    // Handles of a message listing that are still to be downloaded
+    private final Set<String> mExpectedHandles = new HashSet<>();
+    // Messages waiting to be inserted in the next batch
+    private final ArrayList<PendingMessage> mPendingMessages = new ArrayList<>();
+    private int mPendingOperationCount = 0;
+
     /**
      * Callbacks
      * API to notify about statusChanges as observed from the content provider
@@ -194,19 +212,158 @@ class MapClientContent {
      *
      * Store a message in database with the associated handle and timestamp.
      * The handle is used to associate the local message with the remote message.
+     *
+     * Messages of a message listing given to {@link #expectMessages} are held back while other
+     * messages of the listing are still expected, and inserted in batches once the whole listing
+     * was downloaded or enough messages are pending. Other messages are inserted right away,
+     * along with any messages held back.
      */
     void storeMessage(Bmessage message, String handle, Long timestamp) {
         switch (message.getType()) {
             case MMS:
                 storeMms(message, handle, timestamp);
-                return;
+                break;
             case SMS_CDMA:
             case SMS_GSM:
                 storeSms(message, handle, timestamp);
-                return;
+                break;
             default:
                 logD("Request to store unsupported message type: " + message.getType());
         }
+        onMessageProcessed(handle);
+    }
+
+    /**
+     * expectMessages
+     *
+     * Start batching the messages of a message listing, the given handles are about to be
+     * downloaded and stored.
+     */
+    void expectMessages(Collection<String> handles) {
+        mExpectedHandles.addAll(handles);
+    }
+
+    /**
+     * cancelExpectedMessage
+     *
+     * A message of a message listing could not be downloaded, don't wait for it to insert the
+     * pending messages.
+     */
+    void cancelExpectedMessage(String handle) {
+        onMessageProcessed(handle);
+    }
+
+    private void onMessageProcessed(String handle) {
+        // Messages outside of the listing, like new or sent ones, don't wait for it
+        boolean expected = mExpectedHandles.remove(handle);
+        if (!expected || mExpectedHandles.isEmpty() || mPendingOperationCount >= MAX_OPS) {
+            flushPendingMessages();
+        }
+    }
+
+    /**
+     * flushPendingMessages
+     *
+     * Insert the pending messages with one batch of SMS, one batch of MMS, and one batch of MMS
+     * parts and addresses, which must reference the inserted MMS.
+     */
+    @VisibleForTesting
+    void flushPendingMessages() {
+        if (mPendingMessages.isEmpty()) {
+            return;
+        }
+        logD("flushPendingMessages " + mPendingMessages.size());
+        List<PendingMessage> smsMessages = new ArrayList<>();
+        List<PendingMessage> mmsMessages = new ArrayList<>();
+        ArrayList<ContentProviderOperation> smsOperations = new ArrayList<>();
+        ArrayList<ContentProviderOperation> mmsOperations = new ArrayList<>();
+        for (PendingMessage pending : mPendingMessages) {
+            if (pending.mIsMms) {
+                mmsMessages.add(pending);
+                mmsOperations.add(pending.mInsert);
+            } else {
+                smsMessages.add(pending);
+                smsOperations.add(pending.mInsert);
+            }
+        }
+        mPendingMessages.clear();
+        mPendingOperationCount = 0;
+
+        if (!smsOperations.isEmpty()) {
+            Uri[] uris = insert(Sms.CONTENT_URI.getAuthority(), smsOperations);
+            for (int i = 0; i < uris.length; i++) {
+                onMessageInserted(smsMessages.get(i), uris[i]);
+            }
+        }
+        if (!mmsOperations.isEmpty()) {
+            Uri[] uris = insert(Mms.CONTENT_URI.getAuthority(), mmsOperations);
+            ArrayList<ContentProviderOperation> partOperations = new ArrayList<>();
+            for (int i = 0; i < uris.length; i++) {
+                PendingMessage pending = mmsMessages.get(i);
+                Uri messageUri = uris[i];
+                onMessageInserted(pending, messageUri);
+                if (messageUri == null) {
+                    continue;
+                }
+                Uri partUri = Uri.parse(messageUri.toString() + "/part");
+                for (ContentValues part : pending.mParts) {
+                    partOperations.add(ContentProviderOperation.newInsert(partUri)
+                            .withValues(part).build());
+                }
+                Uri addressUri = Uri.parse(messageUri.toString() + "/addr");
+                for (ContentValues address : pending.mAddresses) {
+                    partOperations.add(ContentProviderOperation.newInsert(addressUri)
+                            .withValues(address).build());
+                }
+            }
+            if (!partOperations.isEmpty()) {
+                insert(Mms.CONTENT_URI.getAuthority(), partOperations);
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of inserts. If the batch fails, the inserts are applied one by one so that a
+     * single bad insert doesn't drop the whole batch.
+     *
+     * @return the URI of each insert, or null for the inserts that failed
+     */
+    private Uri[] insert(String authority, ArrayList<ContentProviderOperation> operations) {
+        Uri[] uris = new Uri[operations.size()];
+        try {
+            ContentProviderResult[] results = mResolver.applyBatch(authority, operations);
+            for (int i = 0; i < results.length; i++) {
+                uris[i] = results[i].uri;
+            }
+            return uris;
+        } catch (OperationApplicationException | RemoteException e) {
+            Log.w(TAG, "Batch of " + operations.size() + " inserts failed, inserting one by one: "
+                    + e.toString());
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            ArrayList<ContentProviderOperation> operation = new ArrayList<>();
+            operation.add(operations.get(i));
+            try {
+                uris[i] = mResolver.applyBatch(authority, operation)[0].uri;
+            } catch (OperationApplicationException | RemoteException e) {
+                Log.e(TAG, "Insert failed: " + e.toString());
+            }
+        }
+        return uris;
+    }
+
+    private void onMessageInserted(PendingMessage pending, Uri uri) {
+        logD("Map InsertedThread" + uri);
+        if (uri == null) {
+            return;
+        }
+        mHandleToUriMap.put(pending.mHandle, uri);
+        mUriToHandleMap.put(uri, new MessageStatus(pending.mHandle, pending.mRead));
+    }
+
+    private void queueMessage(PendingMessage pending) {
+        mPendingMessages.add(pending);
+        mPendingOperationCount += 1 + pending.mParts.size() + pending.mAddresses.size();
     }
 
     private void storeSms(Bmessage message, String handle, Long timestamp) {
@@ -239,10 +396,8 @@ class MapClientContent {
         values.put(Sms.DATE, timestamp);
         values.put(Sms.READ, readStatus);
 
-        Uri results = mResolver.insert(contentUri, values);
-        mHandleToUriMap.put(handle, results);
-        mUriToHandleMap.put(results, new MessageStatus(handle, readStatus));
-        logD("Map InsertedThread" + results);
+        queueMessage(new PendingMessage(handle, readStatus, false,
+                ContentProviderOperation.newInsert(contentUri).withValues(values).build()));
     }
 
     /**
@@ -251,6 +406,7 @@ class MapClientContent {
      */
     void deleteMessage(String handle) {
         logD("deleting handle" + handle);
+        flushPendingMessages();
         Uri messageToChange = mHandleToUriMap.get(handle);
         if (messageToChange != null) {
             mResolver.delete(messageToChange, null);
@@ -264,6 +420,7 @@ class MapClientContent {
      */
     void markRead(String handle) {
         logD("marking read " + handle);
+        flushPendingMessages();
         Uri messageToChange = mHandleToUriMap.get(handle);
         if (messageToChange != null) {
             ContentValues values = new ContentValues();
@@ -298,6 +455,10 @@ class MapClientContent {
                 }
             }
         }
+        if (!duplicateUriToHandleMap.isEmpty()) {
+            // Threads may have been deleted along with their messages
+            mThreadIds.clear();
+        }
         for (HashMap.Entry record : duplicateUriToHandleMap.entrySet()) {
             logV("Deleted " + ((MessageStatus) record.getValue()).mHandle);
             originalUriToHandleMap.remove(record.getKey());
@@ -344,29 +505,20 @@ class MapClientContent {
             values.put(Mms.MESSAGE_CLASS, PduHeaders.MESSAGE_CLASS_PERSONAL_STR);
             values.put(Mms.MESSAGE_SIZE, mmsBmessage.getSize());
 
-            Uri results = mResolver.insert(contentUri, values);
-            mHandleToUriMap.put(handle, results);
-            mUriToHandleMap.put(results, new MessageStatus(handle, read));
-
-            logD("Map InsertedThread" + results);
-
+            PendingMessage pending = new PendingMessage(handle, read, true,
+                    ContentProviderOperation.newInsert(contentUri).withValues(values).build());
             for (MimePart part : mmsBmessage.getMimeParts()) {
-                storeMmsPart(part, results);
+                pending.mParts.add(getMmsPartValues(part));
             }
-
-            storeAddressPart(message, results);
-
-            String messageContent = mmsBmessage.getMessageAsText();
-
-            values.put(Mms.Part.CONTENT_TYPE, "plain/text");
-            values.put(Mms.SUBSCRIPTION_ID, mSubscriptionId);
+            addAddressValues(message, pending.mAddresses);
+            queueMessage(pending);
         } catch (Exception e) {
             Log.e(TAG, e.toString());
             throw e;
         }
     }
 
-    private Uri storeMmsPart(MimePart messagePart, Uri messageUri) {
+    private ContentValues getMmsPartValues(MimePart messagePart) {
         ContentValues values = new ContentValues();
         values.put(Mms.Part.CONTENT_TYPE, "text/plain");
         values.put(Mms.Part.CHARSET, DEFAULT_CHARSET);
@@ -375,29 +527,26 @@ class MapClientContent {
         values.put(Mms.Part.CONTENT_ID, messagePart.mContentId);
         values.put(Mms.Part.CONTENT_LOCATION, messagePart.mContentLocation);
         values.put(Mms.Part.TEXT, messagePart.getDataAsString());
-
-        Uri contentUri = Uri.parse(messageUri.toString() + "/part");
-        Uri results = mResolver.insert(contentUri, values);
-        logD("Inserted" + results);
-        return results;
+        return values;
     }
 
-    private void storeAddressPart(Bmessage message, Uri messageUri) {
+    private void addAddressValues(Bmessage message, List<ContentValues> addresses) {
         ContentValues values = new ContentValues();
-        Uri contentUri = Uri.parse(messageUri.toString() + "/addr");
         String originator = getOriginatorNumber(message);
         values.put(Mms.Addr.CHARSET, DEFAULT_CHARSET);
 
         values.put(Mms.Addr.ADDRESS, originator);
         values.put(Mms.Addr.TYPE, ORIGINATOR_ADDRESS_TYPE);
-        mResolver.insert(contentUri, values);
+        addresses.add(values);
 
         Set<String> messageContacts = new ArraySet<>();
         getRecipientsFromMessage(message, messageContacts);
         for (String recipient : messageContacts) {
+            values = new ContentValues();
+            values.put(Mms.Addr.CHARSET, DEFAULT_CHARSET);
             values.put(Mms.Addr.ADDRESS, recipient);
             values.put(Mms.Addr.TYPE, RECIPIENT_ADDRESS_TYPE);
-            mResolver.insert(contentUri, values);
+            addresses.add(values);
         }
     }
 
@@ -415,6 +564,10 @@ class MapClientContent {
      */
     void cleanUp() {
         mResolver.unregisterContentObserver(mContentObserver);
+        mExpectedHandles.clear();
+        mPendingMessages.clear();
+        mPendingOperationCount = 0;
+        mThreadIds.clear();
         clearMessages(mContext, mSubscriptionId);
         try {
             mSubscriptionManager.removeSubscriptionInfoRecord(mDevice.getAddress(),
@@ -469,7 +622,15 @@ class MapClientContent {
         }
 
         logV("Contacts = " + messageContacts.toString());
-        return Telephony.Threads.getOrCreateThreadId(mContext, messageContacts);
+        List<String> sortedContacts = new ArrayList<>(messageContacts);
+        sortedContacts.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+        String key = sortedContacts.toString();
+        Long threadId = mThreadIds.get(key);
+        if (threadId == null) {
+            threadId = Telephony.Threads.getOrCreateThreadId(mContext, messageContacts);
+            mThreadIds.put(key, threadId);
+        }
+        return threadId;
     }
 
     private void getRecipientsFromMessage(Bmessage message, Set<String> messageContacts) {
@@ -560,6 +721,28 @@ class MapClientContent {
         }
     }
 
+    /**
+     * PendingMessage
+     *
+     * A message waiting to be inserted, with the parts and addresses of an MMS, which are inserted
+     * once the Uri of the MMS is known
+     */
+    private static class PendingMessage {
+        final String mHandle;
+        final int mRead;
+        final boolean mIsMms;
+        final ContentProviderOperation mInsert;
+        final List<ContentValues> mParts = new ArrayList<>();
+        final List<ContentValues> mAddresses = new ArrayList<>();
+
+        PendingMessage(String handle, int read, boolean isMms, ContentProviderOperation insert) {
+            mHandle = handle;
+            mRead = read;
+            mIsMms = isMms;
+            mInsert = insert;
+        }
+    }
+
     /**
      * MessageStatus
      *
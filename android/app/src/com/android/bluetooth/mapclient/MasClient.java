@@ -83,6 +83,7 @@ public class MasClient {
     private ClientSession mSession;
     private HandlerThread mThread;
     private boolean mConnected = false;
+    private final MasRequestQueue mRequests = new MasRequestQueue();
     SdpMasRecord mSdpMasRecord;
 
     public MasClient(BluetoothDevice remoteDevice, StateMachine callback,
@@ -167,6 +168,7 @@ public class MasClient {
         }
 
         mConnected = false;
+        mRequests.clear();
         mCallback.sendMessage(MceStateMachine.MSG_MAS_DISCONNECTED);
     }
 
@@ -184,11 +186,28 @@ public class MasClient {
     }
 
     public boolean makeRequest(Request request) {
+        return makeRequest(request, MasRequestQueue.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Queue a request to be executed once the requests of higher priority, and the requests of
+     * the same priority made before it, are done.
+     *
+     * @param priority one of the MasRequestQueue priorities
+     */
+    public boolean makeRequest(Request request, int priority) {
         if (DBG) {
-            Log.d(TAG, "makeRequest called with: " + request);
+            Log.d(TAG, "makeRequest called with: " + request + ", priority: " + priority);
         }
 
-        boolean status = mHandler.sendMessage(mHandler.obtainMessage(REQUEST, request));
+        if (!mRequests.add(request, priority)) {
+            if (DBG) {
+                Log.d(TAG, "Request coalesced with a waiting request: " + request);
+            }
+            return true;
+        }
+        // Each REQUEST message executes the next request of the queue
+        boolean status = mHandler.sendMessage(mHandler.obtainMessage(REQUEST));
         if (!status) {
             Log.e(TAG, "Adding messages failed, state: " + mConnected);
             return false;
@@ -234,8 +253,9 @@ public class MasClient {
                     break;
 
                 case REQUEST:
-                    if (inst.mConnected) {
-                        inst.executeRequest((Request) msg.obj);
+                    Request request = inst.mRequests.poll();
+                    if (inst.mConnected && request != null) {
+                        inst.executeRequest(request);
                     }
                     break;
             }
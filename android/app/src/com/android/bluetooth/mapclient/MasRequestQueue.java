@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mapclient;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Requests waiting to be executed on a MAS session.
+ *
+ * An OBEX session runs a single operation at a time, so requests are executed one after the
+ * other, by priority, then in the order they were made. Only message fetches are given a priority
+ * other than {@link #PRIORITY_NORMAL}: a message is fetched by handle whatever the current folder
+ * of the session, while folder navigation and listings must keep their relative order.
+ *
+ * A request with the same coalescing key as a waiting request, such as a second fetch of the same
+ * message, isn't queued; the waiting request takes the higher of the two priorities instead.
+ */
+class MasRequestQueue {
+    // Fetch of a message the user was just notified of
+    static final int PRIORITY_HIGH = 0;
+    static final int PRIORITY_NORMAL = 1;
+    // Prefetch of the messages of a message listing
+    static final int PRIORITY_LOW = 2;
+
+    private static class Entry {
+        final Request mRequest;
+        final String mKey;
+        final long mSequence;
+        int mPriority;
+
+        Entry(Request request, String key, int priority, long sequence) {
+            mRequest = request;
+            mKey = key;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+    }
+
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<>((a, b) -> {
+        if (a.mPriority != b.mPriority) {
+            return Integer.compare(a.mPriority, b.mPriority);
+        }
+        return Long.compare(a.mSequence, b.mSequence);
+    });
+    private final HashMap<String, Entry> mEntriesByKey = new HashMap<>();
+    private long mNextSequence = 0;
+    private int mCoalescedCount = 0;
+
+    /**
+     * Add a request to the queue
+     *
+     * @return true if the request was queued, false if it was coalesced with a waiting request
+     */
+    synchronized boolean add(Request request, int priority) {
+        String key = request.getCoalescingKey();
+        Entry waiting = key != null ? mEntriesByKey.get(key) : null;
+        if (waiting != null) {
+            mCoalescedCount++;
+            if (priority < waiting.mPriority) {
+                mQueue.remove(waiting);
+                waiting.mPriority = priority;
+                mQueue.add(waiting);
+            }
+            return false;
+        }
+        Entry entry = new Entry(request, key, priority, mNextSequence++);
+        mQueue.add(entry);
+        if (key != null) {
+            mEntriesByKey.put(key, entry);
+        }
+        return true;
+    }
+
+    /**
+     * Take the next request to execute
+     *
+     * @return the request, or null if the queue is empty
+     */
+    synchronized Request poll() {
+        Entry entry = mQueue.poll();
+        if (entry == null) {
+            return null;
+        }
+        if (entry.mKey != null) {
+            mEntriesByKey.remove(entry.mKey);
+        }
+        return entry.mRequest;
+    }
+
+    synchronized int size() {
+        return mQueue.size();
+    }
+
+    synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    synchronized void clear() {
+        mQueue.clear();
+        mEntriesByKey.clear();
+    }
+}
@@ -563,9 +563,10 @@ class MceStateMachine extends StateMachine {
                     break;
 
                 case MSG_INBOUND_MESSAGE:
+                    // Messages of a listing are prefetched once the other requests are done
                     mMasClient.makeRequest(
                             new RequestGetMessage((String) message.obj, MasClient.CharsetType.UTF_8,
-                                    false));
+                                    false), MasRequestQueue.PRIORITY_LOW);
                     break;
 
                 case MSG_NOTIFICATION:
@@ -680,7 +681,8 @@ class MceStateMachine extends StateMachine {
                                 mMessages.put(ev.getHandle(), metadata);
                             }
                             mMasClient.makeRequest(new RequestGetMessage(ev.getHandle(),
-                                    MasClient.CharsetType.UTF_8, false));
+                                    MasClient.CharsetType.UTF_8, false),
+                                    MasRequestQueue.PRIORITY_HIGH);
                             break;
                         case DELIVERY_SUCCESS:
                         case SENDING_SUCCESS:
@@ -725,6 +727,12 @@ class MceStateMachine extends StateMachine {
             }
             ArrayList<com.android.bluetooth.mapclient.Message> messageListing = request.getList();
             if (messageListing != null) {
+                // Store the messages of the listing in batches as they are downloaded
+                ArrayList<String> handles = new ArrayList<>();
+                for (com.android.bluetooth.mapclient.Message msg : messageListing) {
+                    handles.add(msg.getHandle());
+                }
+                mDatabase.expectMessages(handles);
                 // Message listings by spec arrive ordered newest first but we wish to broadcast as
                 // oldest first. Iterate in reverse order so we initiate requests oldest first.
                 for (int i = messageListing.size() - 1; i >= 0; i--) {
@@ -794,6 +802,7 @@ class MceStateMachine extends StateMachine {
             }
 
             if (message == null) {
+                mDatabase.cancelExpectedMessage(request.getHandle());
                 return;
             }
             mDatabase.storeMessage(message, request.getHandle(),
@@ -21,6 +21,7 @@ import com.android.vcard.VCardEntry;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 /**
@@ -42,6 +43,8 @@ public class Bmessage {
     int mBbodyLength;
 
     String mMessage;
+    // Content of a received message, until it is decoded into mMessage
+    byte[] mMessageBytes;
 
     ArrayList<VCardEntry> mOriginators;
     ArrayList<VCardEntry> mRecipients;
@@ -135,11 +138,16 @@ public class Bmessage {
     }
 
     public String getBodyContent() {
+        if (mMessageBytes != null) {
+            mMessage = new String(mMessageBytes, StandardCharsets.UTF_8);
+            mMessageBytes = null;
+        }
         return mMessage;
     }
 
     public Bmessage setBodyContent(String body) {
         mMessage = body;
+        mMessageBytes = null;
         return this;
     }
 
@@ -152,7 +160,7 @@ public class Bmessage {
             json.put("type", mBmsgType);
             json.put("folder", mBmsgFolder);
             json.put("charset", mBbodyCharset);
-            json.put("message", mMessage);
+            json.put("message", getBodyContent());
         } catch (JSONException e) {
             // do nothing
         }
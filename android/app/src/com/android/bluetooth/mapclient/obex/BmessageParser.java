@@ -29,9 +29,12 @@ import com.android.vcard.exception.VCardException;
 import com.android.vcard.exception.VCardVersionException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.Arrays;
 
 /* BMessage as defined by MAP_SPEC_V101 Section 3.1.3 Message format (x-bt/message) */
 class BmessageParser {
@@ -39,6 +42,8 @@ class BmessageParser {
     private static final boolean DBG = MapClientService.DBG;
 
     private static final String CRLF = "\r\n";
+    private static final byte[] CRLF_BYTES = CRLF.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_MSG_LINE = "END:MSG".getBytes(StandardCharsets.UTF_8);
 
     private static final Property BEGIN_BMSG = new Property("BEGIN", "BMSG");
     private static final Property END_BMSG = new Property("END", "BMSG");
@@ -70,14 +75,22 @@ class BmessageParser {
     }
 
     public static Bmessage createBmessage(String str) {
-        BmessageParser p = new BmessageParser();
-
         if (DBG) {
             Log.d(TAG, "actual wired contents: " + str);
         }
 
+        return createBmessage(new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Parse a bMessage as it is read from the stream, such as the body of a GetMessage response.
+     * The message content is kept as bytes, and only decoded when it is first read.
+     */
+    public static Bmessage createBmessage(InputStream stream) {
+        BmessageParser p = new BmessageParser();
+
         try {
-            p.parse(str);
+            p.parse(stream);
         } catch (IOException e) {
             Log.e(TAG, "I/O exception when parsing bMessage", e);
             return null;
@@ -104,14 +117,14 @@ class BmessageParser {
         return new ParseException("Expected: " + sb.toString(), mParser.pos());
     }
 
-    private void parse(String str) throws IOException, ParseException {
+    private void parse(InputStream stream) throws IOException, ParseException {
         Property prop;
 
         /*
          * <bmessage-object>::= { "BEGIN:BMSG" <CRLF> <bmessage-property>
          * [<bmessage-originator>]* <bmessage-envelope> "END:BMSG" <CRLF> }
          */
-        mParser = new BmsgTokenizer(str + CRLF);
+        mParser = new BmsgTokenizer(stream);
 
         prop = mParser.next();
         if (!prop.equals(BEGIN_BMSG)) {
@@ -147,7 +160,7 @@ class BmessageParser {
         mParser = null;
     }
 
-    private Property parseProperties() throws ParseException {
+    private Property parseProperties() throws IOException, ParseException {
         Property prop;
         /*
          * <bmessage-property>::=<bmessage-version-property>
@@ -303,65 +316,56 @@ class BmessageParser {
          */
 
         int messageLen = mBmsg.mBbodyLength - MSG_CONTAINER_LEN;
-        int offset = messageLen + CRLF_LEN;
-        int restartPos = mParser.pos() + offset;
+        if (messageLen < 0) {
+            throw new ParseException("Invalid LENGTH value", mParser.pos());
+        }
+
         /*
-         * length is specified in bytes so we need to convert from unicode
-         * string back to bytes array
+         * length is specified in bytes, so 'message' is read from the stream as is, and only
+         * decoded when the body content is first read
          */
-        String remng = mParser.remaining();
-        byte[] data = remng.getBytes();
-
-        if (offset < 0 || offset > data.length) {
+        byte[] data = mParser.readBytes(messageLen);
+        if (data == null) {
             /* Handle possible exception for incorrect LENGTH value
              * from MSE while parsing end of props */
             throw new ParseException("Invalid LENGTH value", mParser.pos());
         }
 
-        /* restart parsing from after 'message'<CRLF> */
-        mParser = new BmsgTokenizer(new String(data, offset, data.length - offset), restartPos);
-
-        prop = mParser.next(true);
+        /* 'message' must be followed by <CRLF> "END:MSG" <CRLF> */
+        ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+        boolean emptyTrailer = true;
+        byte[] line = mParser.readLine();
+        while (line != null && !Arrays.equals(line, END_MSG_LINE)) {
+            emptyTrailer &= line.length == 0;
+            trailer.write(line, 0, line.length);
+            trailer.write(CRLF_BYTES, 0, CRLF_BYTES.length);
+            line = mParser.readLine();
+        }
+        if (line == null) {
+            throw expected(END_MSG);
+        }
 
-        if (prop != null) {
-            if (prop.equals(END_MSG)) {
-                if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
-                    mBmsg.mMessage = new String(data, 0, messageLen, StandardCharsets.UTF_8);
-                } else {
-                    mBmsg.mMessage = new String(data, 0, messageLen);
-                }
-            } else {
-                /* Handle possible exception for incorrect LENGTH value
-                 * from MSE while parsing  GET Message response */
-                Log.e(TAG, "Prop Invalid: " + prop.toString());
-                Log.e(TAG, "Possible Invalid LENGTH value");
-                throw expected(END_MSG);
-            }
+        if (emptyTrailer) {
+            mBmsg.mMessageBytes = data;
         } else {
-            data = null;
-
             /*
              * now we check if bMessage can be parsed if LENGTH is handled as
              * number of characters instead of number of bytes
              */
-            if (offset < 0 || offset > remng.length()) {
+            Log.w(TAG, "byte LENGTH seems to be invalid, trying with char length");
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            content.write(data, 0, data.length);
+            trailer.writeTo(content);
+            String text = new String(content.toByteArray(), StandardCharsets.UTF_8);
+            if (text.length() != messageLen + CRLF_LEN || !text.endsWith(CRLF)) {
                 /* Handle possible exception for incorrect LENGTH value
                  * from MSE while parsing  GET Message response */
                 throw new ParseException("Invalid LENGTH value", mParser.pos());
             }
 
-            Log.w(TAG, "byte LENGTH seems to be invalid, trying with char length");
-
-            mParser = new BmsgTokenizer(remng.substring(offset));
-
-            prop = mParser.next();
-
-            if (!prop.equals(END_MSG)) {
-                throw expected(END_MSG);
-            }
-
             if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
-                mBmsg.mMessage = remng.substring(0, messageLen);
+                mBmsg.mMessage = text.substring(0, messageLen);
             } else {
                 mBmsg.mMessage = null;
             }
@@ -18,65 +18,139 @@ package com.android.bluetooth.mapclient;
 
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Reads the lines of a bMessage from a stream, as they are received.
+ *
+ * Lines are split on CRLF at the byte level, so the bMessage is never held in memory as a whole,
+ * and the message content can be read as raw bytes, as its LENGTH is given in bytes.
+ */
 public final class BmsgTokenizer {
     private static final String TAG = "BmsgTokenizer";
     private static final boolean VDBG = MapClientService.VDBG;
 
-    private final String mStr;
+    private static final int BUFFER_SIZE = 4096;
 
-    private final Matcher mMatcher;
-    private final int mOffset;
+    private final InputStream mStream;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBufferPos = 0;
+    private int mBufferLength = 0;
+    private final ByteArrayOutputStream mLine = new ByteArrayOutputStream();
     private int mPos = 0;
 
-    public BmsgTokenizer(String str) {
-        this(str, 0);
+    public BmsgTokenizer(InputStream stream) {
+        mStream = stream;
     }
 
-    public BmsgTokenizer(String str, int offset) {
-        mStr = str;
-        mOffset = offset;
-        mMatcher = Pattern.compile("(([^:]*):(.*))?\r\n").matcher(str);
-        mPos = mMatcher.regionStart();
-    }
+    /**
+     * Read the next property, skipping empty lines
+     *
+     * @param alwaysReturn return null instead of throwing if there is no property
+     */
+    public Property next(boolean alwaysReturn) throws IOException, ParseException {
+        byte[] line;
+        do {
+            line = readLine();
+        } while (line != null && line.length == 0);
 
-    public Property next(boolean alwaysReturn) throws ParseException {
-        boolean found = false;
+        int colon = line != null ? indexOf(line, (byte) ':') : -1;
+        if (colon < 0) {
+            if (alwaysReturn) {
+                return null;
+            }
 
-        do {
-            mMatcher.region(mPos, mMatcher.regionEnd());
+            throw new ParseException("Property or empty line expected", pos());
+        }
 
-            if (!mMatcher.lookingAt()) {
-                if (alwaysReturn) {
-                    return null;
-                }
+        return new Property(new String(line, 0, colon, StandardCharsets.UTF_8),
+                new String(line, colon + 1, line.length - colon - 1, StandardCharsets.UTF_8));
+    }
 
-                throw new ParseException("Property or empty line expected", pos());
-            }
+    public Property next() throws IOException, ParseException {
+        return next(false);
+    }
 
-            mPos = mMatcher.end();
+    /**
+     * Read a line, up to CRLF or the end of the stream
+     *
+     * @return the bytes of the line without CRLF, or null at the end of the stream
+     */
+    public byte[] readLine() throws IOException {
+        mLine.reset();
+        boolean cr = false;
+        int b;
+        while ((b = read()) != -1) {
+            if (cr) {
+                if (b == '\n') {
+                    return mLine.toByteArray();
+                }
+                mLine.write('\r');
+            }
+            cr = (b == '\r');
+            if (!cr) {
+                mLine.write(b);
+            }
+        }
+        if (cr) {
+            mLine.write('\r');
+        }
+        return mLine.size() > 0 ? mLine.toByteArray() : null;
+    }
 
-            if (mMatcher.group(1) != null) {
-                found = true;
+    /**
+     * Read the given number of bytes
+     *
+     * @return the bytes, or null if the stream ends before
+     */
+    public byte[] readBytes(int length) throws IOException {
+        // Don't trust the length to allocate the whole array up front
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(length, BUFFER_SIZE));
+        while (out.size() < length) {
+            if (mBufferPos == mBufferLength && !fill()) {
+                return null;
             }
-        } while (!found);
+            int count = Math.min(length - out.size(), mBufferLength - mBufferPos);
+            out.write(mBuffer, mBufferPos, count);
+            mBufferPos += count;
+            mPos += count;
+        }
+        return out.toByteArray();
+    }
 
-        return new Property(mMatcher.group(2), mMatcher.group(3));
+    public int pos() {
+        return mPos;
     }
 
-    public Property next() throws ParseException {
-        return next(false);
+    private int read() throws IOException {
+        if (mBufferPos == mBufferLength && !fill()) {
+            return -1;
+        }
+        mPos++;
+        return mBuffer[mBufferPos++] & 0xff;
     }
 
-    public String remaining() {
-        return mStr.substring(mPos);
+    private boolean fill() throws IOException {
+        int count = mStream.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        mBufferPos = 0;
+        mBufferLength = count;
+        return true;
     }
 
-    public int pos() {
-        return mPos + mOffset;
+    private static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public static class Property {
@@ -79,6 +79,14 @@ abstract class Request {
 
     public abstract void execute(ClientSession session) throws IOException;
 
+    /**
+     * Requests with the same non null key fetch the same data, a request waiting to be executed
+     * makes the others redundant.
+     */
+    String getCoalescingKey() {
+        return null;
+    }
+
     protected void executeGet(ClientSession session) throws IOException {
         ClientOperation op = null;
 
@@ -29,11 +29,8 @@ import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
 import com.android.obex.ResponseCodes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 
 final class RequestGetMessage extends Request {
 
@@ -42,8 +39,10 @@ final class RequestGetMessage extends Request {
     private static final String TYPE = "x-bt/message";
 
     private Bmessage mBmessage;
+    private final String mCoalescingKey;
 
     RequestGetMessage(String handle, MasClient.CharsetType charset, boolean attachment) {
+        mCoalescingKey = TYPE + "/" + handle + "/" + charset + "/" + attachment;
 
         mHeaderSet.setHeader(HeaderSet.NAME, handle);
 
@@ -61,32 +60,10 @@ final class RequestGetMessage extends Request {
 
     @Override
     protected void readResponse(InputStream stream) {
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buf = new byte[1024];
-
-        try {
-            int len;
-            while ((len = stream.read(buf)) != -1) {
-                baos.write(buf, 0, len);
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "I/O exception while reading response", e);
-        }
-
-        // Convert the input stream using UTF-8 since the attributes in the payload are all encoded
-        // according to it. The actual message body may need to be transcoded depending on
-        // charset/encoding defined for body-content.
-        String bmsg;
-        try {
-            bmsg = baos.toString(StandardCharsets.UTF_8.name());
-        } catch (UnsupportedEncodingException ex) {
-            Log.e(TAG,
-                    "Coudn't decode the bmessage with UTF-8. Something must be really messed up.");
-            return;
-        }
-
-        mBmessage = BmessageParser.createBmessage(bmsg);
+        // Parse the bMessage as it is received. The attributes in the payload are all encoded in
+        // UTF-8, the actual message body may need to be transcoded depending on charset/encoding
+        // defined for body-content.
+        mBmessage = BmessageParser.createBmessage(stream);
 
         if (mBmessage == null) {
             mResponseCode = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
@@ -106,6 +83,11 @@ final class RequestGetMessage extends Request {
         }
     }
 
+    @Override
+    String getCoalescingKey() {
+        return mCoalescingKey;
+    }
+
     @Override
     public void execute(ClientSession session) throws IOException {
         executeGet(session);
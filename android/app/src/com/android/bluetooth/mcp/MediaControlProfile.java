@@ -31,6 +31,7 @@ import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.bluetooth.audio_util.MediaData;
+import com.android.bluetooth.audio_util.MediaDataDiff;
 import com.android.bluetooth.audio_util.MediaPlayerList;
 import com.android.bluetooth.audio_util.MediaPlayerWrapper;
 import com.android.bluetooth.le_audio.ContentControlIdKeeper;
@@ -39,7 +40,6 @@ import com.android.internal.annotations.VisibleForTesting;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -80,9 +80,10 @@ public class MediaControlProfile implements MediaControlServiceCallbacks {
     public class ListCallback implements MediaPlayerList.MediaUpdateCallback {
         @Override
         public void run(MediaData data) {
-            boolean metadata = !Objects.equals(mCurrentData.metadata, data.metadata);
-            boolean state = !MediaPlayerWrapper.playstateEquals(mCurrentData.state, data.state);
-            boolean queue = !Objects.equals(mCurrentData.queue, data.queue);
+            MediaDataDiff diff = MediaDataDiff.between(mCurrentData, data);
+            boolean metadata = diff.metadata;
+            boolean state = diff.state;
+            boolean queue = diff.queue;
 
             if (DBG) {
                 Log.d(TAG, "onMediaUpdated: track_changed=" + metadata + " state=" + state
@@ -178,6 +178,29 @@ public class BluetoothOppBatch {
         return mShares.size();
     }
 
+    /**
+     * Get the number of bytes transferred for the shares of the batch
+     */
+    public long getCurrentBytes() {
+        BluetoothOppShareStore shareStore = BluetoothOppShareStore.getInstance();
+        long currentBytes = 0;
+        for (BluetoothOppShareInfo share : mShares) {
+            currentBytes += shareStore.getCurrentBytes(share.mId, share.mCurrentBytes);
+        }
+        return currentBytes;
+    }
+
+    /**
+     * Get the total number of bytes of the shares of the batch, for the shares with a known size
+     */
+    public long getTotalBytes() {
+        long totalBytes = 0;
+        for (BluetoothOppShareInfo share : mShares) {
+            totalBytes += Math.max(0, share.mTotalBytes);
+        }
+        return totalBytes;
+    }
+
     /**
      * Get the running status of the batch
      * @return
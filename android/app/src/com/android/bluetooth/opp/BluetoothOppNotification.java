@@ -54,7 +54,12 @@ import com.android.bluetooth.Utils;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class handles the updating of the Notification Manager for the cases
@@ -112,6 +117,9 @@ class BluetoothOppNotification {
 
     private int mPendingUpdate = 0;
 
+    // Whether an update needs the shares to be queried, rather than only a progress change
+    private boolean mFullUpdatePending = false;
+
     public static final int NOTIFICATION_ID_PROGRESS = -1000004;
 
     @VisibleForTesting
@@ -122,6 +130,9 @@ class BluetoothOppNotification {
 
     private boolean mUpdateCompleteNotification = true;
 
+    // Share ids of the progress notifications of the concurrent transfers
+    private Set<Integer> mExtraProgressIds = new HashSet<>();
+
     private ContentResolver mContentResolver = null;
 
     /**
@@ -169,6 +180,21 @@ class BluetoothOppNotification {
      * Update the notification ui.
      */
     public void updateNotification() {
+        synchronized (BluetoothOppNotification.this) {
+            mFullUpdatePending = true;
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * Update the progress of the active transfers. The progress is taken from the
+     * {@link BluetoothOppShareStore}, without querying the provider again.
+     */
+    void updateProgressNotification() {
+        scheduleUpdate();
+    }
+
+    private void scheduleUpdate() {
         synchronized (BluetoothOppNotification.this) {
             mPendingUpdate++;
             if (mPendingUpdate > 1) {
@@ -231,16 +257,23 @@ class BluetoothOppNotification {
         @Override
         public void run() {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            boolean fullUpdate;
             synchronized (BluetoothOppNotification.this) {
                 if (mUpdateNotificationThread != this) {
                     throw new IllegalStateException(
                             "multiple UpdateThreads in BluetoothOppNotification");
                 }
                 mPendingUpdate = 0;
+                fullUpdate = mFullUpdatePending || mNotifications.isEmpty();
+                mFullUpdatePending = false;
+            }
+            if (fullUpdate) {
+                updateActiveNotification();
+                updateCompletedNotification();
+                updateIncomingFileConfirmNotification();
+            } else {
+                updateActiveNotificationProgress();
             }
-            updateActiveNotification();
-            updateCompletedNotification();
-            updateIncomingFileConfirmNotification();
             synchronized (BluetoothOppNotification.this) {
                 mUpdateNotificationThread = null;
             }
@@ -284,7 +317,8 @@ class BluetoothOppNotification {
             int dir = cursor.getInt(directionIndex);
             int id = cursor.getInt(idIndex);
             long total = cursor.getLong(totalBytesIndex);
-            long current = cursor.getLong(currentBytesIndex);
+            long current = BluetoothOppShareStore.getInstance()
+                    .getCurrentBytes(id, cursor.getLong(currentBytesIndex));
             int confirmation = cursor.getInt(confirmIndex);
 
             String destination = cursor.getString(destinationIndex);
@@ -332,8 +366,32 @@ class BluetoothOppNotification {
         }
         cursor.close();
 
-        // Add the notifications
+        postActiveNotifications();
+    }
+
+    /**
+     * Update the progress of the active notifications from the share store, without querying
+     * the running shares again.
+     */
+    @VisibleForTesting
+    void updateActiveNotificationProgress() {
+        BluetoothOppShareStore shareStore = BluetoothOppShareStore.getInstance();
         for (NotificationItem item : mNotifications.values()) {
+            item.totalCurrent = shareStore.getCurrentBytes(item.id, item.totalCurrent);
+        }
+        postActiveNotifications();
+    }
+
+    private void postActiveNotifications() {
+        // With concurrent transfers, the oldest one has the progress notification, and the others
+        // are notified with the id of their share
+        List<NotificationItem> items = new ArrayList<>(mNotifications.values());
+        items.sort(Comparator.comparingLong(item -> item.timeStamp));
+        Set<Integer> extraProgressIds = new HashSet<>();
+        boolean progressPosted = false;
+
+        // Add the notifications
+        for (NotificationItem item : items) {
             if (item.handoverInitiated) {
                 float progress = 0;
                 if (item.totalTotal == -1) {
@@ -397,8 +455,20 @@ class BluetoothOppNotification {
             intent.setDataAndNormalize(Uri.parse(BluetoothShare.CONTENT_URI + "/" + item.id));
             b.setContentIntent(PendingIntent.getBroadcast(mContext, 0, intent,
                         PendingIntent.FLAG_IMMUTABLE));
-            mNotificationMgr.notify(NOTIFICATION_ID_PROGRESS, b.build());
+            int notificationId = NOTIFICATION_ID_PROGRESS;
+            if (progressPosted) {
+                notificationId = item.id;
+                extraProgressIds.add(item.id);
+            }
+            progressPosted = true;
+            mNotificationMgr.notify(notificationId, b.build());
+        }
+        for (int id : mExtraProgressIds) {
+            if (!extraProgressIds.contains(id)) {
+                mNotificationMgr.cancel(id);
+            }
         }
+        mExtraProgressIds = extraProgressIds;
     }
 
     @VisibleForTesting
@@ -51,10 +51,10 @@ import com.android.obex.HeaderSet;
 import com.android.obex.ObexTransport;
 import com.android.obex.ResponseCodes;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * This class runs as an OBEX client
@@ -126,18 +126,6 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
         mThread.addShare(share);
     }
 
-    private static int readFully(InputStream is, byte[] buffer, int size) throws IOException {
-        int done = 0;
-        while (done < size) {
-            int got = is.read(buffer, done, size - done);
-            if (got <= 0) {
-                break;
-            }
-            done += got;
-        }
-        return done;
-    }
-
     private class ClientThread extends Thread {
 
         private static final int SLEEP_TIME = 500;
@@ -386,6 +374,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             ClientOperation putOperation = null;
             OutputStream outputStream = null;
             InputStream inputStream = null;
+            BluetoothOppReadAheadSource readAheadSource = null;
             try {
                 synchronized (this) {
                     mWaitingForRemote = true;
@@ -439,8 +428,12 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     }
                 }
                 if (!error) {
+                    // Reset the progress in the store, so a pending write of an earlier attempt
+                    // can't overwrite it
+                    BluetoothOppShareStore shareStore = BluetoothOppShareStore.getInstance();
+                    shareStore.updateCurrentBytes(mContext1, mInfo.mId, 0);
+                    shareStore.onStatusChanged(mInfo.mId, BluetoothShare.STATUS_RUNNING);
                     updateValues = new ContentValues();
-                    updateValues.put(BluetoothShare.CURRENT_BYTES, 0);
                     updateValues.put(BluetoothShare.STATUS, BluetoothShare.STATUS_RUNNING);
                     mContext1.getContentResolver().update(contentUri, updateValues, null, null);
                 }
@@ -453,12 +446,17 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     long timestamp = 0;
                     long currentTime = 0;
                     long prevTimestamp = SystemClock.elapsedRealtime();
-                    int outputBufferSize = putOperation.getMaxPacketSize();
-                    byte[] buffer = new byte[outputBufferSize];
-                    BufferedInputStream a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    // Read the file ahead, so the reads overlap with the sends
+                    readAheadSource = new BluetoothOppReadAheadSource(fileInfo.mInputStream,
+                            fileInfo.mLength, putOperation.getMaxPacketSize());
+                    readAheadSource.start();
 
+                    ByteBuffer packet = null;
                     if (!mInterrupted && (position != fileInfo.mLength)) {
-                        readLength = readFully(a, buffer, outputBufferSize);
+                        packet = readAheadSource.takePacket();
+                    }
+                    if (packet != null) {
+                        readLength = packet.remaining();
 
                         mCallback.sendMessageDelayed(mCallback.obtainMessage(
                                 BluetoothOppObexSession.MSG_CONNECT_TIMEOUT),
@@ -468,7 +466,9 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                         }
 
                         // first packet will block here
-                        outputStream.write(buffer, 0, readLength);
+                        outputStream.write(packet.array(),
+                                packet.arrayOffset() + packet.position(), readLength);
+                        readAheadSource.recyclePacket(packet);
 
                         position += readLength;
 
@@ -493,10 +493,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                                 Log.v(TAG, "Remote accept");
                             }
                             okToProceed = true;
-                            updateValues = new ContentValues();
-                            updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                            mContext1.getContentResolver()
-                                    .update(contentUri, updateValues, null, null);
+                            BluetoothOppShareStore.getInstance()
+                                    .updateCurrentBytes(mContext1, mInfo.mId, position);
                             mNumFilesAttemptedToSend++;
                         } else {
                             Log.i(TAG, "Remote reject, Response code is " + responseCode);
@@ -508,8 +506,16 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             timestamp = SystemClock.elapsedRealtime();
                         }
 
-                        readLength = a.read(buffer, 0, outputBufferSize);
-                        outputStream.write(buffer, 0, readLength);
+                        packet = readAheadSource.takePacket();
+                        if (packet == null) {
+                            // interrupted
+                            okToProceed = false;
+                            break;
+                        }
+                        readLength = packet.remaining();
+                        outputStream.write(packet.array(),
+                                packet.arrayOffset() + packet.position(), readLength);
+                        readAheadSource.recyclePacket(packet);
 
                         /* check remote abort */
                         responseCode = putOperation.getResponseCode();
@@ -533,10 +539,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             percent = position * 100 / fileInfo.mLength;
                             if (percent > prevPercent
                                     || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                                updateValues = new ContentValues();
-                                updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                                mContext1.getContentResolver()
-                                        .update(contentUri, updateValues, null, null);
+                                BluetoothOppShareStore.getInstance()
+                                        .updateCurrentBytes(mContext1, mInfo.mId, position);
                                 prevPercent = percent;
                                 prevTimestamp = currentTime;
                             }
@@ -579,6 +583,9 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     Log.e(TAG, "Error when closing output stream after send");
                 }
 
+                if (readAheadSource != null) {
+                    readAheadSource.close();
+                }
                 // Close InputStream and remove SendFileInfo from map
                 BluetoothOppUtility.closeSendFileInfo(mInfo.mUri);
                 try {
@@ -497,9 +497,8 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                     // or once per a period to notify NFC of this transfer is still alive
                     if (percent > prevPercent
                             || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                        ContentValues updateValues = new ContentValues();
-                        updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                        mContext.getContentResolver().update(contentUri, updateValues, null, null);
+                        BluetoothOppShareStore.getInstance()
+                                .updateCurrentBytes(mContext, mInfo.mId, position);
                         prevPercent = percent;
                         prevTimestamp = currentTime;
                     }
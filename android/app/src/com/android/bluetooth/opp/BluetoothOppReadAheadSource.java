@@ -0,0 +1,169 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a file ahead of an OBEX put, one packet at a time.
+ *
+ * A reader thread fills a ring of packet sized buffers from the file channel while the client
+ * session writes the previous packets, so the file reads overlap with the sends instead of
+ * delaying each of them. Every packet but the last one is full. The buffers are backed by arrays
+ * that are given as is to the output stream of the put operation, and must be recycled once
+ * written.
+ */
+class BluetoothOppReadAheadSource implements Closeable {
+    private static final String TAG = "BtOppReadAhead";
+    private static final boolean V = Constants.VERBOSE;
+
+    @VisibleForTesting
+    static final int READ_AHEAD_PACKETS = 4;
+
+    // Marks the end of the read packets
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ReadableByteChannel mChannel;
+    private final long mLength;
+    private final BlockingQueue<ByteBuffer> mFreePackets;
+    private final BlockingQueue<ByteBuffer> mReadPackets;
+    private final Thread mReaderThread;
+
+    private volatile IOException mReadError;
+    private volatile boolean mClosed;
+
+    /**
+     * @param inputStream the file to send, read from its current position
+     * @param length the number of bytes to read
+     * @param packetSize the size of the packets, the maximum packet size of the put operation
+     */
+    BluetoothOppReadAheadSource(FileInputStream inputStream, long length, int packetSize) {
+        this(inputStream.getChannel(), length, packetSize, READ_AHEAD_PACKETS);
+    }
+
+    @VisibleForTesting
+    BluetoothOppReadAheadSource(ReadableByteChannel channel, long length, int packetSize,
+            int numPackets) {
+        mChannel = channel;
+        mLength = length;
+        mFreePackets = new ArrayBlockingQueue<>(numPackets);
+        // Room for all the packets and the end marker, so the reader never waits to end
+        mReadPackets = new ArrayBlockingQueue<>(numPackets + 1);
+        for (int i = 0; i < numPackets; i++) {
+            mFreePackets.add(ByteBuffer.wrap(new byte[packetSize]));
+        }
+        mReaderThread = new Thread(this::readPackets, "BtOpp ReadAheadThread");
+    }
+
+    /**
+     * Start reading the file
+     */
+    void start() {
+        mReaderThread.start();
+    }
+
+    /**
+     * Take the next packet of the file, waiting for it to be read if needed.
+     *
+     * @return the packet, with its bytes between its position and limit, or null once all the
+     * bytes were taken or if the calling thread was interrupted
+     * @throws IOException if the file could not be read, or ended before the expected length
+     */
+    ByteBuffer takePacket() throws IOException {
+        ByteBuffer packet;
+        try {
+            packet = mReadPackets.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (packet == END) {
+            // Keep the marker for the next calls
+            mReadPackets.offer(END);
+            if (mReadError != null) {
+                throw mReadError;
+            }
+            return null;
+        }
+        return packet;
+    }
+
+    /**
+     * Give back a packet once its bytes were written, so the next part of the file can be read
+     * into it.
+     */
+    void recyclePacket(ByteBuffer packet) {
+        mFreePackets.offer(packet);
+    }
+
+    /**
+     * Stop reading the file. The file itself is closed by the caller.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        mReaderThread.interrupt();
+        try {
+            mReaderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readPackets() {
+        long remaining = mLength;
+        try {
+            while (remaining > 0 && !mClosed) {
+                ByteBuffer packet = mFreePackets.take();
+                packet.clear();
+                if (packet.capacity() > remaining) {
+                    packet.limit((int) remaining);
+                }
+                while (packet.hasRemaining()) {
+                    if (mChannel.read(packet) < 0) {
+                        throw new EOFException("File ended at " + (mLength - remaining
+                                + packet.position()) + " of " + mLength + " bytes");
+                    }
+                }
+                packet.flip();
+                remaining -= packet.remaining();
+                mReadPackets.put(packet);
+            }
+        } catch (InterruptedException e) {
+            if (V) {
+                Log.v(TAG, "Read ahead stopped with " + remaining + " bytes left");
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.e(TAG, "Error reading file: " + e);
+                mReadError = e;
+            }
+        }
+        mReadPackets.offer(END);
+    }
+}
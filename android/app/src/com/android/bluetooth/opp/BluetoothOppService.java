@@ -58,6 +58,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.IObexConnectionHandler;
 import com.android.bluetooth.ObexServerSockets;
+import com.android.bluetooth.R;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.sdp.SdpManager;
@@ -68,7 +69,10 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Performs the background Bluetooth OPP transfer. It also starts thread to
@@ -120,8 +124,32 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
             }
             updateFromProvider();
         }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // The progress of the running shares is received from the share store, a write of
+            // the progress to the provider does not need a rescan of the share table
+            if (mShareStore.isProgressChange(uri)) {
+                if (V) {
+                    Log.v(TAG, "ContentObserver ignored progress update of " + uri);
+                }
+                return;
+            }
+            onChange(selfChange);
+        }
     }
 
+    private final BluetoothOppShareStore.Listener mShareListener =
+            new BluetoothOppShareStore.Listener() {
+                @Override
+                public void onShareChanged(int id, ContentValues changedColumns) {
+                    BluetoothOppNotification notifier = mNotifier;
+                    if (notifier != null) {
+                        notifier.updateProgressNotification();
+                    }
+                }
+            };
+
     private static final String TAG = "BtOppService";
 
     /** Observer to get notified when the content observer's data changes */
@@ -130,6 +158,9 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
     /** Class to handle Notification Manager updates */
     private BluetoothOppNotification mNotifier;
 
+    /** In memory progress of the running shares */
+    private BluetoothOppShareStore mShareStore;
+
     private boolean mPendingUpdate;
 
     private UpdateThread mUpdateThread;
@@ -140,7 +171,10 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
 
     private ArrayList<BluetoothOppBatch> mBatches;
 
-    private BluetoothOppTransfer mTransfer;
+    /** Outbound transfers running concurrently, by batch id */
+    private final Map<Integer, BluetoothOppTransfer> mTransfers = new HashMap<>();
+
+    private BluetoothOppTransferScheduler mTransferScheduler;
 
     private BluetoothOppTransfer mServerTransfer;
 
@@ -222,6 +256,9 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         mShares = new ArrayList();
         mBatches = new ArrayList();
         mBatchId = 1;
+        mShareStore = BluetoothOppShareStore.getInstance();
+        mTransferScheduler = new BluetoothOppTransferScheduler(
+                getResources().getInteger(R.integer.config_bluetooth_opp_max_outbound_transfers));
 
         IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
         registerReceiver(mBluetoothReceiver, filter);
@@ -259,6 +296,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }.start();
 
         mAdapterService = AdapterService.getAdapterService();
+        mShareStore.addListener(mShareListener);
         mObserver = new BluetoothShareContentObserver();
         getContentResolver().registerContentObserver(BluetoothShare.CONTENT_URI, true, mObserver);
         mNotifier = new BluetoothOppNotification(this);
@@ -282,6 +320,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 getAttributionSource(),
                 AdapterService.ACTIVITY_ATTRIBUTION_NO_ACTIVE_DEVICE_ADDRESS);
         setBluetoothOppService(null);
+        mShareStore.removeListener(mShareListener);
         mHandler.sendMessage(mHandler.obtainMessage(STOP_LISTENER));
 
         setComponentAvailable(OPP_PROVIDER, false);
@@ -316,10 +355,22 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 String dir = info.mDirection == BluetoothShare.DIRECTION_OUTBOUND ? " -> " : " <- ";
                 SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
                 Date date = new Date(info.mTimestamp);
-                println(sb, "  " + format.format(date) + dir + info.mCurrentBytes + "/"
+                println(sb, "  " + format.format(date) + dir
+                        + mShareStore.getCurrentBytes(info.mId, info.mCurrentBytes) + "/"
                         + info.mTotalBytes);
             }
         }
+        if (mBatches.size() > 0) {
+            println(sb, "Batches (max outbound transfers: "
+                    + mTransferScheduler.getMaxOutboundTransfers() + "):");
+            for (BluetoothOppBatch batch : mBatches) {
+                String dir =
+                        batch.mDirection == BluetoothShare.DIRECTION_OUTBOUND ? " -> " : " <- ";
+                println(sb, "  " + batch.mId + dir + batch.mDestination + ": status "
+                        + batch.mStatus + ", " + batch.getCurrentBytes() + "/"
+                        + batch.getTotalBytes());
+            }
+        }
     }
 
     /**
@@ -371,11 +422,11 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                         mServerTransfer.onBatchCanceled();
                         mServerTransfer = null;
                     }
-                    //Stop Active OUTBOUND Transfer
-                    if (mTransfer != null) {
-                        mTransfer.onBatchCanceled();
-                        mTransfer = null;
+                    //Stop Active OUTBOUND Transfers
+                    for (BluetoothOppTransfer transfer : mTransfers.values()) {
+                        transfer.onBatchCanceled();
                     }
+                    mTransfers.clear();
                     unregisterReceivers();
                     synchronized (BluetoothOppService.this) {
                         if (mUpdateThread != null) {
@@ -539,6 +590,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         if (mHandler != null) {
             mHandler.removeCallbacksAndMessages(null);
         }
+        BluetoothOppShareStore.cleanUp();
     }
 
     private void unregisterReceivers() {
@@ -778,7 +830,9 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 cursor.getInt(cursor.getColumnIndexOrThrow(BluetoothShare.USER_CONFIRMATION)),
                 cursor.getInt(cursor.getColumnIndexOrThrow(BluetoothShare.STATUS)),
                 cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.TOTAL_BYTES)),
-                cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.CURRENT_BYTES)),
+                mShareStore.getCurrentBytes(
+                        cursor.getInt(cursor.getColumnIndexOrThrow(BluetoothShare._ID)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.CURRENT_BYTES))),
                 cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.TIMESTAMP)),
                 cursor.getInt(cursor.getColumnIndexOrThrow(Constants.MEDIA_SCANNED))
                         != Constants.MEDIA_SCANNED_NOT_SCANNED);
@@ -811,11 +865,9 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         /*
          * Add info into a batch. The logic is
          * 1) Only add valid and readyToStart info
-         * 2) If there is no batch, create a batch and insert this transfer into batch,
-         * then run the batch
-         * 3) If there is existing batch and timestamp match, insert transfer into batch
-         * 4) If there is existing batch and timestamp does not match, create a new batch and
-         * put in queue
+         * 2) If there is existing batch and timestamp match, insert transfer into batch
+         * 3) Else create a new batch, and start it if the transfer scheduler allows it, or
+         * put it in queue
          */
 
         if (info.isReadyToStart()) {
@@ -830,60 +882,22 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                     return;
                 }
             }
-            if (mBatches.size() == 0) {
+            int i = findBatchWithTimeStamp(info.mTimestamp);
+            if (i != -1) {
+                if (V) {
+                    Log.v(TAG, "Service add info " + info.mId + " to existing batch " + mBatches
+                            .get(i).mId);
+                }
+                mBatches.get(i).addShare(info);
+            } else {
                 BluetoothOppBatch newBatch = new BluetoothOppBatch(this, info);
                 newBatch.mId = mBatchId;
                 mBatchId++;
                 mBatches.add(newBatch);
-                if (info.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
-                    if (V) {
-                        Log.v(TAG,
-                                "Service create new Batch " + newBatch.mId + " for OUTBOUND info "
-                                        + info.mId);
-                    }
-                    mTransfer = new BluetoothOppTransfer(this, newBatch);
-                } else if (info.mDirection == BluetoothShare.DIRECTION_INBOUND) {
-                    if (V) {
-                        Log.v(TAG, "Service create new Batch " + newBatch.mId + " for INBOUND info "
-                                + info.mId);
-                    }
-                    mServerTransfer = new BluetoothOppTransfer(this, newBatch, mServerSession);
-                }
-
-                if (info.mDirection == BluetoothShare.DIRECTION_OUTBOUND && mTransfer != null) {
-                    if (V) {
-                        Log.v(TAG, "Service start transfer new Batch " + newBatch.mId + " for info "
-                                + info.mId);
-                    }
-                    mTransfer.start();
-                } else if (info.mDirection == BluetoothShare.DIRECTION_INBOUND
-                        && mServerTransfer != null) {
-                    if (V) {
-                        Log.v(TAG, "Service start server transfer new Batch " + newBatch.mId
-                                + " for info " + info.mId);
-                    }
-                    mServerTransfer.start();
-                }
-
-            } else {
-                int i = findBatchWithTimeStamp(info.mTimestamp);
-                if (i != -1) {
-                    if (V) {
-                        Log.v(TAG, "Service add info " + info.mId + " to existing batch " + mBatches
-                                .get(i).mId);
-                    }
-                    mBatches.get(i).addShare(info);
-                } else {
-                    // There is ongoing batch
-                    BluetoothOppBatch newBatch = new BluetoothOppBatch(this, info);
-                    newBatch.mId = mBatchId;
-                    mBatchId++;
-                    mBatches.add(newBatch);
-                    if (V) {
-                        Log.v(TAG,
-                                "Service add new Batch " + newBatch.mId + " for info " + info.mId);
-                    }
+                if (V) {
+                    Log.v(TAG, "Service add new Batch " + newBatch.mId + " for info " + info.mId);
                 }
+                startPendingBatches();
             }
         }
     }
@@ -935,8 +949,8 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
 
         info.mStatus = newStatus;
         info.mTotalBytes = cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.TOTAL_BYTES));
-        info.mCurrentBytes =
-                cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.CURRENT_BYTES));
+        info.mCurrentBytes = mShareStore.getCurrentBytes(info.mId,
+                cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.CURRENT_BYTES)));
         info.mTimestamp = cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.TIMESTAMP));
         info.mMediaScanned = (cursor.getInt(cursor.getColumnIndexOrThrow(Constants.MEDIA_SCANNED))
                 != Constants.MEDIA_SCANNED_NOT_SCANNED);
@@ -963,15 +977,12 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                     Log.v(TAG, "Batch " + batch.mId + " is finished");
                 }
                 if (batch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
-                    if (mTransfer == null) {
-                        Log.e(TAG, "Unexpected error! mTransfer is null");
-                    } else if (batch.mId == mTransfer.getBatchId()) {
-                        mTransfer.stop();
+                    BluetoothOppTransfer transfer = mTransfers.remove(batch.mId);
+                    if (transfer == null) {
+                        Log.e(TAG, "Unexpected error! no transfer for batch " + batch.mId);
                     } else {
-                        Log.e(TAG, "Unexpected error! batch id " + batch.mId
-                                + " doesn't match mTransfer id " + mTransfer.getBatchId());
+                        transfer.stop();
                     }
-                    mTransfer = null;
                 } else {
                     if (mServerTransfer == null) {
                         Log.e(TAG, "Unexpected error! mServerTransfer is null");
@@ -1061,36 +1072,35 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
             Log.v(TAG, "Remove batch " + batch.mId);
         }
         mBatches.remove(batch);
-        if (mBatches.size() > 0) {
-            for (BluetoothOppBatch nextBatch : mBatches) {
-                // we have a running batch
-                if (nextBatch.mStatus == Constants.BATCH_STATUS_RUNNING) {
-                    return;
-                } else {
-                    // just finish a transfer, start pending outbound transfer
-                    if (nextBatch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
-                        if (V) {
-                            Log.v(TAG, "Start pending outbound batch " + nextBatch.mId);
-                        }
-                        mTransfer = new BluetoothOppTransfer(this, nextBatch);
-                        mTransfer.start();
-                        return;
-                    } else if (nextBatch.mDirection == BluetoothShare.DIRECTION_INBOUND
-                            && mServerSession != null) {
-                        // have to support pending inbound transfer
-                        // if an outbound transfer and incoming socket happens together
-                        if (V) {
-                            Log.v(TAG, "Start pending inbound batch " + nextBatch.mId);
-                        }
-                        mServerTransfer = new BluetoothOppTransfer(this, nextBatch, mServerSession);
-                        mServerTransfer.start();
-                        if (nextBatch.getPendingShare() != null
-                                && nextBatch.getPendingShare().mConfirm
-                                == BluetoothShare.USER_CONFIRMATION_CONFIRMED) {
-                            mServerTransfer.confirmStatusChanged();
-                        }
-                        return;
-                    }
+        // just finish a transfer, start pending transfers
+        startPendingBatches();
+    }
+
+    private void startPendingBatches() {
+        List<BluetoothOppBatch> batches = mTransferScheduler.getBatchesToStart(mBatches,
+                batch -> mTransfers.containsKey(batch.mId) || (mServerTransfer != null
+                        && mServerTransfer.getBatchId() == batch.mId),
+                mServerSession != null);
+        for (BluetoothOppBatch batch : batches) {
+            if (batch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
+                if (V) {
+                    Log.v(TAG, "Start outbound batch " + batch.mId + ", "
+                            + (mTransfers.size() + 1) + " outbound transfers running");
+                }
+                BluetoothOppTransfer transfer = new BluetoothOppTransfer(this, batch);
+                mTransfers.put(batch.mId, transfer);
+                transfer.start();
+            } else {
+                // have to support pending inbound transfer
+                // if an outbound transfer and incoming socket happens together
+                if (V) {
+                    Log.v(TAG, "Start inbound batch " + batch.mId);
+                }
+                mServerTransfer = new BluetoothOppTransfer(this, batch, mServerSession);
+                mServerTransfer.start();
+                if (batch.getPendingShare() != null && batch.getPendingShare().mConfirm
+                        == BluetoothShare.USER_CONFIRMATION_CONFIRMED) {
+                    mServerTransfer.confirmStatusChanged();
                 }
             }
         }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In memory state of the running shares.
+ *
+ * The OBEX sessions report the progress of a transfer here instead of writing the share table
+ * for every update. The progress is the authority for the running shares: listeners are told
+ * directly of the changed columns of a share, and the provider is written asynchronously, at most
+ * once per {@link #PROGRESS_WRITE_DELAY_MS} for each share. The change notifications caused by
+ * these writes can be recognized with {@link #isProgressChange}, so that observers of the share
+ * table do not rescan it for a progress update they were already told about.
+ */
+class BluetoothOppShareStore {
+    private static final String TAG = "BtOppShareStore";
+    private static final boolean V = Constants.VERBOSE;
+
+    @VisibleForTesting
+    static final long PROGRESS_WRITE_DELAY_MS = 500;
+
+    private static final int MSG_WRITE_PROGRESS = 1;
+
+    /**
+     * Listener of the changes of the shares
+     */
+    interface Listener {
+        /**
+         * Called on the thread updating the share
+         *
+         * @param id the id of the share in the share table
+         * @param changedColumns the changed columns of the share, with their new value
+         */
+        void onShareChanged(int id, ContentValues changedColumns);
+    }
+
+    private static BluetoothOppShareStore sInstance;
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // Latest transferred bytes of the running shares
+    private final Map<Integer, Long> mCurrentBytes = new HashMap<>();
+    // Shares with transferred bytes not written to the provider yet, with the context to use
+    private final Map<Integer, Context> mPendingWrites = new HashMap<>();
+    // Provider change notifications still expected for the progress writes, by share
+    private final Map<Integer, Integer> mExpectedChanges = new HashMap<>();
+
+    @VisibleForTesting
+    BluetoothOppShareStore(Looper looper) {
+        this(null, looper);
+    }
+
+    private BluetoothOppShareStore(HandlerThread thread) {
+        this(thread, thread.getLooper());
+    }
+
+    private BluetoothOppShareStore(HandlerThread thread, Looper looper) {
+        mThread = thread;
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_WRITE_PROGRESS) {
+                    writeProgress(msg.arg1);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the singleton instance of the store.
+     *
+     * @return the singleton instance, guaranteed not null
+     */
+    static BluetoothOppShareStore getInstance() {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                HandlerThread thread = new HandlerThread("BluetoothOppShareStore");
+                thread.start();
+                sInstance = new BluetoothOppShareStore(thread);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Release the singleton instance once the OPP service is done with it. The pending progress
+     * is written to the provider and the thread of the store is stopped.
+     */
+    static void cleanUp() {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance != null) {
+                sInstance.release();
+                sInstance = null;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void release() {
+        mHandler.removeMessages(MSG_WRITE_PROGRESS);
+        List<Integer> pendingIds;
+        synchronized (this) {
+            pendingIds = new ArrayList<>(mPendingWrites.keySet());
+        }
+        for (int id : pendingIds) {
+            writeProgress(id);
+        }
+        synchronized (this) {
+            mCurrentBytes.clear();
+            mPendingWrites.clear();
+            mExpectedChanges.clear();
+        }
+        mListeners.clear();
+        if (mThread != null) {
+            mThread.quitSafely();
+        }
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Record the number of bytes transferred for a share. Listeners are told right away, the
+     * provider is written later.
+     */
+    void updateCurrentBytes(Context context, int id, long currentBytes) {
+        synchronized (this) {
+            mCurrentBytes.put(id, currentBytes);
+            if (mPendingWrites.put(id, context) == null) {
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_WRITE_PROGRESS, id, 0),
+                        PROGRESS_WRITE_DELAY_MS);
+            }
+        }
+        ContentValues changedColumns = new ContentValues();
+        changedColumns.put(BluetoothShare.CURRENT_BYTES, currentBytes);
+        for (Listener listener : mListeners) {
+            listener.onShareChanged(id, changedColumns);
+        }
+    }
+
+    /**
+     * Get the number of bytes transferred for a share
+     *
+     * @return the last number of bytes recorded, or defaultValue if the share is not running
+     */
+    synchronized long getCurrentBytes(int id, long defaultValue) {
+        Long currentBytes = mCurrentBytes.get(id);
+        return currentBytes != null ? currentBytes : defaultValue;
+    }
+
+    /**
+     * Write the pending progress of a share to the provider before its status is changed, so
+     * the provider has the final number of bytes once the share is completed. The store then
+     * forgets the completed share.
+     */
+    void onStatusChanged(int id, int status) {
+        writeProgress(id);
+        if (BluetoothShare.isStatusCompleted(status)) {
+            synchronized (this) {
+                mCurrentBytes.remove(id);
+                mExpectedChanges.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Whether a change notification of the share table was caused by a progress write of the
+     * store. Each progress write is matched by a single notification.
+     */
+    synchronized boolean isProgressChange(Uri uri) {
+        int id = getShareId(uri);
+        Integer expected = mExpectedChanges.get(id);
+        if (expected == null) {
+            return false;
+        }
+        if (expected > 1) {
+            mExpectedChanges.put(id, expected - 1);
+        } else {
+            mExpectedChanges.remove(id);
+        }
+        return true;
+    }
+
+    private void writeProgress(int id) {
+        Context context;
+        long currentBytes;
+        synchronized (this) {
+            context = mPendingWrites.remove(id);
+            if (context == null) {
+                return;
+            }
+            currentBytes = mCurrentBytes.get(id);
+            mExpectedChanges.merge(id, 1, Integer::sum);
+        }
+        if (V) {
+            Log.v(TAG, "Write progress of share " + id + ": " + currentBytes);
+        }
+        ContentValues updateValues = new ContentValues();
+        updateValues.put(BluetoothShare.CURRENT_BYTES, currentBytes);
+        Uri contentUri = ContentUris.withAppendedId(BluetoothShare.CONTENT_URI, id);
+        int updated = BluetoothMethodProxy.getInstance().contentResolverUpdate(
+                context.getContentResolver(), contentUri, updateValues, null, null);
+        if (updated <= 0) {
+            // The share was deleted, no change will be notified for it
+            synchronized (this) {
+                mCurrentBytes.remove(id);
+                mExpectedChanges.remove(id);
+            }
+        }
+    }
+
+    private static int getShareId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        try {
+            return (int) ContentUris.parseId(uri);
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+}
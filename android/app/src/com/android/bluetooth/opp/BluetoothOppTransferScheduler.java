@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Decides which batches of shares can be started.
+ *
+ * Outbound batches to different devices run concurrently, up to a maximum number of outbound
+ * transfers. The batches to a device use the same OBEX connection and still run one after the
+ * other, in the order they were created. Once the maximum is reached, the next batch to start is
+ * the oldest pending batch of a device without a running batch, so a device with many batches
+ * does not delay the batches to the other devices.
+ *
+ * Inbound batches are served by the single OBEX server session: an inbound batch runs alone,
+ * once the running outbound batches are done, and the batches created after it wait for it.
+ */
+class BluetoothOppTransferScheduler {
+    private final int mMaxOutboundTransfers;
+
+    BluetoothOppTransferScheduler(int maxOutboundTransfers) {
+        mMaxOutboundTransfers = Math.max(1, maxOutboundTransfers);
+    }
+
+    int getMaxOutboundTransfers() {
+        return mMaxOutboundTransfers;
+    }
+
+    /**
+     * Select the batches to start
+     *
+     * @param batches the batches, in the order they were created
+     * @param isStarted whether a transfer was already started for a batch
+     * @param canStartInbound whether an inbound batch can be started, with an OBEX server session
+     * @return the batches to start, in the order they should be started
+     */
+    List<BluetoothOppBatch> getBatchesToStart(List<BluetoothOppBatch> batches,
+            Predicate<BluetoothOppBatch> isStarted, boolean canStartInbound) {
+        List<BluetoothOppBatch> batchesToStart = new ArrayList<>();
+        Set<BluetoothDevice> busyDevices = new HashSet<>();
+        int runningOutbound = 0;
+        for (BluetoothOppBatch batch : batches) {
+            if (!isStarted.test(batch)) {
+                continue;
+            }
+            if (batch.mDirection == BluetoothShare.DIRECTION_INBOUND) {
+                return batchesToStart;
+            }
+            busyDevices.add(batch.mDestination);
+            runningOutbound++;
+        }
+
+        for (BluetoothOppBatch batch : batches) {
+            if (isStarted.test(batch) || batch.mStatus == Constants.BATCH_STATUS_FINISHED
+                    || batch.mStatus == Constants.BATCH_STATUS_FAILED) {
+                continue;
+            }
+            if (batch.mDirection == BluetoothShare.DIRECTION_INBOUND) {
+                if (!canStartInbound) {
+                    continue;
+                }
+                if (runningOutbound == 0 && batchesToStart.isEmpty()) {
+                    batchesToStart.add(batch);
+                }
+                break;
+            }
+            if (busyDevices.contains(batch.mDestination)) {
+                continue;
+            }
+            if (runningOutbound >= mMaxOutboundTransfers) {
+                break;
+            }
+            batchesToStart.add(batch);
+            busyDevices.add(batch.mDestination);
+            runningOutbound++;
+        }
+        return batchesToStart;
+    }
+}
@@ -227,6 +227,7 @@ public class Constants {
     static final String FILENAME_SEQUENCE_SEPARATOR = "-";
 
     static void updateShareStatus(Context context, int id, int status) {
+        BluetoothOppShareStore.getInstance().onStatusChanged(id, status);
         Uri contentUri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + id);
         ContentValues updateValues = new ContentValues();
         updateValues.put(BluetoothShare.STATUS, status);
@@ -22,6 +22,7 @@ import android.util.Log;
 import com.android.bluetooth.ObexAppParameters;
 import com.android.obex.HeaderSet;
 import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryHandler;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,9 +44,21 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
 
     private final byte mFormat;
 
+    private final VCardEntryHandler mEntryHandler;
+
     BluetoothPbapRequestPullPhoneBook(String pbName, Account account, long filter, byte format,
             int maxListCount, int listStartOffset) {
+        this(pbName, account, filter, format, maxListCount, listStartOffset, null);
+    }
+
+    /**
+     * @param entryHandler if not null, receives the entries while the response is read, and
+     * {@link #getList} is empty
+     */
+    BluetoothPbapRequestPullPhoneBook(String pbName, Account account, long filter, byte format,
+            int maxListCount, int listStartOffset, VCardEntryHandler entryHandler) {
         mAccount = account;
+        mEntryHandler = entryHandler;
         if (maxListCount < 0 || maxListCount > 65535) {
             throw new IllegalArgumentException("maxListCount should be [0..65535]");
         }
@@ -95,7 +108,7 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
     protected void readResponse(InputStream stream) throws IOException {
         if (VDBG) Log.v(TAG, "readResponse");
 
-        mResponse = new BluetoothPbapVcardList(mAccount, stream, mFormat);
+        mResponse = new BluetoothPbapVcardList(mAccount, stream, mFormat, mEntryHandler);
         if (VDBG) {
             Log.d(TAG, "Read " + mResponse.getCount() + " entries.");
         }
@@ -31,6 +31,10 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
 
     private int mSize;
 
+    private byte[] mPrimaryVersionCounter;
+
+    private byte[] mDatabaseIdentifier;
+
     BluetoothPbapRequestPullPhoneBookSize(String pbName, long filter) {
         mHeaderSet.setHeader(HeaderSet.NAME, pbName);
 
@@ -59,9 +63,31 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
         if (oap.exists(OAP_TAGID_PHONEBOOK_SIZE)) {
             mSize = oap.getShort(OAP_TAGID_PHONEBOOK_SIZE);
         }
+        // Only sent by a PSE supporting folder version counters and database identifier, PBAP
+        // v1.2.3, Sec. 5.1.4.9 and 5.1.4.11.
+        if (oap.exists(OAP_TAGID_PRIMARY_VERSION_COUNTER)) {
+            mPrimaryVersionCounter = oap.getByteArray(OAP_TAGID_PRIMARY_VERSION_COUNTER);
+        }
+        if (oap.exists(OAP_TAGID_DATABASE_IDENTIFIER)) {
+            mDatabaseIdentifier = oap.getByteArray(OAP_TAGID_DATABASE_IDENTIFIER);
+        }
     }
 
     public int getSize() {
         return mSize;
     }
+
+    /**
+     * @return the primary version counter of the phonebook object, or null if not supported
+     */
+    public byte[] getPrimaryVersionCounter() {
+        return mPrimaryVersionCounter;
+    }
+
+    /**
+     * @return the database identifier of the PSE, or null if not supported
+     */
+    public byte[] getDatabaseIdentifier() {
+        return mDatabaseIdentifier;
+    }
 }
@@ -53,11 +53,21 @@ class BluetoothPbapVcardList {
     }
 
     BluetoothPbapVcardList(Account account, InputStream in, byte format) throws IOException {
+        this(account, in, format, null);
+    }
+
+    /**
+     * @param entryHandler if not null, receives the entries as they are parsed instead of the
+     * list, so they don't all need to be held in memory
+     */
+    BluetoothPbapVcardList(Account account, InputStream in, byte format,
+            VCardEntryHandler entryHandler) throws IOException {
         mAccount = account;
-        parse(in, format);
+        parse(in, format, entryHandler);
     }
 
-    private void parse(InputStream in, byte format) throws IOException {
+    private void parse(InputStream in, byte format, VCardEntryHandler entryHandler)
+            throws IOException {
         VCardParser parser;
 
         if (format == PbapClientConnectionHandler.VCARD_TYPE_30) {
@@ -69,7 +79,7 @@ class BluetoothPbapVcardList {
         VCardEntryConstructor constructor =
                 new VCardEntryConstructor(VCardConfig.VCARD_TYPE_V21_GENERIC, mAccount);
         VCardEntryCounter counter = new VCardEntryCounter();
-        CardEntryHandler handler = new CardEntryHandler();
+        VCardEntryHandler handler = entryHandler != null ? entryHandler : new CardEntryHandler();
 
         constructor.addEntryHandler(handler);
 
@@ -80,6 +90,11 @@ class BluetoothPbapVcardList {
             parser.parse(in);
         } catch (VCardException e) {
             e.printStackTrace();
+            // The parser only ends the handlers when it reaches the end of the stream, flush the
+            // entries parsed before the error
+            if (entryHandler != null) {
+                entryHandler.onEnd();
+            }
         }
     }
 
@@ -21,11 +21,13 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.net.Uri;
 import android.os.RemoteException;
 import android.provider.CallLog;
 import android.provider.CallLog.Calls;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.RawContacts;
+import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 import android.util.Pair;
 
@@ -38,6 +40,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CallLogPullRequest extends PullRequest {
     private static final boolean DBG = Utils.DBG;
@@ -46,6 +49,8 @@ public class CallLogPullRequest extends PullRequest {
     @VisibleForTesting
     static final String TIMESTAMP_PROPERTY = "X-IRMC-CALL-DATETIME";
     private static final String TIMESTAMP_FORMAT = "yyyyMMdd'T'HHmmss";
+    // Number of trailing digits compared to find the contact of a number
+    private static final int MIN_MATCH = 7;
 
     private final Account mAccount;
     private Context mContext;
@@ -141,28 +146,96 @@ public class CallLogPullRequest extends PullRequest {
         }
     }
 
-    private void updateTimesContacted() {
-        for (String key : mCallCounter.keySet()) {
-            ContentValues values = new ContentValues();
-            values.put(ContactsContract.RawContacts.TIMES_CONTACTED, mCallCounter.get(key));
-            Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                    Uri.encode(key));
-            Cursor c = mContext.getContentResolver().query(uri, null, null, null);
-            if (c != null && c.getCount() > 0) {
-                c.moveToNext();
-                String contactId = c.getString(c.getColumnIndex(
-                        ContactsContract.PhoneLookup.CONTACT_ID));
-                if (VDBG) {
-                    Log.d(TAG, "onPullComplete: ID " + contactId + " key : " + key);
-                }
-                String where = ContactsContract.RawContacts.CONTACT_ID + "=" + contactId;
-                mContext.getContentResolver().update(
-                        ContactsContract.RawContacts.CONTENT_URI, values, where, null);
+    /**
+     * Set TIMES_CONTACTED of the contacts of the account that have a number of the call log.
+     * The numbers are resolved in a single query on the phone numbers of the account, and the
+     * counters are applied in a single batch.
+     */
+    private void updateTimesContacted() throws RemoteException, OperationApplicationException {
+        if (mCallCounter.isEmpty() || mAccount.name == null || mAccount.type == null) {
+            return;
+        }
+        Map<Long, Integer> contactCounters;
+        try (Cursor phones = mContext.getContentResolver().query(Phone.CONTENT_URI,
+                new String[] {Phone.CONTACT_ID, Phone.NUMBER},
+                RawContacts.ACCOUNT_TYPE + "=? AND " + RawContacts.ACCOUNT_NAME + "=?",
+                new String[] {mAccount.type, mAccount.name}, null)) {
+            if (phones == null) {
+                return;
             }
+            contactCounters = getContactCounters(phones, mCallCounter);
+        }
+
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        for (Map.Entry<Long, Integer> counter : contactCounters.entrySet()) {
+            if (VDBG) {
+                Log.d(TAG, "updateTimesContacted: ID " + counter.getKey()
+                        + " count : " + counter.getValue());
+            }
+            ops.add(ContentProviderOperation.newUpdate(RawContacts.CONTENT_URI)
+                    .withSelection(RawContacts.CONTACT_ID + "=?",
+                            new String[] {String.valueOf(counter.getKey())})
+                    .withValue(RawContacts.TIMES_CONTACTED, counter.getValue())
+                    .withYieldAllowed(true)
+                    .build());
+        }
+        if (!ops.isEmpty()) {
+            mContext.getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
         }
         if (DBG) {
-            Log.d(TAG, "Updated TIMES_CONTACTED");
+            Log.d(TAG, "Updated TIMES_CONTACTED of " + ops.size() + " contacts");
+        }
+    }
+
+    /**
+     * Match the numbers of the call log to the contacts owning them. Numbers are compared the
+     * same loose way as a {@link ContactsContract.PhoneLookup}, and the calls of all the numbers
+     * of a contact are added up.
+     *
+     * @param phones cursor of {@link Phone#CONTACT_ID} and {@link Phone#NUMBER}
+     * @param callCounter number of calls by number
+     * @return the number of calls by contact id
+     */
+    @VisibleForTesting
+    static Map<Long, Integer> getContactCounters(Cursor phones,
+            Map<String, Integer> callCounter) {
+        // Index the contact numbers by their trailing digits, then compare the candidates
+        HashMap<String, List<Pair<String, Long>>> numbers = new HashMap<>();
+        int contactIdIndex = phones.getColumnIndex(Phone.CONTACT_ID);
+        int numberIndex = phones.getColumnIndex(Phone.NUMBER);
+        while (phones.moveToNext()) {
+            String number = phones.getString(numberIndex);
+            if (number == null) {
+                continue;
+            }
+            numbers.computeIfAbsent(getMatchKey(number), k -> new ArrayList<>())
+                    .add(new Pair<>(number, phones.getLong(contactIdIndex)));
         }
+
+        HashMap<Long, Integer> contactCounters = new HashMap<>();
+        for (Map.Entry<String, Integer> counter : callCounter.entrySet()) {
+            List<Pair<String, Long>> candidates = numbers.get(getMatchKey(counter.getKey()));
+            if (candidates == null) {
+                continue;
+            }
+            for (Pair<String, Long> candidate : candidates) {
+                if (PhoneNumberUtils.compare(candidate.first, counter.getKey())) {
+                    contactCounters.merge(candidate.second, counter.getValue(), Integer::sum);
+                    break;
+                }
+            }
+        }
+        return contactCounters;
     }
 
+    // Trailing digits of a number, matching numbers that only differ by their prefix
+    private static String getMatchKey(String number) {
+        StringBuilder digits = new StringBuilder(MIN_MATCH);
+        for (int i = number.length() - 1; i >= 0 && digits.length() < MIN_MATCH; i--) {
+            if (Character.isDigit(number.charAt(i))) {
+                digits.append(number.charAt(i));
+            }
+        }
+        return digits.toString();
+    }
 }
@@ -36,11 +36,12 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
 import com.android.obex.ResponseCodes;
-import com.android.vcard.VCardEntry;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Map;
 
 /* Bluetooth/pbapclient/PbapClientConnectionHandler is responsible
  * for connecting, disconnecting and downloading contacts from the
@@ -86,6 +87,8 @@ class PbapClientConnectionHandler extends Handler {
     };
 
     private static final int PBAP_FEATURE_DEFAULT_IMAGE_FORMAT = 0x00000200;
+    private static final int PBAP_FEATURE_FOLDER_VERSION_COUNTERS = 0x00000008;
+    private static final int PBAP_FEATURE_DATABASE_IDENTIFIER = 0x00000004;
     private static final int PBAP_FEATURE_BROWSING = 0x00000002;
     private static final int PBAP_FEATURE_DOWNLOADING = 0x00000001;
 
@@ -99,7 +102,8 @@ class PbapClientConnectionHandler extends Handler {
     private static final long PBAP_FILTER_NICKNAME = 1 << 23;
 
     private static final int PBAP_SUPPORTED_FEATURE =
-            PBAP_FEATURE_DEFAULT_IMAGE_FORMAT | PBAP_FEATURE_DOWNLOADING;
+            PBAP_FEATURE_DEFAULT_IMAGE_FORMAT | PBAP_FEATURE_FOLDER_VERSION_COUNTERS
+                    | PBAP_FEATURE_DATABASE_IDENTIFIER | PBAP_FEATURE_DOWNLOADING;
     private static final long PBAP_REQUESTED_FIELDS =
             PBAP_FILTER_VERSION | PBAP_FILTER_FN | PBAP_FILTER_N | PBAP_FILTER_PHOTO
                     | PBAP_FILTER_ADR | PBAP_FILTER_EMAIL | PBAP_FILTER_TEL | PBAP_FILTER_NICKNAME;
@@ -137,6 +141,28 @@ class PbapClientConnectionHandler extends Handler {
     private BluetoothPbapObexAuthenticator mAuth = null;
     private final PbapClientStateMachine mPbapClientStateMachine;
     private boolean mAccountCreated;
+    private boolean mCallLogsDownloaded;
+    // State of the last sync of each phonebook object, while the account exists
+    private final HashMap<String, PhonebookSyncState> mSyncStates = new HashMap<>();
+
+    // Version of a phonebook object at its last sync, and the raw contacts inserted from it
+    static class PhonebookSyncState {
+        final byte[] mVersionCounter;
+        final byte[] mDatabaseIdentifier;
+        final Map<String, Deque<Long>> mContacts;
+
+        PhonebookSyncState(byte[] versionCounter, byte[] databaseIdentifier,
+                Map<String, Deque<Long>> contacts) {
+            mVersionCounter = versionCounter;
+            mDatabaseIdentifier = databaseIdentifier;
+            mContacts = contacts;
+        }
+
+        boolean isSameVersion(byte[] versionCounter, byte[] databaseIdentifier) {
+            return mVersionCounter != null && Arrays.equals(mVersionCounter, versionCounter)
+                    && Arrays.equals(mDatabaseIdentifier, databaseIdentifier);
+        }
+    }
 
     /**
      * Constructs PCEConnectionHandler object
@@ -240,17 +266,33 @@ class PbapClientConnectionHandler extends Handler {
                 if (DBG) {
                     Log.d(TAG, "Completing Disconnect");
                 }
-                removeAccount();
+                // Keep the contacts for a while, so reconnecting soon only syncs what changed
+                PbapClientService service = PbapClientService.getPbapClientService();
+                if (!mAccountCreated || service == null
+                        || !service.retainContacts(mDevice, new HashMap<>(mSyncStates))) {
+                    removeAccount();
+                }
                 removeCallLog();
+                mAccountCreated = false;
+                mCallLogsDownloaded = false;
+                mSyncStates.clear();
 
                 mPbapClientStateMachine.sendMessage(PbapClientStateMachine.MSG_CONNECTION_CLOSED);
                 break;
 
             case MSG_DOWNLOAD:
-                mAccountCreated = addAccount();
+                // The account and its contacts outlive the connection for a while, so a download
+                // on a connection that already synced, or soon after a reconnection, updates the
+                // contacts that changed.
                 if (!mAccountCreated) {
-                    Log.e(TAG, "Account creation failed.");
-                    return;
+                    restoreRetainedContacts();
+                }
+                if (!mAccountCreated) {
+                    mAccountCreated = addAccount();
+                    if (!mAccountCreated) {
+                        Log.e(TAG, "Account creation failed.");
+                        return;
+                    }
                 }
                 if (isRepositorySupported(SUPPORTED_REPOSITORIES_FAVORITES)) {
                     downloadContacts(FAV_PATH);
@@ -262,6 +304,12 @@ class PbapClientConnectionHandler extends Handler {
                     downloadContacts(SIM_PB_PATH);
                 }
 
+                if (mCallLogsDownloaded) {
+                    // Call logs can't be diffed, they are only downloaded with the first sync of
+                    // a connection, and removed on disconnect.
+                    break;
+                }
+                mCallLogsDownloaded = true;
                 HashMap<String, Integer> callCounter = new HashMap<>();
                 downloadCallLog(MCH_PATH, callCounter);
                 downloadCallLog(ICH_PATH, callCounter);
@@ -385,19 +433,37 @@ class PbapClientConnectionHandler extends Handler {
         }
     }
 
+    /**
+     * Download the contacts of a phonebook object, inserting them while they are parsed. If the
+     * phonebook object was synced before, it is skipped when its version counter didn't change,
+     * otherwise only the contacts that changed are updated.
+     */
     @VisibleForTesting
     void downloadContacts(String path) {
+        PhonebookSyncState previousSync = mSyncStates.remove(path);
+        PhonebookPullRequest processor = null;
+        byte[] versionCounter = null;
+        byte[] databaseIdentifier = null;
         try {
-            PhonebookPullRequest processor =
-                    new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
-                            mAccount);
-
             // Download contacts in batches of size DEFAULT_BATCH_SIZE
             BluetoothPbapRequestPullPhoneBookSize requestPbSize =
                     new BluetoothPbapRequestPullPhoneBookSize(path,
                             PBAP_REQUESTED_FIELDS);
             requestPbSize.execute(mObexSession);
 
+            versionCounter = requestPbSize.getPrimaryVersionCounter();
+            databaseIdentifier = requestPbSize.getDatabaseIdentifier();
+            if (previousSync != null
+                    && previousSync.isSameVersion(versionCounter, databaseIdentifier)) {
+                if (DBG) {
+                    Log.d(TAG, "Contacts of " + path + " unchanged since last sync");
+                }
+                mSyncStates.put(path, previousSync);
+                return;
+            }
+            processor = new PhonebookPullRequest(mPbapClientStateMachine.getContext(), mAccount,
+                    path, previousSync != null ? previousSync.mContacts : null);
+
             int numberOfContactsRemaining = requestPbSize.getSize();
             int startOffset = 0;
             if (PB_PATH.equals(path)) {
@@ -413,29 +479,33 @@ class PbapClientConnectionHandler extends Handler {
                 int numberOfContactsToDownload =
                         Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
                         UPPER_LIMIT - startOffset + 1);
+                // The processor inserts the contacts while the response is parsed
                 BluetoothPbapRequestPullPhoneBook request =
                         new BluetoothPbapRequestPullPhoneBook(path, mAccount,
                                 PBAP_REQUESTED_FIELDS, VCARD_TYPE_30,
-                                numberOfContactsToDownload, startOffset);
+                                numberOfContactsToDownload, startOffset, processor);
                 request.execute(mObexSession);
-                ArrayList<VCardEntry> vcards = request.getList();
-                if (path == FAV_PATH) {
-                    // mark each vcard as a favorite
-                    for (VCardEntry v : vcards) {
-                        v.setStarred(true);
-                    }
-                }
-                processor.setResults(vcards);
-                processor.onPullComplete();
 
                 startOffset += numberOfContactsToDownload;
                 numberOfContactsRemaining -= numberOfContactsToDownload;
             }
             if ((startOffset > UPPER_LIMIT) && (numberOfContactsRemaining > 0)) {
                 Log.w(TAG, "Download contacts incomplete, index exceeded upper limit.");
+                // Contacts that weren't downloaded may still exist, keep them for the next sync
+                versionCounter = null;
+            } else {
+                processor.removeStaleContacts();
             }
         } catch (IOException e) {
             Log.w(TAG, "Download contacts failure" + e.toString());
+            // Force the next sync to diff against all the contacts
+            versionCounter = null;
+        }
+        if (processor != null) {
+            mSyncStates.put(path, new PhonebookSyncState(versionCounter, databaseIdentifier,
+                    processor.getSyncedContacts()));
+        } else if (previousSync != null) {
+            mSyncStates.put(path, new PhonebookSyncState(null, null, previousSync.mContacts));
         }
     }
 
@@ -455,6 +525,21 @@ class PbapClientConnectionHandler extends Handler {
         }
     }
 
+    /**
+     * Take back the account and contacts kept by the service since the last connection, if any
+     */
+    private void restoreRetainedContacts() {
+        PbapClientService service = PbapClientService.getPbapClientService();
+        Map<String, PhonebookSyncState> syncStates =
+                service != null ? service.claimRetainedContacts(mDevice) : null;
+        if (syncStates == null) return;
+        if (DBG) {
+            Log.d(TAG, "Reusing the contacts kept since the last connection");
+        }
+        mSyncStates.putAll(syncStates);
+        mAccountCreated = true;
+    }
+
     @VisibleForTesting
     boolean addAccount() {
         if (mAccountManager.addAccountExplicitly(mAccount, null, null)) {
@@ -30,6 +30,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.CallLog;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
@@ -81,6 +82,21 @@ public class PbapClientService extends ProfileService {
 
     private DatabaseManager mDatabaseManager;
 
+    /**
+     * How long the account and contacts of a device are kept after it disconnects, from
+     * config_bluetooth_pbap_client_contacts_retention_ms. Reconnecting within that time only
+     * syncs the contacts that changed, instead of downloading them all again. They are dropped
+     * right away when the device is unbonded or the service stops. Off by default, as the
+     * contacts of a disconnected device stay visible meanwhile.
+     */
+    @VisibleForTesting
+    long mContactsRetentionMs = 0;
+
+    // Sync state of the contacts kept for disconnected devices, by phonebook object
+    private final Map<BluetoothDevice, Map<String, PbapClientConnectionHandler.PhonebookSyncState>>
+            mRetainedContacts = new ConcurrentHashMap<>();
+    private final Handler mRetainedContactsHandler = new Handler(Looper.getMainLooper());
+
     /**
      * There's an ~1-2 second latency between when our Authentication service is set as available to
      * the system and when the Authentication/Account framework code will recognize it and allow us
@@ -133,10 +149,14 @@ public class PbapClientService extends ProfileService {
         mDatabaseManager = Objects.requireNonNull(AdapterService.getAdapterService().getDatabase(),
                 "DatabaseManager cannot be null when PbapClientService starts");
 
+        mContactsRetentionMs = getResources().getInteger(
+                R.integer.config_bluetooth_pbap_client_contacts_retention_ms);
+
         setComponentAvailable(AUTHENTICATOR_SERVICE, true);
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         // delay initial download until after the user is unlocked to add an account.
         filter.addAction(Intent.ACTION_USER_UNLOCKED);
         // To remove call logs when PBAP was never connected while calls were made,
@@ -167,6 +187,9 @@ public class PbapClientService extends ProfileService {
             pbapClientStateMachine.doQuit();
         }
         mPbapClientStateMachineMap.clear();
+        // The accounts kept for disconnected devices are removed with the unclean accounts
+        mRetainedContactsHandler.removeCallbacksAndMessages(null);
+        mRetainedContacts.clear();
         cleanupAuthenicationService();
         setComponentAvailable(AUTHENTICATOR_SERVICE, false);
         return true;
@@ -182,6 +205,56 @@ public class PbapClientService extends ProfileService {
         }
     }
 
+    /**
+     * Keep the account and contacts of a device that disconnected for a while, so they can be
+     * reused if it reconnects.
+     *
+     * @param syncStates the sync state of each phonebook object of the device
+     * @return true if the contacts are kept, false if the caller must remove the account
+     */
+    boolean retainContacts(BluetoothDevice device,
+            Map<String, PbapClientConnectionHandler.PhonebookSyncState> syncStates) {
+        if (mContactsRetentionMs <= 0 || syncStates.isEmpty()) {
+            return false;
+        }
+        if (DBG) Log.d(TAG, "Keeping the contacts of " + device);
+        mRetainedContacts.put(device, syncStates);
+        mRetainedContactsHandler.removeCallbacksAndMessages(device);
+        mRetainedContactsHandler.postDelayed(() -> removeRetainedContacts(device), device,
+                mContactsRetentionMs);
+        return true;
+    }
+
+    /**
+     * Take the contacts kept for a device since it disconnected. The caller owns the account of
+     * the device from then on.
+     *
+     * @return the sync state of each phonebook object of the device, or null if none were kept
+     */
+    Map<String, PbapClientConnectionHandler.PhonebookSyncState> claimRetainedContacts(
+            BluetoothDevice device) {
+        Map<String, PbapClientConnectionHandler.PhonebookSyncState> syncStates =
+                mRetainedContacts.remove(device);
+        if (syncStates != null) {
+            mRetainedContactsHandler.removeCallbacksAndMessages(device);
+        }
+        return syncStates;
+    }
+
+    /**
+     * Remove the account and contacts kept for a device, if they weren't claimed meanwhile
+     */
+    @VisibleForTesting
+    void removeRetainedContacts(BluetoothDevice device) {
+        mRetainedContactsHandler.removeCallbacksAndMessages(device);
+        if (mRetainedContacts.remove(device) == null) {
+            return;
+        }
+        if (DBG) Log.d(TAG, "Removing the contacts kept for " + device);
+        Account account = new Account(device.getAddress(), getString(R.string.pbap_account_type));
+        AccountManager.get(this).removeAccountExplicitly(account);
+    }
+
     /**
      * Periodically check if the account framework has recognized our service and will allow us to
      * interact with our accounts. Notify state machines once our service is ready so we can trigger
@@ -295,6 +368,13 @@ public class PbapClientService extends ProfileService {
                 if (getConnectionState(device) == BluetoothProfile.STATE_CONNECTED) {
                     disconnect(device);
                 }
+            } else if (action.equals(BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE,
+                        BluetoothDevice.ERROR);
+                if (bondState == BluetoothDevice.BOND_NONE) {
+                    removeRetainedContacts(device);
+                }
             } else if (action.equals(Intent.ACTION_USER_UNLOCKED)) {
                 for (PbapClientStateMachine stateMachine : mPbapClientStateMachineMap.values()) {
                     stateMachine.tryDownloadIfConnected();
@@ -637,6 +717,7 @@ public class PbapClientService extends ProfileService {
     public void dump(StringBuilder sb) {
         super.dump(sb);
         ProfileService.println(sb, "isAuthServiceReady: " + isAuthenticationServiceReady());
+        ProfileService.println(sb, "Contacts kept for: " + mRetainedContacts.keySet());
         for (PbapClientStateMachine stateMachine : mPbapClientStateMachineMap.values()) {
             stateMachine.dump(sb);
         }
@@ -17,19 +17,46 @@ package com.android.bluetooth.pbapclient;
 
 import android.accounts.Account;
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.net.Uri;
 import android.os.RemoteException;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryHandler;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
-public class PhonebookPullRequest extends PullRequest {
+/**
+ * Inserts the contacts of a phonebook object into the contacts provider.
+ *
+ * Entries can be given as a list with {@link #setResults} and {@link #onPullComplete}, or
+ * streamed as they are parsed, as a {@link VCardEntryHandler}, so the contacts are inserted while
+ * the phonebook is downloaded instead of once the whole response is held in memory.
+ *
+ * Each inserted raw contact is recorded with a digest of its vCard. When the contacts of a previous
+ * sync of the same phonebook object are given, the unchanged contacts are kept instead of being
+ * inserted again, and {@link #removeStaleContacts} deletes the contacts that were not seen.
+ */
+public class PhonebookPullRequest extends PullRequest implements VCardEntryHandler {
     @VisibleForTesting
     static final int MAX_OPS = 250;
     private static final boolean VDBG = Utils.VDBG;
@@ -37,15 +64,50 @@ public class PhonebookPullRequest extends PullRequest {
 
     private final Account mAccount;
     private final Context mContext;
+    private final boolean mStarred;
     public boolean complete = false;
 
+    // Raw contacts of the previous sync not seen yet in this one, by vCard digest
+    private final Map<String, Deque<Long>> mPreviousContacts;
+    // Raw contacts of this sync, by vCard digest
+    private final Map<String, Deque<Long>> mSyncedContacts = new HashMap<>();
+
+    private final ArrayList<ContentProviderOperation> mPendingOperations = new ArrayList<>();
+    // Contacts whose insert operations are in mPendingOperations
+    private final ArrayList<PendingContact> mPendingContacts = new ArrayList<>();
+
+    private static class PendingContact {
+        final String mHash;
+        // Index of the raw contact insert operation in mPendingOperations
+        final int mRawContactIndex;
+
+        PendingContact(String hash, int rawContactIndex) {
+            mHash = hash;
+            mRawContactIndex = rawContactIndex;
+        }
+    }
+
+    private int mInserted = 0;
+    private int mUnchanged = 0;
+
     public PhonebookPullRequest(Context context, Account account) {
+        this(context, account, PbapClientConnectionHandler.PB_PATH, null);
+    }
+
+    /**
+     * @param path the phonebook object, contacts of the favorites are starred
+     * @param previousContacts the contacts of the previous sync of this phonebook object, from
+     * {@link #getSyncedContacts}, or null for a full sync
+     */
+    PhonebookPullRequest(Context context, Account account, String path,
+            Map<String, Deque<Long>> previousContacts) {
         mContext = context;
         mAccount = account;
-        path = PbapClientConnectionHandler.PB_PATH;
+        this.path = path;
+        mStarred = PbapClientConnectionHandler.FAV_PATH.equals(path);
+        mPreviousContacts = previousContacts != null ? previousContacts : new HashMap<>();
     }
 
-
     @Override
     public void onPullComplete() {
         if (mEntries == null) {
@@ -57,43 +119,265 @@ public class PhonebookPullRequest extends PullRequest {
         }
 
         try {
-            ContentResolver contactsProvider = mContext.getContentResolver();
-            ArrayList<ContentProviderOperation> insertOperations = new ArrayList<>();
-            ArrayList<ContentProviderOperation> currentContactOperations;
-            // Group insert operations together to minimize inter process communication and improve
-            // processing time.
             for (VCardEntry e : mEntries) {
                 if (Thread.currentThread().isInterrupted()) {
                     Log.e(TAG, "Interrupted durring insert.");
                     break;
                 }
-                int numberOfOperations = insertOperations.size();
-                // Append current vcard to list of insert operations.
-                e.constructInsertOperations(contactsProvider, insertOperations);
-                if (insertOperations.size() >= MAX_OPS) {
-                    // If we have exceded the limit to the insert operation remove the latest vcard
-                    // and submit.
-                    insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
-                    contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                    insertOperations = e.constructInsertOperations(contactsProvider, null);
-                    if (insertOperations.size() >= MAX_OPS) {
-                        // Current VCard has more than 500 attributes, drop the card.
-                        insertOperations.clear();
-                    }
+                onEntryCreated(e);
+            }
+            onEnd();
+        } finally {
+            complete = true;
+        }
+    }
+
+    @Override
+    public void onStart() {
+    }
+
+    @Override
+    public void onEntryCreated(VCardEntry entry) {
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        if (mStarred) {
+            entry.setStarred(true);
+        }
+        String hash = hash(entry);
+        Long previousId = poll(mPreviousContacts, hash);
+        if (previousId != null) {
+            add(mSyncedContacts, hash, previousId);
+            mUnchanged++;
+            return;
+        }
+
+        // Group insert operations together to minimize inter process communication and improve
+        // processing time.
+        ContentResolver contactsProvider = mContext.getContentResolver();
+        int rawContactIndex = mPendingOperations.size();
+        try {
+            // Append current vcard to list of insert operations.
+            entry.constructInsertOperations(contactsProvider, mPendingOperations);
+            if (mPendingOperations.size() >= MAX_OPS) {
+                // If we have exceded the limit to the insert operation remove the latest vcard
+                // and submit.
+                mPendingOperations.subList(rawContactIndex, mPendingOperations.size()).clear();
+                applyPendingOperations();
+                rawContactIndex = 0;
+                entry.constructInsertOperations(contactsProvider, mPendingOperations);
+                if (mPendingOperations.size() >= MAX_OPS) {
+                    // Current VCard has more than 500 attributes, drop the card.
+                    mPendingOperations.clear();
+                    return;
                 }
             }
-            if (insertOperations.size() > 0) {
-                // Apply any unsubmitted vcards.
-                contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                insertOperations.clear();
+            mPendingContacts.add(new PendingContact(hash, rawContactIndex));
+        } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
+            Log.e(TAG, "Got exception: ", e);
+            mPendingOperations.clear();
+            mPendingContacts.clear();
+        }
+    }
+
+    @Override
+    public void onEnd() {
+        if (mPendingOperations.isEmpty()) {
+            return;
+        }
+        try {
+            // Apply any unsubmitted vcards.
+            applyPendingOperations();
+        } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
+            Log.e(TAG, "Got exception: ", e);
+            mPendingOperations.clear();
+            mPendingContacts.clear();
+        }
+        if (VDBG) {
+            Log.d(TAG, "Sync progress: add=" + mInserted + ", unchanged=" + mUnchanged);
+        }
+    }
+
+    private void applyPendingOperations()
+            throws OperationApplicationException, RemoteException {
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(ContactsContract.AUTHORITY, mPendingOperations);
+        for (PendingContact contact : mPendingContacts) {
+            Uri rawContactUri = results[contact.mRawContactIndex].uri;
+            if (rawContactUri != null) {
+                add(mSyncedContacts, contact.mHash, ContentUris.parseId(rawContactUri));
+            }
+        }
+        mInserted += mPendingContacts.size();
+        mPendingOperations.clear();
+        mPendingContacts.clear();
+    }
+
+    /**
+     * Delete the raw contacts of the previous sync that were not part of this one, as they were
+     * changed or removed on the phone. Must only be called once the whole phonebook object was
+     * downloaded.
+     */
+    void removeStaleContacts() {
+        Uri uri = RawContacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true")
+                .build();
+        ArrayList<ContentProviderOperation> deleteOperations = new ArrayList<>();
+        int deleted = 0;
+        try {
+            for (Deque<Long> ids : mPreviousContacts.values()) {
+                for (long id : ids) {
+                    deleteOperations.add(ContentProviderOperation.newDelete(
+                            ContentUris.withAppendedId(uri, id)).build());
+                    if (deleteOperations.size() >= MAX_OPS) {
+                        mContext.getContentResolver().applyBatch(ContactsContract.AUTHORITY,
+                                deleteOperations);
+                        deleted += deleteOperations.size();
+                        deleteOperations.clear();
+                    }
+                }
             }
-            if (VDBG) {
-                Log.d(TAG, "Sync complete: add=" + mEntries.size());
+            if (deleteOperations.size() > 0) {
+                mContext.getContentResolver().applyBatch(ContactsContract.AUTHORITY,
+                        deleteOperations);
+                deleted += deleteOperations.size();
             }
-        } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
+            mPreviousContacts.clear();
+        } catch (OperationApplicationException | RemoteException e) {
             Log.e(TAG, "Got exception: ", e);
-        } finally {
-            complete = true;
         }
+        if (VDBG) {
+            Log.d(TAG, "Sync complete: add=" + mInserted + ", unchanged=" + mUnchanged
+                    + ", delete=" + deleted);
+        }
+    }
+
+    /**
+     * Get the raw contacts of this sync by vCard digest, to diff the next sync against. Contacts of
+     * the previous sync that were not deleted are included.
+     */
+    Map<String, Deque<Long>> getSyncedContacts() {
+        Map<String, Deque<Long>> contacts = new HashMap<>();
+        for (Map<String, Deque<Long>> source : List.of(mSyncedContacts, mPreviousContacts)) {
+            for (Map.Entry<String, Deque<Long>> entry : source.entrySet()) {
+                for (long id : entry.getValue()) {
+                    add(contacts, entry.getKey(), id);
+                }
+            }
+        }
+        return contacts;
+    }
+
+    @VisibleForTesting
+    int getInsertedCount() {
+        return mInserted;
+    }
+
+    @VisibleForTesting
+    int getUnchangedCount() {
+        return mUnchanged;
+    }
+
+    /**
+     * Get a SHA-256 digest of the data of a vCard entry.
+     *
+     * Unchanged contacts are matched on this digest alone, without their previous data, so it
+     * covers the whole content of each element: the values it would write to the contacts
+     * provider, photos included. A match means the data is the same, rather than two contacts
+     * sharing a hash code.
+     */
+    @VisibleForTesting
+    static String hash(VCardEntry entry) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform implementation is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        entry.iterateAllData(new VCardEntry.EntryElementIterator() {
+            @Override
+            public void onIterationStarted() {
+            }
+
+            @Override
+            public void onIterationEnded() {
+            }
+
+            @Override
+            public void onElementGroupStarted(VCardEntry.EntryLabel label) {
+                update(digest, label.name());
+            }
+
+            @Override
+            public void onElementGroupEnded() {
+            }
+
+            @Override
+            public boolean onElement(VCardEntry.EntryElement elem) {
+                // The string form of elements leaves some fields out, and only describes photos
+                // by their size, so digest the values of the rows the element inserts instead
+                List<ContentProviderOperation> operations = new ArrayList<>();
+                elem.constructInsertOperation(operations, 0);
+                for (ContentProviderOperation operation : operations) {
+                    ContentValues values = operation.resolveValueBackReferences(
+                            RAW_CONTACT_BACK_REFERENCE, RAW_CONTACT_BACK_REFERENCE.length);
+                    for (String key : new TreeSet<>(values.keySet())) {
+                        update(digest, key);
+                        Object value = values.get(key);
+                        if (value instanceof byte[]) {
+                            byte[] bytes = (byte[]) value;
+                            digest.update(ByteBuffer.allocate(Integer.BYTES)
+                                    .putInt(bytes.length).array());
+                            digest.update(bytes);
+                        } else {
+                            update(digest, String.valueOf(value));
+                        }
+                    }
+                }
+                return true;
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    // Stands for the raw contact the elements of an entry are inserted for, in their digest
+    private static final ContentProviderResult[] RAW_CONTACT_BACK_REFERENCE =
+            new ContentProviderResult[] {new ContentProviderResult(0)};
+
+    /**
+     * Add a length prefixed string to a digest, so the boundaries between strings are part of it
+     */
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static Long poll(Map<String, Deque<Long>> contacts, String hash) {
+        Deque<Long> ids = contacts.get(hash);
+        if (ids == null) {
+            return null;
+        }
+        Long id = ids.poll();
+        if (ids.isEmpty()) {
+            contacts.remove(hash);
+        }
+        return id;
+    }
+
+    private static void add(Map<String, Deque<Long>> contacts, String hash, long id) {
+        Deque<Long> ids = contacts.get(hash);
+        if (ids == null) {
+            ids = new ArrayDeque<>();
+            contacts.put(hash, ids);
+        }
+        ids.add(id);
     }
 }
@@ -29,7 +29,10 @@ import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.telecom.BluetoothCallQualityReport;
 import android.telecom.Call;
 import android.telecom.CallAudioState;
@@ -50,6 +53,8 @@ import androidx.annotation.VisibleForTesting;
 import com.android.bluetooth.hfp.BluetoothHeadsetProxy;
 import com.android.bluetooth.tbs.BluetoothLeCallControlProxy;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -94,6 +99,11 @@ public class BluetoothInCallService extends InCallService {
     // Indicates that no BluetoothCall is ringing
     private static final int DEFAULT_RINGING_ADDRESS_TYPE = 128;
 
+    // Time the call events are collected for before the headset is updated, so the bursts of
+    // events of conference and call waiting changes result in a single phone state update
+    @VisibleForTesting
+    static final int CALL_EVENT_COALESCING_WINDOW_MS = 50;
+
     private int mNumActiveCalls = 0;
     private int mNumHeldCalls = 0;
     private int mNumChildrenOfActiveCall = 0;
@@ -104,6 +114,27 @@ public class BluetoothInCallService extends InCallService {
     private boolean mHeadsetUpdatedRecently = false;
     private boolean mIsDisconnectedTonePlaying = false;
 
+    // NOTE: the value is not "final" - it is modified in the unit tests
+    @VisibleForTesting
+    int mCallEventCoalescingWindowMs = CALL_EVENT_COALESCING_WINDOW_MS;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mCoalescedHeadsetUpdate = () -> {
+        synchronized (LOCK) {
+            updateHeadsetWithCallState(false /* force */);
+        }
+    };
+    // Call events waiting for the headset update, with the time of the first one and the sum of
+    // their times, to compute their latency
+    private int mPendingCallEvents = 0;
+    private long mFirstPendingCallEventMs = 0;
+    private long mPendingCallEventTimesMs = 0;
+    // Coalescing statistics
+    private long mCallEventCount = 0;
+    private long mCallEventLatencyTotalMs = 0;
+    private long mCallEventLatencyMaxMs = 0;
+    private long mPhoneStateUpdateCount = 0;
+    private long mUnchangedPhoneStateCount = 0;
+
     @VisibleForTesting
     boolean mIsTerminatedByClient = false;
 
@@ -253,7 +284,7 @@ public class BluetoothInCallService extends InCallService {
                 return;
             }
             mLastState = state;
-            updateHeadsetWithCallState(false /* force */);
+            onCallEvent();
         }
 
         @Override
@@ -290,7 +321,7 @@ public class BluetoothInCallService extends InCallService {
                         "Ignoring onIsConferenceChanged from child BluetoothCall with new parent");
                 return;
             }
-            updateHeadsetWithCallState(false /* force */);
+            onCallEvent();
         }
 
         @Override
@@ -313,7 +344,7 @@ public class BluetoothInCallService extends InCallService {
                         "Ignoring onIsConferenceChanged from parent with only one child call");
                 return;
             }
-            updateHeadsetWithCallState(false /* force */);
+            onCallEvent();
         }
 
         @Override
@@ -562,7 +593,7 @@ public class BluetoothInCallService extends InCallService {
             if (!call.isConference()) {
                 mMaxNumberOfCalls = Integer.max(mMaxNumberOfCalls, mBluetoothCallHashMap.size());
             }
-            updateHeadsetWithCallState(false /* force */);
+            onCallEvent();
 
             BluetoothLeCall tbsCall = createTbsCall(call);
             if (mBluetoothLeCallControl != null && tbsCall != null) {
@@ -620,7 +651,7 @@ public class BluetoothInCallService extends InCallService {
         }
 
         mClccIndexMap.remove(getClccMapKey(call));
-        updateHeadsetWithCallState(false /* force */);
+        onCallEvent();
 
         if (mBluetoothLeCallControl != null) {
             mBluetoothLeCallControl.onCallRemoved(call.getTbsCallId(), getTbsTerminationReason(call));
@@ -693,6 +724,71 @@ public class BluetoothInCallService extends InCallService {
         mBluetoothCallHashMap.clear();
         mClccIndexMap.clear();
         mMaxNumberOfCalls = 0;
+        synchronized (LOCK) {
+            mHandler.removeCallbacks(mCoalescedHeadsetUpdate);
+            mPendingCallEvents = 0;
+            mPendingCallEventTimesMs = 0;
+        }
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        synchronized (LOCK) {
+            pw.println("Call events: " + mCallEventCount + ", pending: " + mPendingCallEvents);
+            pw.println("Call event latency: average "
+                    + (mCallEventCount > 0 ? mCallEventLatencyTotalMs / mCallEventCount : 0)
+                    + " ms, max " + mCallEventLatencyMaxMs + " ms");
+            pw.println("Phone state updates: " + mPhoneStateUpdateCount + ", unchanged: "
+                    + mUnchangedPhoneStateCount);
+        }
+    }
+
+    /**
+     * Update the headset with the call state once the call events of the coalescing window were
+     * received. Only the changes of the phone state are sent.
+     */
+    private void onCallEvent() {
+        // The pending call events are also handled by headset updates from binder threads
+        synchronized (LOCK) {
+            if (mCallEventCoalescingWindowMs <= 0) {
+                mCallEventCount++;
+                updateHeadsetWithCallState(false /* force */);
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (mPendingCallEvents == 0) {
+                mFirstPendingCallEventMs = now;
+                mHandler.postDelayed(mCoalescedHeadsetUpdate, mCallEventCoalescingWindowMs);
+            }
+            mPendingCallEvents++;
+            mPendingCallEventTimesMs += now;
+        }
+    }
+
+    /**
+     * Record the latency of the pending call events, about to be reflected in a headset update.
+     */
+    private void onPendingCallEventsHandled() {
+        if (mPendingCallEvents == 0) {
+            return;
+        }
+        mHandler.removeCallbacks(mCoalescedHeadsetUpdate);
+        long now = SystemClock.elapsedRealtime();
+        mCallEventCount += mPendingCallEvents;
+        mCallEventLatencyTotalMs += mPendingCallEvents * now - mPendingCallEventTimesMs;
+        mCallEventLatencyMaxMs = Math.max(mCallEventLatencyMaxMs, now - mFirstPendingCallEventMs);
+        mPendingCallEvents = 0;
+        mPendingCallEventTimesMs = 0;
+    }
+
+    @VisibleForTesting
+    long getPhoneStateUpdateCount() {
+        return mPhoneStateUpdateCount;
+    }
+
+    @VisibleForTesting
+    long getCallEventCount() {
+        return mCallEventCount;
     }
 
     private static boolean isConferenceWithNoChildren(BluetoothCall call) {
@@ -960,6 +1056,9 @@ public class BluetoothInCallService extends InCallService {
      * has changed.
      */
     private void updateHeadsetWithCallState(boolean force) {
+        // The state sent covers the pending call events
+        onPendingCallEventsHandled();
+
         BluetoothCall activeCall = mCallInfo.getActiveCall();
         BluetoothCall ringingCall = mCallInfo.getRingingOrSimulatedRingingCall();
         BluetoothCall heldCall = mCallInfo.getHeldCall();
@@ -1075,6 +1174,9 @@ public class BluetoothInCallService extends InCallService {
                     ringingName);
 
             mHeadsetUpdatedRecently = true;
+            mPhoneStateUpdateCount++;
+        } else {
+            mUnchangedPhoneStateCount++;
         }
     }
 
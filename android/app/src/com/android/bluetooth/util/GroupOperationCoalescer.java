@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Coalesces the operations sent to device groups.
+ *
+ * Each group has at most one operation in flight, from the time it's dispatched until the
+ * profile reports its completion or the timeout expires. The operations submitted meanwhile wait,
+ * and only the latest value of each kind of operation is kept, so a burst of operations on a
+ * group, like the volume changes of a slider, results in a few writes to the group members
+ * instead of one per change.
+ *
+ * With a timeout of 0, operations are dispatched as soon as they're submitted.
+ */
+public class GroupOperationCoalescer {
+    private static final String TAG = "GroupOperationCoalescer";
+
+    /**
+     * Sends operations to the groups
+     */
+    public interface Dispatcher {
+        /**
+         * Send an operation to a group
+         *
+         * @param groupId the group ID
+         * @param operation the kind of operation, as given when submitted
+         * @param value the value of the operation
+         */
+        void dispatch(int groupId, int operation, int value);
+    }
+
+    private static class GroupState {
+        // Latest value of each kind of pending operation, in the order they were first submitted
+        final LinkedHashMap<Integer, Integer> mPending = new LinkedHashMap<>();
+    }
+
+    private final String mName;
+    private final long mTimeoutMs;
+    private final Dispatcher mDispatcher;
+    private final Handler mHandler;
+
+    // Groups with an operation in flight. Guarded by this coalescer.
+    private final Map<Integer, GroupState> mGroups = new HashMap<>();
+
+    // Statistics, reported in dumps
+    private long mSubmitted = 0;
+    private long mDispatched = 0;
+    private long mSuppressed = 0;
+    private long mTimedOut = 0;
+
+    /**
+     * @param name the name of the coalescer in logs and dumps
+     * @param looper the looper to run the timeouts on
+     * @param timeoutMs the longest time to wait for the completion of an operation
+     * @param dispatcher the dispatcher of the operations
+     */
+    public GroupOperationCoalescer(String name, Looper looper, long timeoutMs,
+            Dispatcher dispatcher) {
+        mName = name;
+        mTimeoutMs = timeoutMs;
+        mDispatcher = dispatcher;
+        mHandler = new Handler(looper, msg -> {
+            onTimeout(msg.what);
+            return true;
+        });
+    }
+
+    /**
+     * Submit an operation for a group. It replaces the pending operation of the same kind, if
+     * any.
+     *
+     * @param groupId the group ID
+     * @param operation the kind of operation
+     * @param value the value of the operation
+     */
+    public void submit(int groupId, int operation, int value) {
+        synchronized (this) {
+            mSubmitted++;
+            if (mTimeoutMs > 0) {
+                GroupState state = mGroups.get(groupId);
+                if (state != null) {
+                    if (state.mPending.put(operation, value) != null) {
+                        mSuppressed++;
+                    }
+                    return;
+                }
+                mGroups.put(groupId, new GroupState());
+                mHandler.sendEmptyMessageDelayed(groupId, mTimeoutMs);
+            }
+            mDispatched++;
+        }
+        mDispatcher.dispatch(groupId, operation, value);
+    }
+
+    /**
+     * Report the completion of the operation in flight for a group, to dispatch the next one
+     */
+    public void onOperationComplete(int groupId) {
+        dispatchNext(groupId);
+    }
+
+    /**
+     * Check whether a group has an operation in flight, so the values it reports may be older
+     * than the latest one submitted
+     */
+    public synchronized boolean isInFlight(int groupId) {
+        return mGroups.containsKey(groupId);
+    }
+
+    /**
+     * Drop all the pending operations
+     */
+    public synchronized void clear() {
+        for (int groupId : mGroups.keySet()) {
+            mHandler.removeMessages(groupId);
+        }
+        mGroups.clear();
+    }
+
+    private void onTimeout(int groupId) {
+        synchronized (this) {
+            if (!mGroups.containsKey(groupId)) return;
+            mTimedOut++;
+        }
+        Log.w(TAG, mName + ": no completion for group " + groupId + " after " + mTimeoutMs
+                + "ms");
+        dispatchNext(groupId);
+    }
+
+    private void dispatchNext(int groupId) {
+        int operation;
+        int value;
+        synchronized (this) {
+            GroupState state = mGroups.get(groupId);
+            if (state == null) return;
+            mHandler.removeMessages(groupId);
+            Iterator<Map.Entry<Integer, Integer>> it = state.mPending.entrySet().iterator();
+            if (!it.hasNext()) {
+                mGroups.remove(groupId);
+                return;
+            }
+            Map.Entry<Integer, Integer> next = it.next();
+            operation = next.getKey();
+            value = next.getValue();
+            it.remove();
+            mHandler.sendEmptyMessageDelayed(groupId, mTimeoutMs);
+            mDispatched++;
+        }
+        mDispatcher.dispatch(groupId, operation, value);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mName + ": submitted " + mSubmitted + ", dispatched " + mDispatched
+                + ", suppressed " + mSuppressed + ", timed out " + mTimedOut
+                + ", groups in flight " + mGroups.keySet();
+    }
+}
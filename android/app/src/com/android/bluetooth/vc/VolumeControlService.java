@@ -37,6 +37,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
@@ -49,15 +50,20 @@ import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.csip.GroupMembershipIndex;
 import com.android.bluetooth.le_audio.LeAudioService;
+import com.android.bluetooth.util.GroupOperationCoalescer;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 public class VolumeControlService extends ProfileService {
     private static final boolean DBG = false;
@@ -71,6 +77,12 @@ public class VolumeControlService extends ProfileService {
     private static final int LE_AUDIO_MAX_VOL = 255;
     private static final int LE_AUDIO_MIN_VOL = 0;
 
+    // Longest wait for the volume state of a group after changing it, before sending the next
+    // group volume or mute change
+    private static final int GROUP_OPERATION_TIMEOUT_MS = 200;
+    private static final int GROUP_OPERATION_VOLUME = 0;
+    private static final int GROUP_OPERATION_MUTE = 1;
+
     private static VolumeControlService sVolumeControlService;
 
     private AdapterService mAdapterService;
@@ -192,6 +204,44 @@ public class VolumeControlService extends ProfileService {
                                                                             new HashMap<>();
     private final Map<Integer, Integer> mGroupVolumeCache = new HashMap<>();
     private final Map<Integer, Boolean> mGroupMuteCache = new HashMap<>();
+    private GroupOperationCoalescer mGroupOperations;
+
+    // Group volume or mute change written to the members of a group
+    private static class InFlightOperation {
+        final int mOperation;
+        final int mValue;
+        // Connected members which haven't reported the value yet, empty if they're unknown
+        final Set<BluetoothDevice> mAwaited;
+
+        InFlightOperation(int operation, int value, Set<BluetoothDevice> awaited) {
+            mOperation = operation;
+            mValue = value;
+            mAwaited = awaited;
+        }
+
+        boolean isConfirmedBy(int volume, boolean mute) {
+            if (mOperation == GROUP_OPERATION_VOLUME) {
+                return volume == mValue;
+            }
+            return mute == (mValue != 0);
+        }
+
+        @Override
+        public String toString() {
+            return (mOperation == GROUP_OPERATION_VOLUME ? "volume " : "mute ") + mValue
+                    + ", awaiting " + mAwaited;
+        }
+    }
+
+    // Guarded by itself
+    private final Map<Integer, InFlightOperation> mInFlightOperations = new HashMap<>();
+
+    // Devices which connected before CSIP found their CAP group. They get the group volume once
+    // they join one. Guarded by this service.
+    private final Set<BluetoothDevice> mDevicesWithoutGroup = new HashSet<>();
+    private GroupMembershipIndex mGroupMembershipIndex;
+    private final GroupMembershipIndex.Listener mGroupMembersListener =
+            this::onGroupMembersChanged;
 
     private BroadcastReceiver mBondStateChangedReceiver;
     private BroadcastReceiver mConnectionStateChangedReceiver;
@@ -255,6 +305,8 @@ public class VolumeControlService extends ProfileService {
         mAudioOffsets.clear();
         mGroupVolumeCache.clear();
         mGroupMuteCache.clear();
+        mGroupOperations = new GroupOperationCoalescer(TAG, Looper.getMainLooper(),
+                GROUP_OPERATION_TIMEOUT_MS, this::dispatchGroupOperation);
         mCallbacks = new RemoteCallbackList<IBluetoothVolumeControlCallback>();
 
         // Mark service as started
@@ -304,6 +356,18 @@ public class VolumeControlService extends ProfileService {
             }
         }
 
+        mGroupOperations.clear();
+        synchronized (mInFlightOperations) {
+            mInFlightOperations.clear();
+        }
+        synchronized (this) {
+            if (mGroupMembershipIndex != null) {
+                mGroupMembershipIndex.unregisterListener(mGroupMembersListener);
+                mGroupMembershipIndex = null;
+            }
+            mDevicesWithoutGroup.clear();
+        }
+
         // Cleanup native interface
         mVolumeControlNativeInterface.cleanup();
         mVolumeControlNativeInterface = null;
@@ -599,7 +663,7 @@ public class VolumeControlService extends ProfileService {
         }
 
         mGroupVolumeCache.put(groupId, volume);
-        mVolumeControlNativeInterface.setGroupVolume(groupId, volume);
+        mGroupOperations.submit(groupId, GROUP_OPERATION_VOLUME, volume);
 
         // We only receive the volume change and mute state needs to be acquired manually
         Boolean isGroupMute = mGroupMuteCache.getOrDefault(groupId, false);
@@ -656,7 +720,7 @@ public class VolumeControlService extends ProfileService {
      */
     public void muteGroup(int groupId) {
         mGroupMuteCache.put(groupId, true);
-        mVolumeControlNativeInterface.muteGroup(groupId);
+        mGroupOperations.submit(groupId, GROUP_OPERATION_MUTE, 1);
     }
 
     /**
@@ -671,7 +735,105 @@ public class VolumeControlService extends ProfileService {
      */
     public void unmuteGroup(int groupId) {
         mGroupMuteCache.put(groupId, false);
-        mVolumeControlNativeInterface.unmuteGroup(groupId);
+        mGroupOperations.submit(groupId, GROUP_OPERATION_MUTE, 0);
+    }
+
+    /**
+     * Set the longest wait for the volume state of a group after changing it. 0 sends every
+     * change right away.
+     */
+    @VisibleForTesting
+    void setGroupOperationTimeout(long timeoutMs) {
+        mGroupOperations.clear();
+        mGroupOperations = new GroupOperationCoalescer(TAG, Looper.getMainLooper(), timeoutMs,
+                this::dispatchGroupOperation);
+    }
+
+    private void dispatchGroupOperation(int groupId, int operation, int value) {
+        VolumeControlNativeInterface nativeInterface = mVolumeControlNativeInterface;
+        if (nativeInterface == null) {
+            Log.w(TAG, "Dropping operation " + operation + " for group " + groupId);
+            return;
+        }
+        Set<BluetoothDevice> members = getConnectedGroupMembers(groupId);
+        synchronized (mInFlightOperations) {
+            mInFlightOperations.put(groupId, new InFlightOperation(operation, value, members));
+        }
+        if (operation == GROUP_OPERATION_VOLUME) {
+            nativeInterface.setGroupVolume(groupId, value);
+        } else if (value != 0) {
+            nativeInterface.muteGroup(groupId);
+        } else {
+            nativeInterface.unmuteGroup(groupId);
+        }
+    }
+
+    private Set<BluetoothDevice> getConnectedGroupMembers(int groupId) {
+        Set<BluetoothDevice> members = new HashSet<>();
+        GroupMembershipIndex index =
+                followGroupMembership(mFactory.getCsipSetCoordinatorService());
+        if (index == null) {
+            return members;
+        }
+        synchronized (mStateMachines) {
+            for (BluetoothDevice device : index.getMembers(groupId)) {
+                VolumeControlStateMachine sm = mStateMachines.get(device);
+                if (sm != null && sm.isConnected()) {
+                    members.add(device);
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Complete the operation in flight for a group once all its connected members reported the
+     * value written, or the group reported it as a whole. Without known members, the first report
+     * of the value completes it.
+     */
+    private void onGroupOperationReported(int groupId, BluetoothDevice device, int volume,
+            boolean mute) {
+        synchronized (mInFlightOperations) {
+            InFlightOperation operation = mInFlightOperations.get(groupId);
+            if (operation == null) {
+                return;
+            }
+            if (device != null) {
+                if (!operation.isConfirmedBy(volume, mute)) {
+                    return;
+                }
+                if (!operation.mAwaited.isEmpty()) {
+                    operation.mAwaited.remove(device);
+                    if (!operation.mAwaited.isEmpty()) {
+                        return;
+                    }
+                }
+            }
+            mInFlightOperations.remove(groupId);
+        }
+        mGroupOperations.onOperationComplete(groupId);
+    }
+
+    /**
+     * Stop waiting for a disconnected device to report the operations in flight for its groups
+     */
+    private void onGroupMemberLeft(BluetoothDevice device) {
+        List<Integer> completed = new ArrayList<>();
+        synchronized (mInFlightOperations) {
+            Iterator<Map.Entry<Integer, InFlightOperation>> it =
+                    mInFlightOperations.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, InFlightOperation> entry = it.next();
+                Set<BluetoothDevice> awaited = entry.getValue().mAwaited;
+                if (awaited.remove(device) && awaited.isEmpty()) {
+                    it.remove();
+                    completed.add(entry.getKey());
+                }
+            }
+        }
+        for (int groupId : completed) {
+            mGroupOperations.onOperationComplete(groupId);
+        }
     }
 
     /**
@@ -740,6 +902,10 @@ public class VolumeControlService extends ProfileService {
             return;
         }
 
+        if (!isAutonomous) {
+            onGroupOperationReported(groupId, device, volume, mute);
+        }
+
         int groupVolume = getGroupVolume(groupId);
         Boolean groupMute = getGroupMute(groupId);
 
@@ -755,6 +921,13 @@ public class VolumeControlService extends ProfileService {
                 return;
             }
 
+            if (mGroupOperations.isInFlight(groupId)) {
+                // The group is still applying the changes, this value may be an older one
+                Log.i(TAG, " Volume:" + volume + ", mute:" + mute + " reported while group "
+                        + groupId + " is changing");
+                return;
+            }
+
             if (device != null) {
                 // Correct the volume level only if device was already reported as connected.
                 boolean can_change_volume = false;
@@ -1084,6 +1257,11 @@ public class VolumeControlService extends ProfileService {
             return;
         }
 
+        if (toState != BluetoothProfile.STATE_CONNECTED) {
+            mDevicesWithoutGroup.remove(device);
+            onGroupMemberLeft(device);
+        }
+
         // Check if the device is disconnected - if unbond, remove the state machine
         if (toState == BluetoothProfile.STATE_DISCONNECTED) {
             int bondState = mAdapterService.getBondState(device);
@@ -1096,8 +1274,11 @@ public class VolumeControlService extends ProfileService {
         } else if (toState == BluetoothProfile.STATE_CONNECTED) {
             // Restore the group volume if it was changed while the device was not yet connected.
             CsipSetCoordinatorService csipClient = mFactory.getCsipSetCoordinatorService();
+            followGroupMembership(csipClient);
             Integer groupId = csipClient.getGroupId(device, BluetoothUuid.CAP);
-            if (groupId != IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID) {
+            if (groupId == IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID) {
+                mDevicesWithoutGroup.add(device);
+            } else {
                 Integer groupVolume = mGroupVolumeCache.getOrDefault(groupId,
                         IBluetoothVolumeControl.VOLUME_CONTROL_UNKNOWN_VOLUME);
                 if (groupVolume != IBluetoothVolumeControl.VOLUME_CONTROL_UNKNOWN_VOLUME) {
@@ -1114,6 +1295,40 @@ public class VolumeControlService extends ProfileService {
         }
     }
 
+    /**
+     * Listen to the changes of group members from the given CSIP service, unless already done.
+     * A restarted CSIP service comes with a new index, which replaces the previous one.
+     *
+     * @return the group membership index followed, or null if CSIP isn't available
+     */
+    private synchronized GroupMembershipIndex followGroupMembership(
+            CsipSetCoordinatorService csipClient) {
+        GroupMembershipIndex index = csipClient != null
+                ? csipClient.getGroupMembershipIndex() : null;
+        if (index == null || index == mGroupMembershipIndex) {
+            return index;
+        }
+        if (mGroupMembershipIndex != null) {
+            mGroupMembershipIndex.unregisterListener(mGroupMembersListener);
+        }
+        mGroupMembershipIndex = index;
+        index.registerListener(getMainExecutor(), mGroupMembersListener);
+        return index;
+    }
+
+    private synchronized void onGroupMembersChanged(int groupId, List<BluetoothDevice> members) {
+        GroupMembershipIndex index = mGroupMembershipIndex;
+        if (index == null || !BluetoothUuid.CAP.equals(index.getGroupUuid(groupId))) {
+            return;
+        }
+        for (BluetoothDevice device : members) {
+            if (mDevicesWithoutGroup.remove(device)) {
+                Log.i(TAG, device + " joined group " + groupId + " after connecting");
+                handleGroupNodeAdded(groupId, device);
+            }
+        }
+    }
+
     private class ConnectionStateChangedReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -1499,5 +1714,13 @@ public class VolumeControlService extends ProfileService {
             ProfileService.println(sb, "    GroupId: " + entry.getKey() + " volume: "
                             + entry.getValue() + ", mute: " + isMute);
         }
+        ProfileService.println(sb, "  Group operations: " + mGroupOperations);
+        synchronized (mInFlightOperations) {
+            for (Map.Entry<Integer, InFlightOperation> entry : mInFlightOperations.entrySet()) {
+                ProfileService.println(sb, "    GroupId: " + entry.getKey() + " in flight: "
+                        + entry.getValue());
+            }
+        }
+        ProfileService.println(sb, "  Connected without group: " + mDevicesWithoutGroup);
     }
 }
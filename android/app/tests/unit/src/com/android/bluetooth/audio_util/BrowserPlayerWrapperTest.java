@@ -424,4 +424,33 @@ public class BrowserPlayerWrapperTest {
         timeoutHandler.sendEmptyMessage(BrowsedPlayerWrapper.TimeoutHandler.MSG_TIMEOUT);
         verify(mMockBrowser, timeout(2000).times(1)).disconnect();
     }
+
+    @Test
+    public void testOnUidsChanged_CacheCleared() {
+        BrowsedPlayerWrapper wrapper =
+                BrowsedPlayerWrapper.wrap(mMockContext, mThread.getLooper(), "test", "test");
+        wrapper.mCachedFolders.put("test_folder", new ArrayList<ListItem>());
+
+        wrapper.onUidsChanged();
+
+        Assert.assertFalse(wrapper.mCachedFolders.containsKey("test_folder"));
+    }
+
+    @Test
+    public void testGetFolderItems_UidsChangedWhileLoading_FolderNotCached() {
+        BrowsedPlayerWrapper wrapper =
+                BrowsedPlayerWrapper.wrap(mMockContext, mThread.getLooper(), "test", "test");
+        verify(mMockBrowser).testInit(any(), any(), mBrowserConnCb.capture(), any());
+        MediaBrowser.ConnectionCallback browserConnCb = mBrowserConnCb.getValue();
+
+        wrapper.getFolderItems("test_folder", mBrowseCb);
+
+        browserConnCb.onConnected();
+        verify(mMockBrowser).subscribe(any(), mSubscriptionCb.capture());
+        wrapper.onUidsChanged();
+        mSubscriptionCb.getValue().onChildrenLoaded("test_folder", new ArrayList<MediaItem>());
+
+        verify(mBrowseCb).run(eq(BrowsedPlayerWrapper.STATUS_SUCCESS), eq("test_folder"), any());
+        Assert.assertFalse(wrapper.mCachedFolders.containsKey("test_folder"));
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.audio_util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.media.MediaDescription;
+import android.media.session.MediaSession;
+import android.media.session.PlaybackState;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class MediaDataDiffTest {
+
+    private static Metadata makeMetadata(String title) {
+        Metadata metadata = new Metadata.Builder().useDefaults().setMediaId("currsong").build();
+        metadata.title = title;
+        return metadata;
+    }
+
+    private static PlaybackState makeState(int state, long position, long activeQueueItemId) {
+        return new PlaybackState.Builder().setState(state, position, 1.0f)
+                .setActiveQueueItemId(activeQueueItemId).build();
+    }
+
+    private static List<Metadata> makeQueue(String... titles) {
+        List<Metadata> queue = new ArrayList<>();
+        for (String title : titles) queue.add(makeMetadata(title));
+        return queue;
+    }
+
+    private static List<MediaSession.QueueItem> makeQueueItems(String... titles) {
+        List<MediaSession.QueueItem> queue = new ArrayList<>();
+        for (int i = 0; i < titles.length; i++) {
+            MediaDescription desc = new MediaDescription.Builder().setTitle(titles[i])
+                    .setMediaId("id" + i).build();
+            queue.add(new MediaSession.QueueItem(desc, i));
+        }
+        return queue;
+    }
+
+    @Test
+    public void between_sameData_noChanges() {
+        MediaData oldData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 1000, 0), makeQueue("a", "b"));
+        MediaData newData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 1100, 0), makeQueue("a", "b"));
+
+        MediaDataDiff diff = MediaDataDiff.between(oldData, newData);
+
+        assertThat(diff.hasChanges()).isFalse();
+    }
+
+    @Test
+    public void between_positionChange_coalescable() {
+        MediaData oldData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 1000, 0), makeQueue("a"));
+        MediaData newData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 5000, 0), makeQueue("a"));
+
+        MediaDataDiff diff = MediaDataDiff.between(oldData, newData);
+
+        assertThat(diff.state).isTrue();
+        assertThat(diff.positionOnly).isTrue();
+        assertThat(diff.isCoalescable()).isTrue();
+    }
+
+    @Test
+    public void between_playStatusChange_notCoalescable() {
+        MediaData oldData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 1000, 0), makeQueue("a"));
+        MediaData newData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PAUSED, 1000, 0), makeQueue("a"));
+
+        MediaDataDiff diff = MediaDataDiff.between(oldData, newData);
+
+        assertThat(diff.state).isTrue();
+        assertThat(diff.positionOnly).isFalse();
+        assertThat(diff.isCoalescable()).isFalse();
+    }
+
+    @Test
+    public void between_queueChange_countsChangedItems() {
+        MediaData oldData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 1000, 0), makeQueue("a", "b", "c"));
+        MediaData newData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 1000, 0), makeQueue("a", "x", "c", "d"));
+
+        MediaDataDiff diff = MediaDataDiff.between(oldData, newData);
+
+        assertThat(diff.metadata).isFalse();
+        assertThat(diff.queue).isTrue();
+        assertThat(diff.queueItemsChanged).isEqualTo(2);
+        assertThat(diff.isCoalescable()).isTrue();
+    }
+
+    @Test
+    public void between_metadataChange_notCoalescable() {
+        MediaData oldData = new MediaData(makeMetadata("a"),
+                makeState(PlaybackState.STATE_PLAYING, 1000, 0), makeQueue("a"));
+        MediaData newData = new MediaData(makeMetadata("b"),
+                makeState(PlaybackState.STATE_PLAYING, 5000, 0), makeQueue("a"));
+
+        MediaDataDiff diff = MediaDataDiff.between(oldData, newData);
+
+        assertThat(diff.metadata).isTrue();
+        assertThat(diff.isCoalescable()).isFalse();
+    }
+
+    @Test
+    public void queueConverter_matchesToMetadataList() {
+        QueueConverter converter = new QueueConverter(null);
+
+        converter.convert(makeQueueItems("a", "b", "c"));
+        List<MediaSession.QueueItem> queue = makeQueueItems("a", "x", "c", "d");
+
+        assertThat(converter.convert(queue)).isEqualTo(Util.toMetadataList(null, queue));
+        assertThat(converter.toString()).contains("reused=2");
+    }
+}
@@ -512,6 +512,54 @@ public class MediaPlayerWrapperTest {
         verify(mFailHandler, never()).onTerribleFailure(any(), any(), anyBoolean());
     }
 
+    /*
+     * This test sends position only updates in quick succession to see if they get coalesced
+     * into a single update carrying the latest position.
+     */
+    @Test
+    public void testPlaybackPositionUpdatesCoalesced() {
+        // Create the wrapper object and register the looper with the timeout handler
+        TestLooperManager looperManager =
+                InstrumentationRegistry.getInstrumentation()
+                        .acquireLooperManager(mThread.getLooper());
+        MediaPlayerWrapper wrapper =
+                MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
+        wrapper.registerCallback(mTestCbs);
+
+        // Return null when getting the queue
+        doReturn(null).when(mMockController).getQueue();
+
+        // Grab the callbacks the wrapper registered with the controller
+        verify(mMockController).registerCallback(mControllerCbs.capture(), any());
+        MediaController.Callback controllerCallbacks = mControllerCbs.getValue();
+
+        // Update PlaybackState returned by controller (Should trigger update)
+        mTestState.setState(PlaybackState.STATE_PLAYING, 1000, 1.0f);
+        doReturn(mTestState.build()).when(mMockController).getPlaybackState();
+        controllerCallbacks.onPlaybackStateChanged(mTestState.build());
+        verify(mTestCbs, times(1)).mediaUpdatedCallback(any());
+
+        // Update positions returned by controller (Should be held back)
+        mTestState.setState(PlaybackState.STATE_PLAYING, 3000, 1.0f);
+        doReturn(mTestState.build()).when(mMockController).getPlaybackState();
+        controllerCallbacks.onPlaybackStateChanged(mTestState.build());
+        mTestState.setState(PlaybackState.STATE_PLAYING, 5000, 1.0f);
+        doReturn(mTestState.build()).when(mMockController).getPlaybackState();
+        controllerCallbacks.onPlaybackStateChanged(mTestState.build());
+        verify(mTestCbs, times(1)).mediaUpdatedCallback(any());
+
+        // Let the coalesced update execute
+        looperManager.execute(looperManager.next());
+
+        // Assert that a single update with the latest position was sent
+        verify(mTestCbs, times(2)).mediaUpdatedCallback(mMediaUpdateData.capture());
+        MediaData data = mMediaUpdateData.getValue();
+        assertThat(data.state.getPosition()).isEqualTo(5000);
+        Assert.assertFalse(wrapper.getTimeoutHandler().hasMessages(MSG_TIMEOUT));
+        verify(mFailHandler, never()).onTerribleFailure(any(), any(), anyBoolean());
+        looperManager.release();
+    }
+
     /*
      * Check to make sure that cleanup tears down the object properly
      */
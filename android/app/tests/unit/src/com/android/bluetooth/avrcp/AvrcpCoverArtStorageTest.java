@@ -24,6 +24,7 @@ import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Color;
 
 import androidx.test.InstrumentationRegistry;
 import androidx.test.runner.AndroidJUnit4;
@@ -170,4 +171,44 @@ public class AvrcpCoverArtStorageTest {
         assertThat(mAvrcpCoverArtStorage.getImage(handle_green)).isEqualTo(artwork_green);
         assertThat(mAvrcpCoverArtStorage.getImage(handle_blue)).isNull();
     }
+
+    /**
+     * Make sure storing a new image pre-encodes its variants with the storage's encoder
+     */
+    @Test
+    public void testStoreImage_variantsEncoded() {
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(2, Runnable::run);
+        CoverArt artwork = getCoverArt(com.android.bluetooth.tests.R.raw.image_200_200);
+        String handle = mAvrcpCoverArtStorage.storeImage(artwork);
+        assertThat(handle).isNotNull();
+        assertThat(artwork.areVariantsEncoded()).isTrue();
+    }
+
+    /**
+     * Make sure an image stored from a source image is found again from the same source image
+     */
+    @Test
+    public void testGetImageHandleFromSameSource() {
+        Bitmap source = BitmapFactory.decodeStream(
+                mTestResources.openRawResource(com.android.bluetooth.tests.R.raw.image_200_200));
+        String handle = mAvrcpCoverArtStorage.storeImage(new CoverArt(new Image(null, source)));
+        assertThat(handle).isNotNull();
+        assertThat(mAvrcpCoverArtStorage.getImageHandle(source)).isEqualTo(handle);
+    }
+
+    /**
+     * Make sure a source image modified after it was stored isn't matched by identity anymore
+     */
+    @Test
+    public void testGetImageHandleFromModifiedSource() {
+        Bitmap source = BitmapFactory.decodeStream(
+                mTestResources.openRawResource(com.android.bluetooth.tests.R.raw.image_200_200))
+                .copy(Bitmap.Config.ARGB_8888, true);
+        String handle = mAvrcpCoverArtStorage.storeImage(new CoverArt(new Image(null, source)));
+        assertThat(handle).isNotNull();
+
+        source.eraseColor(Color.RED);
+
+        assertThat(mAvrcpCoverArtStorage.getImageHandle(source)).isNull();
+    }
 }
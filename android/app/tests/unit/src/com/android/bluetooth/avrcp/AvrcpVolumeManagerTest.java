@@ -28,6 +28,7 @@ import static org.mockito.Mockito.when;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.media.AudioManager;
 
 import androidx.test.InstrumentationRegistry;
@@ -45,6 +46,8 @@ import org.mockito.MockitoAnnotations;
 @RunWith(AndroidJUnit4.class)
 public class AvrcpVolumeManagerTest {
     private static final String REMOTE_DEVICE_ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_DEVICE_ADDRESS = "00:01:02:03:04:06";
+    private static final String VOLUME_MAP = "bluetooth_volume_map";
     private static final int TEST_DEVICE_MAX_VOUME = 25;
 
     @Mock
@@ -101,4 +104,52 @@ public class AvrcpVolumeManagerTest {
         verify(mAudioManager).setStreamVolume(eq(AudioManager.STREAM_MUSIC),
                 eq(TEST_DEVICE_MAX_VOUME), anyInt());
     }
+
+    @Test
+    public void getVolume_noStoredVolume_returnsDefault() {
+        int defaultVolume = mAvrcpVolumeManager.getNewDeviceVolume();
+
+        assertThat(mAvrcpVolumeManager.getVolume(mRemoteDevice, defaultVolume))
+                .isEqualTo(defaultVolume);
+    }
+
+    @Test
+    public void cleanup() {
+        mAvrcpVolumeManager.cleanup();
+
+        verify(mAudioManager).unregisterAudioDeviceCallback(mAvrcpVolumeManager);
+    }
+
+    @Test
+    public void removeStoredVolumeForDevice_writesBatchedUntilFlushed() {
+        BluetoothDevice otherDevice =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice(OTHER_DEVICE_ADDRESS);
+        SharedPreferences volumeMap =
+                mContext.getSharedPreferences(VOLUME_MAP, Context.MODE_PRIVATE);
+        volumeMap.edit().putInt(REMOTE_DEVICE_ADDRESS, 10)
+                .putInt(OTHER_DEVICE_ADDRESS, 12).commit();
+
+        mAvrcpVolumeManager.removeStoredVolumeForDevice(mRemoteDevice);
+        mAvrcpVolumeManager.removeStoredVolumeForDevice(otherDevice);
+
+        assertThat(volumeMap.contains(REMOTE_DEVICE_ADDRESS)).isTrue();
+        assertThat(volumeMap.contains(OTHER_DEVICE_ADDRESS)).isTrue();
+
+        mAvrcpVolumeManager.storePendingVolumes();
+
+        assertThat(volumeMap.contains(REMOTE_DEVICE_ADDRESS)).isFalse();
+        assertThat(volumeMap.contains(OTHER_DEVICE_ADDRESS)).isFalse();
+    }
+
+    @Test
+    public void cleanup_pendingVolumesFlushed() {
+        SharedPreferences volumeMap =
+                mContext.getSharedPreferences(VOLUME_MAP, Context.MODE_PRIVATE);
+        volumeMap.edit().putInt(REMOTE_DEVICE_ADDRESS, 10).commit();
+        mAvrcpVolumeManager.removeStoredVolumeForDevice(mRemoteDevice);
+
+        mAvrcpVolumeManager.cleanup();
+
+        assertThat(volumeMap.contains(REMOTE_DEVICE_ADDRESS)).isFalse();
+    }
 }
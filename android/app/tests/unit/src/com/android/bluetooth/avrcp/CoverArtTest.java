@@ -263,6 +263,29 @@ public class CoverArtTest {
         assertThat(isThumbnailFormat(image)).isTrue();
     }
 
+    /**
+     * Make sure repeated requests for the thumbnail are served from the same encoded bytes
+     */
+    @Test
+    public void testGetThumbnailTwice_returnsCachedBytes() {
+        CoverArt artwork = new CoverArt(mImage);
+        byte[] imageBytes = artwork.getThumbnail();
+        assertThat(artwork.getThumbnail()).isSameInstanceAs(imageBytes);
+        assertThat(artwork.getImage()).isSameInstanceAs(imageBytes);
+    }
+
+    /**
+     * Make sure encoding variants ahead of time caches every encoding
+     */
+    @Test
+    public void testEncodeVariants() {
+        CoverArt artwork = new CoverArt(mImage);
+        assertThat(artwork.areVariantsEncoded()).isFalse();
+        artwork.encodeVariants();
+        assertThat(artwork.areVariantsEncoded()).isTrue();
+        assertThat(artwork.encodedSize() > 0).isTrue();
+    }
+
     /**
      * Make sure a getImage(<invalid descriptor>) yields a null
      */
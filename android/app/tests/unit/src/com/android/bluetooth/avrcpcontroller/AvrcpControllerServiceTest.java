@@ -123,6 +123,19 @@ public class AvrcpControllerServiceTest {
         assertThat(mService.mDeviceStateMap).doesNotContainKey(mRemoteDevice);
     }
 
+    @Test
+    public void bondStateChanged_unbonded_browseCacheRemoved() {
+        BrowseTreeCache cache = mService.getBrowseTreeCache();
+        Assume.assumeTrue("Browse cache disabled", cache != null);
+        AvrcpItem folder = new AvrcpItem.Builder().setItemType(AvrcpItem.TYPE_FOLDER)
+                .setUid(1).setDisplayableName("Folder").setBrowsable(true).build();
+        cache.putListing(mRemoteDevice, "PLAYER1:Music", Arrays.asList(folder));
+
+        mService.bondStateChanged(mRemoteDevice, BluetoothDevice.BOND_NONE);
+
+        assertThat(cache.getListing(mRemoteDevice, "PLAYER1:Music")).isNull();
+    }
+
     @Test
     public void getConnectedDevices() {
         when(mAdapterService.getBondedDevices()).thenReturn(
@@ -713,6 +713,143 @@ public class AvrcpControllerStateMachineTest {
                 eq(0), eq(4));
     }
 
+    /**
+     * Test that the subfolders of a browsed folder are fetched ahead of the user
+     *
+     * Verify that once the folder is fetched, the state machine navigates down to its first
+     * subfolder, and keeps the prefetched listing when it moves on to the next one.
+     */
+    @Test
+    public void testBrowseFolder_subfoldersPrefetched() {
+        doReturn(2).when(mMockResources)
+                .getInteger(R.integer.avrcp_controller_prefetch_folders);
+        BrowseTree.BrowseNode playerNode = browsePlayerWithSubfolders();
+
+        verify(mAvrcpControllerService,
+                timeout(AvrcpControllerStateMachine.PREFETCH_DELAY_MILLIS
+                        + ASYNC_CALL_TIMEOUT_MILLIS).times(1)).changeFolderPathNative(
+                eq(mTestAddress), eq(AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_DOWN),
+                eq(10L));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_FOLDER_PATH, 1);
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1)).getFolderListNative(eq(mTestAddress),
+                eq(0), eq(0));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS_OUT_OF_RANGE);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        BrowseTree.BrowseNode firstFolder = playerNode.getChild(0);
+        Assert.assertTrue(firstFolder.isCached());
+
+        // Returning to the player folder keeps the listing of the first one, to be revalidated
+        verify(mAvrcpControllerService,
+                timeout(AvrcpControllerStateMachine.PREFETCH_DELAY_MILLIS
+                        + ASYNC_CALL_TIMEOUT_MILLIS).times(1)).changeFolderPathNative(
+                eq(mTestAddress), eq(AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_UP),
+                eq(0L));
+        Assert.assertFalse(firstFolder.isCached());
+        Assert.assertTrue(firstFolder.isStale());
+    }
+
+    /**
+     * Test that an item is played in the folder it was listed in after a prefetch
+     *
+     * Verify that once a subfolder is prefetched, the state machine navigates back to the browsed
+     * folder, and only plays the item requested meanwhile once it's back.
+     */
+    @Test
+    public void testPlayItem_afterPrefetch_playedInBrowsedFolder() {
+        doReturn(1).when(mMockResources)
+                .getInteger(R.integer.avrcp_controller_prefetch_folders);
+        BrowseTree.BrowseNode playerNode = browsePlayerWithSubfolders();
+        verify(mAvrcpControllerService,
+                timeout(AvrcpControllerStateMachine.PREFETCH_DELAY_MILLIS
+                        + ASYNC_CALL_TIMEOUT_MILLIS).times(1)).changeFolderPathNative(
+                eq(mTestAddress), eq(AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_DOWN),
+                eq(10L));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_FOLDER_PATH, 1);
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1)).getFolderListNative(eq(mTestAddress),
+                eq(0), eq(0));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS_OUT_OF_RANGE);
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1)).changeFolderPathNative(
+                eq(mTestAddress), eq(AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_UP),
+                eq(0L));
+
+        mAvrcpStateMachine.playItem(playerNode.getChild(2));
+        verify(mAvrcpControllerService, after(ASYNC_CALL_TIMEOUT_MILLIS).never())
+                .playItemNative(any(), anyByte(), anyLong(), anyInt());
+
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_FOLDER_PATH, 3);
+        verify(mAvrcpControllerService, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .playItemNative(eq(mTestAddress), eq(AvrcpControllerService.BROWSE_SCOPE_VFS),
+                        eq(12L), eq(0));
+        Assert.assertEquals(playerNode,
+                mAvrcpStateMachine.mBrowseTree.getCurrentBrowsedFolder());
+    }
+
+    /**
+     * Test that browsing elsewhere cancels the pending prefetch of subfolders
+     */
+    @Test
+    public void testBrowseFolder_userRequest_prefetchCancelled() {
+        doReturn(2).when(mMockResources)
+                .getInteger(R.integer.avrcp_controller_prefetch_folders);
+        browsePlayerWithSubfolders();
+
+        mAvrcpStateMachine.requestContents(mAvrcpStateMachine.mBrowseTree.mRootNode);
+
+        verify(mAvrcpControllerService,
+                after(AvrcpControllerStateMachine.PREFETCH_DELAY_MILLIS * 2).never())
+                .changeFolderPathNative(any(), anyByte(), anyLong());
+    }
+
+    /**
+     * Browse the folder of a player made of two subfolders and a song
+     */
+    private BrowseTree.BrowseNode browsePlayerWithSubfolders() {
+        setUpConnectedState(true, true);
+        BrowseTree.BrowseNode rootNode = mAvrcpStateMachine.findNode("__ROOT__");
+        mAvrcpStateMachine.requestContents(rootNode);
+        byte[] playerFeatures =
+                new byte[]{0, 0, 0, 0, 0, (byte) 0xb7, 0x01, 0x0c, 0x0a, 0, 0, 0, 0, 0, 0, 0};
+        List<AvrcpPlayer> testPlayers = new ArrayList<>();
+        testPlayers.add(makePlayer(mTestDevice, 1, "Player 1", 1, playerFeatures, 1));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_PLAYER_ITEMS,
+                testPlayers);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        BrowseTree.BrowseNode playerNode = rootNode.getChildren().get(0);
+        mAvrcpStateMachine.requestContents(playerNode);
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1)).setBrowsedPlayerNative(
+                eq(mTestAddress), eq(1));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_FOLDER_PATH, 3);
+        verify(mAvrcpControllerService,
+                timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1)).getFolderListNative(eq(mTestAddress),
+                eq(0), eq(2));
+
+        ArrayList<AvrcpItem> items = new ArrayList<>();
+        items.add(makeFolder(10, "Albums"));
+        items.add(makeFolder(11, "Artists"));
+        items.add(new AvrcpItem.Builder().setDevice(mTestDevice).setUid(12)
+                .setUuid(UUID.randomUUID().toString()).setItemType(AvrcpItem.TYPE_MEDIA)
+                .setTitle("Song").setPlayable(true).build());
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS,
+                items);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        Assert.assertTrue(playerNode.isCached());
+        Assert.assertEquals(3, playerNode.getChildrenCount());
+        return playerNode;
+    }
+
+    private AvrcpItem makeFolder(long uid, String name) {
+        return new AvrcpItem.Builder().setDevice(mTestDevice).setUid(uid)
+                .setUuid(UUID.randomUUID().toString()).setItemType(AvrcpItem.TYPE_FOLDER)
+                .setDisplayableName(name).setBrowsable(true).build();
+    }
+
     /**
      * Test our reaction to an available players changed event
      *
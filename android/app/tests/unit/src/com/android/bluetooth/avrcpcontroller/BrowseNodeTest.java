@@ -181,6 +181,47 @@ public class BrowseNodeTest {
         assertThat(mRootNode.isDescendant(browseNode)).isTrue();
     }
 
+    @Test
+    public void restoreChildren_sameListingFetched_childrenKept() {
+        BrowseNode folderNode = mBrowseTree.new BrowseNode(
+                new AvrcpItem.Builder().setUuid("folder").setBrowsable(true).build());
+        List<AvrcpItem> restored = new ArrayList<>();
+        restored.add(new AvrcpItem.Builder().setUuid(TEST_UUID).setUid(1).setTitle("1").build());
+        folderNode.restoreChildren(restored);
+        assertThat(folderNode.isStale()).isTrue();
+        assertThat(folderNode.isCached()).isFalse();
+
+        List<AvrcpItem> fetched = new ArrayList<>();
+        fetched.add(new AvrcpItem.Builder().setUuid("2222").setUid(1).setTitle("1").build());
+        fetched.get(0).setCoverArtUuid("image");
+
+        assertThat(folderNode.revalidateChildren(fetched)).isFalse();
+        assertThat(folderNode.isStale()).isFalse();
+        assertThat(folderNode.isCached()).isTrue();
+        assertThat(folderNode.getChild(0).getID()).isEqualTo(TEST_UUID);
+        assertThat(folderNode.getChild(0).getCoverArtUuid()).isEqualTo("image");
+        assertThat(mBrowseTree.getNodesUsingCoverArt("image")).containsExactly(TEST_UUID);
+    }
+
+    @Test
+    public void restoreChildren_differentListingFetched_childrenReplaced() {
+        BrowseNode folderNode = mBrowseTree.new BrowseNode(
+                new AvrcpItem.Builder().setUuid("folder").setBrowsable(true).build());
+        List<AvrcpItem> restored = new ArrayList<>();
+        restored.add(new AvrcpItem.Builder().setUuid(TEST_UUID).setUid(1).setTitle("1").build());
+        folderNode.restoreChildren(restored);
+
+        List<AvrcpItem> fetched = new ArrayList<>();
+        fetched.add(new AvrcpItem.Builder().setUuid("2222").setUid(1).setTitle("1").build());
+        fetched.add(new AvrcpItem.Builder().setUuid("3333").setUid(2).setTitle("2").build());
+
+        assertThat(folderNode.revalidateChildren(fetched)).isTrue();
+        assertThat(folderNode.isCached()).isTrue();
+        assertThat(folderNode.getChildrenCount()).isEqualTo(2);
+        assertThat(folderNode.getChild(0).getID()).isEqualTo("2222");
+        assertThat(mBrowseTree.findBrowseNodeByID(TEST_UUID)).isNull();
+    }
+
     @Test
     public void toString_returnsId() {
         BrowseNode browseNode = mBrowseTree.new BrowseNode(
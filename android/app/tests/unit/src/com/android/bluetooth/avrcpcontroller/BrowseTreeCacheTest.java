@@ -0,0 +1,174 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.avrcpcontroller;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BrowseTreeCacheTest {
+    private static final String TEST_PATH = "PLAYER1:Music/5:Albums";
+
+    private Context mTargetContext;
+    private BluetoothDevice mDevice1;
+    private BluetoothDevice mDevice2;
+    private BrowseTreeCache mBrowseTreeCache;
+
+    @Before
+    public void setUp() {
+        mTargetContext = InstrumentationRegistry.getTargetContext();
+        mDevice1 = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("AA:BB:CC:DD:EE:FF");
+        mDevice2 = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("BB:CC:DD:EE:FF:AA");
+        mBrowseTreeCache = new BrowseTreeCache(mTargetContext);
+    }
+
+    @After
+    public void tearDown() {
+        mBrowseTreeCache.removeDevice(mDevice1);
+        mBrowseTreeCache.removeDevice(mDevice2);
+        mBrowseTreeCache.cleanup();
+    }
+
+    @Test
+    public void putListing_newCacheInstance_listingRestored() {
+        List<AvrcpItem> items = createItems(3);
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH, items);
+        mBrowseTreeCache.flush();
+
+        List<AvrcpItem> restored = getListingFromNewCache(mDevice1, TEST_PATH);
+
+        assertThat(restored).hasSize(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertThat(BrowseTreeCache.isSameItem(items.get(i), restored.get(i))).isTrue();
+            assertThat(restored.get(i).getDevice()).isEqualTo(mDevice1);
+            assertThat(restored.get(i).getUuid()).isNotEqualTo(items.get(i).getUuid());
+            assertThat(restored.get(i).getArtistName()).isEqualTo(items.get(i).getArtistName());
+            assertThat(restored.get(i).getCoverArtUuid()).isNull();
+        }
+    }
+
+    @Test
+    public void putListing_severalListings_writtenTogetherInBackground() {
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH, createItems(1));
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH + 1, createItems(2));
+        assertThat(getListingFromNewCache(mDevice1, TEST_PATH)).isNull();
+
+        SystemClock.sleep(BrowseTreeCache.WRITE_DELAY_MS * 2);
+
+        assertThat(getListingFromNewCache(mDevice1, TEST_PATH)).hasSize(1);
+        assertThat(getListingFromNewCache(mDevice1, TEST_PATH + 1)).hasSize(2);
+    }
+
+    @Test
+    public void getListing_otherDeviceOrPath_returnsNull() {
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH, createItems(1));
+
+        assertThat(mBrowseTreeCache.getListing(mDevice2, TEST_PATH)).isNull();
+        assertThat(mBrowseTreeCache.getListing(mDevice1, TEST_PATH + "/1:Other")).isNull();
+        assertThat(mBrowseTreeCache.getListing(mDevice1, null)).isNull();
+    }
+
+    @Test
+    public void putListing_tooManyFolders_leastRecentlyUsedDropped() {
+        for (int i = 0; i < BrowseTreeCache.MAX_FOLDERS_PER_DEVICE; i++) {
+            mBrowseTreeCache.putListing(mDevice1, TEST_PATH + i, createItems(1));
+        }
+        // Use the first folder so the second one is the least recently used
+        assertThat(mBrowseTreeCache.getListing(mDevice1, TEST_PATH + 0)).isNotNull();
+
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH, createItems(1));
+
+        assertThat(mBrowseTreeCache.getListing(mDevice1, TEST_PATH + 0)).isNotNull();
+        assertThat(mBrowseTreeCache.getListing(mDevice1, TEST_PATH + 1)).isNull();
+        assertThat(mBrowseTreeCache.getListing(mDevice1, TEST_PATH)).isNotNull();
+    }
+
+    @Test
+    public void putListing_tooManyItems_notCached() {
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH,
+                createItems(BrowseTreeCache.MAX_ITEMS_PER_FOLDER + 1));
+
+        assertThat(mBrowseTreeCache.getListing(mDevice1, TEST_PATH)).isNull();
+    }
+
+    @Test
+    public void removeDevice_listingsRemoved() {
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH, createItems(1));
+        mBrowseTreeCache.flush();
+        mBrowseTreeCache.putListing(mDevice1, TEST_PATH + 1, createItems(1));
+
+        mBrowseTreeCache.removeDevice(mDevice1);
+        mBrowseTreeCache.flush();
+
+        assertThat(mBrowseTreeCache.getListing(mDevice1, TEST_PATH)).isNull();
+        assertThat(getListingFromNewCache(mDevice1, TEST_PATH)).isNull();
+        assertThat(getListingFromNewCache(mDevice1, TEST_PATH + 1)).isNull();
+    }
+
+    @Test
+    public void isSameItem_differentName_returnsFalse() {
+        AvrcpItem item = createItems(1).get(0);
+        AvrcpItem renamed = new AvrcpItem.Builder().setItemType(item.getItemType())
+                .setType(item.getType()).setUid(item.getUid()).setPlayable(item.isPlayable())
+                .setTitle("Renamed").build();
+
+        assertThat(BrowseTreeCache.isSameItem(item, item)).isTrue();
+        assertThat(BrowseTreeCache.isSameItem(item, renamed)).isFalse();
+    }
+
+    private List<AvrcpItem> getListingFromNewCache(BluetoothDevice device, String path) {
+        BrowseTreeCache cache = new BrowseTreeCache(mTargetContext);
+        List<AvrcpItem> listing = cache.getListing(device, path);
+        cache.cleanup();
+        return listing;
+    }
+
+    private List<AvrcpItem> createItems(int count) {
+        List<AvrcpItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new AvrcpItem.Builder()
+                    .setDevice(mDevice1)
+                    .setUuid("uuid" + i)
+                    .setItemType(AvrcpItem.TYPE_MEDIA)
+                    .setType(AvrcpItem.MEDIA_AUDIO)
+                    .setUid(i)
+                    .setTitle("Title " + i)
+                    .setArtistName("Artist " + i)
+                    .setPlayable(true)
+                    .build());
+            items.get(i).setCoverArtUuid("image" + i);
+        }
+        return items;
+    }
+}
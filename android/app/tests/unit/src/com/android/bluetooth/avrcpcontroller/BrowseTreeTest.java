@@ -26,6 +26,7 @@ import com.android.bluetooth.avrcpcontroller.BrowseTree.BrowseNode;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Set;
 
 public class BrowseTreeTest {
@@ -193,6 +194,24 @@ public class BrowseTreeTest {
                 browseTree.mNavigateUpNode);
     }
 
+    @Test
+    public void getFolderPath() {
+        BrowseTree browseTree = new BrowseTree(mTestDevice);
+        AvrcpPlayer player = new AvrcpPlayer.Builder().setDevice(mTestDevice).setPlayerId(1)
+                .setName("Music").build();
+        browseTree.mRootNode.addChildren(Arrays.asList(player));
+        BrowseNode playerNode = browseTree.mRootNode.getChild(0);
+        playerNode.addChildren(Arrays.asList(new AvrcpItem.Builder()
+                .setUuid(TEST_NODE_ID).setUid(5).setDisplayableName("Albums")
+                .setBrowsable(true).build()));
+        BrowseNode folderNode = playerNode.getChild(0);
+
+        assertThat(browseTree.getFolderPath(playerNode)).isEqualTo("PLAYER1:Music");
+        assertThat(browseTree.getFolderPath(folderNode)).isEqualTo("PLAYER1:Music/5:Albums");
+        assertThat(browseTree.getFolderPath(browseTree.mRootNode)).isNull();
+        assertThat(browseTree.getFolderPath(browseTree.mNowPlayingNode)).isNull();
+    }
+
     @Test
     public void toString_returnsSizeInfo() {
         BrowseTree browseTree = new BrowseTree(mTestDevice);
@@ -68,6 +68,7 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.csip.GroupMembershipIndex;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -120,6 +121,7 @@ public class BassClientServiceTest {
     private static final String TEST_PROGRAM_INFO = "Test";
     // German language code in ISO 639-3
     private static final String TEST_LANGUAGE = "deu";
+    private static final int TEST_GROUP_ID = 2;
     private static final int TEST_SOURCE_ID = 10;
     private static final int TEST_NUM_SOURCES = 2;
 
@@ -406,14 +408,12 @@ public class BassClientServiceTest {
         mIntentQueue.put(mCurrentDevice, new LinkedBlockingQueue<>());
         mIntentQueue.put(mCurrentDevice1, new LinkedBlockingQueue<>());
 
-        // Mock the CSIP group
-        List<BluetoothDevice> groupDevices = new ArrayList<>();
-        groupDevices.add(mCurrentDevice);
-        groupDevices.add(mCurrentDevice1);
-        doReturn(groupDevices).when(mCsipService)
-                .getGroupDevicesOrdered(mCurrentDevice, BluetoothUuid.CAP);
-        doReturn(groupDevices).when(mCsipService)
-                .getGroupDevicesOrdered(mCurrentDevice1, BluetoothUuid.CAP);
+        // Prepare the CSIP group
+        GroupMembershipIndex index = new GroupMembershipIndex();
+        index.setGroupUuid(TEST_GROUP_ID, BluetoothUuid.CAP);
+        index.addMember(mCurrentDevice, TEST_GROUP_ID, 1);
+        index.addMember(mCurrentDevice1, TEST_GROUP_ID, 2);
+        doReturn(index).when(mCsipService).getGroupMembershipIndex();
 
         // Prepare connected devices
         assertThat(mBassClientService.connect(mCurrentDevice)).isTrue();
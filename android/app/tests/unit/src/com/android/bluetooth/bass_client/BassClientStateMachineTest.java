@@ -46,11 +46,13 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -485,6 +487,41 @@ public class BassClientStateMachineTest {
         verify(mBassClientService).updateBase(anyInt(), any());
     }
 
+    @Test
+    public void parseBaseData_unchangedBase_parsedOnce() {
+        byte[] serviceData = new byte[] {
+                // LEVEL 1
+                (byte) 0x01, (byte) 0x02, (byte) 0x03, // presentationDelay
+                (byte) 0x01,  // numSubGroups
+                // LEVEL 2
+                (byte) 0x01,  // numSubGroups
+                (byte) 0xFE,  // UNKNOWN_CODEC
+                (byte) 0x02,  // codecConfigLength
+                (byte) 0x01, (byte) 'A', // codecConfigInfo
+                (byte) 0x03,  // metaDataLength
+                (byte) 0x06, (byte) 0x07, (byte) 0x08,  // metaData
+                // LEVEL 3
+                (byte) 0x04,  // index
+                (byte) 0x03,  // codecConfigLength
+                (byte) 0x02, (byte) 'B', (byte) 'C', // codecConfigInfo
+        };
+        byte[] changedServiceData = serviceData.clone();
+        changedServiceData[0] = 0x04;
+
+        mBassClientStateMachine.parseBaseData(mTestDevice, 1, serviceData);
+        mBassClientStateMachine.parseBaseData(mTestDevice, 1, serviceData.clone());
+        verify(mBassClientService, times(1)).updateBase(eq(1), any());
+        assertThat(mBassClientStateMachine.getBaseParseCount()).isEqualTo(1);
+        assertThat(mBassClientStateMachine.getBaseSkipCount()).isEqualTo(1);
+
+        mBassClientStateMachine.parseBaseData(mTestDevice, 1, changedServiceData);
+        mBassClientStateMachine.parseBaseData(mTestDevice, 2, changedServiceData);
+        verify(mBassClientService, times(2)).updateBase(eq(1), any());
+        verify(mBassClientService).updateBase(eq(2), any());
+        assertThat(mBassClientStateMachine.getBaseParseCount()).isEqualTo(3);
+        assertThat(mBassClientStateMachine.getBaseSkipCount()).isEqualTo(1);
+    }
+
     @Test
     public void gattCallbackOnConnectionStateChange_changedToConnected()
             throws InterruptedException {
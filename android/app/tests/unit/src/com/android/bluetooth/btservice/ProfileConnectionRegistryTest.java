@@ -0,0 +1,163 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProfileConnectionRegistryTest {
+    private static final int[] CONNECTED_STATES = new int[] {BluetoothProfile.STATE_CONNECTED};
+
+    private ProfileConnectionRegistry mRegistry;
+    private BluetoothDevice mDevice;
+    private BluetoothDevice mOtherDevice;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mRegistry = new ProfileConnectionRegistry();
+        mDevice = TestUtils.getTestDevice(adapter, 0);
+        mOtherDevice = TestUtils.getTestDevice(adapter, 1);
+    }
+
+    @After
+    public void tearDown() {
+        ProfileConnectionRegistry registry = ProfileConnectionRegistry.getInstance();
+        if (registry != null) {
+            registry.cleanup();
+        }
+    }
+
+    @Test
+    public void onConnectionStateChanged_tracksDevicesNotDisconnected() {
+        mRegistry.onConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTING);
+        mRegistry.onConnectionStateChanged(BluetoothProfile.A2DP, mOtherDevice,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTING);
+        mRegistry.onConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED);
+
+        assertThat(mRegistry.getDevices(BluetoothProfile.A2DP))
+                .containsExactly(mDevice, mOtherDevice);
+        assertThat(mRegistry.getDevices(BluetoothProfile.HEADSET)).isEmpty();
+    }
+
+    @Test
+    public void onConnectionStateChanged_disconnected_deviceRemoved() {
+        mRegistry.onConnectionStateChanged(BluetoothProfile.HEADSET, mDevice,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED);
+        mRegistry.onConnectionStateChanged(BluetoothProfile.HEADSET, mDevice,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.STATE_DISCONNECTED);
+
+        assertThat(mRegistry.getDevices(BluetoothProfile.HEADSET)).isEmpty();
+    }
+
+    @Test
+    public void getBondedDevicesMatchingConnectionStates_filtersBondedSupportedDevices() {
+        mRegistry.onConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED);
+        mRegistry.onConnectionStateChanged(BluetoothProfile.A2DP, mOtherDevice,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED);
+        BluetoothDevice[] bondedDevices = new BluetoothDevice[] {mDevice};
+
+        assertThat(ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(mRegistry,
+                BluetoothProfile.A2DP, bondedDevices, CONNECTED_STATES, device -> true,
+                device -> BluetoothProfile.STATE_CONNECTED)).containsExactly(mDevice);
+        assertThat(ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(mRegistry,
+                BluetoothProfile.A2DP, bondedDevices, CONNECTED_STATES, device -> false,
+                device -> BluetoothProfile.STATE_CONNECTED)).isEmpty();
+    }
+
+    @Test
+    public void getBondedDevicesMatchingConnectionStates_readsStateFromService() {
+        // The state machine moved on, the registry has not been told yet
+        mRegistry.onConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTING);
+        BluetoothDevice[] bondedDevices = new BluetoothDevice[] {mDevice};
+
+        assertThat(ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(mRegistry,
+                BluetoothProfile.A2DP, bondedDevices, CONNECTED_STATES, device -> true,
+                device -> BluetoothProfile.STATE_CONNECTED)).containsExactly(mDevice);
+        assertThat(ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(mRegistry,
+                BluetoothProfile.A2DP, bondedDevices,
+                new int[] {BluetoothProfile.STATE_CONNECTING}, device -> true,
+                device -> BluetoothProfile.STATE_CONNECTED)).isEmpty();
+    }
+
+    @Test
+    public void getBondedDevicesMatchingConnectionStates_disconnected_checksBondedDevices() {
+        mRegistry.onConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED);
+        BluetoothDevice[] bondedDevices = new BluetoothDevice[] {mDevice, mOtherDevice};
+
+        assertThat(ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(mRegistry,
+                BluetoothProfile.A2DP, bondedDevices,
+                new int[] {BluetoothProfile.STATE_DISCONNECTED}, device -> true,
+                device -> device.equals(mDevice) ? BluetoothProfile.STATE_CONNECTED
+                        : BluetoothProfile.STATE_DISCONNECTED))
+                .containsExactly(mOtherDevice);
+    }
+
+    @Test
+    public void getBondedDevicesMatchingConnectionStates_noRegistry_checksBondedDevices() {
+        BluetoothDevice[] bondedDevices = new BluetoothDevice[] {mDevice, mOtherDevice};
+
+        assertThat(ProfileConnectionRegistry.getBondedDevicesMatchingConnectionStates(null,
+                BluetoothProfile.A2DP, bondedDevices, CONNECTED_STATES, device -> true,
+                device -> device.equals(mOtherDevice) ? BluetoothProfile.STATE_CONNECTED
+                        : BluetoothProfile.STATE_DISCONNECTED))
+                .containsExactly(mOtherDevice);
+    }
+
+    @Test
+    public void clearProfile() {
+        mRegistry.onConnectionStateChanged(BluetoothProfile.LE_AUDIO, mDevice,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED);
+
+        mRegistry.clearProfile(BluetoothProfile.LE_AUDIO);
+
+        assertThat(mRegistry.getDevices(BluetoothProfile.LE_AUDIO)).isEmpty();
+    }
+
+    @Test
+    public void initAndCleanup() {
+        ProfileConnectionRegistry registry = ProfileConnectionRegistry.init();
+        assertThat(ProfileConnectionRegistry.getInstance()).isSameInstanceAs(registry);
+        registry.onConnectionStateChanged(BluetoothProfile.A2DP, mDevice,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_CONNECTED);
+
+        registry.cleanup();
+
+        assertThat(ProfileConnectionRegistry.getInstance()).isNull();
+        assertThat(registry.getDevices(BluetoothProfile.A2DP)).isEmpty();
+    }
+}
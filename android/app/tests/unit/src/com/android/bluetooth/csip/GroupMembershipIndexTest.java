@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.csip;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.IBluetoothCsipSetCoordinator;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GroupMembershipIndexTest {
+    private static final int GROUP_ID = 0x01;
+    private static final int OTHER_GROUP_ID = 0x02;
+
+    private BluetoothDevice mDevice1;
+    private BluetoothDevice mDevice2;
+    private BluetoothDevice mDevice3;
+    private GroupMembershipIndex mIndex;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mDevice1 = adapter.getRemoteDevice("00:01:02:03:04:05");
+        mDevice2 = adapter.getRemoteDevice("00:01:02:03:04:06");
+        mDevice3 = adapter.getRemoteDevice("00:01:02:03:04:07");
+        mIndex = new GroupMembershipIndex();
+    }
+
+    @Test
+    public void addMember_membersOrderedByRank() {
+        mIndex.addMember(mDevice1, GROUP_ID, 2);
+        mIndex.addMember(mDevice2, GROUP_ID, 1);
+        mIndex.addMember(mDevice3, GROUP_ID, 2);
+
+        assertThat(mIndex.getMembers(GROUP_ID))
+                .containsExactly(mDevice2, mDevice1, mDevice3).inOrder();
+        assertThat(mIndex.getMembers(OTHER_GROUP_ID)).isEmpty();
+    }
+
+    @Test
+    public void addMember_deviceInSeveralGroups_groupsOfDeviceIndexed() {
+        mIndex.setGroupUuid(GROUP_ID, BluetoothUuid.CAP);
+        mIndex.setGroupUuid(OTHER_GROUP_ID, BluetoothUuid.COORDINATED_SET);
+        mIndex.addMember(mDevice1, GROUP_ID, 1);
+        mIndex.addMember(mDevice1, OTHER_GROUP_ID, 3);
+
+        assertThat(mIndex.getGroups(mDevice1)).containsExactly(GROUP_ID, 1, OTHER_GROUP_ID, 3);
+        assertThat(mIndex.getGroupId(mDevice1, BluetoothUuid.CAP)).isEqualTo(GROUP_ID);
+        assertThat(mIndex.getGroupId(mDevice2, BluetoothUuid.CAP))
+                .isEqualTo(IBluetoothCsipSetCoordinator.CSIS_GROUP_ID_INVALID);
+        assertThat(mIndex.getGroupIds(BluetoothUuid.CAP)).containsExactly(GROUP_ID);
+    }
+
+    @Test
+    public void removeDevice_removedFromAllGroups_groupsStayKnown() {
+        mIndex.setGroupUuid(GROUP_ID, BluetoothUuid.CAP);
+        mIndex.addMember(mDevice1, GROUP_ID, 1);
+        mIndex.addMember(mDevice2, GROUP_ID, 2);
+        mIndex.addMember(mDevice1, OTHER_GROUP_ID, 1);
+
+        mIndex.removeDevice(mDevice1);
+
+        assertThat(mIndex.getMembers(GROUP_ID)).containsExactly(mDevice2);
+        assertThat(mIndex.getMembers(OTHER_GROUP_ID)).isEmpty();
+        assertThat(mIndex.getGroups(mDevice1)).isEmpty();
+        assertThat(mIndex.hasGroup(GROUP_ID)).isTrue();
+    }
+
+    @Test
+    public void registerListener_membersChanged_listenerNotified() {
+        GroupMembershipIndex.Listener listener = mock(GroupMembershipIndex.Listener.class);
+        mIndex.registerListener(Runnable::run, listener);
+
+        mIndex.addMember(mDevice1, GROUP_ID, 1);
+        verify(listener).onGroupMembersChanged(GROUP_ID, Arrays.asList(mDevice1));
+        mIndex.addMember(mDevice2, GROUP_ID, 2);
+        verify(listener).onGroupMembersChanged(GROUP_ID, Arrays.asList(mDevice1, mDevice2));
+        mIndex.removeMember(mDevice1, GROUP_ID);
+        verify(listener).onGroupMembersChanged(GROUP_ID, Arrays.asList(mDevice2));
+
+        mIndex.unregisterListener(listener);
+        mIndex.removeMember(mDevice2, GROUP_ID);
+        verify(listener, never()).onGroupMembersChanged(GROUP_ID, Arrays.asList());
+    }
+
+    @Test
+    public void addMember_sameRankAgain_listenerNotNotified() {
+        mIndex.addMember(mDevice1, GROUP_ID, 1);
+        GroupMembershipIndex.Listener listener = mock(GroupMembershipIndex.Listener.class);
+        mIndex.registerListener(Runnable::run, listener);
+
+        mIndex.addMember(mDevice1, GROUP_ID, 1);
+
+        verify(listener, never()).onGroupMembersChanged(anyInt(), anyList());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.os.SystemClock;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link AdvertiseDataCache}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AdvertiseDataCacheTest {
+    private static final byte[] PAYLOAD_A = new byte[] {0x02, 0x01, 0x06};
+    private static final byte[] PAYLOAD_B = new byte[] {0x02, 0x01, 0x1a};
+    private static final byte[] PAYLOAD_C = new byte[] {0x03, 0x03, 0x0f, 0x18};
+    private static final long SHORT_TIMEOUT_MS = 200;
+
+    @Test
+    public void update_samePayload_unchanged() {
+        AdvertiseDataCache cache = new AdvertiseDataCache(PAYLOAD_A);
+
+        assertThat(cache.update(new byte[] {0x02, 0x01, 0x06}))
+                .isEqualTo(AdvertiseDataCache.UPDATE_UNCHANGED);
+        assertThat(cache.update(PAYLOAD_B)).isEqualTo(AdvertiseDataCache.UPDATE_SEND);
+    }
+
+    @Test
+    public void update_whileInFlight_latestSentOnCompletion() {
+        AdvertiseDataCache cache = new AdvertiseDataCache(PAYLOAD_A);
+
+        assertThat(cache.update(PAYLOAD_B)).isEqualTo(AdvertiseDataCache.UPDATE_SEND);
+        assertThat(cache.update(PAYLOAD_B)).isEqualTo(AdvertiseDataCache.UPDATE_MERGED);
+        assertThat(cache.update(PAYLOAD_A)).isEqualTo(AdvertiseDataCache.UPDATE_QUEUED);
+        assertThat(cache.update(PAYLOAD_C)).isEqualTo(AdvertiseDataCache.UPDATE_COALESCED);
+
+        AdvertiseDataCache.Completion completion =
+                cache.onUpdateComplete(AdvertiseCallback.ADVERTISE_SUCCESS);
+        assertThat(completion.mUpdates).isEqualTo(2);
+        assertThat(completion.mNext).isEqualTo(PAYLOAD_C);
+        completion = cache.onUpdateComplete(AdvertiseCallback.ADVERTISE_SUCCESS);
+        assertThat(completion.mUpdates).isEqualTo(2);
+        assertThat(completion.mNext).isNull();
+
+        assertThat(cache.update(PAYLOAD_C)).isEqualTo(AdvertiseDataCache.UPDATE_UNCHANGED);
+    }
+
+    @Test
+    public void update_inFlightTimedOut_queuedPayloadDropped() {
+        AdvertiseDataCache cache = new AdvertiseDataCache(PAYLOAD_A, SHORT_TIMEOUT_MS);
+
+        assertThat(cache.update(PAYLOAD_B)).isEqualTo(AdvertiseDataCache.UPDATE_SEND);
+        assertThat(cache.update(PAYLOAD_A)).isEqualTo(AdvertiseDataCache.UPDATE_QUEUED);
+        SystemClock.sleep(SHORT_TIMEOUT_MS * 2);
+
+        assertThat(cache.update(PAYLOAD_C)).isEqualTo(AdvertiseDataCache.UPDATE_SEND);
+
+        // The new update completes the lost and queued updates, the older queued payload is
+        // never sent
+        AdvertiseDataCache.Completion completion =
+                cache.onUpdateComplete(AdvertiseCallback.ADVERTISE_SUCCESS);
+        assertThat(completion.mUpdates).isEqualTo(3);
+        assertThat(completion.mNext).isNull();
+        assertThat(cache.update(PAYLOAD_C)).isEqualTo(AdvertiseDataCache.UPDATE_UNCHANGED);
+    }
+
+    @Test
+    public void onUpdateComplete_failure_payloadSentAgain() {
+        AdvertiseDataCache cache = new AdvertiseDataCache(PAYLOAD_A);
+
+        cache.update(PAYLOAD_B);
+        assertThat(cache.onUpdateComplete(AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR)
+                .mUpdates).isEqualTo(1);
+
+        assertThat(cache.update(PAYLOAD_B)).isEqualTo(AdvertiseDataCache.UPDATE_SEND);
+    }
+
+    @Test
+    public void onUpdateComplete_nothingInFlight() {
+        AdvertiseDataCache cache = new AdvertiseDataCache(null);
+
+        assertThat(cache.onUpdateComplete(AdvertiseCallback.ADVERTISE_SUCCESS).mUpdates)
+                .isEqualTo(0);
+        assertThat(cache.update(null)).isEqualTo(AdvertiseDataCache.UPDATE_UNCHANGED);
+    }
+}
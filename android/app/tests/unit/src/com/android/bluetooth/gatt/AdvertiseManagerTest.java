@@ -24,6 +24,7 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 
+import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.IAdvertisingSetCallback;
@@ -119,6 +120,18 @@ public class AdvertiseManagerTest {
         verify(mAdvertiserMap).setAdvertisingData(mAdvertiserId, advertiseData);
     }
 
+    @Test
+    public void advertisingData_unchanged_reportedWithoutUpdate() throws Exception {
+        AdvertiseData advertiseData = new AdvertiseData.Builder().build();
+
+        mAdvertiseManager.setAdvertisingData(mAdvertiserId, advertiseData);
+
+        verify(mCallback).onAdvertisingDataSet(mAdvertiserId,
+                AdvertiseCallback.ADVERTISE_SUCCESS);
+        verify(mAdvertiserMap).recordAdvertiseDataUpdate(mAdvertiserId,
+                AdvertiseDataCache.UPDATE_UNCHANGED);
+    }
+
     @Test
     public void scanResponseData() {
         AdvertiseData scanResponse = new AdvertiseData.Builder().build();
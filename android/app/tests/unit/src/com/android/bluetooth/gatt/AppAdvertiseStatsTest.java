@@ -224,6 +224,25 @@ public class AppAdvertiseStatsTest {
         appAdvertiseStats.setPeriodicAdvertisingData(periodicData);
     }
 
+    @Test
+    public void recordDataUpdate() {
+        int appUid = 0;
+        int id = 1;
+        String name = "name";
+
+        AppAdvertiseStats appAdvertiseStats = new AppAdvertiseStats(appUid, id, name, map, service);
+
+        appAdvertiseStats.recordDataUpdate(AdvertiseDataCache.UPDATE_SEND);
+        appAdvertiseStats.recordDataUpdate(AdvertiseDataCache.UPDATE_UNCHANGED);
+        appAdvertiseStats.recordDataUpdate(AdvertiseDataCache.UPDATE_MERGED);
+        appAdvertiseStats.recordDataUpdate(AdvertiseDataCache.UPDATE_QUEUED);
+        appAdvertiseStats.recordDataUpdate(AdvertiseDataCache.UPDATE_COALESCED);
+
+        assertThat(appAdvertiseStats.getDataUpdatesSent()).isEqualTo(1);
+        assertThat(appAdvertiseStats.getDataUpdatesSuppressed()).isEqualTo(2);
+        assertThat(appAdvertiseStats.getDataUpdatesCoalesced()).isEqualTo(1);
+    }
+
     @Test
     public void testDump_doesNotCrash() throws Exception {
         StringBuilder sb = new StringBuilder();
@@ -120,4 +120,36 @@ public class AppScanStatsTest {
 
         appScanStats.dumpToString(stringBuilder);
     }
+
+    @Test
+    public void addResult_countsResultsWithoutLock() throws Exception {
+        AppScanStats appScanStats = new AppScanStats("appName", null, map, mService);
+        ScanSettings settings = new ScanSettings.Builder().build();
+        int scannerId = 1;
+        appScanStats.recordScanStart(settings, new ArrayList<>(), false, true, scannerId);
+
+        Thread[] threads = new Thread[4];
+        // Hold the lock of the stats, as a dump or a scan start would
+        synchronized (appScanStats) {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < 20; j++) {
+                        appScanStats.addResult(scannerId);
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        appScanStats.addResult(scannerId + 1);
+
+        assertThat(appScanStats.getScanFromScannerId(scannerId).results.get()).isEqualTo(80);
+        assertThat(appScanStats.getResultCount()).isEqualTo(81);
+
+        StringBuilder stringBuilder = new StringBuilder();
+        appScanStats.dumpToString(stringBuilder);
+        assertThat(stringBuilder.toString()).contains("80 results");
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link ScanFilterPipeline}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterPipelineTest {
+    private static final int SCANNER_ID = 3;
+    private static final int OTHER_SCANNER_ID = 4;
+
+    private ScanFilterPipeline mPipeline;
+
+    @Before
+    public void setUp() {
+        mPipeline = new ScanFilterPipeline(60000);
+    }
+
+    @Test
+    public void complete_matchesOperationsPerScanner() {
+        mPipeline.issue(SCANNER_ID, ScanFilterPipeline.OP_ENABLE,
+                ScanFilterPipeline.NO_FILTER_INDEX);
+        mPipeline.issue(SCANNER_ID, ScanFilterPipeline.OP_ADD_FILTER, 4);
+        mPipeline.issue(OTHER_SCANNER_ID, ScanFilterPipeline.OP_ADD_FILTER, 5);
+
+        assertThat(mPipeline.complete(SCANNER_ID, 0)).isTrue();
+
+        assertThat(mPipeline.getPendingCount(SCANNER_ID)).isEqualTo(1);
+        assertThat(mPipeline.getPendingCount(OTHER_SCANNER_ID)).isEqualTo(1);
+    }
+
+    @Test
+    public void complete_noPendingOperation_returnsFalse() {
+        assertThat(mPipeline.complete(SCANNER_ID, 0)).isFalse();
+    }
+
+    @Test
+    public void onScanStarted_noOperations_latencyRecorded() {
+        mPipeline.onScanStarting(SCANNER_ID);
+        mPipeline.onScanStarted(SCANNER_ID);
+
+        assertThat(mPipeline.getLatencyPercentile(50)).isAtLeast(0);
+    }
+
+    @Test
+    public void onScanStarted_operationsPending_latencyRecordedOnLastCompletion() {
+        mPipeline.onScanStarting(SCANNER_ID);
+        mPipeline.issue(SCANNER_ID, ScanFilterPipeline.OP_ADD_FILTER, 4);
+        mPipeline.issue(SCANNER_ID, ScanFilterPipeline.OP_ADD_FILTER_PARAMS, 4);
+        mPipeline.onScanStarted(SCANNER_ID);
+
+        mPipeline.complete(SCANNER_ID, 0);
+        assertThat(mPipeline.getLatencyPercentile(50)).isEqualTo(-1);
+
+        mPipeline.complete(SCANNER_ID, 0);
+        assertThat(mPipeline.getLatencyPercentile(50)).isAtLeast(0);
+    }
+
+    @Test
+    public void onScanStopped_latencyNotRecorded() {
+        mPipeline.onScanStarting(SCANNER_ID);
+        mPipeline.issue(SCANNER_ID, ScanFilterPipeline.OP_ADD_FILTER, 4);
+        mPipeline.onScanStarted(SCANNER_ID);
+        mPipeline.onScanStopped(SCANNER_ID);
+
+        mPipeline.complete(SCANNER_ID, 0);
+
+        assertThat(mPipeline.getLatencyPercentile(50)).isEqualTo(-1);
+    }
+
+    @Test
+    public void issue_timedOutOperationsExpired() {
+        mPipeline = new ScanFilterPipeline(-1);
+        mPipeline.issue(SCANNER_ID, ScanFilterPipeline.OP_ADD_FILTER, 4);
+
+        mPipeline.issue(OTHER_SCANNER_ID, ScanFilterPipeline.OP_ADD_FILTER, 5);
+
+        assertThat(mPipeline.getPendingCount(SCANNER_ID)).isEqualTo(0);
+    }
+
+    @Test
+    public void dump() {
+        StringBuilder sb = new StringBuilder();
+        mPipeline.dump(sb);
+
+        assertThat(sb.toString()).contains("Scan start latency");
+    }
+}
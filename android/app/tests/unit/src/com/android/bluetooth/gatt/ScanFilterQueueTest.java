@@ -196,4 +196,28 @@ public class ScanFilterQueueTest {
         int numOfEntries = 7;
         assertThat(queue.toArray().length).isEqualTo(numOfEntries);
     }
+
+    @Test
+    public void getCanonicalKey_sameFilters_sameKey() {
+        ParcelUuid serviceUuid = ParcelUuid.fromString(UUID.randomUUID().toString());
+        ScanFilter filter = new ScanFilter.Builder()
+                .setServiceUuid(serviceUuid)
+                .setManufacturerData(0x00E0, new byte[]{0x01, 0x02})
+                .build();
+        ScanFilterQueue queue = new ScanFilterQueue();
+        queue.addScanFilter(filter);
+        ScanFilterQueue sameQueue = new ScanFilterQueue();
+        sameQueue.addScanFilter(new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[]{0x01, 0x02})
+                .setServiceUuid(serviceUuid)
+                .build());
+        ScanFilterQueue otherQueue = new ScanFilterQueue();
+        otherQueue.addScanFilter(new ScanFilter.Builder()
+                .setServiceUuid(serviceUuid)
+                .setManufacturerData(0x00E0, new byte[]{0x01, 0x03})
+                .build());
+
+        assertThat(queue.getCanonicalKey()).isEqualTo(sameQueue.getCanonicalKey());
+        assertThat(queue.getCanonicalKey()).isNotEqualTo(otherQueue.getCanonicalKey());
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link ScanFilterSlots}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterSlotsTest {
+    private static final String KEY = "key";
+    private static final int FILTER_INDEX = 5;
+
+    @Test
+    public void acquire_unknownKey_returnsNoFilterIndex() {
+        ScanFilterSlots slots = new ScanFilterSlots();
+
+        assertThat(slots.acquire(KEY, 1)).isEqualTo(ScanFilterSlots.NO_FILTER_INDEX);
+    }
+
+    @Test
+    public void acquire_sharedSlot_freedWhenLastReferenceReleased() {
+        ScanFilterSlots slots = new ScanFilterSlots();
+        slots.add(KEY, FILTER_INDEX, 1);
+
+        assertThat(slots.acquire(KEY, 2)).isEqualTo(FILTER_INDEX);
+        assertThat(slots.getSlotCount()).isEqualTo(1);
+        assertThat(slots.getReferenceCount()).isEqualTo(2);
+
+        assertThat(slots.release(1)).isEmpty();
+        assertThat(slots.contains(KEY)).isTrue();
+
+        assertThat(slots.release(2)).containsExactly(FILTER_INDEX);
+        assertThat(slots.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void release_sameKeyTwiceBySameScanner_releasesBothReferences() {
+        ScanFilterSlots slots = new ScanFilterSlots();
+        slots.add(KEY, FILTER_INDEX, 1);
+        slots.acquire(KEY, 1);
+
+        assertThat(slots.release(1)).containsExactly(FILTER_INDEX);
+        assertThat(slots.getReferenceCount()).isEqualTo(0);
+    }
+}
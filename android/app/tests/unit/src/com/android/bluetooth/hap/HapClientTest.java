@@ -24,6 +24,7 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -57,6 +58,7 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.csip.GroupMembershipIndex;
 import com.android.bluetooth.x.com.android.modules.utils.SynchronousResultReceiver;
 
 import org.junit.After;
@@ -75,7 +77,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeoutException;
@@ -86,6 +87,7 @@ public class HapClientTest {
     private final String mFlagDexmarker = System.getProperty("dexmaker.share_classloader", "false");
 
     private static final int TIMEOUT_MS = 1000;
+    private static final int GROUP_OPERATION_TIMEOUT_MS = 10000;
     @Rule
     public final ServiceTestRule mServiceRule = new ServiceTestRule();
     private BluetoothAdapter mAdapter;
@@ -98,6 +100,7 @@ public class HapClientTest {
     private AttributionSource mAttributionSource;
     private HasIntentReceiver mHasIntentReceiver;
     private HashMap<BluetoothDevice, LinkedBlockingQueue<Intent>> mIntentQueue;
+    private GroupMembershipIndex mGroupMembershipIndex;
 
     @Mock
     private AdapterService mAdapterService;
@@ -178,26 +181,14 @@ public class HapClientTest {
                 .onGroupPresetNameSetError(anyInt(), anyInt(), anyInt());
 
         /* Prepare CAS groups */
-        doReturn(Arrays.asList(0x02, 0x03)).when(mCsipService).getAllGroupIds(BluetoothUuid.CAP);
-
-        int groupId2 = 0x02;
-        Map groups2 = new HashMap<Integer, ParcelUuid>();
-        groups2.put(groupId2, ParcelUuid.fromString("00001853-0000-1000-8000-00805F9B34FB"));
-
-        int groupId3 = 0x03;
-        Map groups3 = new HashMap<Integer, ParcelUuid>();
-        groups3.put(groupId3,
-                ParcelUuid.fromString("00001853-0000-1000-8000-00805F9B34FB"));
-
-        doReturn(Arrays.asList(mDevice, mDevice2)).when(mCsipService)
-                        .getGroupDevicesOrdered(groupId2);
-        doReturn(groups2).when(mCsipService).getGroupUuidMapByDevice(mDevice);
-        doReturn(groups2).when(mCsipService).getGroupUuidMapByDevice(mDevice2);
-
-        doReturn(Arrays.asList(mDevice3)).when(mCsipService).getGroupDevicesOrdered(0x03);
-        doReturn(groups3).when(mCsipService).getGroupUuidMapByDevice(mDevice3);
-
-        doReturn(Arrays.asList(mDevice)).when(mCsipService).getGroupDevicesOrdered(0x01);
+        mGroupMembershipIndex = new GroupMembershipIndex();
+        mGroupMembershipIndex.setGroupUuid(0x02, BluetoothUuid.CAP);
+        mGroupMembershipIndex.addMember(mDevice, 0x02, 1);
+        mGroupMembershipIndex.addMember(mDevice2, 0x02, 2);
+        mGroupMembershipIndex.setGroupUuid(0x03, BluetoothUuid.CAP);
+        mGroupMembershipIndex.addMember(mDevice3, 0x03, 1);
+        mGroupMembershipIndex.addMember(mDevice, 0x01, 1);
+        doReturn(mGroupMembershipIndex).when(mCsipService).getGroupMembershipIndex();
 
         doReturn(BluetoothDevice.BOND_BONDED).when(mAdapterService)
                 .getBondState(any(BluetoothDevice.class));
@@ -576,6 +567,29 @@ public class HapClientTest {
                 .groupSelectActivePreset(eq(0x03), eq(0x01));
     }
 
+    /**
+     * Test that a burst of group preset selections only sends the latest one once the selection
+     * in flight completed.
+     */
+    @Test
+    public void testGroupSelectActivePresetBurst() {
+        doReturn(new ParcelUuid[]{BluetoothUuid.HAS}).when(mAdapterService)
+                .getRemoteUuids(any(BluetoothDevice.class));
+        doCallRealMethod().when(mNativeInterface).onActivePresetGroupSelected(anyInt(), anyInt());
+        testConnectingDevice(mDevice3);
+        mService.setGroupOperationTimeout(GROUP_OPERATION_TIMEOUT_MS);
+
+        mService.selectPresetForGroup(0x03, 0x01);
+        mService.selectPresetForGroup(0x03, 0x02);
+        mService.selectPresetForGroup(0x03, 0x01);
+        verify(mNativeInterface, times(1)).groupSelectActivePreset(eq(0x03), eq(0x01));
+
+        mNativeInterface.onActivePresetGroupSelected(0x03, 0x01);
+        verify(mNativeInterface, timeout(TIMEOUT_MS).times(2))
+                .groupSelectActivePreset(eq(0x03), eq(0x01));
+        verify(mNativeInterface, times(0)).groupSelectActivePreset(eq(0x03), eq(0x02));
+    }
+
     /**
      * Test that nextActivePreset properly calls the native method.
      */
@@ -734,7 +748,7 @@ public class HapClientTest {
         doReturn(new ParcelUuid[]{BluetoothUuid.HAS}).when(mAdapterService)
                 .getRemoteUuids(any(BluetoothDevice.class));
         int test_group = 0x02;
-        for (BluetoothDevice device : mCsipService.getGroupDevicesOrdered(test_group)) {
+        for (BluetoothDevice device : mGroupMembershipIndex.getMembers(test_group)) {
             testConnectingDevice(device);
         }
 
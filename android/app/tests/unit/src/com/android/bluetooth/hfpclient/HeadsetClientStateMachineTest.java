@@ -1355,6 +1355,102 @@ public class HeadsetClientStateMachineTest {
                 IsInstanceOf.instanceOf(HeadsetClientStateMachine.Connected.class));
     }
 
+    @Test
+    public void testCallIndicators_callsQueriesCoalesced() {
+        initToConnectedState();
+        doReturn(true).when(mNativeInterface).queryCurrentCalls(any(BluetoothDevice.class));
+        mHeadsetClientStateMachine.mQueuedActions.clear();
+
+        sendCallIndicator(StackEvent.EVENT_TYPE_CALLSETUP);
+        sendCallIndicator(StackEvent.EVENT_TYPE_CLIP);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        // Received while the calls are queried
+        sendCallIndicator(StackEvent.EVENT_TYPE_CALL);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        verify(mNativeInterface).queryCurrentCalls(mTestDevice);
+
+        // The calls are queried again once, after the running query
+        sendCallsQueryResult();
+        verify(mNativeInterface, times(2)).queryCurrentCalls(mTestDevice);
+        sendCallsQueryResult();
+        verify(mNativeInterface, times(2)).queryCurrentCalls(mTestDevice);
+    }
+
+    @Test
+    public void testCallIndicators_noQueryResult_callsQueriedAgain() {
+        initToConnectedState();
+        doReturn(true).when(mNativeInterface).queryCurrentCalls(any(BluetoothDevice.class));
+        mHeadsetClientStateMachine.mQueuedActions.clear();
+        mHeadsetClientStateMachine.mQueryCallsResultTimeoutMs = 0;
+
+        sendCallIndicator(StackEvent.EVENT_TYPE_CALLSETUP);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        // The running query got no result in time, so it doesn't hold back this one
+        sendCallIndicator(StackEvent.EVENT_TYPE_CALL);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+
+        verify(mNativeInterface, times(2)).queryCurrentCalls(mTestDevice);
+        Assert.assertEquals(1, mHeadsetClientStateMachine.mQueuedActions.size());
+    }
+
+    @Test
+    public void testQueryCurrentCalls_callsUnchanged_pollingBacksOff() {
+        when(mMockHfpResources.getInteger(R.integer.hfp_clcc_poll_max_interval_during_call))
+                .thenReturn(8000);
+        initToConnectedState();
+        doReturn(true).when(mNativeInterface).queryCurrentCalls(any(BluetoothDevice.class));
+        mHeadsetClientStateMachine.mQueuedActions.clear();
+        HfpClientCall call = new HfpClientCall(mTestDevice, 1, HfpClientCall.CALL_STATE_ACTIVE,
+                "5551212", false, false, false);
+
+        sendCallIndicator(StackEvent.EVENT_TYPE_CALL);
+        sendCallsQueryResult(call);
+        Assert.assertEquals(2000, mHeadsetClientStateMachine.getQueryCallsIntervalMs());
+
+        mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+        sendCallsQueryResult(call);
+        Assert.assertEquals(4000, mHeadsetClientStateMachine.getQueryCallsIntervalMs());
+
+        mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+        sendCallsQueryResult(call);
+        mHeadsetClientStateMachine.sendMessage(HeadsetClientStateMachine.QUERY_CURRENT_CALLS);
+        sendCallsQueryResult(call);
+        Assert.assertEquals(8000, mHeadsetClientStateMachine.getQueryCallsIntervalMs());
+
+        // A call indicator resets the polling interval
+        sendCallIndicator(StackEvent.EVENT_TYPE_CALLHELD);
+        sendCallsQueryResult(call);
+        Assert.assertEquals(2000, mHeadsetClientStateMachine.getQueryCallsIntervalMs());
+    }
+
+    private void sendCallIndicator(int type) {
+        StackEvent event = new StackEvent(type);
+        event.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+    }
+
+    /**
+     * Send the calls listed by the AG for a calls query, followed by the result of the query
+     */
+    private void sendCallsQueryResult(HfpClientCall... calls) {
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        for (HfpClientCall call : calls) {
+            StackEvent event = new StackEvent(StackEvent.EVENT_TYPE_CURRENT_CALLS);
+            event.valueInt = call.getId();
+            event.valueInt2 = HeadsetClientHalConstants.CALL_DIRECTION_INCOMING;
+            event.valueInt3 = call.getState();
+            event.valueInt4 = HeadsetClientHalConstants.CALL_MPTY_TYPE_SINGLE;
+            event.valueString = call.getNumber();
+            event.device = mTestDevice;
+            mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+        }
+        StackEvent result = new StackEvent(StackEvent.EVENT_TYPE_CMD_RESULT);
+        result.valueInt = AT_OK;
+        result.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, result);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+    }
+
     /**
      * Allow/disallow connection to any device
      *
@@ -18,6 +18,8 @@ package com.android.bluetooth.mapclient;
 
 import static org.mockito.Mockito.*;
 
+import android.util.Log;
+
 import androidx.test.filters.MediumTest;
 import androidx.test.runner.AndroidJUnit4;
 
@@ -25,6 +27,9 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class BmessageTest {
@@ -57,10 +62,74 @@ public class BmessageTest {
             + "BEGIN:BBODY\r\nLENGTH:-1\r\nBEGIN:MSG\r\nThis is a new msg\r\nEND:MSG\r\n"
             + "END:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
 
+    private static final String MESSAGE_HEADER =
+            "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\nFOLDER:null\r\nBEGIN:BENV\r\n"
+            + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+            + "BEGIN:BBODY\r\nCHARSET:UTF-8\r\n";
+    private static final String MESSAGE_FOOTER =
+            "\r\nEND:MSG\r\nEND:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+    // Length of BEGIN:MSG<CRLF> + <CRLF> + END:MSG<CRLF>
+    private static final int MSG_CONTAINER_LEN = 22;
+
     @Test
     public void testNormalMessages() {
         Bmessage message = BmessageParser.createBmessage(SIMPLE_MMS_MESSAGE);
         Assert.assertNotNull(message);
+        Assert.assertEquals("This is a new msg", message.getBodyContent());
+    }
+
+    @Test
+    public void testParseStreamMultiByteContent() {
+        String content = "Caf\u00e9 \u2615\r\nEND:MSG is not the end";
+        byte[] bmsg = createMessage(content,
+                content.getBytes(StandardCharsets.UTF_8).length + MSG_CONTAINER_LEN);
+
+        Bmessage message = BmessageParser.createBmessage(new ByteArrayInputStream(bmsg));
+
+        Assert.assertNotNull(message);
+        Assert.assertEquals(content, message.getBodyContent());
+    }
+
+    @Test
+    public void testParseCharLengthMessage() {
+        String content = "Caf\u00e9 \u2615";
+        byte[] bmsg = createMessage(content, content.length() + MSG_CONTAINER_LEN);
+
+        Bmessage message = BmessageParser.createBmessage(new ByteArrayInputStream(bmsg));
+
+        Assert.assertNotNull(message);
+        Assert.assertEquals(content, message.getBodyContent());
+    }
+
+    /**
+     * Parse a large multipart MMS from a stream, and log the parsing throughput.
+     */
+    @Test
+    public void testParseLargeMultipartMessage() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            content.append("--boundary\r\nContent-Type: text/plain; charset=\"UTF-8\"\r\n")
+                    .append("Content-ID: <part").append(i).append(">\r\n\r\n");
+            for (int j = 0; j < 64; j++) {
+                content.append("Part ").append(i).append(" line ").append(j)
+                        .append(": the quick brown fox jumps over the lazy dog\r\n");
+            }
+        }
+        content.append("--boundary--");
+        String text = content.toString();
+        byte[] bmsg = createMessage(text,
+                text.getBytes(StandardCharsets.UTF_8).length + MSG_CONTAINER_LEN);
+
+        final int iterations = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Bmessage message = BmessageParser.createBmessage(new ByteArrayInputStream(bmsg));
+            Assert.assertNotNull(message);
+            Assert.assertEquals(text.length(), message.getBodyContent().length());
+        }
+        long elapsedNanos = Math.max(1, System.nanoTime() - start);
+        Log.i(TAG, "Parsed " + iterations + " bMessages of " + bmsg.length + " bytes at "
+                + (1000L * bmsg.length * iterations / elapsedNanos) + " MB/s");
     }
 
     @Test
@@ -94,6 +163,11 @@ public class BmessageTest {
         Assert.assertNull(message);
     }
 
+    private static byte[] createMessage(String content, int length) {
+        return (MESSAGE_HEADER + "LENGTH:" + length + "\r\nBEGIN:MSG\r\n" + content
+                + MESSAGE_FOOTER).getBytes(StandardCharsets.UTF_8);
+    }
+
     @Test
     public void setCharset() {
         Bmessage message = new Bmessage();
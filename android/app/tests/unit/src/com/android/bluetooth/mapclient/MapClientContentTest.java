@@ -18,17 +18,22 @@ package com.android.bluetooth.mapclient;
 
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothMapClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -61,6 +66,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -226,6 +232,74 @@ public class MapClientContentTest {
         Assert.assertEquals(0, mMockMmsContentProvider.mContentValues.size());
     }
 
+    /**
+     * Test that the messages of a message listing are inserted once all of them are downloaded,
+     * and that the thread of their recipient is only looked up once.
+     */
+    @Test
+    public void testStoreMessageListingBatched() {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.expectMessages(Arrays.asList(mTestMessage1Handle, mTestMessage2Handle));
+
+        mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp);
+        Assert.assertEquals(0, mMockSmsContentProvider.mContentValues.size());
+
+        mMapClientContent.storeMessage(mTestMessage1, mTestMessage2Handle, mTestMessage1Timestamp);
+        Assert.assertEquals(2, mMockSmsContentProvider.mContentValues.size());
+        verify(mMockContentResolver, times(1)).query(
+                argThat(uri -> "threadID".equals(uri.getLastPathSegment())),
+                any(), any(), any(), any());
+
+        // Inserted messages are tracked by handle
+        mMapClientContent.deleteMessage(mTestMessage2Handle);
+        Assert.assertEquals(1, mMockSmsContentProvider.mContentValues.size());
+    }
+
+    /**
+     * Test that a message of a listing that could not be downloaded doesn't hold back the others.
+     */
+    @Test
+    public void testStoreMessageListingCancelled() {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.expectMessages(Arrays.asList(mTestMessage1Handle, mTestMessage2Handle));
+
+        mMapClientContent.storeMessage(mTestMessage2, mTestMessage1Handle, mTestMessage1Timestamp);
+        Assert.assertEquals(0, mMockMmsContentProvider.mContentValues.size());
+
+        mMapClientContent.cancelExpectedMessage(mTestMessage2Handle);
+        Assert.assertEquals(1, mMockMmsContentProvider.mContentValues.size());
+    }
+
+    /**
+     * Test that a message outside of the listing being downloaded is inserted right away.
+     */
+    @Test
+    public void testStoreMessageOutsideListing() {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.expectMessages(Arrays.asList(mTestMessage1Handle));
+
+        mMapClientContent.storeMessage(mTestMessage1, mTestMessage2Handle, mTestMessage1Timestamp);
+        Assert.assertEquals(1, mMockSmsContentProvider.mContentValues.size());
+    }
+
+    /**
+     * Test that the messages of a failed batch are still inserted one by one.
+     */
+    @Test
+    public void testStoreMessageListingBatchFailed() throws Exception {
+        doThrow(new OperationApplicationException()).when(mMockSmsContentProvider)
+                .applyBatch(any(String.class), argThat(operations -> operations.size() > 1));
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.expectMessages(Arrays.asList(mTestMessage1Handle, mTestMessage2Handle));
+
+        mMapClientContent.storeMessage(mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp);
+        mMapClientContent.storeMessage(mTestMessage1, mTestMessage2Handle, mTestMessage1Timestamp);
+
+        Assert.assertEquals(2, mMockSmsContentProvider.mContentValues.size());
+        mMapClientContent.deleteMessage(mTestMessage2Handle);
+        Assert.assertEquals(1, mMockSmsContentProvider.mContentValues.size());
+    }
+
     /**
      * Test read status changed
      */
@@ -445,5 +519,22 @@ public class MapClientContentTest {
         public int update(Uri uri, ContentValues values, Bundle extras) {
             return 0;
         }
+
+        @Override
+        public ContentProviderResult[] applyBatch(String authority,
+                ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            return applyBatch(operations);
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            return results;
+        }
     }
 }
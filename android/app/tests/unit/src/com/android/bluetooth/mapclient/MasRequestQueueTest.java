@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class MasRequestQueueTest {
+    private MasRequestQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mQueue = new MasRequestQueue();
+    }
+
+    @Test
+    public void poll_ordersByPriorityThenByArrival() {
+        Request prefetch = getMessage("0001");
+        Request setPath = new RequestSetPath("telecom");
+        Request listing = new RequestGetFolderListing(0, 0);
+        Request notified = getMessage("0002");
+
+        mQueue.add(prefetch, MasRequestQueue.PRIORITY_LOW);
+        mQueue.add(setPath, MasRequestQueue.PRIORITY_NORMAL);
+        mQueue.add(listing, MasRequestQueue.PRIORITY_NORMAL);
+        mQueue.add(notified, MasRequestQueue.PRIORITY_HIGH);
+
+        assertThat(mQueue.poll()).isSameInstanceAs(notified);
+        assertThat(mQueue.poll()).isSameInstanceAs(setPath);
+        assertThat(mQueue.poll()).isSameInstanceAs(listing);
+        assertThat(mQueue.poll()).isSameInstanceAs(prefetch);
+        assertThat(mQueue.poll()).isNull();
+    }
+
+    @Test
+    public void add_sameMessage_coalescedAtHigherPriority() {
+        Request prefetch = getMessage("0001");
+        Request other = getMessage("0002");
+
+        assertThat(mQueue.add(prefetch, MasRequestQueue.PRIORITY_LOW)).isTrue();
+        assertThat(mQueue.add(other, MasRequestQueue.PRIORITY_LOW)).isTrue();
+        assertThat(mQueue.add(getMessage("0001"), MasRequestQueue.PRIORITY_HIGH)).isFalse();
+
+        assertThat(mQueue.size()).isEqualTo(2);
+        assertThat(mQueue.getCoalescedCount()).isEqualTo(1);
+        assertThat(mQueue.poll()).isSameInstanceAs(prefetch);
+        assertThat(mQueue.poll()).isSameInstanceAs(other);
+    }
+
+    @Test
+    public void add_sameMessageAfterExecution_queuedAgain() {
+        mQueue.add(getMessage("0001"), MasRequestQueue.PRIORITY_NORMAL);
+        mQueue.poll();
+
+        assertThat(mQueue.add(getMessage("0001"), MasRequestQueue.PRIORITY_NORMAL)).isTrue();
+    }
+
+    @Test
+    public void add_requestsWithoutKey_neverCoalesced() {
+        assertThat(mQueue.add(new RequestSetPath(false), MasRequestQueue.PRIORITY_NORMAL))
+                .isTrue();
+        assertThat(mQueue.add(new RequestSetPath(false), MasRequestQueue.PRIORITY_NORMAL))
+                .isTrue();
+
+        assertThat(mQueue.size()).isEqualTo(2);
+    }
+
+    private static Request getMessage(String handle) {
+        return new RequestGetMessage(handle, MasClient.CharsetType.UTF_8, false);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.FakeObexServer;
+import com.android.obex.ClientOperation;
+import com.android.obex.ClientSession;
+import com.android.obex.HeaderSet;
+import com.android.obex.Operation;
+import com.android.obex.ResponseCodes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppReadAheadSourceTest {
+    private static final String TAG = "BtOppReadAheadSourceTest";
+    private static final int PACKET_SIZE = 1000;
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    private byte[] mContent;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mContent = new byte[10 * PACKET_SIZE + 123];
+        new Random(0).nextBytes(mContent);
+    }
+
+    @After
+    public void tearDown() {
+        if (mFile != null) {
+            mFile.delete();
+        }
+    }
+
+    @Test
+    public void takePacket_returnsFileInFullPackets() throws IOException {
+        BluetoothOppReadAheadSource source = newSource(mContent, mContent.length);
+        source.start();
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        ByteBuffer packet;
+        while ((packet = source.takePacket()) != null) {
+            if (read.size() + PACKET_SIZE <= mContent.length) {
+                assertThat(packet.remaining()).isEqualTo(PACKET_SIZE);
+            }
+            read.write(packet.array(), packet.arrayOffset() + packet.position(),
+                    packet.remaining());
+            source.recyclePacket(packet);
+        }
+        source.close();
+
+        assertThat(read.toByteArray()).isEqualTo(mContent);
+        assertThat(source.takePacket()).isNull();
+    }
+
+    @Test
+    public void takePacket_lengthShorterThanFile_stopsAtLength() throws IOException {
+        BluetoothOppReadAheadSource source = newSource(mContent, PACKET_SIZE + 1);
+        source.start();
+
+        assertThat(source.takePacket().remaining()).isEqualTo(PACKET_SIZE);
+        assertThat(source.takePacket().remaining()).isEqualTo(1);
+        assertThat(source.takePacket()).isNull();
+        source.close();
+    }
+
+    @Test
+    public void takePacket_fileShorterThanLength_errorReportedAfterLastPacket() {
+        BluetoothOppReadAheadSource source = newSource(mContent, mContent.length + 1);
+        source.start();
+
+        assertThrows(EOFException.class, () -> {
+            ByteBuffer packet;
+            while ((packet = source.takePacket()) != null) {
+                source.recyclePacket(packet);
+            }
+        });
+        source.close();
+    }
+
+    @Test
+    public void close_packetsNotRecycled_readerStopped() throws IOException {
+        BluetoothOppReadAheadSource source = newSource(mContent, mContent.length);
+        source.start();
+
+        for (int i = 0; i < BluetoothOppReadAheadSource.READ_AHEAD_PACKETS; i++) {
+            assertThat(source.takePacket()).isNotNull();
+        }
+        // The reader is waiting for a free packet
+        source.close();
+
+        assertThat(source.takePacket()).isNull();
+    }
+
+    /**
+     * Put a large file through a loopback OBEX server, from the read ahead source and from a
+     * buffered stream copy as before, and log the throughput of both.
+     */
+    @Test
+    public void put_loopbackObexServer_throughputLogged() throws IOException {
+        mFile = File.createTempFile("opp", ".bin",
+                InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir());
+        byte[] content = new byte[FILE_SIZE];
+        new Random(0).nextBytes(content);
+        try (OutputStream out = new FileOutputStream(mFile)) {
+            out.write(content);
+        }
+
+        LoopbackObexServer server = new LoopbackObexServer();
+        ClientSession clientSession = new ClientSession(server.mClientObexTransport);
+        clientSession.connect(new HeaderSet());
+
+        long streamCopyMs = put(clientSession, false);
+        assertThat(server.mReceivedBytes).isEqualTo(FILE_SIZE);
+        long readAheadMs = put(clientSession, true);
+        assertThat(server.mReceivedBytes).isEqualTo(FILE_SIZE);
+
+        Log.i(TAG, "Put " + FILE_SIZE + " bytes: stream copy " + throughput(streamCopyMs)
+                + " KB/s, read ahead " + throughput(readAheadMs) + " KB/s");
+        clientSession.disconnect(null);
+    }
+
+    private long put(ClientSession clientSession, boolean readAhead) throws IOException {
+        HeaderSet request = new HeaderSet();
+        request.setHeader(HeaderSet.NAME, mFile.getName());
+        request.setHeader(HeaderSet.LENGTH, (long) FILE_SIZE);
+        long start = SystemClock.elapsedRealtime();
+        try (FileInputStream in = new FileInputStream(mFile)) {
+            ClientOperation putOperation = (ClientOperation) clientSession.put(request);
+            int packetSize = putOperation.getMaxPacketSize();
+            OutputStream out = putOperation.openOutputStream();
+            if (readAhead) {
+                BluetoothOppReadAheadSource source =
+                        new BluetoothOppReadAheadSource(in, FILE_SIZE, packetSize);
+                source.start();
+                ByteBuffer packet;
+                while ((packet = source.takePacket()) != null) {
+                    out.write(packet.array(), packet.arrayOffset() + packet.position(),
+                            packet.remaining());
+                    source.recyclePacket(packet);
+                }
+                source.close();
+            } else {
+                InputStream bufferedIn = new BufferedInputStream(in, 0x4000);
+                byte[] buffer = new byte[packetSize];
+                int readLength;
+                while ((readLength = bufferedIn.read(buffer, 0, packetSize)) > 0) {
+                    out.write(buffer, 0, readLength);
+                }
+            }
+            out.close();
+            assertThat(putOperation.getResponseCode()).isEqualTo(ResponseCodes.OBEX_HTTP_OK);
+            putOperation.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static long throughput(long durationMs) {
+        return FILE_SIZE / 1024 * 1000 / Math.max(1, durationMs);
+    }
+
+    private BluetoothOppReadAheadSource newSource(byte[] content, long length) {
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(content));
+        return new BluetoothOppReadAheadSource(channel, length, PACKET_SIZE,
+                BluetoothOppReadAheadSource.READ_AHEAD_PACKETS);
+    }
+
+    private static class LoopbackObexServer extends FakeObexServer {
+        volatile long mReceivedBytes;
+
+        LoopbackObexServer() throws IOException {
+            super();
+        }
+
+        @Override
+        public int onGetValidator(Operation op) {
+            return ResponseCodes.OBEX_HTTP_NOT_IMPLEMENTED;
+        }
+
+        @Override
+        public int onPutValidator(Operation op) {
+            long receivedBytes = 0;
+            byte[] buffer = new byte[0x4000];
+            try (InputStream in = op.openInputStream()) {
+                int readLength;
+                while ((readLength = in.read(buffer)) > 0) {
+                    receivedBytes += readLength;
+                }
+            } catch (IOException e) {
+                return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+            }
+            mReceivedBytes = receivedBytes;
+            return ResponseCodes.OBEX_HTTP_OK;
+        }
+
+        @Override
+        public int onSetPathValidator(HeaderSet request, HeaderSet reply, boolean backup,
+                boolean create) {
+            return ResponseCodes.OBEX_HTTP_NOT_IMPLEMENTED;
+        }
+    }
+}
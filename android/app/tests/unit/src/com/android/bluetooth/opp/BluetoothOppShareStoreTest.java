@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.HandlerThread;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppShareStoreTest {
+    private static final int SHARE_ID = 7;
+    private static final long WRITE_TIMEOUT_MS = BluetoothOppShareStore.PROGRESS_WRITE_DELAY_MS * 4;
+    private static final Uri SHARE_URI =
+            ContentUris.withAppendedId(BluetoothShare.CONTENT_URI, SHARE_ID);
+
+    @Mock
+    private BluetoothMethodProxy mMethodProxy;
+    @Mock
+    private Context mContext;
+    @Mock
+    private BluetoothOppShareStore.Listener mListener;
+
+    private HandlerThread mHandlerThread;
+    private BluetoothOppShareStore mShareStore;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mMethodProxy);
+        doReturn(1).when(mMethodProxy).contentResolverUpdate(any(), any(), any(), any(), any());
+
+        mHandlerThread = new HandlerThread("BluetoothOppShareStoreTest");
+        mHandlerThread.start();
+        mShareStore = new BluetoothOppShareStore(mHandlerThread.getLooper());
+        mShareStore.addListener(mListener);
+    }
+
+    @After
+    public void tearDown() {
+        mHandlerThread.quit();
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void updateCurrentBytes_listenersToldAndProviderWrittenOnce() {
+        mShareStore.updateCurrentBytes(mContext, SHARE_ID, 100);
+        mShareStore.updateCurrentBytes(mContext, SHARE_ID, 200);
+        mShareStore.updateCurrentBytes(mContext, SHARE_ID, 300);
+
+        verify(mListener).onShareChanged(eq(SHARE_ID),
+                argThat(values -> values.getAsLong(BluetoothShare.CURRENT_BYTES) == 300));
+        verify(mListener, times(3)).onShareChanged(eq(SHARE_ID), any(ContentValues.class));
+        assertThat(mShareStore.getCurrentBytes(SHARE_ID, 0)).isEqualTo(300);
+
+        verify(mMethodProxy, timeout(WRITE_TIMEOUT_MS)).contentResolverUpdate(any(),
+                eq(SHARE_URI),
+                argThat(values -> values.getAsLong(BluetoothShare.CURRENT_BYTES) == 300),
+                isNull(), isNull());
+        verify(mMethodProxy, after(WRITE_TIMEOUT_MS).times(1)).contentResolverUpdate(any(),
+                any(), any(), any(), any());
+    }
+
+    @Test
+    public void isProgressChange_matchesEachProgressWrite() {
+        mShareStore.updateCurrentBytes(mContext, SHARE_ID, 100);
+        verify(mMethodProxy, timeout(WRITE_TIMEOUT_MS)).contentResolverUpdate(any(),
+                eq(SHARE_URI), any(), any(), any());
+
+        assertThat(mShareStore.isProgressChange(SHARE_URI)).isTrue();
+        assertThat(mShareStore.isProgressChange(SHARE_URI)).isFalse();
+        assertThat(mShareStore.isProgressChange(BluetoothShare.CONTENT_URI)).isFalse();
+        assertThat(mShareStore.isProgressChange(null)).isFalse();
+    }
+
+    @Test
+    public void onStatusChanged_completed_progressFlushedAndForgotten() {
+        mShareStore.updateCurrentBytes(mContext, SHARE_ID, 100);
+
+        mShareStore.onStatusChanged(SHARE_ID, BluetoothShare.STATUS_SUCCESS);
+
+        verify(mMethodProxy).contentResolverUpdate(any(), eq(SHARE_URI),
+                argThat(values -> values.getAsLong(BluetoothShare.CURRENT_BYTES) == 100),
+                isNull(), isNull());
+        assertThat(mShareStore.getCurrentBytes(SHARE_ID, -1)).isEqualTo(-1);
+        assertThat(mShareStore.isProgressChange(SHARE_URI)).isFalse();
+    }
+
+    @Test
+    public void release_pendingProgressWrittenAndForgotten() {
+        mShareStore.updateCurrentBytes(mContext, SHARE_ID, 100);
+
+        mShareStore.release();
+
+        verify(mMethodProxy).contentResolverUpdate(any(), eq(SHARE_URI),
+                argThat(values -> values.getAsLong(BluetoothShare.CURRENT_BYTES) == 100),
+                isNull(), isNull());
+        assertThat(mShareStore.getCurrentBytes(SHARE_ID, -1)).isEqualTo(-1);
+        assertThat(mShareStore.isProgressChange(SHARE_URI)).isFalse();
+        verify(mMethodProxy, after(WRITE_TIMEOUT_MS).times(1)).contentResolverUpdate(any(),
+                any(), any(), any(), any());
+    }
+
+    @Test
+    public void onStatusChanged_noProgress_providerNotWritten() {
+        mShareStore.onStatusChanged(SHARE_ID, BluetoothShare.STATUS_RUNNING);
+
+        verify(mMethodProxy, never()).contentResolverUpdate(any(), any(), any(), any(), any());
+        assertThat(mShareStore.isProgressChange(SHARE_URI)).isFalse();
+    }
+}
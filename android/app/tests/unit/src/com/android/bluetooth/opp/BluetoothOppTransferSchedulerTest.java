@@ -0,0 +1,138 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppTransferSchedulerTest {
+    private static final String ADDRESS_1 = "00:11:22:33:44:01";
+    private static final String ADDRESS_2 = "00:11:22:33:44:02";
+    private static final String ADDRESS_3 = "00:11:22:33:44:03";
+
+    private Context mContext;
+    private BluetoothOppTransferScheduler mScheduler;
+    private final Set<BluetoothOppBatch> mStarted = new HashSet<>();
+    private int mNextId = 0;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getContext();
+        mScheduler = new BluetoothOppTransferScheduler(2);
+    }
+
+    @Test
+    public void constructor_maxOutboundTransfersAtLeastOne() {
+        assertThat(new BluetoothOppTransferScheduler(0).getMaxOutboundTransfers()).isEqualTo(1);
+        assertThat(mScheduler.getMaxOutboundTransfers()).isEqualTo(2);
+    }
+
+    @Test
+    public void getBatchesToStart_differentDevices_startedUpToMax() {
+        BluetoothOppBatch batch1 = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_1);
+        BluetoothOppBatch batch2 = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_2);
+        BluetoothOppBatch batch3 = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_3);
+
+        assertThat(getBatchesToStart(List.of(batch1, batch2, batch3), true))
+                .containsExactly(batch1, batch2).inOrder();
+
+        mStarted.add(batch1);
+        mStarted.add(batch2);
+        assertThat(getBatchesToStart(List.of(batch1, batch2, batch3), true)).isEmpty();
+        assertThat(getBatchesToStart(List.of(batch2, batch3), true)).containsExactly(batch3);
+    }
+
+    @Test
+    public void getBatchesToStart_sameDevice_startedOneAfterTheOther() {
+        BluetoothOppBatch batch1 = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_1);
+        BluetoothOppBatch batch2 = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_1);
+        BluetoothOppBatch batch3 = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_2);
+
+        assertThat(getBatchesToStart(List.of(batch1, batch2, batch3), true))
+                .containsExactly(batch1, batch3).inOrder();
+
+        mStarted.add(batch1);
+        mStarted.add(batch3);
+        assertThat(getBatchesToStart(List.of(batch1, batch2, batch3), true)).isEmpty();
+        assertThat(getBatchesToStart(List.of(batch2, batch3), true)).containsExactly(batch2);
+    }
+
+    @Test
+    public void getBatchesToStart_inbound_startedAlone() {
+        BluetoothOppBatch outbound = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_1);
+        BluetoothOppBatch inbound = newBatch(BluetoothShare.DIRECTION_INBOUND, ADDRESS_2);
+        BluetoothOppBatch later = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_3);
+
+        assertThat(getBatchesToStart(List.of(outbound, inbound, later), true))
+                .containsExactly(outbound);
+
+        mStarted.add(outbound);
+        assertThat(getBatchesToStart(List.of(outbound, inbound, later), true)).isEmpty();
+        assertThat(getBatchesToStart(List.of(inbound, later), true)).containsExactly(inbound);
+
+        mStarted.add(inbound);
+        assertThat(getBatchesToStart(List.of(inbound, later), true)).isEmpty();
+    }
+
+    @Test
+    public void getBatchesToStart_inboundWithoutServerSession_skipped() {
+        BluetoothOppBatch inbound = newBatch(BluetoothShare.DIRECTION_INBOUND, ADDRESS_1);
+        BluetoothOppBatch outbound = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_2);
+
+        assertThat(getBatchesToStart(List.of(inbound, outbound), false))
+                .containsExactly(outbound);
+    }
+
+    @Test
+    public void getBatchesToStart_finishedBatchesSkipped() {
+        BluetoothOppBatch finished = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_1);
+        finished.mStatus = Constants.BATCH_STATUS_FINISHED;
+        BluetoothOppBatch failed = newBatch(BluetoothShare.DIRECTION_INBOUND, ADDRESS_2);
+        failed.mStatus = Constants.BATCH_STATUS_FAILED;
+        BluetoothOppBatch pending = newBatch(BluetoothShare.DIRECTION_OUTBOUND, ADDRESS_3);
+
+        assertThat(getBatchesToStart(List.of(finished, failed, pending), true))
+                .containsExactly(pending);
+    }
+
+    private List<BluetoothOppBatch> getBatchesToStart(List<BluetoothOppBatch> batches,
+            boolean canStartInbound) {
+        return mScheduler.getBatchesToStart(batches, mStarted::contains, canStartInbound);
+    }
+
+    private BluetoothOppBatch newBatch(int direction, String address) {
+        int id = mNextId++;
+        BluetoothOppShareInfo info = new BluetoothOppShareInfo(id, null, null, null, null,
+                direction, address, 0, 0, BluetoothShare.STATUS_PENDING, 0, 0, id, false);
+        return new BluetoothOppBatch(mContext, info);
+    }
+}
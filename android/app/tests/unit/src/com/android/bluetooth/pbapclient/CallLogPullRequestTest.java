@@ -22,6 +22,8 @@ import static org.mockito.Mockito.mock;
 
 import android.accounts.Account;
 import android.content.Context;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.platform.app.InstrumentationRegistry;
@@ -38,6 +40,7 @@ import org.junit.runner.RunWith;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -156,6 +159,22 @@ public class CallLogPullRequestTest {
         }
     }
 
+    @Test
+    public void getContactCounters_matchesNumbersLoosely() {
+        MatrixCursor phones = new MatrixCursor(new String[] {Phone.CONTACT_ID, Phone.NUMBER});
+        phones.addRow(new Object[] {1L, "+1 650-555-0100"});
+        phones.addRow(new Object[] {1L, "650-555-0101"});
+        phones.addRow(new Object[] {2L, "650-555-0102"});
+        HashMap<String, Integer> callCounter = new HashMap<>();
+        callCounter.put("6505550100", 2);
+        callCounter.put("+16505550101", 3);
+        callCounter.put("6505550199", 4);
+
+        Map<Long, Integer> counters = CallLogPullRequest.getContactCounters(phones, callCounter);
+
+        assertThat(counters).containsExactly(1L, 5);
+    }
+
     private VCardProperty createProperty(String name, String value) {
         VCardProperty property = new VCardProperty();
         property.setName(name);
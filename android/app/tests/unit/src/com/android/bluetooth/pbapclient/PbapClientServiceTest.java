@@ -57,10 +57,14 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class PbapClientServiceTest {
     private static final String REMOTE_DEVICE_ADDRESS = "00:00:00:00:00:00";
+    private static final long CONTACTS_RETENTION_MS = 5 * 60 * 1000;
 
     private PbapClientService mService = null;
     private BluetoothAdapter mAdapter = null;
@@ -126,6 +130,49 @@ public class PbapClientServiceTest {
         verify(sm).dump(builder);
     }
 
+    @Test
+    public void retainContacts_reconnect_contactsClaimedOnce() {
+        mService.mContactsRetentionMs = CONTACTS_RETENTION_MS;
+        Map<String, PbapClientConnectionHandler.PhonebookSyncState> syncStates = new HashMap<>();
+        syncStates.put(PbapClientConnectionHandler.PB_PATH,
+                new PbapClientConnectionHandler.PhonebookSyncState(null, null, new HashMap<>()));
+
+        assertThat(mService.retainContacts(mRemoteDevice, syncStates)).isTrue();
+
+        assertThat(mService.claimRetainedContacts(mRemoteDevice)).isSameInstanceAs(syncStates);
+        assertThat(mService.claimRetainedContacts(mRemoteDevice)).isNull();
+    }
+
+    @Test
+    public void removeRetainedContacts_contactsNotClaimable() {
+        mService.mContactsRetentionMs = CONTACTS_RETENTION_MS;
+        Map<String, PbapClientConnectionHandler.PhonebookSyncState> syncStates = new HashMap<>();
+        syncStates.put(PbapClientConnectionHandler.PB_PATH,
+                new PbapClientConnectionHandler.PhonebookSyncState(null, null, new HashMap<>()));
+        mService.retainContacts(mRemoteDevice, syncStates);
+
+        mService.removeRetainedContacts(mRemoteDevice);
+
+        assertThat(mService.claimRetainedContacts(mRemoteDevice)).isNull();
+    }
+
+    @Test
+    public void retainContacts_retentionOffByDefault_notKept() {
+        Map<String, PbapClientConnectionHandler.PhonebookSyncState> syncStates = new HashMap<>();
+        syncStates.put(PbapClientConnectionHandler.PB_PATH,
+                new PbapClientConnectionHandler.PhonebookSyncState(null, null, new HashMap<>()));
+
+        assertThat(mService.retainContacts(mRemoteDevice, syncStates)).isFalse();
+        assertThat(mService.claimRetainedContacts(mRemoteDevice)).isNull();
+    }
+
+    @Test
+    public void retainContacts_nothingSynced_notKept() {
+        mService.mContactsRetentionMs = CONTACTS_RETENTION_MS;
+        assertThat(mService.retainContacts(mRemoteDevice, new HashMap<>())).isFalse();
+        assertThat(mService.claimRetainedContacts(mRemoteDevice)).isNull();
+    }
+
     @Test
     public void testSetConnectionPolicy_withNullDevice_throwsIAE() {
         assertThrows(IllegalArgumentException.class, () -> mService.setConnectionPolicy(
@@ -35,8 +35,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -74,6 +78,40 @@ public class PhonebookPullRequestTest {
         assertThat(mRequest.complete).isTrue();
     }
 
+    @Test
+    public void hash_sameContent_sameHash() {
+        assertThat(PhonebookPullRequest.hash(createEntry(3)))
+                .isEqualTo(PhonebookPullRequest.hash(createEntry(3)));
+        assertThat(PhonebookPullRequest.hash(createEntry(3)))
+                .isNotEqualTo(PhonebookPullRequest.hash(createEntry(4)));
+    }
+
+    @Test
+    public void hash_differentPhotosOfSameSize_differentHash() {
+        String hash = PhonebookPullRequest.hash(createEntryWithPhoto(new byte[] {1, 2, 3}));
+        assertThat(PhonebookPullRequest.hash(createEntryWithPhoto(new byte[] {1, 2, 4})))
+                .isNotEqualTo(hash);
+    }
+
+    @Test
+    public void onEntryCreated_unchangedContact_notInserted() {
+        VCardEntry entry = createEntry(3);
+        long rawContactId = 42;
+        Map<String, Deque<Long>> previousContacts = new HashMap<>();
+        previousContacts.put(PhonebookPullRequest.hash(entry),
+                new ArrayDeque<>(List.of(rawContactId)));
+        mRequest = new PhonebookPullRequest(mTargetContext, mock(Account.class),
+                PbapClientConnectionHandler.PB_PATH, previousContacts);
+
+        mRequest.onEntryCreated(entry);
+        mRequest.onEnd();
+
+        assertThat(mRequest.getUnchangedCount()).isEqualTo(1);
+        assertThat(mRequest.getInsertedCount()).isEqualTo(0);
+        assertThat(mRequest.getSyncedContacts().get(PhonebookPullRequest.hash(entry)))
+                .containsExactly(rawContactId);
+    }
+
     private VCardProperty createProperty(String name, String value) {
         VCardProperty property = new VCardProperty();
         property.setName(name);
@@ -81,6 +119,15 @@ public class PhonebookPullRequestTest {
         return property;
     }
 
+    private VCardEntry createEntryWithPhoto(byte[] photo) {
+        VCardEntry entry = createEntry(1);
+        VCardProperty property = new VCardProperty();
+        property.setName(VCardConstants.PROPERTY_PHOTO);
+        property.setByteValue(photo);
+        entry.addProperty(property);
+        return entry;
+    }
+
     private VCardEntry createEntry(int propertyCount) {
         VCardEntry entry = new VCardEntry();
         for (int i = 0; i < propertyCount; i++) {
@@ -161,6 +161,8 @@ public class BluetoothInCallServiceTest {
         mBluetoothInCallService.setBluetoothLeCallControl(mMockBluetoothLeCallControl);
         mBluetoothInCallService.mCallInfo = mMockCallInfo;
         mBluetoothInCallService.setOnCreateCalled(true);
+        // Update the headset right away, the coalescing of the call events has its own tests
+        mBluetoothInCallService.mCallEventCoalescingWindowMs = 0;
     }
 
     @After
@@ -1066,6 +1068,41 @@ public class BluetoothInCallServiceTest {
                 eq(""), eq(128), nullable(String.class));
     }
 
+    @Test
+    public void testCallEventsCoalesced() throws Exception {
+        mBluetoothInCallService.mCallEventCoalescingWindowMs = 100;
+        BluetoothCall activeCall = createActiveCall();
+        when(activeCall.getState()).thenReturn(Call.STATE_ACTIVE);
+        mBluetoothInCallService.onCallAdded(activeCall);
+        mBluetoothInCallService.getCallback(activeCall)
+                .onStateChanged(activeCall, Call.STATE_ACTIVE);
+
+        verify(mMockBluetoothHeadset, never()).phoneStateChanged(anyInt(), anyInt(), anyInt(),
+                nullable(String.class), anyInt(), nullable(String.class));
+        verify(mMockBluetoothHeadset, timeout(1000)).phoneStateChanged(eq(1), eq(0),
+                eq(CALL_STATE_IDLE), eq(""), eq(128), nullable(String.class));
+        verify(mMockBluetoothHeadset, after(200).times(1)).phoneStateChanged(anyInt(), anyInt(),
+                anyInt(), nullable(String.class), anyInt(), nullable(String.class));
+        Assert.assertEquals(2, mBluetoothInCallService.getCallEventCount());
+        Assert.assertEquals(1, mBluetoothInCallService.getPhoneStateUpdateCount());
+    }
+
+    @Test
+    public void testCallEventsCoalesced_queryPhoneStateSendsPendingUpdate() throws Exception {
+        mBluetoothInCallService.mCallEventCoalescingWindowMs = 100;
+        BluetoothCall activeCall = createActiveCall();
+        when(activeCall.getState()).thenReturn(Call.STATE_ACTIVE);
+        mBluetoothInCallService.onCallAdded(activeCall);
+
+        mBluetoothInCallService.queryPhoneState();
+
+        verify(mMockBluetoothHeadset).phoneStateChanged(eq(1), eq(0), eq(CALL_STATE_IDLE),
+                eq(""), eq(128), nullable(String.class));
+        Assert.assertEquals(1, mBluetoothInCallService.getCallEventCount());
+        verify(mMockBluetoothHeadset, after(200).times(1)).phoneStateChanged(anyInt(), anyInt(),
+                anyInt(), nullable(String.class), anyInt(), nullable(String.class));
+    }
+
     @Test
     public void testOnCallStateChangedDialing() throws Exception {
         BluetoothCall activeCall = createActiveCall();
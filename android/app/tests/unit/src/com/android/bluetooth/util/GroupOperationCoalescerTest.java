@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.HandlerThread;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GroupOperationCoalescerTest {
+    private static final int GROUP_ID = 0x01;
+    private static final int OTHER_GROUP_ID = 0x02;
+    private static final int OPERATION_VOLUME = 0;
+    private static final int OPERATION_MUTE = 1;
+    private static final long LONG_TIMEOUT_MS = 10000;
+    private static final long SHORT_TIMEOUT_MS = 50;
+
+    private HandlerThread mHandlerThread;
+    private GroupOperationCoalescer.Dispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mHandlerThread = new HandlerThread("GroupOperationCoalescerTest");
+        mHandlerThread.start();
+        mDispatcher = mock(GroupOperationCoalescer.Dispatcher.class);
+    }
+
+    @After
+    public void tearDown() {
+        mHandlerThread.quitSafely();
+    }
+
+    @Test
+    public void submit_operationInFlight_latestValueDispatchedOnCompletion() {
+        GroupOperationCoalescer coalescer = newCoalescer(LONG_TIMEOUT_MS);
+
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 10);
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 11);
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 12);
+        coalescer.submit(GROUP_ID, OPERATION_MUTE, 1);
+
+        verify(mDispatcher).dispatch(GROUP_ID, OPERATION_VOLUME, 10);
+        verify(mDispatcher, times(1)).dispatch(anyInt(), anyInt(), anyInt());
+
+        coalescer.onOperationComplete(GROUP_ID);
+        coalescer.onOperationComplete(GROUP_ID);
+        coalescer.onOperationComplete(GROUP_ID);
+
+        InOrder order = inOrder(mDispatcher);
+        order.verify(mDispatcher).dispatch(GROUP_ID, OPERATION_VOLUME, 10);
+        order.verify(mDispatcher).dispatch(GROUP_ID, OPERATION_VOLUME, 12);
+        order.verify(mDispatcher).dispatch(GROUP_ID, OPERATION_MUTE, 1);
+        verify(mDispatcher, never()).dispatch(GROUP_ID, OPERATION_VOLUME, 11);
+    }
+
+    @Test
+    public void submit_otherGroupInFlight_dispatchedRightAway() {
+        GroupOperationCoalescer coalescer = newCoalescer(LONG_TIMEOUT_MS);
+
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 10);
+        coalescer.submit(OTHER_GROUP_ID, OPERATION_VOLUME, 20);
+
+        verify(mDispatcher).dispatch(GROUP_ID, OPERATION_VOLUME, 10);
+        verify(mDispatcher).dispatch(OTHER_GROUP_ID, OPERATION_VOLUME, 20);
+    }
+
+    @Test
+    public void submit_noCompletion_nextDispatchedAfterTimeout() {
+        GroupOperationCoalescer coalescer = newCoalescer(SHORT_TIMEOUT_MS);
+
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 10);
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 11);
+
+        verify(mDispatcher, timeout(LONG_TIMEOUT_MS)).dispatch(GROUP_ID, OPERATION_VOLUME, 11);
+    }
+
+    @Test
+    public void submit_noTimeout_everyOperationDispatched() {
+        GroupOperationCoalescer coalescer = newCoalescer(0);
+
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 10);
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 11);
+
+        verify(mDispatcher).dispatch(GROUP_ID, OPERATION_VOLUME, 10);
+        verify(mDispatcher).dispatch(GROUP_ID, OPERATION_VOLUME, 11);
+    }
+
+    @Test
+    public void isInFlight_untilLastOperationCompleted() {
+        GroupOperationCoalescer coalescer = newCoalescer(LONG_TIMEOUT_MS);
+        assertThat(coalescer.isInFlight(GROUP_ID)).isFalse();
+
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 10);
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 11);
+        assertThat(coalescer.isInFlight(GROUP_ID)).isTrue();
+        assertThat(coalescer.isInFlight(OTHER_GROUP_ID)).isFalse();
+
+        coalescer.onOperationComplete(GROUP_ID);
+        assertThat(coalescer.isInFlight(GROUP_ID)).isTrue();
+        coalescer.onOperationComplete(GROUP_ID);
+        assertThat(coalescer.isInFlight(GROUP_ID)).isFalse();
+    }
+
+    @Test
+    public void clear_pendingOperationsDropped() {
+        GroupOperationCoalescer coalescer = newCoalescer(LONG_TIMEOUT_MS);
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 10);
+        coalescer.submit(GROUP_ID, OPERATION_VOLUME, 11);
+
+        coalescer.clear();
+        coalescer.onOperationComplete(GROUP_ID);
+
+        verify(mDispatcher, never()).dispatch(GROUP_ID, OPERATION_VOLUME, 11);
+    }
+
+    private GroupOperationCoalescer newCoalescer(long timeoutMs) {
+        return new GroupOperationCoalescer("test", mHandlerThread.getLooper(), timeoutMs,
+                mDispatcher);
+    }
+}
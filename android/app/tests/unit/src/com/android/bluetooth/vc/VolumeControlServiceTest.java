@@ -44,6 +44,7 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.csip.CsipSetCoordinatorService;
+import com.android.bluetooth.csip.GroupMembershipIndex;
 import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.x.com.android.modules.utils.SynchronousResultReceiver;
@@ -78,6 +79,7 @@ public class VolumeControlServiceTest {
     private BluetoothDevice mDeviceTwo;
     private HashMap<BluetoothDevice, LinkedBlockingQueue<Intent>> mDeviceQueueMap;
     private static final int TIMEOUT_MS = 1000;
+    private static final int GROUP_OPERATION_TIMEOUT_MS = 10000;
     private static final int BT_LE_AUDIO_MAX_VOL = 255;
     private static final int MEDIA_MIN_VOL = 0;
     private static final int MEDIA_MAX_VOL = 25;
@@ -125,6 +127,8 @@ public class VolumeControlServiceTest {
         mService.mVolumeControlNativeInterface = mNativeInterface;
         mService.mAudioManager = mAudioManager;
         mService.mFactory = mServiceFactory;
+        // Send every group volume change to the native interface right away
+        mService.setGroupOperationTimeout(0);
         mServiceBinder = (VolumeControlService.BluetoothVolumeControlBinder) mService.initBinder();
         mServiceBinder.mIsTesting = true;
 
@@ -959,6 +963,90 @@ public class VolumeControlServiceTest {
         verify(mNativeInterface, times(1)).mute(eq(mDeviceTwo));
     }
 
+    /**
+     * Test that a burst of group volume changes only writes the latest one once the group members
+     * have reported the change in flight, without correcting them meanwhile.
+     */
+    @Test
+    public void testGroupVolumeBurst() throws Exception {
+        int groupId = 1;
+        mService.setGroupOperationTimeout(GROUP_OPERATION_TIMEOUT_MS);
+
+        // Both devices are in the same group
+        GroupMembershipIndex index = new GroupMembershipIndex();
+        index.setGroupUuid(groupId, BluetoothUuid.CAP);
+        index.addMember(mDevice, groupId, 1);
+        index.addMember(mDeviceTwo, groupId, 2);
+        doReturn(index).when(mCsipService).getGroupMembershipIndex();
+        when(mCsipService.getGroupId(mDevice, BluetoothUuid.CAP)).thenReturn(groupId);
+        when(mCsipService.getGroupId(mDeviceTwo, BluetoothUuid.CAP)).thenReturn(groupId);
+        connectDevice(mDevice);
+        connectDevice(mDeviceTwo);
+
+        mService.setGroupVolume(groupId, 10);
+        mService.setGroupVolume(groupId, 20);
+        mService.setGroupVolume(groupId, 30);
+        verify(mNativeInterface, times(1)).setGroupVolume(eq(groupId), eq(10));
+        verify(mNativeInterface, times(0)).setGroupVolume(eq(groupId), eq(30));
+
+        // One member confirming the change in flight doesn't complete it
+        generateVolumeStateChanged(mDevice, groupId, 10, false);
+        verify(mNativeInterface, times(0)).setGroupVolume(eq(groupId), eq(30));
+
+        generateVolumeStateChanged(mDeviceTwo, groupId, 10, false);
+        verify(mNativeInterface, times(1)).setGroupVolume(eq(groupId), eq(30));
+        verify(mNativeInterface, times(0)).setGroupVolume(eq(groupId), eq(20));
+
+        generateVolumeStateChanged(mDevice, groupId, 30, false);
+        generateVolumeStateChanged(mDeviceTwo, groupId, 30, false);
+        verify(mNativeInterface, times(0)).setVolume(any(BluetoothDevice.class), anyInt());
+
+        // Once the group settled, a wrong value is corrected
+        generateVolumeStateChanged(mDevice, groupId, 5, false);
+        verify(mNativeInterface, times(1)).setVolume(eq(mDevice), eq(30));
+    }
+
+    /**
+     * Test setting volume for a connected device whose group is discovered by CSIP after the
+     * volume level for the group was already changed and cached.
+     */
+    @Test
+    public void testGroupMemberFoundAfterConnecting() throws Exception {
+        int groupId = 1;
+        int groupVolume = 56;
+        GroupMembershipIndex index = new GroupMembershipIndex();
+        doReturn(index).when(mCsipService).getGroupMembershipIndex();
+
+        // For now only one device is in the group
+        when(mCsipService.getGroupId(mDevice, BluetoothUuid.CAP)).thenReturn(groupId);
+        when(mCsipService.getGroupId(mDeviceTwo, BluetoothUuid.CAP)).thenReturn(-1);
+
+        // Update the device policy so okToConnect() returns true
+        when(mAdapterService.getDatabase()).thenReturn(mDatabaseManager);
+        when(mDatabaseManager
+                .getProfileConnectionPolicy(any(BluetoothDevice.class),
+                        eq(BluetoothProfile.VOLUME_CONTROL)))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        doReturn(true).when(mNativeInterface).connectVolumeControl(any(BluetoothDevice.class));
+        doReturn(true).when(mNativeInterface).disconnectVolumeControl(any(BluetoothDevice.class));
+
+        generateConnectionMessageFromNative(mDevice, BluetoothProfile.STATE_CONNECTED,
+                BluetoothProfile.STATE_DISCONNECTED);
+        mService.setGroupVolume(groupId, groupVolume);
+        generateConnectionMessageFromNative(mDeviceTwo, BluetoothProfile.STATE_CONNECTED,
+                BluetoothProfile.STATE_DISCONNECTED);
+        verify(mNativeInterface, times(0)).setVolume(eq(mDeviceTwo), eq(groupVolume));
+
+        // CSIP finds the group of the second device once it's connected
+        index.setGroupUuid(groupId, BluetoothUuid.CAP);
+        index.addMember(mDevice, groupId, 1);
+        index.addMember(mDeviceTwo, groupId, 2);
+
+        verify(mNativeInterface, timeout(TIMEOUT_MS).times(1))
+                .setVolume(eq(mDeviceTwo), eq(groupVolume));
+        verify(mNativeInterface, times(0)).setVolume(eq(mDevice), eq(groupVolume));
+    }
+
     @Test
     public void testServiceBinderGetDevicesMatchingConnectionStates() throws Exception {
         final SynchronousResultReceiver<List<BluetoothDevice>> recv =
@@ -1142,6 +1230,18 @@ public class VolumeControlServiceTest {
         }
     }
 
+    private void generateVolumeStateChanged(BluetoothDevice device, int groupId, int volume,
+            boolean mute) {
+        VolumeControlStackEvent stackEvent = new VolumeControlStackEvent(
+                VolumeControlStackEvent.EVENT_TYPE_VOLUME_STATE_CHANGED);
+        stackEvent.device = device;
+        stackEvent.valueInt1 = groupId;
+        stackEvent.valueInt2 = volume;
+        stackEvent.valueBool1 = mute;
+        stackEvent.valueBool2 = false; /* not autonomous */
+        mService.messageFromNative(stackEvent);
+    }
+
     private void generateConnectionMessageFromNative(BluetoothDevice device, int newConnectionState,
             int oldConnectionState) {
         VolumeControlStackEvent stackEvent =